@@ -0,0 +1,101 @@
+package com.zhw.flume.source.tail;
+
+import com.zhw.flume.event.EventBatch;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Collections;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reads a whole file line by line through {@link ChannelLineReader}, the reader of the
+ * <code>channelReader</code> option, and through the RandomAccessFile based
+ * {@link TailFile} readLine it replaces. Run with the gc profiler to see the allocation per file,
+ * which for the channel reader should be no more than the event bodies in the batches:
+ * <pre>
+ * mvn -Pjmh package
+ * java -jar target/benchmarks.jar LineReaderBenchmark -prof gc
+ * </pre>
+ *
+ * @author zhw
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class LineReaderBenchmark {
+
+    private static final int FILE_BYTES = 32 * 1024 * 1024;
+    private static final int BATCH_SIZE = 1000;
+
+    @Param({"true", "false"})
+    private boolean channelReader;
+
+    @Param({"100", "1000"})
+    private int lineLength;
+
+    private File file;
+    private TailFileOptions options;
+
+    @Setup
+    public void setUp() throws IOException {
+        file = File.createTempFile("lines", ".log");
+        Random random = new Random(42);
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(file))) {
+            for (int written = 0; written < FILE_BYTES; written += lineLength) {
+                // lengths vary around the mean, so line ends fall anywhere in the read buffer
+                int length = lineLength / 2 + random.nextInt(lineLength);
+                for (int i = 0; i < length - 1; i++) {
+                    out.write('a' + random.nextInt(26));
+                }
+                out.write('\n');
+            }
+        }
+        options = new TailFileOptions.Builder().channelReader(channelReader).mmapCatchUp(false).build();
+    }
+
+    @TearDown
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Benchmark
+    public long readFile(Blackhole blackhole) throws IOException {
+        TailFile tf = new TailFile(file, Collections.<String, String>emptyMap(), 1, 0, options);
+        long lines = 0;
+        try {
+            while (true) {
+                // a batch per read, as the source hands each one on
+                EventBatch events = new EventBatch(BATCH_SIZE, Collections.<String, String>emptyMap());
+                int read = tf.readEvents(events, BATCH_SIZE, Long.MAX_VALUE, false);
+                if (read == 0) {
+                    break;
+                }
+                blackhole.consume(events);
+                lines += read;
+            }
+        } finally {
+            tf.close();
+        }
+        return lines;
+    }
+}
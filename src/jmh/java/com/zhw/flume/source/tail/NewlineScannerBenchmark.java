@@ -0,0 +1,90 @@
+package com.zhw.flume.source.tail;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Finds every line feed of a 1MB buffer with {@link NewlineScanner} and with the byte by byte
+ * loop it replaces, for short, medium and 64KB lines, on heap and direct buffers:
+ * <pre>
+ * mvn -Pjmh package
+ * java -jar target/benchmarks.jar NewlineScannerBenchmark
+ * </pre>
+ *
+ * @author zhw
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class NewlineScannerBenchmark {
+
+    private static final int BUFFER_BYTES = 1024 * 1024;
+    private static final byte BYTE_NL = (byte) 10;
+
+    @Param({"16", "200", "65536"})
+    private int lineLength;
+
+    @Param({"false", "true"})
+    private boolean direct;
+
+    private ByteBuffer buffer;
+
+    @Setup
+    public void setUp() {
+        buffer = direct ? ByteBuffer.allocateDirect(BUFFER_BYTES) : ByteBuffer.allocate(BUFFER_BYTES);
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        Random random = new Random(42);
+        int column = 0;
+        for (int i = 0; i < BUFFER_BYTES; i++) {
+            if (++column == lineLength) {
+                buffer.put(i, BYTE_NL);
+                column = 0;
+            } else {
+                buffer.put(i, (byte) (' ' + random.nextInt(95)));
+            }
+        }
+    }
+
+    /**
+     * @return number of line feeds in the buffer
+     */
+    @Benchmark
+    public int swar() {
+        int lines = 0;
+        int from = 0;
+        int index;
+        while ((index = NewlineScanner.indexOf(buffer, from, BUFFER_BYTES)) >= 0) {
+            lines++;
+            from = index + 1;
+        }
+        return lines;
+    }
+
+    @Benchmark
+    public int byteWise() {
+        int lines = 0;
+        for (int i = 0; i < BUFFER_BYTES; i++) {
+            if (buffer.get(i) == BYTE_NL) {
+                lines++;
+            }
+        }
+        return lines;
+    }
+}
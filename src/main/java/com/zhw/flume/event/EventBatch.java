@@ -0,0 +1,475 @@
+package com.zhw.flume.event;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Maps;
+import org.apache.flume.Event;
+import org.apache.flume.event.EventBuilder;
+
+import java.nio.ByteBuffer;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+
+/**
+ * Events of one batch in columnar form. All bodies are stored back to back in one byte array
+ * and addressed by offset and length. Headers which all events have in common are kept once,
+ * only the headers set per event are stored per event, as {@link LayeredHeaders} on top of the
+ * shared ones. The file offset of each event is a long column, it becomes a header string only
+ * when the header is asked for.
+ * <p></p>
+ * The batch is a list of {@link Event}s as well, for code which handles events one by one. An
+ * event obtained through {@link #get(int)} is a view which writes through: changes of its
+ * headers map or a new body set on it are seen by the batch accessors. A body returned by
+ * {@link Event#getBody()} is a copy, changing that array in place does not change the batch.
+ * Views follow their event when events are inserted or removed, the view of a removed event
+ * must not be used any more.
+ *
+ * @author zhw
+ */
+public class EventBatch extends AbstractList<Event> implements RandomAccess {
+
+    private static final int ESTIMATED_EVENT_BYTES = 256;
+
+    private static final long NO_POSITION = -1;
+
+    private final Map<String, String> sharedHeaders;
+    // header which carries the position, null if events have none
+    private final String positionHeader;
+    private byte[] data;
+    private int dataLength;
+    private int[] offsets;
+    private int[] lengths;
+    // null where an event has the shared headers and its position only
+    private LayeredHeaders[] eventHeaders;
+    private long[] positions;
+    // created on first access by index
+    private BatchEvent[] views;
+    private int size;
+
+    public EventBatch(int expectedEvents, Map<String, String> sharedHeaders) {
+        this(expectedEvents, sharedHeaders, null);
+    }
+
+    /**
+     * @param sharedHeaders headers of every event, the map must not change afterwards
+     * @param positionHeader header under which {@link #setPosition(int, long)} shows up, null for none
+     */
+    public EventBatch(int expectedEvents, Map<String, String> sharedHeaders, String positionHeader) {
+        int capacity = Math.max(expectedEvents, 1);
+        this.sharedHeaders = sharedHeaders == null ? Collections.<String, String>emptyMap() : sharedHeaders;
+        this.positionHeader = positionHeader;
+        this.data = new byte[capacity * ESTIMATED_EVENT_BYTES];
+        this.offsets = new int[capacity];
+        this.lengths = new int[capacity];
+        this.eventHeaders = new LayeredHeaders[capacity];
+        if (positionHeader != null) {
+            this.positions = new long[capacity];
+        }
+    }
+
+    /**
+     * @return the events as a batch, the list itself if it is a batch already
+     */
+    public static EventBatch copyOf(List<Event> events) {
+        if (events instanceof EventBatch) {
+            return (EventBatch) events;
+        }
+        EventBatch batch = new EventBatch(events.size(), null);
+        for (Event event : events) {
+            batch.add(event);
+        }
+        return batch;
+    }
+
+    /**
+     * Appends an event with the given body.
+     *
+     * @return index of the new event
+     */
+    public int add(byte[] body, int offset, int length) {
+        int index = newEvent(length);
+        System.arraycopy(body, offset, data, dataLength, length);
+        dataLength += length;
+        lengths[index] = length;
+        return index;
+    }
+
+    /**
+     * Appends an event whose body is the next length bytes of the buffer.
+     *
+     * @return index of the new event
+     */
+    public int add(ByteBuffer body, int length) {
+        int index = newEvent(length);
+        body.get(data, dataLength, length);
+        dataLength += length;
+        lengths[index] = length;
+        return index;
+    }
+
+    /**
+     * Appends bytes to the body of the last event, for readers which collect a body piece by piece.
+     */
+    public void extendLast(byte[] src, int offset, int length) {
+        checkExtendable();
+        ensureDataCapacity(length);
+        System.arraycopy(src, offset, data, dataLength, length);
+        dataLength += length;
+        lengths[size - 1] += length;
+    }
+
+    /**
+     * Appends the next length bytes of the buffer to the body of the last event.
+     */
+    public void extendLast(ByteBuffer src, int length) {
+        checkExtendable();
+        ensureDataCapacity(length);
+        src.get(data, dataLength, length);
+        dataLength += length;
+        lengths[size - 1] += length;
+    }
+
+    /**
+     * Drops the last event.
+     */
+    public void removeLast() {
+        Preconditions.checkState(size > 0, "Batch is empty");
+        size--;
+        if (offsets[size] + lengths[size] == dataLength) {
+            dataLength = offsets[size];
+        }
+        clearSlot(size);
+    }
+
+    /**
+     * Appends the separator and the body of the last event to the body of the event before it
+     * and drops the last event, for readers which put several lines into one event.
+     */
+    public void joinLast(byte[] separator) {
+        Preconditions.checkState(size > 1, "Batch has less than two events");
+        int last = size - 1;
+        int previous = size - 2;
+        Preconditions.checkState(offsets[previous] + lengths[previous] == offsets[last]
+                        && offsets[last] + lengths[last] == dataLength,
+                "Only the last two added events can be joined");
+        ensureDataCapacity(separator.length);
+        System.arraycopy(data, offsets[last], data, offsets[last] + separator.length, lengths[last]);
+        System.arraycopy(separator, 0, data, offsets[last], separator.length);
+        lengths[previous] += separator.length + lengths[last];
+        dataLength += separator.length;
+        size--;
+        clearSlot(size);
+    }
+
+    public Map<String, String> getSharedHeaders() {
+        return sharedHeaders;
+    }
+
+    public String getHeader(int index, String key) {
+        checkIndex(index);
+        LayeredHeaders headers = eventHeaders[index];
+        if (headers != null) {
+            return headers.get(key);
+        }
+        if (positions != null && positions[index] != NO_POSITION && positionHeader.equals(key)) {
+            return Long.toString(positions[index]);
+        }
+        return sharedHeaders.get(key);
+    }
+
+    public void setHeader(int index, String key, String value) {
+        checkIndex(index);
+        headers(index).put(key, value);
+    }
+
+    /**
+     * Sets the value of the position header, ignored if the batch has no position header.
+     */
+    public void setPosition(int index, long position) {
+        checkIndex(index);
+        if (positions != null) {
+            positions[index] = position;
+        }
+    }
+
+    /**
+     * Backing array of the bodies, see {@link #getBodyOffset(int)} and {@link #getBodyLength(int)}.
+     */
+    public byte[] array() {
+        return data;
+    }
+
+    public int getBodyOffset(int index) {
+        checkIndex(index);
+        return offsets[index];
+    }
+
+    public int getBodyLength(int index) {
+        checkIndex(index);
+        return lengths[index];
+    }
+
+    /**
+     * @return copy of the body
+     */
+    public byte[] getBody(int index) {
+        checkIndex(index);
+        return Arrays.copyOfRange(data, offsets[index], offsets[index] + lengths[index]);
+    }
+
+    /**
+     * Replaces the body of an event, the new body is appended to the backing array.
+     */
+    public void setBody(int index, byte[] body) {
+        checkIndex(index);
+        int length = body == null ? 0 : body.length;
+        ensureDataCapacity(length);
+        if (length > 0) {
+            System.arraycopy(body, 0, data, dataLength, length);
+        }
+        offsets[index] = dataLength;
+        lengths[index] = length;
+        dataLength += length;
+    }
+
+    /**
+     * @return number of body bytes of all events
+     */
+    public long getBodyBytes() {
+        long bytes = 0;
+        for (int i = 0; i < size; i++) {
+            bytes += lengths[i];
+        }
+        return bytes;
+    }
+
+    @Override
+    public Event get(int index) {
+        checkIndex(index);
+        if (views == null) {
+            views = new BatchEvent[offsets.length];
+        }
+        if (views[index] == null) {
+            views[index] = new BatchEvent(index);
+        }
+        return views[index];
+    }
+
+    /**
+     * Replaces the event at the index by a copy of the given one.
+     *
+     * @return copy of the replaced event
+     */
+    @Override
+    public Event set(int index, Event event) {
+        Event previous = EventBuilder.withBody(getBody(index), Maps.newHashMap(get(index).getHeaders()));
+        Map<String, String> headers = event.getHeaders();
+        setBody(index, event.getBody());
+        replaceHeaders(index, headers);
+        return previous;
+    }
+
+    /**
+     * Appends a copy of the event.
+     */
+    @Override
+    public boolean add(Event event) {
+        byte[] body = event.getBody();
+        int index = body == null ? add(new byte[0], 0, 0) : add(body, 0, body.length);
+        if (!event.getHeaders().isEmpty() || !sharedHeaders.isEmpty()) {
+            replaceHeaders(index, event.getHeaders());
+        }
+        return true;
+    }
+
+    /**
+     * Inserts a copy of the event. The body is appended to the backing array, only the columns
+     * are shifted.
+     */
+    @Override
+    public void add(int index, Event event) {
+        if (index < 0 || index > size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", size: " + size);
+        }
+        add(event);
+        int last = size - 1;
+        if (index == last) {
+            return;
+        }
+        int offset = offsets[last];
+        int length = lengths[last];
+        LayeredHeaders headers = eventHeaders[last];
+        long position = positions == null ? NO_POSITION : positions[last];
+        shift(index, index + 1, last - index);
+        offsets[index] = offset;
+        lengths[index] = length;
+        eventHeaders[index] = headers;
+        if (positions != null) {
+            positions[index] = position;
+        }
+        if (views != null) {
+            views[index] = null;
+        }
+    }
+
+    /**
+     * Removes an event, the columns after it are shifted down. The body stays in the backing
+     * array unless it was the last one added.
+     *
+     * @return copy of the removed event
+     */
+    @Override
+    public Event remove(int index) {
+        checkIndex(index);
+        Event removed = EventBuilder.withBody(getBody(index), Maps.newHashMap(get(index).getHeaders()));
+        if (offsets[index] + lengths[index] == dataLength) {
+            dataLength = offsets[index];
+        }
+        shift(index + 1, index, size - index - 1);
+        size--;
+        clearSlot(size);
+        return removed;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Headers of one event, created on first use. The position header is put into the new map,
+     * from then on the map alone decides the headers of the event.
+     */
+    private LayeredHeaders headers(int index) {
+        LayeredHeaders headers = eventHeaders[index];
+        if (headers == null) {
+            headers = new LayeredHeaders(sharedHeaders);
+            if (positions != null && positions[index] != NO_POSITION) {
+                headers.put(positionHeader, Long.toString(positions[index]));
+            }
+            eventHeaders[index] = headers;
+        }
+        return headers;
+    }
+
+    private void replaceHeaders(int index, Map<String, String> headers) {
+        LayeredHeaders replaced = new LayeredHeaders(sharedHeaders);
+        replaced.clear();
+        if (headers != null) {
+            replaced.putAll(headers);
+        }
+        eventHeaders[index] = replaced;
+    }
+
+    private int newEvent(int length) {
+        if (size == offsets.length) {
+            grow();
+        }
+        ensureDataCapacity(length);
+        offsets[size] = dataLength;
+        lengths[size] = 0;
+        if (positions != null) {
+            positions[size] = NO_POSITION;
+        }
+        modCount++;
+        return size++;
+    }
+
+    private void clearSlot(int index) {
+        eventHeaders[index] = null;
+        if (views != null) {
+            views[index] = null;
+        }
+        modCount++;
+    }
+
+    /**
+     * Moves the columns of count events and renumbers their views.
+     */
+    private void shift(int from, int to, int count) {
+        System.arraycopy(offsets, from, offsets, to, count);
+        System.arraycopy(lengths, from, lengths, to, count);
+        System.arraycopy(eventHeaders, from, eventHeaders, to, count);
+        if (positions != null) {
+            System.arraycopy(positions, from, positions, to, count);
+        }
+        if (views != null) {
+            System.arraycopy(views, from, views, to, count);
+            for (int i = to; i < to + count; i++) {
+                if (views[i] != null) {
+                    views[i].index = i;
+                }
+            }
+        }
+    }
+
+    private void checkExtendable() {
+        Preconditions.checkState(size > 0 && offsets[size - 1] + lengths[size - 1] == dataLength,
+                "Only the body of the last added event can be extended");
+    }
+
+    private void grow() {
+        int capacity = offsets.length << 1;
+        offsets = Arrays.copyOf(offsets, capacity);
+        lengths = Arrays.copyOf(lengths, capacity);
+        eventHeaders = Arrays.copyOf(eventHeaders, capacity);
+        if (positions != null) {
+            positions = Arrays.copyOf(positions, capacity);
+        }
+        if (views != null) {
+            views = Arrays.copyOf(views, capacity);
+        }
+    }
+
+    private void ensureDataCapacity(int length) {
+        if (data.length - dataLength < length) {
+            data = Arrays.copyOf(data, Math.max(data.length << 1, dataLength + length));
+        }
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", size: " + size);
+        }
+    }
+
+    /**
+     * Event view of one entry of the batch.
+     */
+    private class BatchEvent implements Event {
+
+        private int index;
+
+        BatchEvent(int index) {
+            this.index = index;
+        }
+
+        @Override
+        public Map<String, String> getHeaders() {
+            return headers(index);
+        }
+
+        @Override
+        public void setHeaders(Map<String, String> headers) {
+            replaceHeaders(index, headers);
+        }
+
+        @Override
+        public byte[] getBody() {
+            return EventBatch.this.getBody(index);
+        }
+
+        @Override
+        public void setBody(byte[] body) {
+            EventBatch.this.setBody(index, body);
+        }
+
+        @Override
+        public String toString() {
+            return "[Event headers = " + getHeaders() + ", body.length = " + lengths[index] + " ]";
+        }
+    }
+}
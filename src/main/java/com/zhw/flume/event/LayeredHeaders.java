@@ -0,0 +1,177 @@
+package com.zhw.flume.event;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Header map of one event on top of a base map shared by many events. The base map is never
+ * modified, puts go to a small overlay and removals of base keys are remembered, both created
+ * on the first change. Reads look through the overlay into the base without copying it.
+ *
+ * @author zhw
+ */
+public final class LayeredHeaders extends AbstractMap<String, String> {
+
+    private final Map<String, String> base;
+    // null until the first put
+    private Map<String, String> overlay;
+    // keys of the base which were removed, null until the first such removal
+    private Set<String> removed;
+
+    /**
+     * @param base headers shared with other events, the map must not change afterwards
+     */
+    public LayeredHeaders(Map<String, String> base) {
+        this.base = base == null ? Collections.<String, String>emptyMap() : base;
+    }
+
+    /**
+     * @return true if the key was put or removed through this map, so the base does not decide it
+     */
+    public boolean isOverridden(Object key) {
+        return (overlay != null && overlay.containsKey(key)) || (removed != null && removed.contains(key));
+    }
+
+    @Override
+    public String get(Object key) {
+        if (overlay != null && overlay.containsKey(key)) {
+            return overlay.get(key);
+        }
+        if (removed != null && removed.contains(key)) {
+            return null;
+        }
+        return base.get(key);
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        if (overlay != null && overlay.containsKey(key)) {
+            return true;
+        }
+        return (removed == null || !removed.contains(key)) && base.containsKey(key);
+    }
+
+    @Override
+    public String put(String key, String value) {
+        String previous = get(key);
+        if (overlay == null) {
+            overlay = Maps.newHashMapWithExpectedSize(2);
+        }
+        overlay.put(key, value);
+        if (removed != null) {
+            removed.remove(key);
+        }
+        return previous;
+    }
+
+    @Override
+    public String remove(Object key) {
+        String previous = get(key);
+        if (overlay != null) {
+            overlay.remove(key);
+        }
+        if (base.containsKey(key)) {
+            if (removed == null) {
+                removed = Sets.newHashSet();
+            }
+            removed.add((String) key);
+        }
+        return previous;
+    }
+
+    @Override
+    public void clear() {
+        overlay = null;
+        removed = Sets.newHashSet(base.keySet());
+    }
+
+    @Override
+    public int size() {
+        int size = overlay == null ? 0 : overlay.size();
+        for (String key : base.keySet()) {
+            if (!isOverridden(key)) {
+                size++;
+            }
+        }
+        return size;
+    }
+
+    @Override
+    public Set<Entry<String, String>> entrySet() {
+        return new AbstractSet<Entry<String, String>>() {
+
+            @Override
+            public Iterator<Entry<String, String>> iterator() {
+                return new EntryIterator();
+            }
+
+            @Override
+            public int size() {
+                return LayeredHeaders.this.size();
+            }
+        };
+    }
+
+    /**
+     * Iterates over the keys present when it was created, so the map may be changed meanwhile.
+     */
+    private class EntryIterator implements Iterator<Entry<String, String>> {
+
+        private final List<String> keys;
+        private int next;
+        private String last;
+
+        EntryIterator() {
+            keys = Lists.newArrayListWithCapacity(base.size() + (overlay == null ? 0 : overlay.size()));
+            if (overlay != null) {
+                keys.addAll(overlay.keySet());
+            }
+            for (String key : base.keySet()) {
+                if (!isOverridden(key)) {
+                    keys.add(key);
+                }
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next < keys.size();
+        }
+
+        @Override
+        public Entry<String, String> next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            last = keys.get(next++);
+            final String key = last;
+            return new SimpleEntry<String, String>(key, get(key)) {
+
+                @Override
+                public String setValue(String value) {
+                    super.setValue(value);
+                    return put(key, value);
+                }
+            };
+        }
+
+        @Override
+        public void remove() {
+            if (last == null) {
+                throw new IllegalStateException();
+            }
+            LayeredHeaders.this.remove(last);
+            last = null;
+        }
+    }
+}
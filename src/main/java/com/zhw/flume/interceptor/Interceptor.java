@@ -1,6 +1,7 @@
 
 package com.zhw.flume.interceptor;
 
+import com.zhw.flume.event.EventBatch;
 import org.apache.flume.Event;
 import org.apache.flume.conf.Configurable;
 
@@ -18,6 +19,14 @@ public interface Interceptor {
 
     List<Event> intercept(List<Event> events);
 
+    /**
+     * Batch-native variant of {@link #intercept(List)}. By default the batch is passed through
+     * {@link #intercept(List)} as a list, a returned list which is not the batch itself is copied
+     * into a new batch.
+     */
+    default EventBatch intercept(EventBatch batch) {
+        return EventBatch.copyOf(intercept((List<Event>) batch));
+    }
 
     void close();
 
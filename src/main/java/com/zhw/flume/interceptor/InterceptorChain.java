@@ -1,6 +1,7 @@
 
 package com.zhw.flume.interceptor;
 
+import com.zhw.flume.event.EventBatch;
 import org.apache.flume.Event;
 
 import java.util.ArrayList;
@@ -51,6 +52,17 @@ public class InterceptorChain implements Interceptor {
         return events;
     }
 
+    @Override
+    public EventBatch intercept(EventBatch batch) {
+        if (batch.isEmpty()) {
+            return batch;
+        }
+        for (Interceptor interceptor : interceptors) {
+            batch = interceptor.intercept(batch);
+        }
+        return batch;
+    }
+
     @Override
     public void close() {
         for (Interceptor interceptor: interceptors){
@@ -1,6 +1,7 @@
 
 package com.zhw.flume.interceptor;
 
+import com.zhw.flume.event.EventBatch;
 import org.apache.flume.Context;
 import org.apache.flume.Event;
 import org.apache.flume.source.shaded.guava.RateLimiter;
@@ -42,6 +43,14 @@ public class QpsInterceptor implements Interceptor {
         return events;
     }
 
+    @Override
+    public EventBatch intercept(EventBatch batch) {
+        if (!batch.isEmpty()) {
+            rateLimiter.acquire(batch.size());
+        }
+        return batch;
+    }
+
     @Override
     public void close() {
     }
@@ -35,6 +35,8 @@ public class LifecycleSupervisor implements LifecycleAware {
         lifecycleState = LifecycleState.IDLE;
         supervisedProcesses = new HashMap<>();
         monitorFutures = new HashMap<>();
+        // always a platform thread: virtual threads are daemons, and this non daemon thread is
+        // what keeps the JVM alive once Application.main returned
         monitorService = new ScheduledThreadPoolExecutor(1,
                 new ThreadFactoryBuilder().setNameFormat(
                         "lifecycleSupervisor-" + Thread.currentThread().getId() + "-%d")
@@ -0,0 +1,121 @@
+package com.zhw.flume.memory;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Agent wide budget of event body bytes held in memory, shared by all sources and sinks, so that
+ * heap use does not grow with the size of the lines.
+ * <ul>
+ * <li>Sources {@link #acquire(long)} the bytes they expect a batch to take before they read it,
+ * settle the difference once it is read and release the bytes once the sink delivered it or it
+ * was spooled. They wait while the budget is used up, which holds back their readers.</li>
+ * <li>Sinks {@link #reserve(long)} only the bytes they hold beyond the bodies a source already
+ * took, such as serialized headers, without waiting, since the sources wait for the sinks to
+ * free their bytes.</li>
+ * </ul>
+ * The limit is soft: a batch may turn out larger than expected, by the line which ends past the
+ * byte limit of the batch or by the bodies of a compressed file, and its excess is reserved
+ * beyond the budget. A batch larger than the whole budget is let through once nothing else is
+ * held, so a single huge batch cannot stall a source forever.
+ * <p></p>
+ * The budget is set by the system property <code>flume.memory.maxInFlightBytes</code> and is a
+ * quarter of the max heap size by default.
+ *
+ * @author zhw
+ */
+public class MemoryGovernor {
+
+    private static final Logger LOG = LoggerFactory.getLogger(MemoryGovernor.class);
+
+    public static final String CONF_MAX_IN_FLIGHT_BYTES = "flume.memory.maxInFlightBytes";
+
+    private final long maxBytes;
+    // guarded by this
+    private long inFlightBytes;
+
+    MemoryGovernor(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    public static MemoryGovernor getInstance() {
+        return Singleton.INSTANCE.getMemoryGovernor();
+    }
+
+    /**
+     * Waits until the bytes fit into the budget and takes them.
+     */
+    public synchronized void acquire(long bytes) throws InterruptedException {
+        while (inFlightBytes > 0 && inFlightBytes + bytes > maxBytes) {
+            wait();
+        }
+        inFlightBytes += bytes;
+    }
+
+    /**
+     * Waits up to the timeout until the bytes fit into the budget and takes them.
+     *
+     * @return false if the bytes were not taken
+     */
+    public synchronized boolean tryAcquire(long bytes, long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (inFlightBytes > 0 && inFlightBytes + bytes > maxBytes) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                return false;
+            }
+            TimeUnit.NANOSECONDS.timedWait(this, remaining);
+        }
+        inFlightBytes += bytes;
+        return true;
+    }
+
+    /**
+     * Takes the bytes right away, even beyond the budget.
+     */
+    public synchronized void reserve(long bytes) {
+        inFlightBytes += bytes;
+    }
+
+    public synchronized void release(long bytes) {
+        inFlightBytes -= bytes;
+        notifyAll();
+    }
+
+    public synchronized long getInFlightBytes() {
+        return inFlightBytes;
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    private enum Singleton {
+        INSTANCE;
+
+        private MemoryGovernor memoryGovernor;
+
+        Singleton() {
+            long maxBytes = Runtime.getRuntime().maxMemory() / 4;
+            String configured = System.getProperty(CONF_MAX_IN_FLIGHT_BYTES);
+            if (configured != null) {
+                try {
+                    maxBytes = Long.parseLong(configured.trim());
+                } catch (NumberFormatException e) {
+                    LOG.warn("Invalid {} specified: {}", CONF_MAX_IN_FLIGHT_BYTES, configured);
+                }
+            }
+            if (maxBytes <= 0) {
+                maxBytes = Long.MAX_VALUE;
+            }
+            LOG.info("Event bytes held in memory are limited to {}", maxBytes);
+            memoryGovernor = new MemoryGovernor(maxBytes);
+        }
+
+        public MemoryGovernor getMemoryGovernor() {
+            return memoryGovernor;
+        }
+    }
+}
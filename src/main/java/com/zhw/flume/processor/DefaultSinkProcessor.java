@@ -5,7 +5,9 @@ package com.zhw.flume.processor;
 import com.google.common.base.Preconditions;
 import com.zhw.flume.conf.ComponentConfiguration;
 import com.zhw.flume.conf.ConfigurableComponent;
+import com.zhw.flume.event.EventBatch;
 import com.zhw.flume.lifecycle.LifecycleState;
+import com.zhw.flume.sink.DeliveryCallback;
 import com.zhw.flume.sink.Sink;
 import com.zhw.flume.sink.SinkProcessor;
 import org.apache.flume.Context;
@@ -32,6 +34,21 @@ public class DefaultSinkProcessor implements SinkProcessor, ConfigurableComponen
         return sink.process(events);
     }
 
+    @Override
+    public void processAsync(List<Event> events, DeliveryCallback callback) throws EventDeliveryException {
+        sink.processAsync(events, callback);
+    }
+
+    @Override
+    public boolean process(EventBatch batch) throws EventDeliveryException {
+        return sink.process(batch);
+    }
+
+    @Override
+    public void processAsync(EventBatch batch, DeliveryCallback callback) throws EventDeliveryException {
+        sink.processAsync(batch, callback);
+    }
+
     @Override
     public void setSinks(List<Sink> sinks) {
         Preconditions.checkNotNull(sinks);
@@ -1,7 +1,10 @@
 
 package com.zhw.flume.sink;
 
+import com.zhw.flume.event.EventBatch;
 import com.zhw.flume.lifecycle.LifecycleState;
+import org.apache.flume.Event;
+import org.apache.flume.EventDeliveryException;
 
 import java.util.List;
 
@@ -34,6 +37,45 @@ public abstract class AbstractSink implements Sink {
         lifecycleState = LifecycleState.STOP;
     }
 
+    /**
+     * Delivers the events synchronously through {@link #process(List)}, sinks which can
+     * pipeline batches override this.
+     */
+    @Override
+    public void processAsync(List<Event> events, DeliveryCallback callback) throws EventDeliveryException {
+        boolean delivered;
+        try {
+            delivered = process(events);
+        } catch (EventDeliveryException e) {
+            callback.onFailure(e);
+            return;
+        }
+        complete(delivered, callback);
+    }
+
+    /**
+     * Delivers the batch synchronously through {@link #process(EventBatch)}.
+     */
+    @Override
+    public void processAsync(EventBatch batch, DeliveryCallback callback) throws EventDeliveryException {
+        boolean delivered;
+        try {
+            delivered = process(batch);
+        } catch (EventDeliveryException e) {
+            callback.onFailure(e);
+            return;
+        }
+        complete(delivered, callback);
+    }
+
+    private void complete(boolean delivered, DeliveryCallback callback) {
+        if (delivered) {
+            callback.onSuccess();
+        } else {
+            callback.onFailure(new EventDeliveryException("Sink " + getName() + " did not deliver the events"));
+        }
+    }
+
     @Override
     public LifecycleState getLifecycleState() {
         return lifecycleState;
@@ -0,0 +1,22 @@
+package com.zhw.flume.sink;
+
+import org.apache.flume.EventDeliveryException;
+
+/**
+ * Outcome of an asynchronously processed batch. Exactly one of the methods is called once per
+ * batch, possibly from a thread of the sink.
+ *
+ * @author zhw
+ */
+public interface DeliveryCallback {
+
+    /**
+     * Every event of the batch was delivered.
+     */
+    void onSuccess();
+
+    /**
+     * At least one event of the batch was not delivered, the batch has to be sent again.
+     */
+    void onFailure(EventDeliveryException cause);
+}
@@ -0,0 +1,36 @@
+package com.zhw.flume.sink;
+
+import org.apache.flume.EventDeliveryException;
+
+import java.util.Arrays;
+
+/**
+ * Thrown by {@link Sink#process(java.util.List)}, or passed to
+ * {@link DeliveryCallback#onFailure(EventDeliveryException)}, when only some events of a batch
+ * were not delivered. The other events were delivered and must not be sent again.
+ *
+ * @author zhw
+ */
+public class PartialDeliveryException extends EventDeliveryException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int[] failedIndices;
+
+    /**
+     * @param failedIndices ascending positions, within the batch handed to the sink, of the
+     *                      events which were not delivered
+     */
+    public PartialDeliveryException(String message, Throwable cause, int[] failedIndices) {
+        super(message, cause);
+        this.failedIndices = failedIndices;
+    }
+
+    public int[] getFailedIndices() {
+        return Arrays.copyOf(failedIndices, failedIndices.length);
+    }
+
+    public int getFailedCount() {
+        return failedIndices.length;
+    }
+}
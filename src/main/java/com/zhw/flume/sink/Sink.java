@@ -1,6 +1,7 @@
 
 package com.zhw.flume.sink;
 
+import com.zhw.flume.event.EventBatch;
 import com.zhw.flume.lifecycle.LifecycleAware;
 import org.apache.flume.Event;
 import org.apache.flume.EventDeliveryException;
@@ -14,4 +15,25 @@ import java.util.List;
 public interface Sink extends LifecycleAware, NamedComponent {
 
     boolean process(List<Event> events) throws EventDeliveryException;
+
+    /**
+     * Hands the events over for delivery and may return before they are delivered, the outcome
+     * is reported to the callback. If this method throws, the callback is not called.
+     */
+    void processAsync(List<Event> events, DeliveryCallback callback) throws EventDeliveryException;
+
+    /**
+     * Batch-native variant of {@link #process(List)}, by default the batch is passed on as a list.
+     */
+    default boolean process(EventBatch batch) throws EventDeliveryException {
+        return process((List<Event>) batch);
+    }
+
+    /**
+     * Batch-native variant of {@link #processAsync(List, DeliveryCallback)}, by default the batch
+     * is passed on as a list.
+     */
+    default void processAsync(EventBatch batch, DeliveryCallback callback) throws EventDeliveryException {
+        processAsync((List<Event>) batch, callback);
+    }
 }
\ No newline at end of file
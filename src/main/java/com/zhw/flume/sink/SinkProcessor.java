@@ -2,6 +2,7 @@
 package com.zhw.flume.sink;
 
 import com.zhw.flume.conf.Configurable;
+import com.zhw.flume.event.EventBatch;
 import com.zhw.flume.lifecycle.LifecycleAware;
 import org.apache.flume.Event;
 import org.apache.flume.EventDeliveryException;
@@ -15,6 +16,25 @@ public interface SinkProcessor extends LifecycleAware, Configurable {
 
     boolean process(List<Event> events) throws EventDeliveryException;
 
+    /**
+     * @see Sink#processAsync(List, DeliveryCallback)
+     */
+    void processAsync(List<Event> events, DeliveryCallback callback) throws EventDeliveryException;
+
+    /**
+     * @see Sink#process(EventBatch)
+     */
+    default boolean process(EventBatch batch) throws EventDeliveryException {
+        return process((List<Event>) batch);
+    }
+
+    /**
+     * @see Sink#processAsync(EventBatch, DeliveryCallback)
+     */
+    default void processAsync(EventBatch batch, DeliveryCallback callback) throws EventDeliveryException {
+        processAsync((List<Event>) batch, callback);
+    }
+
     /**
      * <p>Set all sinks to work with.</p>
      *
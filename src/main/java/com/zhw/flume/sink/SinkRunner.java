@@ -1,6 +1,7 @@
 
 package com.zhw.flume.sink;
 
+import com.zhw.flume.event.EventBatch;
 import com.zhw.flume.lifecycle.LifecycleAware;
 import com.zhw.flume.lifecycle.LifecycleState;
 import org.apache.flume.Event;
@@ -49,4 +50,27 @@ public class SinkRunner implements LifecycleAware {
         }
         return policy.process(events);
     }
+
+    public void batchProcessAsync(List<Event> events, DeliveryCallback callback) throws EventDeliveryException {
+        if (events.isEmpty()) {
+            callback.onSuccess();
+            return;
+        }
+        policy.processAsync(events, callback);
+    }
+
+    public boolean batchProcess(EventBatch batch) throws EventDeliveryException {
+        if (batch.isEmpty()) {
+            return true;
+        }
+        return policy.process(batch);
+    }
+
+    public void batchProcessAsync(EventBatch batch, DeliveryCallback callback) throws EventDeliveryException {
+        if (batch.isEmpty()) {
+            callback.onSuccess();
+            return;
+        }
+        policy.processAsync(batch, callback);
+    }
 }
\ No newline at end of file
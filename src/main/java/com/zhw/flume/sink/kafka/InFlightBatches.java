@@ -0,0 +1,125 @@
+package com.zhw.flume.sink.kafka;
+
+import com.zhw.flume.memory.MemoryGovernor;
+import com.zhw.flume.sink.DeliveryCallback;
+import com.zhw.flume.sink.PartialDeliveryException;
+import org.apache.flume.EventDeliveryException;
+
+import java.util.BitSet;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Limits the batches, and their bytes, which were handed to the producer but did not complete
+ * yet. Each {@link Batch} counts down its records as the producer reports them and reports the
+ * outcome of the whole batch to its callback after the last one, failures together with the
+ * positions of the failed records. Bytes of a batch which no source holds in the
+ * {@link MemoryGovernor} of the agent are reserved there until the batch completed.
+ *
+ * @author zhw
+ */
+class InFlightBatches {
+
+    private final Semaphore batches;
+    private final Semaphore bytes;
+    private final int maxBytes;
+    private final MemoryGovernor memoryGovernor = MemoryGovernor.getInstance();
+
+    InFlightBatches(int maxBatches, int maxBytes) {
+        this.batches = new Semaphore(maxBatches);
+        this.bytes = new Semaphore(maxBytes);
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Waits until the batch fits into the limits. A batch larger than the byte limit is let
+     * through alone.
+     *
+     * @param unaccounted part of the size no source holds in the memory governor
+     */
+    Batch begin(int records, long size, long unaccounted, DeliveryCallback callback) throws EventDeliveryException {
+        int permits = (int) Math.min(size, maxBytes);
+        try {
+            batches.acquire();
+            try {
+                bytes.acquire(permits);
+            } catch (InterruptedException e) {
+                batches.release();
+                throw e;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new EventDeliveryException("Interrupted while waiting for batches in flight", e);
+        }
+        memoryGovernor.reserve(unaccounted);
+        return new Batch(records, permits, unaccounted, callback);
+    }
+
+    class Batch {
+
+        private final int records;
+        private final AtomicInteger pending;
+        private final int permits;
+        private final long unaccounted;
+        private final DeliveryCallback callback;
+        // guarded by this
+        private final BitSet failed = new BitSet();
+        private Exception firstFailure;
+
+        private Batch(int records, int permits, long unaccounted, DeliveryCallback callback) {
+            this.records = records;
+            this.pending = new AtomicInteger(records);
+            this.permits = permits;
+            this.unaccounted = unaccounted;
+            this.callback = callback;
+        }
+
+        /**
+         * The record at the given position completed, exception is null on success.
+         */
+        void completed(int index, Exception exception) {
+            if (exception != null) {
+                markFailed(index, index + 1, exception);
+            }
+            if (pending.decrementAndGet() == 0) {
+                finish();
+            }
+        }
+
+        /**
+         * The records from the given position on could not be handed to the producer at all.
+         */
+        void failUnsent(int from, Exception exception) {
+            markFailed(from, records, exception);
+            int unsent = records - from;
+            if (unsent > 0 && pending.addAndGet(-unsent) == 0) {
+                finish();
+            }
+        }
+
+        private synchronized void markFailed(int from, int to, Exception exception) {
+            failed.set(from, to);
+            if (firstFailure == null) {
+                firstFailure = exception;
+            }
+        }
+
+        private void finish() {
+            batches.release();
+            bytes.release(permits);
+            memoryGovernor.release(unaccounted);
+            int[] failedIndices;
+            Exception cause;
+            synchronized (this) {
+                failedIndices = failed.stream().toArray();
+                cause = firstFailure;
+            }
+            if (failedIndices.length == 0) {
+                callback.onSuccess();
+            } else {
+                callback.onFailure(new PartialDeliveryException("Failed to publish " + failedIndices.length
+                        + " of " + records + " events", cause, failedIndices));
+            }
+        }
+    }
+}
@@ -2,8 +2,13 @@
 package com.zhw.flume.sink.kafka;
 
 import com.google.common.base.Throwables;
+import com.google.common.primitives.Ints;
 import com.zhw.flume.conf.Configurable;
+import com.zhw.flume.event.EventBatch;
+import com.zhw.flume.memory.MemoryGovernor;
 import com.zhw.flume.sink.AbstractSink;
+import com.zhw.flume.sink.DeliveryCallback;
+import com.zhw.flume.sink.PartialDeliveryException;
 import org.apache.avro.io.BinaryEncoder;
 import org.apache.avro.io.EncoderFactory;
 import org.apache.avro.specific.SpecificDatumReader;
@@ -31,14 +36,21 @@ import org.slf4j.LoggerFactory;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Properties;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
 
+import static com.zhw.flume.sink.kafka.KafkaSinkConfigurationConstants.ASYNC;
+import static com.zhw.flume.sink.kafka.KafkaSinkConfigurationConstants.DEFAULT_ASYNC;
+import static com.zhw.flume.sink.kafka.KafkaSinkConfigurationConstants.DEFAULT_MAX_IN_FLIGHT_BATCHES;
+import static com.zhw.flume.sink.kafka.KafkaSinkConfigurationConstants.DEFAULT_MAX_IN_FLIGHT_BYTES;
+import static com.zhw.flume.sink.kafka.KafkaSinkConfigurationConstants.MAX_IN_FLIGHT_BATCHES;
+import static com.zhw.flume.sink.kafka.KafkaSinkConfigurationConstants.MAX_IN_FLIGHT_BYTES;
 import static org.apache.flume.sink.kafka.KafkaSinkConstants.BATCH_SIZE;
 import static org.apache.flume.sink.kafka.KafkaSinkConstants.BOOTSTRAP_SERVERS_CONFIG;
 import static org.apache.flume.sink.kafka.KafkaSinkConstants.BROKER_LIST_FLUME_KEY;
@@ -105,8 +117,6 @@ public class KafkaSink extends AbstractSink implements Configurable, BatchSizeSu
 
     private int batchSize;
 
-    private List<Future<RecordMetadata>> kafkaFutures;
-
     private boolean useAvroEventFormat;
 
     private String partitionHeader = null;
@@ -117,6 +127,13 @@ public class KafkaSink extends AbstractSink implements Configurable, BatchSizeSu
 
     private String topicHeader = null;
 
+    private boolean async;
+
+    // bounds the batches handed to the producer but not completed yet, async mode only
+    private InFlightBatches inFlightBatches;
+
+    private final MemoryGovernor memoryGovernor = MemoryGovernor.getInstance();
+
     private Optional<SpecificDatumWriter<AvroFlumeEvent>> writer = Optional.empty();
 
     private Optional<ByteArrayOutputStream> tempOutStream = Optional.empty();
@@ -192,76 +209,243 @@ public class KafkaSink extends AbstractSink implements Configurable, BatchSizeSu
         topicHeader = context.getString(KafkaSinkConstants.TOPIC_OVERRIDE_HEADER,
                 KafkaSinkConstants.DEFAULT_TOPIC_OVERRIDE_HEADER);
 
-        kafkaFutures = new LinkedList<Future<RecordMetadata>>();
-
         String bootStrapServers = context.getString(BOOTSTRAP_SERVERS_CONFIG);
         if (bootStrapServers == null || bootStrapServers.isEmpty()) {
             throw new ConfigurationException("Bootstrap Servers must be specified");
         }
 
         setProducerProps(context, bootStrapServers);
+
+        async = context.getBoolean(ASYNC, DEFAULT_ASYNC);
+        int maxInFlightBatches = context.getInteger(MAX_IN_FLIGHT_BATCHES, DEFAULT_MAX_IN_FLIGHT_BATCHES);
+        if (maxInFlightBatches <= 0) {
+            maxInFlightBatches = DEFAULT_MAX_IN_FLIGHT_BATCHES;
+            LOG.warn("Invalid {} specified, using default {}", MAX_IN_FLIGHT_BATCHES, maxInFlightBatches);
+        }
+        int maxInFlightBytes = context.getInteger(MAX_IN_FLIGHT_BYTES, DEFAULT_MAX_IN_FLIGHT_BYTES);
+        if (maxInFlightBytes <= 0) {
+            maxInFlightBytes = DEFAULT_MAX_IN_FLIGHT_BYTES;
+            LOG.warn("Invalid {} specified, using default {}", MAX_IN_FLIGHT_BYTES, maxInFlightBytes);
+        }
+        inFlightBatches = new InFlightBatches(maxInFlightBatches, maxInFlightBytes);
     }
 
     @Override
     public boolean process(List<Event> events) throws EventDeliveryException {
-        kafkaFutures.clear();
-        String eventTopic = null;
-        String eventKey = null;
         if (events == null || events.size() == 0) {
             return true;
         }
+        List<ProducerRecord<String, byte[]>> records = new ArrayList<ProducerRecord<String, byte[]>>(events.size());
+        for (Event event : events) {
+            records.add(toRecord(event));
+        }
+        return publish(records, bodyBytes(events));
+    }
+
+    /**
+     * Builds the records from the columns of the batch, without an Event per line.
+     */
+    @Override
+    public boolean process(EventBatch batch) throws EventDeliveryException {
+        if (batch.isEmpty()) {
+            return true;
+        }
+        return publish(toRecords(batch), batch.getBodyBytes());
+    }
 
+    /**
+     * In async mode the records are only handed to the producer, without flush, and the batch
+     * completes through the producer callbacks. Blocks while the in-flight limits are reached.
+     */
+    @Override
+    public void processAsync(List<Event> events, DeliveryCallback callback) throws EventDeliveryException {
+        if (!async) {
+            super.processAsync(events, callback);
+            return;
+        }
+        if (events == null || events.size() == 0) {
+            callback.onSuccess();
+            return;
+        }
+        List<ProducerRecord<String, byte[]>> records = new ArrayList<ProducerRecord<String, byte[]>>(events.size());
         for (Event event : events) {
-            Map<String, String> headers = event.getHeaders();
-            if (allowTopicOverride) {
-                eventTopic = headers.get(topicHeader);
-                if (eventTopic == null) {
-                    eventTopic = BucketPath.escapeString(topic, event.getHeaders());
-                    LOG.debug("{} was set to true but header {} was null. Producing to {}" + " topic instead.",
-                            KafkaSinkConstants.ALLOW_TOPIC_OVERRIDE_HEADER, topicHeader, eventTopic);
-                }
-            } else {
-                eventTopic = topic;
-            }
-            eventKey = headers.get(KEY_HEADER);
-            Integer partitionId = null;
+            records.add(toRecord(event));
+        }
+        publishAsync(records, bodyBytes(events), callback);
+    }
+
+    @Override
+    public void processAsync(EventBatch batch, DeliveryCallback callback) throws EventDeliveryException {
+        if (!async) {
+            super.processAsync(batch, callback);
+            return;
+        }
+        if (batch.isEmpty()) {
+            callback.onSuccess();
+            return;
+        }
+        publishAsync(toRecords(batch), batch.getBodyBytes(), callback);
+    }
+
+    /**
+     * Sends the records, flushes and waits for every one of them. The source holds the bytes of
+     * the event bodies in the memory governor of the agent until the sink completed them, only
+     * what the records take beyond that, such as avro headers, is reserved meanwhile.
+     *
+     * @param accountedBytes body bytes of the events the records were built from
+     */
+    private boolean publish(List<ProducerRecord<String, byte[]>> records, long accountedBytes)
+            throws EventDeliveryException {
+        long unaccounted = unaccountedBytes(records, accountedBytes);
+        memoryGovernor.reserve(unaccounted);
+        try {
+            return publishAndWait(records);
+        } finally {
+            memoryGovernor.release(unaccounted);
+        }
+    }
+
+    private boolean publishAndWait(List<ProducerRecord<String, byte[]>> records) throws EventDeliveryException {
+        // local, the sink may be called by several tailing workers at once
+        List<Future<RecordMetadata>> kafkaFutures = new ArrayList<Future<RecordMetadata>>(records.size());
+
+        Exception firstFailure = null;
+        for (ProducerRecord<String, byte[]> record : records) {
             try {
-                ProducerRecord<String, byte[]> record;
-                if (staticPartitionId != null) {
-                    partitionId = staticPartitionId;
-                }
-                //Allow a specified header to override a static ID
-                if (partitionHeader != null) {
-                    String headerVal = event.getHeaders().get(partitionHeader);
-                    if (headerVal != null) {
-                        partitionId = Integer.parseInt(headerVal);
-                    }
-                }
-                if (partitionId != null) {
-                    record = new ProducerRecord<String, byte[]>(eventTopic, partitionId, eventKey,
-                            serializeEvent(event, useAvroEventFormat));
-                } else {
-                    record = new ProducerRecord<String, byte[]>(eventTopic, eventKey,
-                            serializeEvent(event, useAvroEventFormat));
-                }
                 kafkaFutures.add(producer.send(record, new SinkCallback()));
-            } catch (NumberFormatException ex) {
-                throw new EventDeliveryException("Non integer partition id specified", ex);
             } catch (Exception ex) {
-                throw new EventDeliveryException("Could not send event", ex);
+                // this and all following events count as failed
+                firstFailure = ex;
+                break;
             }
         }
         producer.flush();
+        List<Integer> failedIndices = new ArrayList<Integer>();
+        for (int i = 0; i < kafkaFutures.size(); i++) {
+            try {
+                kafkaFutures.get(i).get();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new EventDeliveryException("Interrupted while waiting for events to be published", ex);
+            } catch (ExecutionException ex) {
+                failedIndices.add(i);
+                if (firstFailure == null) {
+                    firstFailure = ex;
+                }
+            }
+        }
+        for (int i = kafkaFutures.size(); i < records.size(); i++) {
+            failedIndices.add(i);
+        }
+        if (!failedIndices.isEmpty()) {
+            String errorMsg = "Failed to publish " + failedIndices.size() + " of " + records.size() + " events";
+            LOG.error(errorMsg, firstFailure);
+            throw new PartialDeliveryException(errorMsg, firstFailure, Ints.toArray(failedIndices));
+        }
+        return true;
+    }
+
+    private void publishAsync(List<ProducerRecord<String, byte[]>> records, long accountedBytes,
+                              DeliveryCallback callback) throws EventDeliveryException {
+        long bytes = recordBytes(records);
+        InFlightBatches.Batch batch = inFlightBatches.begin(records.size(), bytes,
+                Math.max(0, bytes - accountedBytes), callback);
+        int sent = 0;
         try {
-            for (Future<RecordMetadata> future : kafkaFutures) {
-                future.get();
+            for (ProducerRecord<String, byte[]> record : records) {
+                producer.send(record, new SinkCallback(batch, sent));
+                sent++;
             }
         } catch (Exception ex) {
-            String errorMsg = "Failed to publish events";
-            LOG.error("Failed to publish events", ex);
-            throw new EventDeliveryException(errorMsg, ex);
+            batch.failUnsent(sent, ex);
+        }
+    }
+
+    private static long recordBytes(List<ProducerRecord<String, byte[]>> records) {
+        long bytes = 0;
+        for (ProducerRecord<String, byte[]> record : records) {
+            bytes += record.value().length;
+        }
+        return bytes;
+    }
+
+    private static long unaccountedBytes(List<ProducerRecord<String, byte[]>> records, long accountedBytes) {
+        return Math.max(0, recordBytes(records) - accountedBytes);
+    }
+
+    private static long bodyBytes(List<Event> events) {
+        long bytes = 0;
+        for (Event event : events) {
+            byte[] body = event.getBody();
+            if (body != null) {
+                bytes += body.length;
+            }
+        }
+        return bytes;
+    }
+
+    private List<ProducerRecord<String, byte[]>> toRecords(EventBatch batch) throws EventDeliveryException {
+        List<ProducerRecord<String, byte[]>> records = new ArrayList<ProducerRecord<String, byte[]>>(batch.size());
+        for (int i = 0; i < batch.size(); i++) {
+            records.add(toRecord(batch, i));
+        }
+        return records;
+    }
+
+    private ProducerRecord<String, byte[]> toRecord(EventBatch batch, int index) throws EventDeliveryException {
+        String eventTopic = topic;
+        if (allowTopicOverride) {
+            eventTopic = batch.getHeader(index, topicHeader);
+        }
+        if (useAvroEventFormat || eventTopic == null) {
+            // the avro record and the topic escaping take all headers of the event
+            return toRecord(batch.get(index));
+        }
+        String partitionValue = partitionHeader == null ? null : batch.getHeader(index, partitionHeader);
+        return newRecord(eventTopic, batch.getHeader(index, KEY_HEADER), partitionValue, batch.getBody(index));
+    }
+
+    private ProducerRecord<String, byte[]> toRecord(Event event) throws EventDeliveryException {
+        String eventTopic;
+        String eventKey;
+        Map<String, String> headers = event.getHeaders();
+        if (allowTopicOverride) {
+            eventTopic = headers.get(topicHeader);
+            if (eventTopic == null) {
+                eventTopic = BucketPath.escapeString(topic, headers);
+                LOG.debug("{} was set to true but header {} was null. Producing to {}" + " topic instead.",
+                        KafkaSinkConstants.ALLOW_TOPIC_OVERRIDE_HEADER, topicHeader, eventTopic);
+            }
+        } else {
+            eventTopic = topic;
+        }
+        eventKey = headers.get(KEY_HEADER);
+        String partitionValue = partitionHeader == null ? null : headers.get(partitionHeader);
+        byte[] value;
+        try {
+            value = serializeEvent(event, useAvroEventFormat);
+        } catch (Exception ex) {
+            throw new EventDeliveryException("Could not send event", ex);
+        }
+        return newRecord(eventTopic, eventKey, partitionValue, value);
+    }
+
+    private ProducerRecord<String, byte[]> newRecord(String eventTopic, String eventKey, String partitionValue,
+            byte[] value) throws EventDeliveryException {
+        Integer partitionId = staticPartitionId;
+        //Allow a specified header to override a static ID
+        if (partitionValue != null) {
+            try {
+                partitionId = Integer.parseInt(partitionValue);
+            } catch (NumberFormatException ex) {
+                throw new EventDeliveryException("Non integer partition id specified", ex);
+            }
+        }
+        if (partitionId != null) {
+            return new ProducerRecord<String, byte[]>(eventTopic, partitionId, eventKey, value);
+        } else {
+            return new ProducerRecord<String, byte[]>(eventTopic, eventKey, value);
         }
-        return true;
     }
 
     private void translateOldProps(Context ctx) {
@@ -333,24 +517,26 @@ public class KafkaSink extends AbstractSink implements Configurable, BatchSizeSu
     }
 
     private byte[] serializeEvent(Event event, boolean useAvroEventFormat) throws IOException {
-        byte[] bytes;
         if (useAvroEventFormat) {
-            if (!tempOutStream.isPresent()) {
-                tempOutStream = Optional.of(new ByteArrayOutputStream());
-            }
-            if (!writer.isPresent()) {
-                writer = Optional.of(new SpecificDatumWriter<AvroFlumeEvent>(AvroFlumeEvent.class));
-            }
-            tempOutStream.get().reset();
-            AvroFlumeEvent e = new AvroFlumeEvent(toCharSeqMap(event.getHeaders()), ByteBuffer.wrap(event.getBody()));
-            encoder = EncoderFactory.get().directBinaryEncoder(tempOutStream.get(), encoder);
-            writer.get().write(e, encoder);
-            encoder.flush();
-            bytes = tempOutStream.get().toByteArray();
-        } else {
-            bytes = event.getBody();
+            return serializeAvroEvent(event);
         }
-        return bytes;
+        return event.getBody();
+    }
+
+    // the stream and encoder are shared, so serializing is one event at a time
+    private synchronized byte[] serializeAvroEvent(Event event) throws IOException {
+        if (!tempOutStream.isPresent()) {
+            tempOutStream = Optional.of(new ByteArrayOutputStream());
+        }
+        if (!writer.isPresent()) {
+            writer = Optional.of(new SpecificDatumWriter<AvroFlumeEvent>(AvroFlumeEvent.class));
+        }
+        tempOutStream.get().reset();
+        AvroFlumeEvent e = new AvroFlumeEvent(toCharSeqMap(event.getHeaders()), ByteBuffer.wrap(event.getBody()));
+        encoder = EncoderFactory.get().directBinaryEncoder(tempOutStream.get(), encoder);
+        writer.get().write(e, encoder);
+        encoder.flush();
+        return tempOutStream.get().toByteArray();
     }
 
     private static Map<CharSequence, CharSequence> toCharSeqMap(Map<String, String> stringMap) {
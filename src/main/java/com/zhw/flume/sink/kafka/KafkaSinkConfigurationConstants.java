@@ -0,0 +1,21 @@
+package com.zhw.flume.sink.kafka;
+
+/**
+ * Settings of {@link KafkaSink} on top of the ones of the Flume Kafka sink.
+ *
+ * @author zhw
+ */
+public class KafkaSinkConfigurationConstants {
+
+    /** Whether batches complete through producer callbacks instead of flushing and waiting for every record. */
+    public static final String ASYNC = "async";
+    public static final boolean DEFAULT_ASYNC = false;
+
+    /** Max number of batches handed to the producer and not completed yet, async mode only. */
+    public static final String MAX_IN_FLIGHT_BATCHES = "maxInFlightBatches";
+    public static final int DEFAULT_MAX_IN_FLIGHT_BATCHES = 8;
+
+    /** Max serialized bytes of the batches in flight, async mode only. */
+    public static final String MAX_IN_FLIGHT_BYTES = "maxInFlightBytes";
+    public static final int DEFAULT_MAX_IN_FLIGHT_BYTES = 64 * 1024 * 1024;
+}
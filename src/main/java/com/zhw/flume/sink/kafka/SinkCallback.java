@@ -13,7 +13,18 @@ import org.slf4j.LoggerFactory;
 class SinkCallback implements Callback {
     private static final Logger LOG = LoggerFactory.getLogger(SinkCallback.class);
 
+    // null when the sink waits for the record itself
+    private final InFlightBatches.Batch batch;
+    // position of the record within the batch
+    private final int index;
+
     public SinkCallback() {
+        this(null, -1);
+    }
+
+    SinkCallback(InFlightBatches.Batch batch, int index) {
+        this.batch = batch;
+        this.index = index;
     }
 
     @Override
@@ -21,5 +32,8 @@ class SinkCallback implements Callback {
         if (exception != null) {
             LOG.error("Error sending message to Kafka {} ", exception.getMessage());
         }
+        if (batch != null) {
+            batch.completed(index, exception);
+        }
     }
 }
\ No newline at end of file
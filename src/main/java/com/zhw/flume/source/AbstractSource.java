@@ -2,13 +2,18 @@ package com.zhw.flume.source;
 
 import com.google.common.base.Preconditions;
 import com.zhw.flume.conf.Configurable;
+import com.zhw.flume.event.EventBatch;
 import com.zhw.flume.interceptor.Interceptor;
 import com.zhw.flume.interceptor.InterceptorBuilderFactory;
 import com.zhw.flume.interceptor.InterceptorChain;
 import com.zhw.flume.lifecycle.LifecycleState;
+import com.zhw.flume.sink.DeliveryCallback;
 import com.zhw.flume.sink.SinkRunner;
+import com.zhw.flume.stage.RingStage;
 import org.apache.commons.compress.utils.Lists;
 import org.apache.flume.Context;
+import org.apache.flume.Event;
+import org.apache.flume.EventDeliveryException;
 import org.apache.flume.FlumeException;
 import org.apache.flume.channel.ChannelProcessor;
 import org.slf4j.Logger;
@@ -28,6 +33,9 @@ public abstract class AbstractSource implements Source, Configurable {
 
     private InterceptorChain chain;
 
+    // null hands batches to the sink runner on the calling thread
+    private volatile RingStage ringStage;
+
     private LifecycleState lifecycleState;
 
     private String name;
@@ -114,4 +122,55 @@ public abstract class AbstractSource implements Source, Configurable {
     protected InterceptorChain getInterceptorChain(){
         return chain;
     }
-}
\ No newline at end of file
+
+    protected void setRingStage(RingStage ringStage) {
+        this.ringStage = ringStage;
+    }
+
+    /**
+     * Hands the batch to the sink runner, through the ring stage if there is one, in which case
+     * the sink takes it on the sender thread of the stage and failures reach the callback only.
+     */
+    protected void sendAsync(List<Event> events, DeliveryCallback callback) throws EventDeliveryException {
+        RingStage stage = ringStage;
+        if (stage != null) {
+            stage.send(events, callback);
+        } else {
+            getSinkRunner().batchProcessAsync(events, callback);
+        }
+    }
+
+    /**
+     * Hands the batch to the sink runner like {@link #sendAsync(List, DeliveryCallback)}, keeping
+     * it an {@link EventBatch} all the way to the sink.
+     */
+    protected void sendAsync(EventBatch batch, DeliveryCallback callback) throws EventDeliveryException {
+        RingStage stage = ringStage;
+        if (stage != null) {
+            stage.send(batch, callback);
+        } else {
+            getSinkRunner().batchProcessAsync(batch, callback);
+        }
+    }
+
+    /**
+     * Hands the batches to the sink runner in order, through the ring stage in runs if there is
+     * one. Batches which could not be handed over are reported to their callbacks as failed.
+     *
+     * @param callbacks callback of the batch at the same index
+     */
+    protected void sendAllAsync(List<EventBatch> batches, List<? extends DeliveryCallback> callbacks) {
+        RingStage stage = ringStage;
+        if (stage != null) {
+            stage.sendAll(batches, callbacks);
+            return;
+        }
+        for (int i = 0; i < batches.size(); i++) {
+            try {
+                getSinkRunner().batchProcessAsync(batches.get(i), callbacks.get(i));
+            } catch (EventDeliveryException e) {
+                callbacks.get(i).onFailure(e);
+            }
+        }
+    }
+}
@@ -14,6 +14,12 @@ public interface PollableSource extends Source {
 
     long getMaxBackOffSleepInterval();
 
+    /**
+     * Hands over a callback which ends the backoff sleep of the runner, a source which learns
+     * about new data by itself calls it to get {@link #process()} invoked right away.
+     */
+    void setWakeUp(Runnable wakeUp);
+
     static enum Status {
         READY, BACKOFF
     }
@@ -2,11 +2,14 @@
 package com.zhw.flume.source;
 
 import com.zhw.flume.lifecycle.LifecycleState;
+import com.zhw.flume.threadpool.ThreadFactories;
 import org.apache.flume.CounterGroup;
 import org.apache.flume.EventDeliveryException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
@@ -17,6 +20,7 @@ public class PollableSourceRunner extends SourceRunner {
     private static final Logger logger = LoggerFactory.getLogger(org.apache.flume.source.PollableSourceRunner.class);
 
     private AtomicBoolean shouldStop;
+    private Semaphore wakeUps;
 
     private CounterGroup counterGroup;
     private PollingRunner runner;
@@ -25,6 +29,7 @@ public class PollableSourceRunner extends SourceRunner {
 
     public PollableSourceRunner() {
         shouldStop = new AtomicBoolean();
+        wakeUps = new Semaphore(0);
         counterGroup = new CounterGroup();
         lifecycleState = LifecycleState.IDLE;
     }
@@ -32,6 +37,13 @@ public class PollableSourceRunner extends SourceRunner {
     @Override
     public void start() {
         PollableSource source = (PollableSource) getSource();
+        source.setWakeUp(new Runnable() {
+
+            @Override
+            public void run() {
+                wakeUps.release();
+            }
+        });
         source.start();
 
         runner = new PollingRunner();
@@ -39,10 +51,10 @@ public class PollableSourceRunner extends SourceRunner {
         runner.source = source;
         runner.counterGroup = counterGroup;
         runner.shouldStop = shouldStop;
+        runner.wakeUps = wakeUps;
 
-        runnerThread = new Thread(runner);
-        runnerThread.setName(getClass().getSimpleName() + "-" +
-                source.getClass().getSimpleName() + "-" + source.getName());
+        runnerThread = ThreadFactories.newThread(getClass().getSimpleName() + "-" +
+                source.getClass().getSimpleName() + "-" + source.getName(), runner);
         runnerThread.start();
 
         lifecycleState = LifecycleState.START;
@@ -83,6 +95,7 @@ public class PollableSourceRunner extends SourceRunner {
         private PollableSource source;
         private AtomicBoolean shouldStop;
         private CounterGroup counterGroup;
+        private Semaphore wakeUps;
 
         @Override
         public void run() {
@@ -92,12 +105,17 @@ public class PollableSourceRunner extends SourceRunner {
                 counterGroup.incrementAndGet("runner.polls");
 
                 try {
+                    // wake ups from now on are not covered by this poll anymore
+                    wakeUps.drainPermits();
                     if (source.process().equals(PollableSource.Status.BACKOFF)) {
                         counterGroup.incrementAndGet("runner.backoffs");
 
-                        Thread.sleep(Math.min(
-                                counterGroup.incrementAndGet("runner.backoffs.consecutive")
-                                        * source.getBackOffSleepIncrement(), source.getMaxBackOffSleepInterval()));
+                        long sleep = Math.min(counterGroup.incrementAndGet("runner.backoffs.consecutive")
+                                * source.getBackOffSleepIncrement(), source.getMaxBackOffSleepInterval());
+                        if (wakeUps.tryAcquire(sleep, TimeUnit.MILLISECONDS)) {
+                            counterGroup.incrementAndGet("runner.wakeUps");
+                            counterGroup.set("runner.backoffs.consecutive", 0L);
+                        }
                     } else {
                         counterGroup.set("runner.backoffs.consecutive", 0L);
                     }
@@ -0,0 +1,87 @@
+package com.zhw.flume.source.tail;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * Highest offset of a file up to which every batch was confirmed by the sink. Each batch read
+ * from the file gets a {@link Ticket} for the offset behind its last line, tickets are issued in
+ * file order and may be acknowledged in any order. The watermark only moves over a prefix of
+ * acknowledged tickets, so it never passes a batch which is still in flight.
+ *
+ * @author zhw
+ */
+public class AckWatermark {
+
+    private final long inode;
+    // tickets in issue order, the head is the oldest unacknowledged batch
+    private final Deque<Ticket> pending = new ArrayDeque<Ticket>();
+    private volatile long watermark;
+
+    AckWatermark(long inode, long pos) {
+        this.inode = inode;
+        this.watermark = pos;
+    }
+
+    /**
+     * @param endOffset offset right behind the last line of the batch
+     */
+    synchronized Ticket issue(long endOffset) {
+        Ticket ticket = new Ticket(endOffset);
+        pending.addLast(ticket);
+        return ticket;
+    }
+
+    /**
+     * Forgets all batches in flight and starts over at the given offset, their tickets are
+     * ignored from now on.
+     */
+    synchronized void reset(long pos) {
+        pending.clear();
+        watermark = pos;
+    }
+
+    public long get() {
+        return watermark;
+    }
+
+    public synchronized int inFlight() {
+        return pending.size();
+    }
+
+    private synchronized void acked(Ticket ticket) {
+        ticket.acked = true;
+        while (!pending.isEmpty() && pending.peekFirst().acked) {
+            watermark = pending.pollFirst().endOffset;
+        }
+    }
+
+    /**
+     * The (inode, endOffset) a batch covers.
+     */
+    public class Ticket {
+
+        private final long endOffset;
+        // guarded by the watermark
+        private boolean acked;
+
+        private Ticket(long endOffset) {
+            this.endOffset = endOffset;
+        }
+
+        public long getInode() {
+            return inode;
+        }
+
+        public long getEndOffset() {
+            return endOffset;
+        }
+
+        /**
+         * Confirms that the sink delivered the batch.
+         */
+        public void ack() {
+            acked(this);
+        }
+    }
+}
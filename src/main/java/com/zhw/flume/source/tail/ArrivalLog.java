@@ -0,0 +1,70 @@
+package com.zhw.flume.source.tail;
+
+/**
+ * Sizes a {@link TailFile} was seen with by the scans, each with the time of the scan, from
+ * which the time the oldest unread byte showed up is told: it is the time of the first scan
+ * which saw the file beyond the read position. This is as exact as the scans are frequent.
+ * <p></p>
+ * At most {@link #MAX_MARKS} sizes are kept. When another one comes in, the two oldest ones are
+ * merged into one with the time of the older one, so that the unread bytes look older rather
+ * than younger than they are.
+ * <p></p>
+ * Not thread safe, used by the thread which scans the files.
+ *
+ * @author zhw
+ */
+class ArrivalLog {
+
+    static final long NOTHING_UNREAD = -1;
+
+    private static final int MAX_MARKS = 16;
+
+    // ascending sizes and the times they were first seen, oldest first
+    private final long[] sizes = new long[MAX_MARKS];
+    private final long[] times = new long[MAX_MARKS];
+    private int count;
+
+    /**
+     * Records the size a scan saw the file with. A smaller size than before means the file was
+     * truncated, which starts the log over.
+     */
+    void record(long size, long time) {
+        if (count > 0) {
+            long last = sizes[count - 1];
+            if (size == last) {
+                return;
+            }
+            if (size < last) {
+                count = 0;
+            }
+        }
+        if (count == MAX_MARKS) {
+            sizes[0] = sizes[1];
+            System.arraycopy(sizes, 2, sizes, 1, count - 2);
+            System.arraycopy(times, 2, times, 1, count - 2);
+            count--;
+        }
+        sizes[count] = size;
+        times[count] = time;
+        count++;
+    }
+
+    /**
+     * Drops the sizes which were read up to already.
+     *
+     * @param pos read position of the file
+     * @return time the byte at pos was first seen, NOTHING_UNREAD if no scan saw the file beyond pos
+     */
+    long unreadSince(long pos) {
+        int read = 0;
+        while (read < count && sizes[read] <= pos) {
+            read++;
+        }
+        if (read > 0) {
+            System.arraycopy(sizes, read, sizes, 0, count - read);
+            System.arraycopy(times, read, times, 0, count - read);
+            count -= read;
+        }
+        return count == 0 ? NOTHING_UNREAD : times[0];
+    }
+}
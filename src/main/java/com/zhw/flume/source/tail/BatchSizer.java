@@ -0,0 +1,100 @@
+package com.zhw.flume.source.tail;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sizes the batches handed to the sink by how long the sink takes for them, additive increase
+ * and multiplicative decrease as in TCP congestion control. A batch read up to either limit and
+ * delivered within the target latency grows both limits by their minimum, a slower batch or a
+ * failed delivery halves them. Batches cut short by the end of a file tell nothing about what
+ * the sink could take, so they do not grow the limits.
+ * <p></p>
+ * Batches already underway when the limits were halved were sized by the larger limits, their
+ * latency does not halve the limits again.
+ * <p></p>
+ * Equal min and max bounds fix the limit. Thread safe, the limits are taken by the threads which
+ * tail the files and adjusted by the threads which deliver the batches.
+ *
+ * @author zhw
+ */
+class BatchSizer {
+
+    private final int minLines;
+    private final int maxLines;
+    private final long minBytes;
+    private final long maxBytes;
+    private final long targetLatencyNanos;
+    private final TailDirCounter counter;
+
+    private int lines;
+    private long bytes;
+    // number of decreases so far, batches remember the one they were sized by
+    private long generation;
+
+    /**
+     * @param initialLines  line limit to start with
+     * @param targetLatency time (ms) the sink may take for a batch before the limits shrink
+     */
+    BatchSizer(int initialLines, int minLines, int maxLines, long minBytes, long maxBytes, long targetLatency,
+               TailDirCounter counter) {
+        this.minLines = minLines;
+        this.maxLines = maxLines;
+        this.minBytes = minBytes;
+        this.maxBytes = maxBytes;
+        this.targetLatencyNanos = TimeUnit.MILLISECONDS.toNanos(targetLatency);
+        this.counter = counter;
+        this.lines = Math.max(minLines, Math.min(maxLines, initialLines));
+        this.bytes = maxBytes;
+        reportLimits();
+    }
+
+    synchronized int getLines() {
+        return lines;
+    }
+
+    synchronized long getBytes() {
+        return bytes;
+    }
+
+    synchronized long getGeneration() {
+        return generation;
+    }
+
+    /**
+     * @param generation    generation the batch was sized by
+     * @param full          true if the batch was read up to a limit
+     * @param latencyNanos  time from handing the batch to the sink until it was delivered
+     */
+    synchronized void delivered(long generation, boolean full, long latencyNanos) {
+        if (latencyNanos > targetLatencyNanos) {
+            decrease(generation);
+        } else if (full) {
+            lines = lines > maxLines - minLines ? maxLines : lines + minLines;
+            bytes = bytes > maxBytes - minBytes ? maxBytes : bytes + minBytes;
+        }
+        reportLimits();
+        counter.setBatchLatency(TimeUnit.NANOSECONDS.toMillis(latencyNanos));
+    }
+
+    /**
+     * @param generation generation the batch was sized by
+     */
+    synchronized void failed(long generation) {
+        decrease(generation);
+        reportLimits();
+    }
+
+    private void decrease(long batchGeneration) {
+        if (batchGeneration != generation) {
+            return;
+        }
+        generation++;
+        lines = Math.max(minLines, lines >> 1);
+        bytes = Math.max(minBytes, bytes >> 1);
+    }
+
+    private void reportLimits() {
+        counter.setBatchLineLimit(lines);
+        counter.setBatchByteLimit(bytes);
+    }
+}
@@ -0,0 +1,52 @@
+package com.zhw.flume.source.tail;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Bytes of a line seen as characters, one char per byte as in ISO-8859-1, so that a regex can
+ * be matched on a line without decoding it. ASCII characters of a pattern match the same bytes
+ * as in UTF-8, multi byte characters of a pattern do not match.
+ * <p></p>
+ * One instance is reset to every line, it is not thread safe.
+ *
+ * @author zhw
+ */
+final class ByteCharSequence implements CharSequence {
+
+    private byte[] bytes;
+    private int offset;
+    private int length;
+
+    ByteCharSequence reset(byte[] bytes, int offset, int length) {
+        this.bytes = bytes;
+        this.offset = offset;
+        this.length = length;
+        return this;
+    }
+
+    @Override
+    public int length() {
+        return length;
+    }
+
+    @Override
+    public char charAt(int index) {
+        if (index < 0 || index >= length) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", length: " + length);
+        }
+        return (char) (bytes[offset + index] & 0xff);
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        if (start < 0 || end > length || start > end) {
+            throw new IndexOutOfBoundsException("Start: " + start + ", end: " + end + ", length: " + length);
+        }
+        return new ByteCharSequence().reset(bytes, offset + start, end - start);
+    }
+
+    @Override
+    public String toString() {
+        return new String(bytes, offset, length, StandardCharsets.ISO_8859_1);
+    }
+}
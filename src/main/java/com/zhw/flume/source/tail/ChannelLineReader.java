@@ -0,0 +1,218 @@
+package com.zhw.flume.source.tail;
+
+import com.zhw.flume.event.EventBatch;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SeekableByteChannel;
+
+import static com.zhw.flume.source.tail.TailDirSourceConfigurationConstants.LINE_CUT_HEADER_KEY;
+import static com.zhw.flume.source.tail.TailDirSourceConfigurationConstants.LINE_SPLIT;
+import static com.zhw.flume.source.tail.TailDirSourceConfigurationConstants.LINE_TRUNCATED;
+
+/**
+ * {@link LineReader} on top of a {@link FileChannel}, or of a {@link DecompressingChannel} for a
+ * compressed file. Every instance owns one buffer which is
+ * allocated once and refilled in place, lines are scanned inside the buffer and copied straight
+ * into the batch, without any allocation per line. Lines longer than the buffer, and incomplete
+ * lines held until their line separator is written, are collected in a carry array which grows
+ * on demand up to the max line length and is reused afterwards. Every byte is therefore read
+ * from the file once, however many reads it takes the writer to finish a line. A direct buffer
+ * is freed on {@link #close()}, so that files opened and closed over and over do not wait for
+ * the garbage collector to give their direct memory back.
+ *
+ * @author zhw
+ */
+class ChannelLineReader implements LineReader {
+
+    private static final byte BYTE_CR = (byte) 13;
+
+    private static final int NO_MORE_BYTES = -1;
+
+    private final SeekableByteChannel channel;
+    // bytes between position() and limit() are read but not returned yet, null once closed
+    private ByteBuffer buffer;
+    private final int maxLineLength;
+    private final boolean truncateLongLines;
+    // head of the current line which did not fit into the buffer
+    private byte[] carry;
+    private int carryLen;
+    // bytes of the current line dropped behind the carry because the line is too long
+    private long dropped;
+    // file offset of the first byte of the current line
+    private long position;
+
+    ChannelLineReader(SeekableByteChannel channel, int bufferSize, boolean directBuffer, int maxLineLength,
+            boolean truncateLongLines) throws IOException {
+        this.channel = channel;
+        this.buffer = directBuffer ? ByteBuffer.allocateDirect(bufferSize) : ByteBuffer.allocate(bufferSize);
+        this.buffer.order(ByteOrder.LITTLE_ENDIAN).flip();
+        this.maxLineLength = maxLineLength;
+        this.truncateLongLines = truncateLongLines;
+        this.carry = new byte[0];
+        this.position = channel.position();
+    }
+
+    @Override
+    public boolean readLine(EventBatch batch, boolean holdPartial) throws IOException {
+        int scanFrom = buffer.position();
+        while (true) {
+            int nlIdx = NewlineScanner.indexOf(buffer, scanFrom, buffer.limit());
+            if (nlIdx >= 0) {
+                takeLine(batch, nlIdx);
+                return true;
+            }
+            if (carryLen + buffer.remaining() > maxLineLength) {
+                if (!truncateLongLines) {
+                    takeSplit(batch);
+                    return true;
+                }
+                dropBeyondLimit();
+            }
+            scanFrom = fill();
+            if (scanFrom == NO_MORE_BYTES) {
+                if (holdPartial) {
+                    holdRemaining();
+                    return false;
+                }
+                return takeRemaining(batch);
+            }
+        }
+    }
+
+    @Override
+    public long position() {
+        return position;
+    }
+
+    @Override
+    public void seek(long pos) throws IOException {
+        channel.position(pos);
+        buffer.clear();
+        buffer.flip();
+        carryLen = 0;
+        dropped = 0;
+        position = pos;
+    }
+
+    @Override
+    public void close() {
+        DirectBuffers.free(buffer);
+        buffer = null;
+    }
+
+    private void takeLine(EventBatch batch, int nlIdx) {
+        int start = buffer.position();
+        long consumed = carryLen + dropped + (nlIdx - start) + 1;
+        int headLen = carryLen;
+        // Don't copy last byte(NEW_LINE)
+        int tailLen = nlIdx - start;
+        // For windows, check for CR
+        if (tailLen > 0 && buffer.get(nlIdx - 1) == BYTE_CR) {
+            tailLen -= 1;
+        } else if (tailLen == 0 && dropped == 0 && headLen > 0 && carry[headLen - 1] == BYTE_CR) {
+            headLen -= 1;
+        }
+        if (headLen + tailLen > maxLineLength && !truncateLongLines) {
+            takeSplit(batch);
+            return;
+        }
+        int keptLen = Math.min(tailLen, maxLineLength - headLen);
+        int index = batch.add(carry, 0, headLen);
+        batch.extendLast(buffer, keptLen);
+        if (dropped > 0 || keptLen < tailLen) {
+            batch.setHeader(index, LINE_CUT_HEADER_KEY, LINE_TRUNCATED);
+        }
+        buffer.position(nlIdx + 1);
+        carryLen = 0;
+        dropped = 0;
+        position += consumed;
+    }
+
+    /**
+     * Returns the first maxLineLength bytes of the current line as a line of its own, the rest
+     * of the line is returned by the next calls.
+     */
+    private void takeSplit(EventBatch batch) {
+        int headLen = Math.min(carryLen, maxLineLength);
+        int index = batch.add(carry, 0, headLen);
+        batch.extendLast(buffer, maxLineLength - headLen);
+        batch.setHeader(index, LINE_CUT_HEADER_KEY, LINE_SPLIT);
+        carryLen -= headLen;
+        System.arraycopy(carry, headLen, carry, 0, carryLen);
+        position += maxLineLength;
+    }
+
+    /**
+     * Keeps the current line up to maxLineLength bytes in the carry array and drops the rest of
+     * the buffer, which belongs to the same line.
+     */
+    private void dropBeyondLimit() {
+        int keptLen = Math.min(buffer.remaining(), maxLineLength - carryLen);
+        ensureCarryCapacity(carryLen + keptLen);
+        buffer.get(carry, carryLen, keptLen);
+        carryLen += keptLen;
+        dropped += buffer.remaining();
+        buffer.position(buffer.limit());
+    }
+
+    /**
+     * Parks the incomplete last line in the carry array, the next read continues behind it.
+     */
+    private void holdRemaining() {
+        int len = buffer.remaining();
+        ensureCarryCapacity(carryLen + len);
+        buffer.get(carry, carryLen, len);
+        carryLen += len;
+    }
+
+    private boolean takeRemaining(EventBatch batch) {
+        int tailLen = buffer.remaining();
+        if (carryLen + tailLen == 0 && dropped == 0) {
+            return false;
+        }
+        int index = batch.add(carry, 0, carryLen);
+        batch.extendLast(buffer, tailLen);
+        if (dropped > 0) {
+            batch.setHeader(index, LINE_CUT_HEADER_KEY, LINE_TRUNCATED);
+        }
+        position += carryLen + dropped + tailLen;
+        carryLen = 0;
+        dropped = 0;
+        return true;
+    }
+    /**
+     * Reads the next chunk of the file behind the bytes which are still pending in the buffer.
+     *
+     * @return index in the buffer from which on the bytes have not been scanned for a line
+     * separator yet, or NO_MORE_BYTES if the end of the file was reached
+     */
+    private int fill() throws IOException {
+        int scanFrom;
+        if (buffer.position() == 0 && buffer.limit() == buffer.capacity()) {
+            // the current line is longer than the buffer, park its head in the carry array
+            int len = buffer.remaining();
+            ensureCarryCapacity(carryLen + len);
+            buffer.get(carry, carryLen, len);
+            carryLen += len;
+            buffer.clear();
+            scanFrom = 0;
+        } else {
+            scanFrom = buffer.remaining();
+            buffer.compact();
+        }
+        int read = channel.read(buffer);
+        buffer.flip();
+        return read > 0 ? scanFrom : NO_MORE_BYTES;
+    }
+
+    private void ensureCarryCapacity(int capacity) {
+        if (carry.length < capacity) {
+            byte[] grown = new byte[Math.max(capacity, carry.length << 1)];
+            System.arraycopy(carry, 0, grown, 0, carryLen);
+            carry = grown;
+        }
+    }
+}
@@ -0,0 +1,284 @@
+package com.zhw.flume.source.tail;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.SeekableByteChannel;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Read only channel over the uncompressed content of a rotated file which was compressed with
+ * gzip or lz4, so that it can be read by a {@link ChannelLineReader} like the file it was. The
+ * format is told by the file name. Positions are offsets into the uncompressed content, the
+ * same offsets the lines had before the file was compressed.
+ * <p></p>
+ * The content is decompressed as it is read, with a bounded buffer whatever the size of the
+ * file. Moving the position forward decompresses and drops the bytes in between, moving it
+ * backward starts over at the beginning of the file. The uncompressed size is not known, so
+ * {@link #size()} is not supported. A file which ends before its compressed stream does, such
+ * as one still being compressed, ends with its last complete block.
+ * <p></p>
+ * Not thread safe, like the file it reads.
+ *
+ * @author zhw
+ */
+class DecompressingChannel implements SeekableByteChannel {
+
+    private static final String GZIP_SUFFIX = ".gz";
+    private static final String LZ4_SUFFIX = ".lz4";
+
+    private static final int GZIP_BUFFER_SIZE = 64 * 1024;
+    private static final int CHUNK_SIZE = 8192;
+    // header and trailer of an empty gzip file
+    private static final int GZIP_MIN_SIZE = 18;
+    // content size flag of the lz4 frame descriptor
+    private static final int LZ4_CONTENT_SIZE_FLAG = 0x08;
+    private static final int LZ4_MAGIC = 0x184D2204;
+
+    private final FileChannel file;
+    private final String name;
+    private InputStream in;
+    // uncompressed offset of the next byte read
+    private long position;
+    // for reads into direct buffers and for skipping
+    private final byte[] chunk = new byte[CHUNK_SIZE];
+    private boolean open = true;
+    // set once the end of a file which was not written completely was reached
+    private boolean truncated;
+
+    /**
+     * @param file channel of the compressed file, it is read with positional reads and not closed here
+     * @param name name of the file, which tells the format
+     */
+    DecompressingChannel(FileChannel file, String name) throws IOException {
+        this.file = file;
+        this.name = name;
+        this.in = newInputStream(file, name);
+    }
+
+    /**
+     * @return true if the name tells a format which can be decompressed
+     */
+    static boolean isCompressed(String name) {
+        return name.endsWith(GZIP_SUFFIX) || name.endsWith(LZ4_SUFFIX);
+    }
+
+    /**
+     * @return the name without the suffix of the compression format
+     */
+    static String stripSuffix(String name) {
+        if (name.endsWith(GZIP_SUFFIX)) {
+            return name.substring(0, name.length() - GZIP_SUFFIX.length());
+        }
+        if (name.endsWith(LZ4_SUFFIX)) {
+            return name.substring(0, name.length() - LZ4_SUFFIX.length());
+        }
+        return name;
+    }
+
+    /**
+     * Stream of the uncompressed content from its start, independent of any other stream or
+     * channel on the same file.
+     */
+    static InputStream newInputStream(FileChannel file, String name) throws IOException {
+        InputStream compressed = new PositionalInputStream(file);
+        if (name.endsWith(GZIP_SUFFIX)) {
+            return new GZIPInputStream(compressed, GZIP_BUFFER_SIZE);
+        }
+        if (name.endsWith(LZ4_SUFFIX)) {
+            return new Lz4FrameInputStream(compressed);
+        }
+        throw new IOException("Unknown compression format of file: " + name);
+    }
+
+    /**
+     * Tells from the size recorded in the file, without decompressing it, whether its
+     * uncompressed content ends at the given offset or before. For gzip this is the size of the
+     * last member modulo 2^32, which is compared to the offset modulo 2^32. For lz4 it is the
+     * content size of the first frame, if it was written.
+     *
+     * @return false if the content may go on behind the offset
+     */
+    static boolean endsAt(FileChannel file, String name, long offset) throws IOException {
+        if (name.endsWith(GZIP_SUFFIX)) {
+            long size = file.size();
+            if (size < GZIP_MIN_SIZE) {
+                return false;
+            }
+            ByteBuffer trailer = readFully(file, size - 4, 4);
+            return trailer != null && (trailer.getInt() & 0xffffffffL) == (offset & 0xffffffffL);
+        }
+        if (name.endsWith(LZ4_SUFFIX)) {
+            ByteBuffer header = readFully(file, 0, 14);
+            if (header == null || header.getInt() != LZ4_MAGIC || (header.get() & LZ4_CONTENT_SIZE_FLAG) == 0) {
+                return false;
+            }
+            header.get();
+            return header.getLong() <= offset;
+        }
+        return false;
+    }
+
+    private static ByteBuffer readFully(FileChannel file, long pos, int len) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(len).order(ByteOrder.LITTLE_ENDIAN);
+        while (buf.hasRemaining()) {
+            if (file.read(buf, pos + buf.position()) < 0) {
+                return null;
+            }
+        }
+        buf.flip();
+        return buf;
+    }
+
+    @Override
+    public int read(ByteBuffer dst) throws IOException {
+        checkOpen();
+        if (!dst.hasRemaining()) {
+            return 0;
+        }
+        int n;
+        do {
+            if (truncated) {
+                return -1;
+            }
+            try {
+                n = readInto(dst);
+            } catch (EOFException e) {
+                // written only in part, the content ends with the last complete block
+                truncated = true;
+                return -1;
+            }
+        } while (n == 0);
+        if (n > 0) {
+            position += n;
+        }
+        return n;
+    }
+
+    private int readInto(ByteBuffer dst) throws IOException {
+        int n;
+        if (dst.hasArray()) {
+            n = in.read(dst.array(), dst.arrayOffset() + dst.position(), dst.remaining());
+            if (n > 0) {
+                dst.position(dst.position() + n);
+            }
+        } else {
+            n = in.read(chunk, 0, Math.min(chunk.length, dst.remaining()));
+            if (n > 0) {
+                dst.put(chunk, 0, n);
+            }
+        }
+        return n;
+    }
+
+    @Override
+    public long position() throws IOException {
+        checkOpen();
+        return position;
+    }
+
+    /**
+     * Moves to the given uncompressed offset. An offset beyond the end of the content leaves
+     * the channel at the end, where reads return -1.
+     */
+    @Override
+    public SeekableByteChannel position(long newPosition) throws IOException {
+        checkOpen();
+        if (newPosition < position) {
+            in.close();
+            in = newInputStream(file, name);
+            position = 0;
+            truncated = false;
+        }
+        ByteBuffer skipped = ByteBuffer.wrap(chunk);
+        while (position < newPosition) {
+            skipped.clear();
+            skipped.limit((int) Math.min(chunk.length, newPosition - position));
+            if (read(skipped) < 0) {
+                break;
+            }
+        }
+        return this;
+    }
+
+    @Override
+    public long size() {
+        throw new UnsupportedOperationException("Uncompressed size of " + name + " is unknown");
+    }
+
+    @Override
+    public int write(ByteBuffer src) {
+        throw new NonWritableChannelException();
+    }
+
+    @Override
+    public SeekableByteChannel truncate(long size) {
+        throw new NonWritableChannelException();
+    }
+
+    @Override
+    public boolean isOpen() {
+        return open;
+    }
+
+    /**
+     * Releases the decompressor, the file channel is closed by its owner.
+     */
+    @Override
+    public void close() throws IOException {
+        if (open) {
+            open = false;
+            in.close();
+        }
+    }
+
+    private void checkOpen() throws ClosedChannelException {
+        if (!open) {
+            throw new ClosedChannelException();
+        }
+    }
+
+    /**
+     * Compressed bytes of the file, read at its own offset so that the channel position is not
+     * shared. Closing it leaves the channel open.
+     */
+    private static class PositionalInputStream extends InputStream {
+
+        private final FileChannel file;
+        private final byte[] single = new byte[1];
+        private long pos;
+
+        PositionalInputStream(FileChannel file) {
+            this.file = file;
+        }
+
+        @Override
+        public int read() throws IOException {
+            return read(single, 0, 1) < 0 ? -1 : single[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            int n = file.read(ByteBuffer.wrap(b, off, len), pos);
+            if (n > 0) {
+                pos += n;
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = Math.max(0, Math.min(n, file.size() - pos));
+            pos += skipped;
+            return skipped;
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package com.zhw.flume.source.tail;
+
+import java.util.List;
+
+/**
+ * Deficit round robin by bytes. Every turn adds the quantum of a file to its deficit, the turn
+ * may read as many bytes as the deficit holds, and the bytes read are taken off it. A turn
+ * which read more than its deficit, because it finished its last batch, leaves a debt which
+ * skips turns of the file until the quanta made up for it. A file read up to its end starts
+ * over with no deficit, so that an idle file does not save up turns.
+ * <p></p>
+ * Over several polls every busy file reads about the same bytes in proportion to its weight,
+ * however many lines it is behind.
+ *
+ * @author zhw
+ */
+public class DeficitRoundRobinScheduler extends WeightedTailFileScheduler {
+
+    @Override
+    public List<TailFile> order(List<TailFile> ready, long now) {
+        return ready;
+    }
+
+    @Override
+    public long startTurn(TailFile tf) {
+        long deficit = tf.getDeficit() + quantum(tf);
+        tf.setDeficit(deficit);
+        return deficit;
+    }
+
+    @Override
+    public void endTurn(TailFile tf, long bytes, boolean drained) {
+        tf.setDeficit(drained ? 0 : tf.getDeficit() - bytes);
+    }
+}
@@ -0,0 +1,77 @@
+package com.zhw.flume.source.tail;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+
+/**
+ * Frees the memory of direct and mapped buffers right away instead of when the buffer is
+ * collected, which may take long enough for many files to exhaust the direct memory limit.
+ * Uses {@code Unsafe.invokeCleaner} on JDK 9 and later and the cleaner of the buffer on JDK 8.
+ * Where neither is accessible the buffer is left to the garbage collector.
+ * <p></p>
+ * A freed buffer must not be touched again, the caller drops every reference to it.
+ *
+ * @author zhw
+ */
+final class DirectBuffers {
+
+    private static final Logger LOG = LoggerFactory.getLogger(DirectBuffers.class);
+
+    private static final Freer FREER = freer();
+
+    private DirectBuffers() {
+    }
+
+    static void free(ByteBuffer buffer) {
+        if (buffer == null || !buffer.isDirect() || FREER == null) {
+            return;
+        }
+        try {
+            FREER.free(buffer);
+        } catch (Exception e) {
+            LOG.debug("Unable to free a direct buffer, leaving it to the garbage collector: " + e);
+        }
+    }
+
+    private static Freer freer() {
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            final Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+            Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+            theUnsafe.setAccessible(true);
+            final Object unsafe = theUnsafe.get(null);
+            return new Freer() {
+                @Override
+                public void free(ByteBuffer buffer) throws Exception {
+                    invokeCleaner.invoke(unsafe, buffer);
+                }
+            };
+        } catch (Exception e) {
+            // JDK 8
+        }
+        try {
+            final Method cleaner = Class.forName("sun.nio.ch.DirectBuffer").getMethod("cleaner");
+            final Method clean = Class.forName("sun.misc.Cleaner").getMethod("clean");
+            return new Freer() {
+                @Override
+                public void free(ByteBuffer buffer) throws Exception {
+                    Object bufferCleaner = cleaner.invoke(buffer);
+                    if (bufferCleaner != null) {
+                        clean.invoke(bufferCleaner);
+                    }
+                }
+            };
+        } catch (Exception e) {
+            LOG.info("Direct buffers cannot be freed explicitly, they are left to the garbage collector: " + e);
+            return null;
+        }
+    }
+
+    private interface Freer {
+        void free(ByteBuffer buffer) throws Exception;
+    }
+}
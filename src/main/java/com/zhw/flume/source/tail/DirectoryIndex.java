@@ -0,0 +1,286 @@
+package com.zhw.flume.source.tail;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Files matched by a glob pattern over several directory levels, such as
+ * <code>/data/apps/*&#47;logs/**&#47;*.log</code>. The pattern is split into its leading directory
+ * without wildcards, the root, and one glob per path segment below it, where <code>**</code>
+ * stands for any number of directories.
+ * <p></p>
+ * Every directory below the root which may still lead to a match is kept in an in-memory index
+ * together with its matched files. A refresh stats each indexed directory and lists only those
+ * whose mtime changed since they were listed, with the same second granularity rule as
+ * {@link TailDirMatcher#getMatchingFiles()}. Unchanged directories are not listed again, and only
+ * entries whose names may match are stat'ed while listing. Symbolic links to directories below
+ * the root are not followed.
+ * <p></p>
+ * Not thread safe, an instance is refreshed by the thread which scans its filegroup.
+ *
+ * @author zhw
+ */
+class DirectoryIndex {
+
+    private static final Logger LOG = LoggerFactory.getLogger(DirectoryIndex.class);
+    private static final FileSystem FS = FileSystems.getDefault();
+
+    private static final String ANY_DIRECTORIES = "**";
+
+    private final Path root;
+    // one matcher per path segment below the root, null for ANY_DIRECTORIES
+    private final PathMatcher[] segments;
+    private final boolean cachePatternMatching;
+    private final TailDirCounter counter;
+    private final Map<Path, Directory> directories = Maps.newHashMap();
+    private List<File> matchedFiles = Collections.emptyList();
+
+    /**
+     * @param root    leading directory of the pattern, without wildcards
+     * @param pattern glob of the paths below the root, segments separated by '/'
+     */
+    DirectoryIndex(Path root, String pattern, boolean cachePatternMatching, TailDirCounter counter) {
+        this.root = root;
+        this.cachePatternMatching = cachePatternMatching;
+        this.counter = counter;
+        String[] parts = pattern.split("/+");
+        Preconditions.checkArgument(parts.length < Long.SIZE - 1, "Too many path segments in pattern: " + pattern);
+        this.segments = new PathMatcher[parts.length];
+        for (int i = 0; i < parts.length; i++) {
+            segments[i] = ANY_DIRECTORIES.equals(parts[i]) ? null : FS.getPathMatcher("glob:" + parts[i]);
+        }
+    }
+
+    /**
+     * @return true if the directory part of the pattern holds wildcards
+     */
+    static boolean isGlob(String filePattern) {
+        String parent = new File(filePattern).getParent();
+        return parent != null && hasWildcard(parent);
+    }
+
+    /**
+     * @return the index for the given pattern, with the root at its last directory without wildcards
+     */
+    static DirectoryIndex forPattern(String filePattern, boolean cachePatternMatching, TailDirCounter counter) {
+        Path path = Paths.get(filePattern);
+        Path root = path.getRoot();
+        int rootNames = 0;
+        while (rootNames < path.getNameCount() - 1 && !hasWildcard(path.getName(rootNames).toString())) {
+            root = root == null ? path.getName(rootNames) : root.resolve(path.getName(rootNames));
+            rootNames++;
+        }
+        String pattern = path.subpath(rootNames, path.getNameCount()).toString().replace(File.separatorChar, '/');
+        return new DirectoryIndex(root, pattern, cachePatternMatching, counter);
+    }
+
+    private static boolean hasWildcard(String s) {
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '*' || c == '?' || c == '[' || c == '{') {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    Path getRoot() {
+        return root;
+    }
+
+    /**
+     * @return the directories which may hold matching files, as seen by the last refresh
+     */
+    List<Path> getDirectories() {
+        if (directories.isEmpty()) {
+            return Collections.singletonList(root);
+        }
+        return Lists.newArrayList(directories.keySet());
+    }
+
+    /**
+     * Brings the index up to date and returns the matching files.
+     *
+     * @return files matching the pattern, unsorted, may include directories which are symbolic links
+     */
+    List<File> getMatchingFiles() {
+        long now = TimeUnit.SECONDS.toMillis(TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis()));
+        Set<Path> visited = Sets.newHashSet();
+        boolean changed = refresh(root, closure(1L), visited, now);
+        if (directories.keySet().retainAll(visited)) {
+            changed = true;
+        }
+        if (changed) {
+            List<File> files = Lists.newArrayList();
+            for (Directory dir : directories.values()) {
+                files.addAll(dir.files);
+            }
+            matchedFiles = files;
+        }
+        return matchedFiles;
+    }
+
+    /**
+     * Tells without touching the file system whether the path would be matched.
+     */
+    boolean matches(Path file) {
+        if (!file.startsWith(root) || file.equals(root)) {
+            return false;
+        }
+        long states = closure(1L);
+        for (Path name : root.relativize(file)) {
+            states = step(states, name);
+        }
+        return (states & finalState()) != 0;
+    }
+
+    /**
+     * Tells without touching the file system whether files within the directory may be matched.
+     */
+    boolean mayContain(Path dir) {
+        if (!dir.startsWith(root)) {
+            return false;
+        }
+        long states = closure(1L);
+        if (!dir.equals(root)) {
+            for (Path name : root.relativize(dir)) {
+                states = step(states, name);
+            }
+        }
+        return isViable(states);
+    }
+
+    /**
+     * Re-lists the directory if it changed and refreshes the directories below it.
+     *
+     * @return true if the matched files changed
+     */
+    private boolean refresh(Path path, long states, Set<Path> visited, long now) {
+        if (!visited.add(path)) {
+            return false;
+        }
+        Directory dir = directories.get(path);
+        counter.incrementDirStatCount();
+        long mtime = path.toFile().lastModified();
+        if (mtime == 0 && !Files.isDirectory(path)) {
+            visited.remove(path);
+            return dir != null && !dir.files.isEmpty();
+        }
+        boolean changed = false;
+        if (dir == null || !cachePatternMatching || dir.lastSeenMTime < mtime || !(mtime < dir.lastCheckedTime)) {
+            Directory listed = list(path, states);
+            listed.lastSeenMTime = mtime;
+            listed.lastCheckedTime = now;
+            changed = dir == null ? !listed.files.isEmpty() : !sameFiles(dir.files, listed.files);
+            directories.put(path, listed);
+            dir = listed;
+        }
+        for (Path name : dir.subdirs) {
+            changed |= refresh(path.resolve(name), step(states, name), visited, now);
+        }
+        return changed;
+    }
+
+    private Directory list(Path path, long states) {
+        Directory dir = new Directory();
+        counter.incrementDirListCount();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(path)) {
+            for (Path entry : stream) {
+                Path name = entry.getFileName();
+                long entryStates = step(states, name);
+                if (entryStates == 0) {
+                    // neither a match nor on the way to one, no need to stat it
+                    continue;
+                }
+                if (isViable(entryStates)) {
+                    counter.incrementFileStatCount();
+                    if (Files.isDirectory(entry, LinkOption.NOFOLLOW_LINKS)) {
+                        dir.subdirs.add(name);
+                        continue;
+                    }
+                }
+                if ((entryStates & finalState()) != 0) {
+                    // a directory among them is sorted out by the stat of the matched files
+                    dir.files.add(entry.toFile());
+                }
+            }
+        } catch (IOException e) {
+            LOG.error("I/O exception occurred while listing directory. Entries already listed will be used. "
+                    + path, e);
+        }
+        return dir;
+    }
+
+    private static boolean sameFiles(List<File> a, List<File> b) {
+        return a.size() == b.size() && Sets.newHashSet(a).containsAll(b);
+    }
+
+    /**
+     * Segments which the next name may match, bit i stands for segment i and the bit behind the
+     * last segment for a complete match.
+     */
+    private long step(long states, Path name) {
+        long next = 0;
+        for (int i = 0; i < segments.length; i++) {
+            if ((states & (1L << i)) == 0) {
+                continue;
+            }
+            if (segments[i] == null) {
+                next |= 1L << i;
+            } else if (segments[i].matches(name)) {
+                next |= 1L << (i + 1);
+            }
+        }
+        return closure(next);
+    }
+
+    /**
+     * Adds the segments behind each reachable ANY_DIRECTORIES, which may match no directory at all.
+     */
+    private long closure(long states) {
+        for (int i = 0; i < segments.length; i++) {
+            if (segments[i] == null && (states & (1L << i)) != 0) {
+                states |= 1L << (i + 1);
+            }
+        }
+        return states;
+    }
+
+    private long finalState() {
+        return 1L << segments.length;
+    }
+
+    /**
+     * @return true if a directory with the given states may hold matching files
+     */
+    private boolean isViable(long states) {
+        return (states & (finalState() - 1)) != 0;
+    }
+
+    private static class Directory {
+        private final List<Path> subdirs = Lists.newArrayList();
+        private final List<File> files = Lists.newArrayList();
+        private long lastSeenMTime;
+        private long lastCheckedTime;
+    }
+}
@@ -0,0 +1,26 @@
+package com.zhw.flume.source.tail;
+
+import java.util.List;
+
+/**
+ * Files get their turns in scan order and each turn reads as much as maxBatchCount allows,
+ * which is the whole backlog by default.
+ *
+ * @author zhw
+ */
+public class FifoScheduler implements TailFileScheduler {
+
+    @Override
+    public List<TailFile> order(List<TailFile> ready, long now) {
+        return ready;
+    }
+
+    @Override
+    public long startTurn(TailFile tf) {
+        return Long.MAX_VALUE;
+    }
+
+    @Override
+    public void endTurn(TailFile tf, long bytes, boolean drained) {
+    }
+}
@@ -0,0 +1,129 @@
+package com.zhw.flume.source.tail;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Hash of the first bytes of a file, which tells a file apart from a later file that got the
+ * same inode, or from the content written after the file was truncated in place. A file shorter
+ * than the configured number of bytes is hashed as far as it goes, the fingerprint grows with
+ * the file until it covers the configured number of bytes.
+ * <p></p>
+ * The hash is 64 bit FNV-1a, so that a longer fingerprint continues the hash of a shorter one
+ * and both are checked with a single read.
+ *
+ * @author zhw
+ */
+public final class FileFingerprint {
+
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private final int length;
+    private final long hash;
+
+    public FileFingerprint(int length, long hash) {
+        this.length = length;
+        this.hash = hash;
+    }
+
+    /**
+     * @param maxBytes number of bytes covered once the file is long enough
+     */
+    public static FileFingerprint read(FileChannel channel, int maxBytes) throws IOException {
+        ByteBuffer head = readHead(channel, maxBytes);
+        return new FileFingerprint(head.limit(), hash(FNV_OFFSET_BASIS, head, head.limit()));
+    }
+
+    /**
+     * Checks whether the file still starts with the fingerprinted bytes.
+     *
+     * @return the fingerprint, extended if it did not cover maxBytes and the file grew, or null
+     * if the file starts with other bytes or is shorter than the fingerprint
+     */
+    public FileFingerprint verify(FileChannel channel, int maxBytes) throws IOException {
+        ByteBuffer head = readHead(channel, length < maxBytes ? maxBytes : length);
+        if (head.limit() < length) {
+            return null;
+        }
+        long prefixHash = hash(FNV_OFFSET_BASIS, head, length);
+        if (prefixHash != hash) {
+            return null;
+        }
+        if (head.limit() == length) {
+            return this;
+        }
+        return new FileFingerprint(head.limit(), hash(prefixHash, head, head.limit()));
+    }
+
+    /**
+     * Checks whether the stream starts with the fingerprinted bytes, such as the decompressed
+     * content of a file which was compressed after it was rotated.
+     *
+     * @return false if the stream starts with other bytes or ends before the fingerprint does
+     */
+    public boolean isPrefixOf(InputStream in) throws IOException {
+        byte[] head = new byte[length];
+        int read = 0;
+        while (read < length) {
+            int n = in.read(head, read, length - read);
+            if (n < 0) {
+                return false;
+            }
+            read += n;
+        }
+        return hash(FNV_OFFSET_BASIS, ByteBuffer.wrap(head), length) == hash;
+    }
+
+    private static ByteBuffer readHead(FileChannel channel, int maxBytes) throws IOException {
+        ByteBuffer head = ByteBuffer.allocate(maxBytes);
+        while (head.hasRemaining() && channel.read(head, head.position()) > 0) {
+            // a positional read does not move the channel, so reading lines goes on undisturbed
+        }
+        head.flip();
+        return head;
+    }
+
+    /**
+     * Continues the hash over the buffer from its position up to end, and moves the position there.
+     */
+    private static long hash(long hash, ByteBuffer buf, int end) {
+        while (buf.position() < end) {
+            hash ^= buf.get() & 0xff;
+            hash *= FNV_PRIME;
+        }
+        return hash;
+    }
+
+    public int getLength() {
+        return length;
+    }
+
+    public long getHash() {
+        return hash;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        FileFingerprint that = (FileFingerprint) o;
+        return length == that.length && hash == that.hash;
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * length + (int) (hash ^ (hash >>> 32));
+    }
+
+    @Override
+    public String toString() {
+        return length + ":" + Long.toHexString(hash);
+    }
+}
@@ -0,0 +1,69 @@
+package com.zhw.flume.source.tail;
+
+/**
+ * Checkpointed read position of one tailed file.
+ *
+ * @author zhw
+ */
+public final class FilePosition {
+
+    private final long inode;
+    private final long pos;
+    private final String path;
+    // null unless files are fingerprinted
+    private final FileFingerprint fingerprint;
+
+    public FilePosition(long inode, long pos, String path) {
+        this(inode, pos, path, null);
+    }
+
+    public FilePosition(long inode, long pos, String path, FileFingerprint fingerprint) {
+        this.inode = inode;
+        this.pos = pos;
+        this.path = path;
+        this.fingerprint = fingerprint;
+    }
+
+    public long getInode() {
+        return inode;
+    }
+
+    public long getPos() {
+        return pos;
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    public FileFingerprint getFingerprint() {
+        return fingerprint;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        FilePosition that = (FilePosition) o;
+        return inode == that.inode && pos == that.pos && path.equals(that.path)
+                && (fingerprint == null ? that.fingerprint == null : fingerprint.equals(that.fingerprint));
+    }
+
+    @Override
+    public int hashCode() {
+        int result = (int) (inode ^ (inode >>> 32));
+        result = 31 * result + (int) (pos ^ (pos >>> 32));
+        result = 31 * result + path.hashCode();
+        return 31 * result + (fingerprint == null ? 0 : fingerprint.hashCode());
+    }
+
+    @Override
+    public String toString() {
+        return "{inode=" + inode + ", pos=" + pos + ", file='" + path + "'"
+                + (fingerprint == null ? "" : ", fingerprint=" + fingerprint) + "}";
+    }
+}
@@ -0,0 +1,62 @@
+package com.zhw.flume.source.tail;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.attribute.FileTime;
+import java.util.Map;
+
+/**
+ * Inode, size and mtime of a file taken by one stat call, so that a scan looks at each file once
+ * and the matcher and the reader judge it by the same snapshot.
+ *
+ * @author zhw
+ */
+final class FileStat {
+
+    private static final String ATTRIBUTES = "unix:ino,size,lastModifiedTime,isDirectory";
+
+    private final File file;
+    private final long inode;
+    private final long size;
+    private final long lastModified;
+    private final boolean directory;
+
+    private FileStat(File file, long inode, long size, long lastModified, boolean directory) {
+        this.file = file;
+        this.inode = inode;
+        this.size = size;
+        this.lastModified = lastModified;
+        this.directory = directory;
+    }
+
+    /**
+     * @throws java.nio.file.NoSuchFileException if the file does not exist (anymore)
+     */
+    static FileStat read(File file, TailDirCounter counter) throws IOException {
+        counter.incrementFileStatCount();
+        Map<String, Object> attributes = Files.readAttributes(file.toPath(), ATTRIBUTES);
+        return new FileStat(file, (Long) attributes.get("ino"), (Long) attributes.get("size"),
+                ((FileTime) attributes.get("lastModifiedTime")).toMillis(), (Boolean) attributes.get("isDirectory"));
+    }
+
+    File getFile() {
+        return file;
+    }
+
+    long getInode() {
+        return inode;
+    }
+
+    long getSize() {
+        return size;
+    }
+
+    long getLastModified() {
+        return lastModified;
+    }
+
+    boolean isDirectory() {
+        return directory;
+    }
+}
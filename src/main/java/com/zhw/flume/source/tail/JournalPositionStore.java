@@ -0,0 +1,286 @@
+package com.zhw.flume.source.tail;
+
+import com.google.common.collect.Maps;
+import com.google.gson.stream.JsonReader;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Append only binary journal of position changes. A save appends one small record per changed
+ * file and syncs the data, unchanged files cost nothing. Once the journal holds much more
+ * records than live files, it is compacted into a snapshot of the live positions which replaces
+ * the journal atomically.
+ * <p></p>
+ * Layout: a 4 byte magic followed by records of
+ * <pre>
+ * PUT     type(1) inode(8) pos(8) pathLength(4) path(UTF-8) crc(4)
+ * POS     type(1) inode(8) pos(8) crc(4)
+ * REMOVE  type(1) inode(8) crc(4)
+ * FPRINT  type(1) inode(8) fingerprintBytes(4) fingerprint(8) crc(4)
+ * </pre>
+ * FPRINT sets the fingerprint of a file put before, it follows the PUT record of a fingerprinted
+ * file and is appended again when the fingerprint grows.
+ * The CRC32 covers the record from its type on. Loading stops at the first torn or corrupt
+ * record, which can only be the tail of an interrupted append, and cuts the journal there.
+ * A JSON position file found at the path is read once and converted by the next save.
+ *
+ * @author zhw
+ */
+public class JournalPositionStore implements PositionStore {
+
+    private static final Logger LOG = LoggerFactory.getLogger(JournalPositionStore.class);
+
+    private static final int MAGIC = 0x544A5031;
+
+    private static final byte PUT = 1;
+    private static final byte POS = 2;
+    private static final byte REMOVE = 3;
+    private static final byte FPRINT = 4;
+
+    private static final int CRC_BYTES = 4;
+    private static final int POS_RECORD_BYTES = 1 + 8 + 8 + CRC_BYTES;
+    private static final int REMOVE_RECORD_BYTES = 1 + 8 + CRC_BYTES;
+    private static final int FPRINT_RECORD_BYTES = 1 + 8 + 4 + 8 + CRC_BYTES;
+
+    // compact once the journal holds this many times more records than live files
+    private static final int COMPACT_RATIO = 4;
+    private static final int COMPACT_MIN_RECORDS = 10000;
+
+    private final Path path;
+    private final CRC32 crc = new CRC32();
+
+    private FileChannel channel;
+    // replaced by every save, never modified after load
+    private Map<Long, FilePosition> saved = Maps.newHashMap();
+    private long journalRecords;
+    private boolean compactRequired;
+    private ByteBuffer writeBuffer = ByteBuffer.allocate(64 * 1024);
+
+    public JournalPositionStore(Path path) {
+        this.path = path;
+    }
+
+    @Override
+    public synchronized Map<Long, FilePosition> load() throws IOException {
+        byte[] content;
+        try {
+            content = Files.readAllBytes(path);
+        } catch (NoSuchFileException e) {
+            compactRequired = true;
+            return Collections.unmodifiableMap(saved);
+        }
+        ByteBuffer buf = ByteBuffer.wrap(content);
+        if (content.length < 4 || buf.getInt(0) != MAGIC) {
+            LOG.info("Converting position file " + path + " to a journal");
+            if (content.length > 0) {
+                JsonPositionStore.readPositions(new JsonReader(new InputStreamReader(
+                        new ByteArrayInputStream(content), StandardCharsets.UTF_8)), saved);
+            }
+            compactRequired = true;
+            return Collections.unmodifiableMap(saved);
+        }
+        buf.position(4);
+        int validEnd = replay(buf);
+        if (validEnd < content.length) {
+            LOG.warn("Dropping " + (content.length - validEnd) + " bytes of a torn record at the end of " + path);
+            try (FileChannel ch = FileChannel.open(path, StandardOpenOption.WRITE)) {
+                ch.truncate(validEnd);
+                ch.force(true);
+            }
+        }
+        return Collections.unmodifiableMap(saved);
+    }
+
+    /**
+     * Applies all intact records to the saved positions.
+     *
+     * @return offset behind the last intact record
+     */
+    private int replay(ByteBuffer buf) {
+        int validEnd = buf.position();
+        try {
+            while (buf.hasRemaining()) {
+                int start = buf.position();
+                byte type = buf.get();
+                long inode = buf.getLong();
+                FilePosition position = null;
+                if (type == PUT) {
+                    long pos = buf.getLong();
+                    int len = buf.getInt();
+                    if (len < 0 || len > buf.remaining()) {
+                        break;
+                    }
+                    byte[] pathBytes = new byte[len];
+                    buf.get(pathBytes);
+                    position = new FilePosition(inode, pos, new String(pathBytes, StandardCharsets.UTF_8));
+                } else if (type == POS) {
+                    long pos = buf.getLong();
+                    FilePosition prev = saved.get(inode);
+                    if (prev != null) {
+                        position = new FilePosition(inode, pos, prev.getPath(), prev.getFingerprint());
+                    }
+                } else if (type == FPRINT) {
+                    FileFingerprint fingerprint = new FileFingerprint(buf.getInt(), buf.getLong());
+                    FilePosition prev = saved.get(inode);
+                    if (prev != null) {
+                        position = new FilePosition(inode, prev.getPos(), prev.getPath(), fingerprint);
+                    }
+                } else if (type != REMOVE) {
+                    break;
+                }
+                int end = buf.position();
+                crc.reset();
+                crc.update(buf.array(), start, end - start);
+                if (buf.getInt() != (int) crc.getValue()) {
+                    break;
+                }
+                if (type == REMOVE) {
+                    saved.remove(inode);
+                } else if (position != null) {
+                    saved.put(inode, position);
+                }
+                journalRecords++;
+                validEnd = buf.position();
+            }
+        } catch (BufferUnderflowException e) {
+            // torn record
+        }
+        return validEnd;
+    }
+
+    @Override
+    public synchronized void save(Collection<FilePosition> positions) throws IOException {
+        Map<Long, FilePosition> current = Maps.newHashMapWithExpectedSize(positions.size());
+        for (FilePosition p : positions) {
+            current.put(p.getInode(), p);
+        }
+        if (compactRequired || journalRecords > Math.max(COMPACT_MIN_RECORDS, (long) COMPACT_RATIO * current.size())) {
+            compact(current);
+            return;
+        }
+        writeBuffer.clear();
+        int records = 0;
+        for (FilePosition p : current.values()) {
+            FilePosition prev = saved.get(p.getInode());
+            if (prev == null || !prev.getPath().equals(p.getPath())) {
+                putRecord(PUT, p);
+                records++;
+                prev = null;
+            } else if (prev.getPos() != p.getPos()) {
+                putRecord(POS, p);
+                records++;
+            }
+            if (p.getFingerprint() != null && (prev == null || !p.getFingerprint().equals(prev.getFingerprint()))) {
+                putRecord(FPRINT, p);
+                records++;
+            }
+        }
+        for (Long inode : saved.keySet()) {
+            if (!current.containsKey(inode)) {
+                putRecord(REMOVE, new FilePosition(inode, 0, ""));
+                records++;
+            }
+        }
+        if (records == 0) {
+            return;
+        }
+        writeBuffer.flip();
+        // a failed append may leave a torn record which would hide every later one,
+        // the next save starts from a fresh snapshot in that case
+        compactRequired = true;
+        if (channel == null) {
+            channel = FileChannel.open(path, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        }
+        while (writeBuffer.hasRemaining()) {
+            channel.write(writeBuffer);
+        }
+        channel.force(false);
+        compactRequired = false;
+        journalRecords += records;
+        saved = current;
+    }
+
+    /**
+     * Replaces the journal with one PUT record per live file.
+     */
+    private void compact(Map<Long, FilePosition> current) throws IOException {
+        if (channel != null) {
+            channel.close();
+            channel = null;
+        }
+        writeBuffer.clear();
+        writeBuffer.putInt(MAGIC);
+        for (FilePosition p : current.values()) {
+            putRecord(PUT, p);
+            if (p.getFingerprint() != null) {
+                putRecord(FPRINT, p);
+            }
+        }
+        writeBuffer.flip();
+        PositionFiles.writeAtomically(path, writeBuffer);
+        journalRecords = current.size();
+        compactRequired = false;
+        saved = current;
+    }
+
+    private void putRecord(byte type, FilePosition p) {
+        byte[] pathBytes = type == PUT ? p.getPath().getBytes(StandardCharsets.UTF_8) : null;
+        int size = type == PUT ? POS_RECORD_BYTES + 4 + pathBytes.length : type == POS ? POS_RECORD_BYTES
+                : type == FPRINT ? FPRINT_RECORD_BYTES : REMOVE_RECORD_BYTES;
+        ensureRemaining(size);
+        int start = writeBuffer.position();
+        writeBuffer.put(type);
+        writeBuffer.putLong(p.getInode());
+        if (type == FPRINT) {
+            writeBuffer.putInt(p.getFingerprint().getLength());
+            writeBuffer.putLong(p.getFingerprint().getHash());
+        } else if (type != REMOVE) {
+            writeBuffer.putLong(p.getPos());
+        }
+        if (type == PUT) {
+            writeBuffer.putInt(pathBytes.length);
+            writeBuffer.put(pathBytes);
+        }
+        crc.reset();
+        crc.update(writeBuffer.array(), start, writeBuffer.position() - start);
+        writeBuffer.putInt((int) crc.getValue());
+    }
+
+    private void ensureRemaining(int size) {
+        if (writeBuffer.remaining() < size) {
+            ByteBuffer grown = ByteBuffer.allocate(Math.max(writeBuffer.capacity() << 1, writeBuffer.position() + size));
+            writeBuffer.flip();
+            grown.put(writeBuffer);
+            writeBuffer = grown;
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (channel != null) {
+            channel.close();
+            channel = null;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "JournalPositionStore{" + path + "}";
+    }
+}
@@ -0,0 +1,133 @@
+package com.zhw.flume.source.tail;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.gson.Gson;
+import com.google.gson.stream.JsonReader;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Keeps all positions in one JSON array, the format of the original position file:
+ * <pre>[{"inode":2496272,"pos":12,"file":"/var/log/app/app.log"}, ...]</pre>
+ * Fingerprinted files carry two more fields, <code>"fingerprintBytes"</code> and
+ * <code>"fingerprint"</code>, which older readers skip.
+ * Every save rewrites the whole file, atomically through a temp file.
+ *
+ * @author zhw
+ */
+public class JsonPositionStore implements PositionStore {
+
+    private final Path path;
+    // what the file holds right now
+    private Set<FilePosition> saved = Sets.newHashSet();
+
+    public JsonPositionStore(Path path) {
+        this.path = path;
+    }
+
+    @Override
+    public synchronized Map<Long, FilePosition> load() throws IOException {
+        Map<Long, FilePosition> positions = Maps.newHashMap();
+        try (BufferedReader br = Files.newBufferedReader(path, StandardCharsets.UTF_8);
+             JsonReader jr = new JsonReader(br)) {
+            if (Files.size(path) > 0) {
+                readPositions(jr, positions);
+            }
+        } catch (NoSuchFileException e) {
+            return positions;
+        }
+        saved = Sets.newHashSet(positions.values());
+        return positions;
+    }
+
+    static void readPositions(JsonReader jr, Map<Long, FilePosition> positions) throws IOException {
+        Long inode, pos, fingerprintHash;
+        Integer fingerprintBytes;
+        String path;
+        jr.beginArray();
+        while (jr.hasNext()) {
+            inode = null;
+            pos = null;
+            path = null;
+            fingerprintBytes = null;
+            fingerprintHash = null;
+            jr.beginObject();
+            while (jr.hasNext()) {
+                switch (jr.nextName()) {
+                    case "inode":
+                        inode = jr.nextLong();
+                        break;
+                    case "pos":
+                        pos = jr.nextLong();
+                        break;
+                    case "file":
+                        path = jr.nextString();
+                        break;
+                    case "fingerprintBytes":
+                        fingerprintBytes = jr.nextInt();
+                        break;
+                    case "fingerprint":
+                        fingerprintHash = jr.nextLong();
+                        break;
+                    default:
+                        jr.skipValue();
+                }
+            }
+            jr.endObject();
+
+            for (Object v : Arrays.asList(inode, pos, path)) {
+                Preconditions.checkNotNull(v, "Detected missing value in position file. " + "inode: " + inode + ", pos: " + pos + ", path: " + path);
+            }
+            FileFingerprint fingerprint = fingerprintBytes == null || fingerprintHash == null
+                    ? null : new FileFingerprint(fingerprintBytes, fingerprintHash);
+            positions.put(inode, new FilePosition(inode, pos, path, fingerprint));
+        }
+        jr.endArray();
+    }
+
+    @Override
+    public synchronized void save(Collection<FilePosition> positions) throws IOException {
+        Set<FilePosition> current = Sets.newHashSet(positions);
+        if (current.equals(saved)) {
+            return;
+        }
+        @SuppressWarnings("rawtypes")
+        List<Map> posInfos = Lists.newArrayListWithCapacity(positions.size());
+        for (FilePosition p : positions) {
+            FileFingerprint fingerprint = p.getFingerprint();
+            if (fingerprint == null) {
+                posInfos.add(ImmutableMap.of("inode", p.getInode(), "pos", p.getPos(), "file", p.getPath()));
+            } else {
+                posInfos.add(ImmutableMap.of("inode", p.getInode(), "pos", p.getPos(), "file", p.getPath(),
+                        "fingerprintBytes", fingerprint.getLength(), "fingerprint", fingerprint.getHash()));
+            }
+        }
+        byte[] json = new Gson().toJson(posInfos).getBytes(StandardCharsets.UTF_8);
+        PositionFiles.writeAtomically(path, ByteBuffer.wrap(json));
+        saved = current;
+    }
+
+    @Override
+    public void close() {
+    }
+
+    @Override
+    public String toString() {
+        return "JsonPositionStore{" + path + "}";
+    }
+}
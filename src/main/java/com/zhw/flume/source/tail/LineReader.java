@@ -0,0 +1,38 @@
+package com.zhw.flume.source.tail;
+
+import com.zhw.flume.event.EventBatch;
+
+import java.io.IOException;
+
+/**
+ * Splits the content of a tailed file into lines, starting from a given offset.
+ *
+ * @author zhw
+ */
+interface LineReader {
+
+    /**
+     * Appends the next line without its line separator to the batch. The bytes behind the last
+     * line separator are an incomplete line: with holdPartial they are kept for the next call,
+     * which reads on behind them, otherwise they are returned as a line.
+     *
+     * @return false if no complete line is left, or no bytes at all without holdPartial
+     */
+    boolean readLine(EventBatch batch, boolean holdPartial) throws IOException;
+
+    /**
+     * Offset in the file right behind the last line returned.
+     */
+    long position();
+
+    /**
+     * Drops everything buffered so far and continues reading at the given offset.
+     */
+    void seek(long pos) throws IOException;
+
+    /**
+     * Frees the buffers of the reader, which must not be used afterwards. The channel is closed
+     * by its owner.
+     */
+    void close();
+}
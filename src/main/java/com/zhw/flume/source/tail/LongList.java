@@ -0,0 +1,83 @@
+package com.zhw.flume.source.tail;
+
+import java.util.Arrays;
+
+/**
+ * Growable list of primitive longs, for inode lists which are rebuilt on every poll without
+ * boxing each inode. Not thread safe.
+ *
+ * @author zhw
+ */
+public final class LongList {
+
+    private long[] values;
+    private int size;
+
+    public LongList() {
+        this(16);
+    }
+
+    public LongList(int capacity) {
+        this.values = new long[Math.max(capacity, 1)];
+    }
+
+    public void add(long value) {
+        if (size == values.length) {
+            values = Arrays.copyOf(values, size << 1);
+        }
+        values[size++] = value;
+    }
+
+    public void addAll(LongList other) {
+        if (values.length - size < other.size) {
+            values = Arrays.copyOf(values, Math.max(values.length << 1, size + other.size));
+        }
+        System.arraycopy(other.values, 0, values, size, other.size);
+        size += other.size;
+    }
+
+    public long get(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", size: " + size);
+        }
+        return values[index];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Linear search, for short lists or rare lookups.
+     */
+    public boolean contains(long value) {
+        for (int i = 0; i < size; i++) {
+            if (values[i] == value) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public void clear() {
+        size = 0;
+    }
+
+    /**
+     * @return sorted copy of the values, for lookups with {@link Arrays#binarySearch(long[], long)}
+     */
+    public long[] toSortedArray() {
+        long[] sorted = Arrays.copyOf(values, size);
+        Arrays.sort(sorted);
+        return sorted;
+    }
+
+    @Override
+    public String toString() {
+        return Arrays.toString(Arrays.copyOf(values, size));
+    }
+}
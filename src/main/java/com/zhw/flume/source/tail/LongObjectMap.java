@@ -0,0 +1,165 @@
+package com.zhw.flume.source.tail;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Hash map from primitive long keys to non null values, with open addressing and linear
+ * probing, so that looking up a file by its inode neither boxes the inode nor allocates an
+ * entry per file.
+ * <p></p>
+ * All methods are synchronized: the map is changed by the runner and read by the idle checker
+ * and the position writer, each access is short.
+ *
+ * @author zhw
+ */
+public final class LongObjectMap<V> {
+
+    private static final float LOAD_FACTOR = 0.5f;
+
+    private long[] keys;
+    // null marks a free slot
+    private Object[] values;
+    private int size;
+    private int mask;
+
+    public LongObjectMap() {
+        this(16);
+    }
+
+    public LongObjectMap(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max((int) (expectedSize / LOAD_FACTOR), 2) - 1) << 1;
+        allocate(capacity);
+    }
+
+    @SuppressWarnings("unchecked")
+    public synchronized V get(long key) {
+        for (int i = slot(key); values[i] != null; i = (i + 1) & mask) {
+            if (keys[i] == key) {
+                return (V) values[i];
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the value replaced, null if the key was not mapped
+     */
+    @SuppressWarnings("unchecked")
+    public synchronized V put(long key, V value) {
+        if (value == null) {
+            throw new NullPointerException("Null values are not supported");
+        }
+        int i = slot(key);
+        for (; values[i] != null; i = (i + 1) & mask) {
+            if (keys[i] == key) {
+                V previous = (V) values[i];
+                values[i] = value;
+                return previous;
+            }
+        }
+        keys[i] = key;
+        values[i] = value;
+        if (++size > values.length * LOAD_FACTOR) {
+            rehash(values.length << 1);
+        }
+        return null;
+    }
+
+    /**
+     * @return the value removed, null if the key was not mapped
+     */
+    @SuppressWarnings("unchecked")
+    public synchronized V remove(long key) {
+        int i = slot(key);
+        for (; values[i] != null; i = (i + 1) & mask) {
+            if (keys[i] == key) {
+                V removed = (V) values[i];
+                shiftBack(i);
+                size--;
+                return removed;
+            }
+        }
+        return null;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * @return copy of the values, in no particular order
+     */
+    @SuppressWarnings("unchecked")
+    public synchronized List<V> values() {
+        List<V> copy = new ArrayList<V>(size);
+        for (Object value : values) {
+            if (value != null) {
+                copy.add((V) value);
+            }
+        }
+        return copy;
+    }
+
+    /**
+     * Closes the gap left by a removed entry, so that no probe sequence stops early.
+     */
+    private void shiftBack(int gap) {
+        int i = gap;
+        while (true) {
+            i = (i + 1) & mask;
+            if (values[i] == null) {
+                break;
+            }
+            int home = slot(keys[i]);
+            // the entry may move into the gap unless its home slot lies cyclically in (gap, i]
+            if (((i - home) & mask) >= ((i - gap) & mask)) {
+                keys[gap] = keys[i];
+                values[gap] = values[i];
+                gap = i;
+            }
+        }
+        values[gap] = null;
+    }
+
+    private int slot(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32)) & mask;
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        values = new Object[capacity];
+        mask = capacity - 1;
+    }
+
+    private void rehash(int capacity) {
+        long[] oldKeys = keys;
+        Object[] oldValues = values;
+        allocate(capacity);
+        for (int j = 0; j < oldValues.length; j++) {
+            if (oldValues[j] != null) {
+                int i = slot(oldKeys[j]);
+                while (values[i] != null) {
+                    i = (i + 1) & mask;
+                }
+                keys[i] = oldKeys[j];
+                values[i] = oldValues[j];
+            }
+        }
+    }
+
+    @Override
+    public synchronized String toString() {
+        StringBuilder sb = new StringBuilder("{");
+        for (int i = 0; i < values.length; i++) {
+            if (values[i] != null) {
+                if (sb.length() > 1) {
+                    sb.append(", ");
+                }
+                sb.append(keys[i]).append('=').append(values[i]);
+            }
+        }
+        return sb.append('}').toString();
+    }
+}
@@ -0,0 +1,275 @@
+package com.zhw.flume.source.tail;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Decompresses the LZ4 frame format, as written by the lz4 command line tool, one block at a
+ * time. Memory is bounded by the block size of the frame, at most 4MB, plus the 64KB history
+ * which linked blocks may refer to. Checksums are skipped, not verified, and frames with a
+ * dictionary are rejected. Concatenated and skippable frames are supported.
+ *
+ * @author zhw
+ */
+class Lz4FrameInputStream extends InputStream {
+
+    private static final int MAGIC = 0x184D2204;
+    private static final int SKIPPABLE_MAGIC_MASK = 0xFFFFFFF0;
+    private static final int SKIPPABLE_MAGIC = 0x184D2A50;
+
+    private static final int HISTORY_SIZE = 64 * 1024;
+    private static final int MIN_MATCH = 4;
+    private static final int UNCOMPRESSED_BLOCK = 0x80000000;
+
+    private final InputStream in;
+    private final byte[] header = new byte[8];
+    // history of the last blocks followed by the block being read
+    private byte[] window = new byte[0];
+    private byte[] compressed = new byte[0];
+    private int windowPos;
+    private int windowLimit;
+    private boolean blockChecksum;
+    private boolean contentChecksum;
+    private boolean inFrame;
+    private boolean finished;
+
+    Lz4FrameInputStream(InputStream in) {
+        this.in = in;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!ensureAvailable()) {
+            return -1;
+        }
+        return window[windowPos++] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (!ensureAvailable()) {
+            return -1;
+        }
+        int n = Math.min(len, windowLimit - windowPos);
+        System.arraycopy(window, windowPos, b, off, n);
+        windowPos += n;
+        return n;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        long skipped = 0;
+        while (skipped < n && ensureAvailable()) {
+            int step = (int) Math.min(n - skipped, windowLimit - windowPos);
+            windowPos += step;
+            skipped += step;
+        }
+        return skipped;
+    }
+
+    @Override
+    public int available() {
+        return windowLimit - windowPos;
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+    /**
+     * @return false at the end of the last frame
+     */
+    private boolean ensureAvailable() throws IOException {
+        while (windowPos == windowLimit) {
+            if (finished) {
+                return false;
+            }
+            if (!inFrame) {
+                if (!readFrameHeader()) {
+                    finished = true;
+                    return false;
+                }
+            } else {
+                readBlock();
+            }
+        }
+        return true;
+    }
+
+    private boolean readFrameHeader() throws IOException {
+        while (true) {
+            int first = in.read();
+            if (first < 0) {
+                return false;
+            }
+            header[0] = (byte) first;
+            readFully(header, 1, 3);
+            int magic = intLE(header, 0);
+            if ((magic & SKIPPABLE_MAGIC_MASK) == SKIPPABLE_MAGIC) {
+                readFully(header, 0, 4);
+                skipFully(intLE(header, 0) & 0xffffffffL);
+                continue;
+            }
+            if (magic != MAGIC) {
+                throw new IOException("Not an LZ4 frame, magic: " + Integer.toHexString(magic));
+            }
+            readFully(header, 0, 2);
+            int flags = header[0] & 0xff;
+            if ((flags >>> 6) != 1) {
+                throw new IOException("Unsupported LZ4 frame version: " + (flags >>> 6));
+            }
+            if ((flags & 0x01) != 0) {
+                throw new IOException("LZ4 frames with a dictionary are not supported");
+            }
+            blockChecksum = (flags & 0x10) != 0;
+            contentChecksum = (flags & 0x04) != 0;
+            int blockSizeId = (header[1] >>> 4) & 0x07;
+            if (blockSizeId < 4) {
+                throw new IOException("Invalid LZ4 block size id: " + blockSizeId);
+            }
+            int maxBlockSize = 1 << (2 * blockSizeId + 8);
+            if ((flags & 0x08) != 0) {
+                // content size
+                readFully(header, 0, 8);
+            }
+            // header checksum
+            skipFully(1);
+            if (window.length < HISTORY_SIZE + maxBlockSize) {
+                byte[] grown = new byte[HISTORY_SIZE + maxBlockSize];
+                System.arraycopy(window, 0, grown, 0, windowLimit);
+                window = grown;
+            }
+            if (compressed.length < maxBlockSize) {
+                compressed = new byte[maxBlockSize];
+            }
+            inFrame = true;
+            return true;
+        }
+    }
+
+    private void readBlock() throws IOException {
+        readFully(header, 0, 4);
+        int blockSize = intLE(header, 0);
+        if (blockSize == 0) {
+            if (contentChecksum) {
+                skipFully(4);
+            }
+            inFrame = false;
+            return;
+        }
+        boolean uncompressed = (blockSize & UNCOMPRESSED_BLOCK) != 0;
+        blockSize &= ~UNCOMPRESSED_BLOCK;
+        if (blockSize > window.length - HISTORY_SIZE) {
+            throw new IOException("LZ4 block of " + blockSize + " bytes exceeds the block size of the frame");
+        }
+        keepHistory();
+        if (uncompressed) {
+            readFully(window, windowLimit, blockSize);
+            windowLimit += blockSize;
+        } else {
+            readFully(compressed, 0, blockSize);
+            windowLimit = decompress(compressed, blockSize, window, windowLimit);
+        }
+        if (blockChecksum) {
+            skipFully(4);
+        }
+    }
+
+    /**
+     * Moves the last 64KB to the front of the window, so that a full block fits behind them.
+     */
+    private void keepHistory() {
+        if (windowLimit > HISTORY_SIZE) {
+            System.arraycopy(window, windowLimit - HISTORY_SIZE, window, 0, HISTORY_SIZE);
+            windowLimit = HISTORY_SIZE;
+        }
+        windowPos = windowLimit;
+    }
+
+    /**
+     * Decodes one block of sequences, each a run of literals followed by a copy from the output.
+     *
+     * @return end of the decoded block in dst
+     */
+    private static int decompress(byte[] src, int srcLen, byte[] dst, int dstPos) throws IOException {
+        int sp = 0;
+        int dp = dstPos;
+        try {
+            while (true) {
+                int token = src[sp++] & 0xff;
+                int literals = token >>> 4;
+                if (literals == 15) {
+                    int b;
+                    do {
+                        b = src[sp++] & 0xff;
+                        literals += b;
+                    } while (b == 255);
+                }
+                System.arraycopy(src, sp, dst, dp, literals);
+                sp += literals;
+                dp += literals;
+                if (sp >= srcLen) {
+                    // the last sequence has literals only
+                    return dp;
+                }
+                int offset = (src[sp] & 0xff) | (src[sp + 1] & 0xff) << 8;
+                sp += 2;
+                if (offset == 0 || offset > dp) {
+                    throw new IOException("Invalid LZ4 match offset: " + offset);
+                }
+                int matchLen = token & 0x0f;
+                if (matchLen == 15) {
+                    int b;
+                    do {
+                        b = src[sp++] & 0xff;
+                        matchLen += b;
+                    } while (b == 255);
+                }
+                matchLen += MIN_MATCH;
+                int from = dp - offset;
+                if (offset >= matchLen) {
+                    System.arraycopy(dst, from, dst, dp, matchLen);
+                    dp += matchLen;
+                } else {
+                    // overlapping copy repeats the last offset bytes
+                    for (int i = 0; i < matchLen; i++) {
+                        dst[dp++] = dst[from + i];
+                    }
+                }
+            }
+        } catch (ArrayIndexOutOfBoundsException e) {
+            throw new IOException("Corrupt LZ4 block", e);
+        }
+    }
+
+    private void readFully(byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            int n = in.read(b, off, len);
+            if (n < 0) {
+                throw new EOFException("Truncated LZ4 frame");
+            }
+            off += n;
+            len -= n;
+        }
+    }
+
+    private void skipFully(long n) throws IOException {
+        while (n > 0) {
+            if (in.read() < 0) {
+                throw new EOFException("Truncated LZ4 frame");
+            }
+            n--;
+            long skipped = in.skip(n);
+            n -= skipped;
+        }
+    }
+
+    private static int intLE(byte[] b, int off) {
+        return (b[off] & 0xff) | (b[off + 1] & 0xff) << 8 | (b[off + 2] & 0xff) << 16 | (b[off + 3] & 0xff) << 24;
+    }
+}
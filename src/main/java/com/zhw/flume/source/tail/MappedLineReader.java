@@ -0,0 +1,131 @@
+package com.zhw.flume.source.tail;
+
+import com.zhw.flume.event.EventBatch;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import static com.zhw.flume.source.tail.TailDirSourceConfigurationConstants.LINE_CUT_HEADER_KEY;
+import static com.zhw.flume.source.tail.TailDirSourceConfigurationConstants.LINE_SPLIT;
+import static com.zhw.flume.source.tail.TailDirSourceConfigurationConstants.LINE_TRUNCATED;
+
+/**
+ * {@link LineReader} used to catch up on a large backlog. The file is memory mapped window by
+ * window from the current position towards EOF and lines are split straight from the mapping,
+ * without any read or seek system call per refill.
+ * <p></p>
+ * Only complete lines are returned, whether or not partial lines are held. The reader reports the end (returns false) once the unread
+ * part of the file is not larger than the threshold, or when a single line does not fit into a
+ * window, so that the caller can hand over to the regular tail reader at {@link #position()}.
+ * <p></p>
+ * Mapped windows are released by the garbage collector, the window size therefore bounds the
+ * address space a file keeps mapped between collections rather than the heap.
+ *
+ * @author zhw
+ */
+class MappedLineReader implements LineReader {
+
+    private static final byte BYTE_CR = (byte) 13;
+
+    private final FileChannel channel;
+    private final int windowSize;
+    private final long threshold;
+    private final int maxLineLength;
+    private final boolean truncateLongLines;
+
+    private MappedByteBuffer window;
+    // file offset of index 0 of the window
+    private long windowStart;
+    private long position;
+
+    MappedLineReader(FileChannel channel, long pos, int windowSize, long threshold, int maxLineLength,
+            boolean truncateLongLines) {
+        this.channel = channel;
+        this.position = pos;
+        this.windowSize = windowSize;
+        this.threshold = threshold;
+        this.maxLineLength = maxLineLength;
+        this.truncateLongLines = truncateLongLines;
+    }
+
+    @Override
+    public boolean readLine(EventBatch batch, boolean holdPartial) throws IOException {
+        while (true) {
+            if (window != null) {
+                int start = window.position();
+                int nlIdx = NewlineScanner.indexOf(window, start, window.limit());
+                if (nlIdx >= 0) {
+                    takeLine(batch, start, nlIdx);
+                    return true;
+                }
+            }
+            if (!remap()) {
+                return false;
+            }
+        }
+    }
+
+    @Override
+    public long position() {
+        return position;
+    }
+
+    @Override
+    public void seek(long pos) {
+        window = null;
+        position = pos;
+    }
+
+    /**
+     * Unmaps the current window, the events read from it hold copies of their bodies.
+     */
+    @Override
+    public void close() {
+        DirectBuffers.free(window);
+        window = null;
+    }
+
+    private void takeLine(EventBatch batch, int start, int nlIdx) {
+        int lineLen = nlIdx - start;
+        // For windows, check for CR
+        if (lineLen > 0 && window.get(nlIdx - 1) == BYTE_CR) {
+            lineLen -= 1;
+        }
+        if (lineLen > maxLineLength && !truncateLongLines) {
+            // the rest of the line is returned by the next call
+            int index = batch.add(window, maxLineLength);
+            batch.setHeader(index, LINE_CUT_HEADER_KEY, LINE_SPLIT);
+            position += maxLineLength;
+            return;
+        }
+        int index = batch.add(window, Math.min(lineLen, maxLineLength));
+        if (lineLen > maxLineLength) {
+            batch.setHeader(index, LINE_CUT_HEADER_KEY, LINE_TRUNCATED);
+        }
+        window.position(nlIdx + 1);
+        position = windowStart + nlIdx + 1;
+    }
+
+    /**
+     * Maps the next window starting at the current position.
+     *
+     * @return false if catching up is over
+     */
+    private boolean remap() throws IOException {
+        long size = channel.size();
+        if (size - position <= threshold) {
+            return false;
+        }
+        if (window != null && windowStart == position) {
+            // the current line does not fit into a whole window
+            return false;
+        }
+        long len = Math.min(windowSize, size - position);
+        window = channel.map(FileChannel.MapMode.READ_ONLY, position, len);
+        window.order(ByteOrder.LITTLE_ENDIAN);
+        windowStart = position;
+        return true;
+    }
+}
@@ -0,0 +1,130 @@
+package com.zhw.flume.source.tail;
+
+import com.zhw.flume.event.EventBatch;
+
+import java.util.regex.Matcher;
+
+/**
+ * Joins the lines of one event of a {@link TailFile}, such as a stack trace, into a single event.
+ * A line is matched against the multiline pattern on its bytes, see {@link ByteCharSequence}.
+ * Depending on the options a matching line starts a new event, or continues the event before it.
+ * <p></p>
+ * The event being assembled is the last event of the batch while lines are read. When a read
+ * ends, its body is held here until the next read continues it, so that its lines are read from
+ * the file only once, and is flushed once no line was added for the flush timeout.
+ *
+ * @author zhw
+ */
+class MultilineAssembler {
+
+    static final long NO_POSITION = -1;
+
+    private static final byte[] LINE_SEPARATOR = {'\n'};
+
+    private final Matcher matcher;
+    private final boolean patternStartsEvent;
+    private final int maxLines;
+    private final int maxBytes;
+    private final long flushTimeout;
+    private final ByteCharSequence line = new ByteCharSequence();
+
+    // lines of the event being assembled
+    private int lines;
+    // body of the held event
+    private byte[] held = new byte[0];
+    private int heldLen;
+    // file offset of the held event, NO_POSITION if none is held
+    private long heldPos = NO_POSITION;
+    // time lines were last added to the event
+    private long lastLineTime;
+
+    MultilineAssembler(TailFileOptions options) {
+        this.matcher = options.getMultilinePattern().matcher("");
+        this.patternStartsEvent = options.isMultilinePatternStartsEvent();
+        this.maxLines = options.getMultilineMaxLines();
+        this.maxBytes = options.getMultilineMaxBytes();
+        this.flushTimeout = options.getMultilineFlushTimeout();
+    }
+
+    /**
+     * Puts the held event back at the end of the batch, to be continued by the next lines.
+     *
+     * @return false if no event is held
+     */
+    boolean restore(EventBatch batch) {
+        if (heldPos == NO_POSITION) {
+            return false;
+        }
+        int index = batch.add(held, 0, heldLen);
+        batch.setPosition(index, heldPos);
+        heldPos = NO_POSITION;
+        return true;
+    }
+
+    /**
+     * Takes the last event of the batch out of the batch, until the next {@link #restore(EventBatch)}.
+     *
+     * @param pos file offset of the first line of the event
+     */
+    void hold(EventBatch batch, long pos) {
+        int last = batch.size() - 1;
+        heldLen = batch.getBodyLength(last);
+        if (held.length < heldLen) {
+            held = new byte[Math.max(heldLen, held.length << 1)];
+        }
+        System.arraycopy(batch.array(), batch.getBodyOffset(last), held, 0, heldLen);
+        batch.removeLast();
+        heldPos = pos;
+    }
+
+    /**
+     * Records that lines were added to the event, which defers its flush.
+     */
+    void touch(long now) {
+        lastLineTime = now;
+    }
+
+    long getHeldPos() {
+        return heldPos;
+    }
+
+    boolean isExpired(long now) {
+        return now - lastLineTime >= flushTimeout;
+    }
+
+    /**
+     * The last line of the batch starts a new event.
+     */
+    void start() {
+        lines = 1;
+    }
+
+    /**
+     * @return true if the last line of the batch belongs to the event before it
+     */
+    boolean continues(EventBatch batch) {
+        int last = batch.size() - 1;
+        int len = batch.getBodyLength(last);
+        if (lines >= maxLines || batch.getBodyLength(last - 1) + LINE_SEPARATOR.length + len > maxBytes) {
+            return false;
+        }
+        boolean matches = matcher.reset(line.reset(batch.array(), batch.getBodyOffset(last), len)).find();
+        return matches != patternStartsEvent;
+    }
+
+    /**
+     * Appends the last line of the batch to the event before it.
+     */
+    void join(EventBatch batch) {
+        batch.joinLast(LINE_SEPARATOR);
+        lines++;
+    }
+
+    /**
+     * Drops the held event, its lines are read again from the file.
+     */
+    void reset() {
+        heldPos = NO_POSITION;
+        heldLen = 0;
+    }
+}
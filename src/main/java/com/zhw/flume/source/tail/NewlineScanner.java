@@ -0,0 +1,54 @@
+package com.zhw.flume.source.tail;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Finds the next line feed in a buffer eight bytes at a time. Each step loads a long and tests
+ * all of its bytes at once with the SWAR zero byte check on {@code word ^ 0x0A0A..0A}, the bytes
+ * behind the last full word are checked one by one.
+ * <p></p>
+ * Buffers in {@link ByteOrder#LITTLE_ENDIAN} order are scanned as they are, buffers in big endian
+ * order pay one byte swap per word. Absolute {@code getLong} on heap buffers is only compiled to a
+ * single load on JDK 9 and later, direct and mapped buffers get it everywhere.
+ *
+ * @author zhw
+ */
+final class NewlineScanner {
+
+    private static final byte BYTE_NL = (byte) 10;
+
+    private static final long NL_PATTERN = 0x0A0A0A0A0A0A0A0AL;
+    private static final long LOW_BITS = 0x0101010101010101L;
+    private static final long HIGH_BITS = 0x8080808080808080L;
+
+    private NewlineScanner() {
+    }
+
+    /**
+     * @return absolute index of the first line feed in {@code [from, to)}, or -1 if there is none
+     */
+    static int indexOf(ByteBuffer buf, int from, int to) {
+        boolean swap = buf.order() != ByteOrder.LITTLE_ENDIAN;
+        int i = from;
+        for (; i + Long.BYTES <= to; i += Long.BYTES) {
+            long word = buf.getLong(i);
+            if (swap) {
+                word = Long.reverseBytes(word);
+            }
+            long x = word ^ NL_PATTERN;
+            // high bit set in every byte of x which is zero; exact for the lowest such byte,
+            // which is the first line feed in memory order
+            long found = (x - LOW_BITS) & ~x & HIGH_BITS;
+            if (found != 0) {
+                return i + (Long.numberOfTrailingZeros(found) >>> 3);
+            }
+        }
+        for (; i < to; i++) {
+            if (buf.get(i) == BYTE_NL) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
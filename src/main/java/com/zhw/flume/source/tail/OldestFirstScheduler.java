@@ -0,0 +1,60 @@
+package com.zhw.flume.source.tail;
+
+import com.google.common.collect.Lists;
+
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Latency first: the file whose oldest unread line showed up first gets the first turn, see
+ * {@link TailFile#getUnreadSince()}. Each turn reads up to the quantum of the file, so that a
+ * file far behind does not keep the files behind it waiting until it caught up.
+ *
+ * @author zhw
+ */
+public class OldestFirstScheduler extends WeightedTailFileScheduler {
+
+    private static final Comparator<Waiting> OLDEST_UNREAD_FIRST = new Comparator<Waiting>() {
+        @Override
+        public int compare(Waiting a, Waiting b) {
+            return Long.compare(a.since, b.since);
+        }
+    };
+
+    @Override
+    public List<TailFile> order(List<TailFile> ready, long now) {
+        // taken once per file, workers move the positions on while sorting
+        List<Waiting> waiting = Lists.newArrayListWithCapacity(ready.size());
+        for (TailFile tf : ready) {
+            long since = tf.getUnreadSince();
+            // files no scan saw unread lines of, such as one with an incomplete last line, go last
+            waiting.add(new Waiting(tf, since == ArrivalLog.NOTHING_UNREAD ? Long.MAX_VALUE : since));
+        }
+        Collections.sort(waiting, OLDEST_UNREAD_FIRST);
+        List<TailFile> ordered = Lists.newArrayListWithCapacity(waiting.size());
+        for (Waiting w : waiting) {
+            ordered.add(w.tf);
+        }
+        return ordered;
+    }
+
+    @Override
+    public long startTurn(TailFile tf) {
+        return quantum(tf);
+    }
+
+    @Override
+    public void endTurn(TailFile tf, long bytes, boolean drained) {
+    }
+
+    private static class Waiting {
+        private final TailFile tf;
+        private final long since;
+
+        Waiting(TailFile tf, long since) {
+            this.tf = tf;
+            this.since = since;
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package com.zhw.flume.source.tail;
+
+import com.google.common.collect.Lists;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Tailed files which hold an open file descriptor, in the order they were last read. Once the
+ * limit is reached, the least recently read file is closed before another file is opened. A
+ * closed file keeps its position and is reopened when it is read again, see
+ * {@link TailFile#reopen(java.io.File, Map)}. Files read from the archive they were rotated to
+ * are not closed here, they are closed once drained.
+ * <p></p>
+ * Called by the runner and by the workers, a file is only closed here while it can be claimed.
+ *
+ * @author zhw
+ */
+class OpenFiles {
+
+    private static final Logger LOG = LoggerFactory.getLogger(OpenFiles.class);
+
+    // 0 for no limit
+    private final int maxOpenFiles;
+    private final TailDirCounter tailDirCounter;
+    // access ordered, the eldest entry is the least recently read file
+    private final LinkedHashMap<Long, TailFile> files = new LinkedHashMap<Long, TailFile>(16, 0.75f, true);
+
+    OpenFiles(int maxOpenFiles, TailDirCounter tailDirCounter) {
+        this.maxOpenFiles = maxOpenFiles;
+        this.tailDirCounter = tailDirCounter;
+    }
+
+    /**
+     * Closes least recently read files until another one may be opened.
+     */
+    void reserve() {
+        if (maxOpenFiles <= 0) {
+            return;
+        }
+        List<TailFile> evicted = Lists.newArrayList();
+        synchronized (this) {
+            Iterator<TailFile> it = files.values().iterator();
+            while (files.size() >= maxOpenFiles && it.hasNext()) {
+                TailFile tf = it.next();
+                // a file which is being read stays open, it is taken next time, an archive stays
+                // open until it is drained, reopening it would decompress it from the start again
+                if (!tf.isArchive() && tf.tryClaim()) {
+                    it.remove();
+                    evicted.add(tf);
+                }
+            }
+            tailDirCounter.setOpenFileCount(files.size());
+        }
+        for (TailFile tf : evicted) {
+            try {
+                tf.close();
+                tailDirCounter.incrementEvictCount();
+                LOG.debug("Evicted file: " + tf.getPath() + ", inode: " + tf.getInode() + ", pos: " + tf.getPos());
+            } finally {
+                tf.release();
+            }
+        }
+    }
+
+    synchronized void opened(TailFile tf) {
+        files.put(tf.getInode(), tf);
+        tailDirCounter.setOpenFileCount(files.size());
+    }
+
+    /**
+     * Marks the file as the most recently read one.
+     */
+    synchronized void touched(TailFile tf) {
+        files.get(tf.getInode());
+    }
+
+    synchronized void closed(TailFile tf) {
+        if (files.remove(tf.getInode()) != null) {
+            tailDirCounter.setOpenFileCount(files.size());
+        }
+    }
+
+    synchronized int size() {
+        return files.size();
+    }
+}
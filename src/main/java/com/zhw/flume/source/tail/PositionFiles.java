@@ -0,0 +1,52 @@
+package com.zhw.flume.source.tail;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * File helpers shared by the {@link PositionStore}s.
+ *
+ * @author zhw
+ */
+final class PositionFiles {
+
+    private static final String TMP_SUFFIX = ".tmp";
+
+    private PositionFiles() {
+    }
+
+    /**
+     * Replaces the target with the given content. The content goes to a temp file next to the
+     * target, which is synced and then renamed over the target, so readers see either the old
+     * or the new file, never a partial one.
+     */
+    static void writeAtomically(Path target, ByteBuffer content) throws IOException {
+        Path tmp = target.resolveSibling(target.getFileName() + TMP_SUFFIX);
+        try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (content.hasRemaining()) {
+                channel.write(content);
+            }
+            channel.force(true);
+        }
+        Files.move(tmp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        syncDirectory(target.toAbsolutePath().getParent());
+    }
+
+    /**
+     * Makes a rename within the directory durable. Not every platform can open a directory,
+     * there the rename is left to the file system.
+     */
+    static void syncDirectory(Path dir) {
+        try (FileChannel channel = FileChannel.open(dir, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            // not supported here
+        }
+    }
+}
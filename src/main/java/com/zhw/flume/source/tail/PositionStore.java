@@ -0,0 +1,26 @@
+package com.zhw.flume.source.tail;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * Persists the read positions of the tailed files across restarts.
+ *
+ * @author zhw
+ */
+public interface PositionStore extends Closeable {
+
+    /**
+     * @return stored positions by inode, empty if nothing was stored yet
+     */
+    Map<Long, FilePosition> load() throws IOException;
+
+    /**
+     * Makes the given positions the stored state, files which are not contained anymore are
+     * dropped. Implementations write nothing if nothing changed since the last call, and a
+     * failure must leave the previously stored state readable.
+     */
+    void save(Collection<FilePosition> positions) throws IOException;
+}
@@ -5,7 +5,7 @@ import com.google.common.base.Preconditions;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Table;
-import com.google.gson.stream.JsonReader;
+import com.zhw.flume.event.EventBatch;
 import org.apache.flume.Event;
 import org.apache.flume.FlumeException;
 import org.apache.flume.annotations.InterfaceAudience;
@@ -16,14 +16,18 @@ import org.slf4j.LoggerFactory;
 
 import java.io.File;
 import java.io.FileNotFoundException;
-import java.io.FileReader;
 import java.io.IOException;
-import java.nio.file.Files;
 import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.regex.Pattern;
+
+import static com.zhw.flume.source.tail.TailDirSourceConfigurationConstants.BYTE_OFFSET_HEADER_KEY;
 
 /**
  * @author zhw
@@ -34,30 +38,47 @@ public class ReliableTailDirEventReader implements ReliableEventReader {
 
     private static final Logger LOG = LoggerFactory.getLogger(ReliableTailDirEventReader.class);
 
+    // a new batch is sized for at most this many lines up front and grows if it takes more
+    private static final int MAX_EXPECTED_EVENTS = 1024;
+
     private final List<TailDirMatcher> taildirCache;
     private final Table<String, String, String> headerTable;
 
     private TailFile currentFile = null;
-    private Map<Long, TailFile> tailFiles = Maps.newHashMap();
-    private long updateTime;
+    private final LongObjectMap<TailFile> tailFiles = new LongObjectMap<TailFile>();
+    private volatile long updateTime;
     private boolean addByteOffset;
     private boolean cachePatternMatching;
-    private boolean committed = true;
     private final boolean annotateFileName;
     private final String fileNameHeader;
+    private final TailFileOptions tailFileOptions;
+    // null unless files are watched
+    private final TailDirWatcher watcher;
+    private final long fullScanInterval;
+    private final TailDirCounter tailDirCounter;
+    private final OpenFiles openFiles;
+    private final RotatedFileFinder rotatedFileFinder;
+    private long lastFullScanTime;
+    private LongList scannedInodes = new LongList();
+    // open files the last full scan did not match anymore
+    private LongList vanishedInodes = new LongList();
+    // time a file is remembered after the last scan which matched it
+    private final long inodeRetention;
 
     /**
      * Create a ReliableTaildirEventReader to watch the given directory.
      */
-    private ReliableTailDirEventReader(Map<String, String> filePaths, Table<String, String, String> headerTable, String positionFilePath, boolean skipToEnd, boolean addByteOffset,
-            boolean cachePatternMatching, boolean annotateFileName, String fileNameHeader) throws IOException {
+    private ReliableTailDirEventReader(Map<String, String> filePaths, Table<String, String, String> headerTable, PositionStore positionStore, boolean skipToEnd, boolean addByteOffset,
+            boolean cachePatternMatching, boolean annotateFileName, String fileNameHeader, TailFileOptions tailFileOptions,
+            boolean watchFiles, long fullScanInterval, Runnable wakeUp, int maxOpenFiles, long inodeRetention,
+            TailDirCounter tailDirCounter) throws IOException {
         // Sanity checks
         Preconditions.checkNotNull(filePaths);
-        Preconditions.checkNotNull(positionFilePath);
+        Preconditions.checkNotNull(positionStore);
 
         List<TailDirMatcher> taildirCache = Lists.newArrayList();
         for (Entry<String, String> e : filePaths.entrySet()) {
-            taildirCache.add(new TailDirMatcher(e.getKey(), e.getValue(), cachePatternMatching));
+            taildirCache.add(new TailDirMatcher(e.getKey(), e.getValue(), cachePatternMatching, tailDirCounter));
         }
         LOG.info("taildirCache: " + taildirCache.toString());
         LOG.info("headerTable: " + headerTable.toString());
@@ -68,76 +89,70 @@ public class ReliableTailDirEventReader implements ReliableEventReader {
         this.cachePatternMatching = cachePatternMatching;
         this.annotateFileName = annotateFileName;
         this.fileNameHeader = fileNameHeader;
+        this.tailFileOptions = tailFileOptions;
+        this.fullScanInterval = fullScanInterval;
+        this.tailDirCounter = tailDirCounter;
+        this.openFiles = new OpenFiles(maxOpenFiles, tailDirCounter);
+        this.rotatedFileFinder = new RotatedFileFinder(tailDirCounter);
+        this.inodeRetention = inodeRetention;
+        if (watchFiles) {
+            // watch before the first scan, so that no change in between gets lost
+            this.watcher = new TailDirWatcher(taildirCache, wakeUp);
+            this.watcher.start();
+        } else {
+            this.watcher = null;
+        }
         updateTailFiles(skipToEnd);
 
-        LOG.info("Updating position from position file: " + positionFilePath);
-        loadPositionFile(positionFilePath);
+        LOG.info("Updating position from position store: " + positionStore);
+        loadPositions(positionStore);
     }
 
     /**
-     * Load a position file which has the last read position of each file.
-     * If the position file exists, update tailFiles mapping.
+     * Load the last read position of each file from the position store.
+     * If positions were stored, update tailFiles mapping.
      */
-    public void loadPositionFile(String filePath) {
-        Long inode, pos;
-        String path;
-        FileReader fr = null;
-        JsonReader jr = null;
+    public void loadPositions(PositionStore positionStore) {
+        Map<Long, FilePosition> positions;
         try {
-            fr = new FileReader(filePath);
-            jr = new JsonReader(fr);
-            jr.beginArray();
-            while (jr.hasNext()) {
-                inode = null;
-                pos = null;
-                path = null;
-                jr.beginObject();
-                while (jr.hasNext()) {
-                    switch (jr.nextName()) {
-                        case "inode":
-                            inode = jr.nextLong();
-                            break;
-                        case "pos":
-                            pos = jr.nextLong();
-                            break;
-                        case "file":
-                            path = jr.nextString();
-                            break;
-                    }
-                }
-                jr.endObject();
-
-                for (Object v : Arrays.asList(inode, pos, path)) {
-                    Preconditions.checkNotNull(v, "Detected missing value in position file. " + "inode: " + inode + ", pos: " + pos + ", path: " + path);
-                }
-                TailFile tf = tailFiles.get(inode);
-                if (tf != null && tf.updatePos(path, inode, pos)) {
-                    tailFiles.put(inode, tf);
-                } else {
-                    LOG.info("Missing file: " + path + ", inode: " + inode + ", pos: " + pos);
-                }
-            }
-            jr.endArray();
-        } catch (FileNotFoundException e) {
-            LOG.info("File not found: " + filePath + ", not updating position");
+            positions = positionStore.load();
         } catch (IOException e) {
-            LOG.error("Failed loading positionFile: " + filePath, e);
-        } finally {
+            LOG.error("Failed loading positions: " + positionStore, e);
+            return;
+        }
+        int missing = 0;
+        for (FilePosition position : positions.values()) {
+            long inode = position.getInode();
+            TailFile tf = tailFiles.get(inode);
             try {
-                if (fr != null) {
-                    fr.close();
-                }
-                if (jr != null) {
-                    jr.close();
+                if (tf != null && !tf.matches(position.getFingerprint())) {
+                    // the inode was reused by a new file, which starts like any file seen first
+                    LOG.info("Inode reused, ignoring position of file: " + position.getPath() + ", inode: " + inode);
+                    missing++;
+                } else if (tf == null || !tf.updatePos(position.getPath(), inode, position.getPos())) {
+                    LOG.debug("Missing file: " + position.getPath() + ", inode: " + inode + ", pos: " + position.getPos());
+                    missing++;
                 }
             } catch (IOException e) {
-                LOG.error("Error: " + e.getMessage(), e);
+                LOG.error("Failed updating position, file: " + position.getPath() + ", inode: " + inode, e);
             }
         }
+        LOG.info("Loaded " + positions.size() + " positions, " + missing + " of them for missing files");
     }
 
-    public Map<Long, TailFile> getTailFiles() {
-        return tailFiles;
+    /**
+     * @return the file with the given inode, null if it is not tailed or was forgotten
+     */
+    public TailFile getTailFile(long inode) {
+        return tailFiles.get(inode);
+    }
+
+    /**
+     * @return copy of the files tailed, including files no filegroup matched during the last
+     * inodeRetention
+     */
+    public List<TailFile> getTailFiles() {
+        return tailFiles.values();
     }
 
     public void setCurrentFile(TailFile currentFile) {
@@ -159,46 +174,81 @@ public class ReliableTailDirEventReader implements ReliableEventReader {
     }
 
     @VisibleForTesting
-    public List<Event> readEvents(TailFile tf, int numEvents) throws IOException {
+    public EventBatch readEvents(TailFile tf, int numEvents) throws IOException {
         setCurrentFile(tf);
         return readEvents(numEvents, true);
     }
 
-    public List<Event> readEvents(int numEvents, boolean backoffWithoutNL) throws IOException {
-        if (!committed) {
-            if (currentFile == null) {
-                throw new IllegalStateException("current file does not exist. " + currentFile.getPath());
-            }
-            LOG.info("Last read was never committed - resetting position");
-            long lastPos = currentFile.getPos();
-            currentFile.updateFilePos(lastPos);
-        }
-        List<Event> events = currentFile.readEvents(numEvents, backoffWithoutNL, addByteOffset);
-        if (events.isEmpty()) {
-            return events;
+    public EventBatch readEvents(int numEvents, boolean backoffWithoutNL) throws IOException {
+        if (currentFile == null) {
+            throw new IllegalStateException("current file does not exist.");
         }
+        return readEvents(currentFile, numEvents, backoffWithoutNL);
+    }
 
-        Map<String, String> headers = currentFile.getHeaders();
-        if (annotateFileName || (headers != null && !headers.isEmpty())) {
-            for (Event event : events) {
-                if (headers != null && !headers.isEmpty()) {
-                    event.getHeaders().putAll(headers);
-                }
-                if (annotateFileName) {
-                    event.getHeaders().put(fileNameHeader, currentFile.getPath());
-                }
-            }
+    /**
+     * Reads the next lines of the given file into a new batch.
+     */
+    public EventBatch readEvents(TailFile tf, int numEvents, boolean backoffWithoutNL) throws IOException {
+        return readEvents(tf, numEvents, Long.MAX_VALUE, backoffWithoutNL);
+    }
+
+    /**
+     * Reads the next lines of the given file into a new batch, up to numEvents lines or until
+     * lines of maxBytes bytes were read.
+     */
+    public EventBatch readEvents(TailFile tf, int numEvents, long maxBytes, boolean backoffWithoutNL)
+            throws IOException {
+        EventBatch batch = new EventBatch(Math.min(numEvents, MAX_EXPECTED_EVENTS), tf.getHeaders(),
+                addByteOffset ? BYTE_OFFSET_HEADER_KEY : null);
+        readEvents(tf, batch, numEvents, maxBytes, backoffWithoutNL);
+        return batch;
+    }
+
+    /**
+     * Appends the next lines of the given file to a batch of the same file. Uncommitted state is
+     * kept per file, so different files may be read and committed from different threads, each
+     * file by one thread at a time.
+     *
+     * @return number of lines appended
+     */
+    public int readEvents(TailFile tf, EventBatch batch, int numEvents, boolean backoffWithoutNL)
+            throws IOException {
+        return readEvents(tf, batch, numEvents, Long.MAX_VALUE, backoffWithoutNL);
+    }
+
+    /**
+     * Appends the next lines of the given file to a batch of the same file, up to numEvents lines
+     * or until lines of maxBytes bytes were read.
+     *
+     * @return number of lines appended
+     */
+    public int readEvents(TailFile tf, EventBatch batch, int numEvents, long maxBytes, boolean backoffWithoutNL)
+            throws IOException {
+        if (tf.getRaf() == null && !reopen(tf, new File(tf.getPath()), tf.getHeaders())) {
+            // renamed or deleted since, the next scan finds it under its new name
+            return 0;
         }
-        committed = false;
-        return events;
+        openFiles.touched(tf);
+        if (!tf.isCommitted()) {
+            LOG.info("Last read was never committed - resetting position");
+            long lastPos = tf.getPos();
+            tf.updateFilePos(lastPos);
+        }
+        int read = tf.readEvents(batch, numEvents, maxBytes, backoffWithoutNL);
+        if (read > 0) {
+            tf.setCommitted(false);
+        }
+        return read;
     }
 
     @Override
     public void close() throws IOException {
+        if (watcher != null) {
+            watcher.close();
+        }
         for (TailFile tf : tailFiles.values()) {
-            if (tf.getRaf() != null) {
-                tf.getRaf().close();
-            }
+            tf.close();
         }
     }
 
@@ -207,77 +257,280 @@ public class ReliableTailDirEventReader implements ReliableEventReader {
      */
     @Override
     public void commit() throws IOException {
-        if (!committed && currentFile != null) {
-            long pos = currentFile.getLineReadPos();
-            currentFile.setPos(pos);
-            currentFile.setLastUpdated(updateTime);
-            committed = true;
+        if (currentFile != null) {
+            commit(currentFile);
+        }
+    }
+
+    /**
+     * Commit the last lines which were read from the given file. This moves the read position
+     * only, the checkpointed position follows through {@link TailFile#getAckWatermark()} once
+     * the sink confirmed the lines.
+     */
+    public void commit(TailFile tf) {
+        if (!tf.isCommitted()) {
+            long pos = tf.getCommitPos();
+            tf.setPos(pos);
+            tf.setLastUpdated(updateTime);
+            tf.setCommitted(true);
         }
     }
 
     /**
      * Update tailFiles mapping if a new file is created or appends are detected
      * to the existing file.
+     * <p></p>
+     * When files are watched only the files reported by the watcher are checked, every filegroup
+     * is listed again once fullScanInterval has passed or when the watcher lost events.
      */
-    public List<Long> updateTailFiles(boolean skipToEnd) throws IOException {
+    public LongList updateTailFiles(boolean skipToEnd) throws IOException {
         updateTime = System.currentTimeMillis();
-        List<Long> updatedInodes = Lists.newArrayList();
+        if (watcher != null) {
+            boolean fullScanRequired = watcher.pollFullScanRequired();
+            if (!fullScanRequired && updateTime - lastFullScanTime < fullScanInterval) {
+                return updateChangedTailFiles();
+            }
+            // changes reported until now are covered by the scan below
+            watcher.pollChangedFiles();
+            lastFullScanTime = updateTime;
+        }
+        tailDirCounter.incrementScanCount();
+        LongList updatedInodes = new LongList(scannedInodes.size());
 
         for (TailDirMatcher taildir : taildirCache) {
             Map<String, String> headers = headerTable.row(taildir.getFileGroup());
 
-            for (File f : taildir.getMatchingFiles()) {
-                long inode;
-                try {
-                    inode = getInode(f);
-                } catch (NoSuchFileException e) {
-                    LOG.info("File has been deleted in the meantime: " + e.getMessage());
-                    continue;
-                }
-                TailFile tf = tailFiles.get(inode);
-                //为了解决每夜0点log归档重复消费，inode已经可以作为文件的唯一标识
-                if (tf == null) {
-                    long startPos = skipToEnd ? f.length() : 0;
-                    tf = openFile(f, headers, inode, startPos);
-                } else {
-                    boolean updated = tf.getLastUpdated() < f.lastModified() || tf.getPos() != f.length();
-                    if (updated) {
-                        if (tf.getRaf() == null) {
-                            tf = openFile(f, headers, inode, tf.getPos());
-                        }
-                        if (f.length() < tf.getPos()) {
-                            LOG.info("Pos " + tf.getPos() + " is larger than file size! " + "Restarting from pos 0, file: " + tf.getPath() + ", inode: " + inode);
-                            tf.updatePos(tf.getPath(), inode, 0);
-                        }
-                    }
-                    tf.setNeedTail(updated);
-                }
-                tailFiles.put(inode, tf);
-                updatedInodes.add(inode);
+            for (FileStat stat : taildir.getMatchingFiles()) {
+                updatedInodes.add(updateTailFile(stat, taildir.getFileGroup(), headers, skipToEnd));
+            }
+            if (watcher != null) {
+                // glob filegroups may have found new directories
+                watcher.register(taildir.getDirectories());
             }
         }
+        scannedInodes = updatedInodes;
+        checkUnmatchedFiles(updatedInodes);
         return updatedInodes;
     }
 
-    public List<Long> updateTailFiles() throws IOException {
-        return updateTailFiles(false);
+    /**
+     * Looks at the files which the scan did not match anymore, because they were deleted or
+     * renamed out of their filegroup. Open ones are remembered, they would keep their file
+     * descriptor and disk space until idle. Closed ones are looked for under the name they were
+     * rotated to, and are drained from there like the open ones if found. Closed ones not matched
+     * for inodeRetention are forgotten, their positions are not saved anymore and a new file which
+     * gets the inode is read from the start.
+     */
+    private void checkUnmatchedFiles(LongList matchedInodes) {
+        long[] matched = matchedInodes.toSortedArray();
+        LongList vanished = new LongList();
+        int forgotten = 0;
+        for (TailFile tf : tailFiles.values()) {
+            if (Arrays.binarySearch(matched, tf.getInode()) >= 0) {
+                continue;
+            }
+            if (tf.getRaf() != null || followRotated(tf)) {
+                vanished.add(tf.getInode());
+            } else if (updateTime - tf.getLastMatched() > inodeRetention && tf.tryClaim()) {
+                // nobody reads it anymore, a claim taken before only finished closing it
+                tailFiles.remove(tf.getInode());
+                rotatedFileFinder.forget(tf.getInode());
+                tf.release();
+                forgotten++;
+                LOG.debug("Forgot file: " + tf.getPath() + ", inode: " + tf.getInode() + ", pos: " + tf.getPos());
+            }
+        }
+        if (!vanished.isEmpty()) {
+            tailDirCounter.addToVanishedCount(vanished.size());
+        }
+        if (forgotten > 0) {
+            LOG.info("Forgot " + forgotten + " files not matched for " + inodeRetention + " ms, "
+                    + tailFiles.size() + " files left");
+        }
+        vanishedInodes = vanished;
+    }
+
+    /**
+     * Opens the closed file under the name it was rotated to, if it was rotated before it was
+     * read completely. A compressed file is read from its archive from now on.
+     *
+     * @return true if the file was opened
+     */
+    private boolean followRotated(TailFile tf) {
+        if (tf.isArchive() || !tf.tryClaim()) {
+            return false;
+        }
+        try {
+            File rotated = rotatedFileFinder.find(tf);
+            if (rotated == null) {
+                return false;
+            }
+            if (DecompressingChannel.isCompressed(rotated.getName())) {
+                openFiles.reserve();
+                tf.followArchive(rotated, tf.getHeaders());
+                openFiles.opened(tf);
+                rotatedFileFinder.forget(tf.getInode());
+            } else if (!reopen(tf, rotated, tf.getHeaders())) {
+                return false;
+            }
+            tailDirCounter.incrementRotatedFollowCount();
+            LOG.info("Following rotated file: " + rotated + ", inode: " + tf.getInode() + ", pos: " + tf.getPos());
+            return true;
+        } catch (IOException e) {
+            LOG.warn("Failed following rotated file, inode: " + tf.getInode() + ", pos: " + tf.getPos(), e);
+            return false;
+        } finally {
+            tf.release();
+        }
     }
 
+    /**
+     * @return inodes of the open files which the last full scan did not match anymore, once
+     */
+    public LongList pollVanishedInodes() {
+        LongList vanished = vanishedInodes;
+        vanishedInodes = new LongList();
+        return vanished;
+    }
+
+    /**
+     * Checks the files the watcher reported since the last call. Inodes seen for the first time
+     * are appended to the result of the last full scan, which is returned.
+     */
+    private LongList updateChangedTailFiles() throws IOException {
+        for (Path changed : watcher.pollChangedFiles()) {
+            for (TailDirMatcher taildir : taildirCache) {
+                if (taildir.matches(changed)) {
+                    FileStat stat;
+                    try {
+                        stat = FileStat.read(changed.toFile(), tailDirCounter);
+                    } catch (NoSuchFileException e) {
+                        LOG.info("File has been deleted in the meantime: " + e.getMessage());
+                        break;
+                    }
+                    if (!stat.isDirectory()) {
+                        long inode = updateTailFile(stat, taildir.getFileGroup(),
+                                headerTable.row(taildir.getFileGroup()), false);
+                        if (!scannedInodes.contains(inode)) {
+                            scannedInodes.add(inode);
+                        }
+                    }
+                    break;
+                }
+            }
+        }
+        return scannedInodes;
+    }
 
-    private long getInode(File file) throws IOException {
-        long inode = (long) Files.getAttribute(file.toPath(), "unix:ino");
+    /**
+     * Opens the file if it is new, otherwise flags it for tailing when it changed. Only the
+     * attributes of the given stat are used, the file is not stat'ed again.
+     *
+     * @return inode of the file
+     */
+    private long updateTailFile(FileStat stat, String fileGroup, Map<String, String> headers, boolean skipToEnd)
+            throws IOException {
+        File f = stat.getFile();
+        long inode = stat.getInode();
+        TailFile tf = tailFiles.get(inode);
+        if (tf != null && tf.isArchive() && tf.getRaf() == null) {
+            // the rotated file is deleted and its archive was read, the inode belongs to a new file
+            rotatedFileFinder.forget(inode);
+            tf = null;
+        }
+        //为了解决每夜0点log归档重复消费，inode已经可以作为文件的唯一标识
+        if (tf == null) {
+            long startPos = skipToEnd ? stat.getSize() : 0;
+            tf = openFile(f, headers, inode, startPos);
+        } else {
+            boolean updated = tf.getLastUpdated() < stat.getLastModified() || tf.getPos() != stat.getSize();
+            // a claimed file is checked again once its worker is done with it, an archive is
+            // left alone until it is drained
+            if (updated && !tf.isArchive() && tf.tryClaim()) {
+                try {
+                    if (tf.getRaf() == null) {
+                        reopen(tf, f, eventHeaders(f, headers));
+                    } else if (!tf.verifyFingerprint()) {
+                        tf.restart();
+                    }
+                    if (tf.getRaf() != null && stat.getSize() < tf.getPos()) {
+                        LOG.info("Pos " + tf.getPos() + " is larger than file size! " + "Restarting from pos 0, file: " + tf.getPath() + ", inode: " + inode);
+                        tf.updatePos(tf.getPath(), inode, 0);
+                    }
+                } finally {
+                    tf.release();
+                }
+            }
+            tf.setNeedTail(updated);
+        }
+        tf.setLastMatched(updateTime);
+        tf.setFileGroup(fileGroup);
+        tf.recordSize(stat.getSize(), updateTime);
+        tailFiles.put(inode, tf);
         return inode;
     }
 
+    public LongList updateTailFiles() throws IOException {
+        return updateTailFiles(false);
+    }
+
+
     private TailFile openFile(File file, Map<String, String> headers, long inode, long pos) {
+        openFiles.reserve();
         try {
             LOG.info("Opening file: " + file + ", inode: " + inode + ", pos: " + pos);
-            return new TailFile(file, headers, inode, pos);
+            TailFile tf = new TailFile(file, eventHeaders(file, headers), inode, pos, tailFileOptions);
+            openFiles.opened(tf);
+            return tf;
         } catch (IOException e) {
             throw new FlumeException("Failed opening file: " + file, e);
         }
     }
 
+    /**
+     * Opens a closed file again at its position, the caller owns the file.
+     *
+     * @return false if the file is gone or the name belongs to another file by now
+     */
+    private boolean reopen(TailFile tf, File file, Map<String, String> eventHeaders) throws IOException {
+        openFiles.reserve();
+        try {
+            if (!tf.reopen(file, eventHeaders)) {
+                LOG.info("File was replaced, not reopening: " + file + ", inode: " + tf.getInode());
+                return false;
+            }
+        } catch (FileNotFoundException | NoSuchFileException e) {
+            LOG.info("File has been deleted in the meantime: " + e.getMessage());
+            return false;
+        }
+        openFiles.opened(tf);
+        tailDirCounter.incrementReopenCount();
+        LOG.debug("Reopened file: " + file + ", inode: " + tf.getInode() + ", pos: " + tf.getPos());
+        return true;
+    }
+
+    /**
+     * Closes the file, it is opened again once it changes.
+     */
+    public void closeFile(TailFile tf) {
+        tf.close();
+        openFiles.closed(tf);
+    }
+
+    /**
+     * Headers of every event read from the file, computed once per file and shared by its batches.
+     */
+    private Map<String, String> eventHeaders(File file, Map<String, String> headers) {
+        Map<String, String> eventHeaders = Maps.newHashMap();
+        if (headers != null) {
+            eventHeaders.putAll(headers);
+        }
+        if (annotateFileName) {
+            eventHeaders.put(fileNameHeader, file.getAbsolutePath());
+        }
+        return Collections.unmodifiableMap(eventHeaders);
+    }
+
     /**
      * Special builder class for ReliableTaildirEventReader
      */
@@ -285,12 +538,19 @@ public class ReliableTailDirEventReader implements ReliableEventReader {
 
         private Map<String, String> filePaths;
         private Table<String, String, String> headerTable;
-        private String positionFilePath;
+        private PositionStore positionStore;
         private boolean skipToEnd;
         private boolean addByteOffset;
         private boolean cachePatternMatching;
         private Boolean annotateFileName = TailDirSourceConfigurationConstants.DEFAULT_FILE_HEADER;
         private String fileNameHeader = TailDirSourceConfigurationConstants.DEFAULT_FILENAME_HEADER_KEY;
+        private TailFileOptions.Builder tailFileOptions = new TailFileOptions.Builder();
+        private boolean watchFiles = TailDirSourceConfigurationConstants.DEFAULT_WATCH_FILES;
+        private long fullScanInterval = TailDirSourceConfigurationConstants.DEFAULT_FULL_SCAN_INTERVAL;
+        private Runnable wakeUp;
+        private int maxOpenFiles = TailDirSourceConfigurationConstants.DEFAULT_MAX_OPEN_FILES;
+        private long inodeRetention = TailDirSourceConfigurationConstants.DEFAULT_INODE_RETENTION;
+        private TailDirCounter tailDirCounter;
 
         public Builder filePaths(Map<String, String> filePaths) {
             this.filePaths = filePaths;
@@ -303,7 +563,12 @@ public class ReliableTailDirEventReader implements ReliableEventReader {
         }
 
         public Builder positionFilePath(String positionFilePath) {
-            this.positionFilePath = positionFilePath;
+            this.positionStore = new JsonPositionStore(Paths.get(positionFilePath));
+            return this;
+        }
+
+        public Builder positionStore(PositionStore positionStore) {
+            this.positionStore = positionStore;
             return this;
         }
 
@@ -332,8 +597,108 @@ public class ReliableTailDirEventReader implements ReliableEventReader {
             return this;
         }
 
+        public Builder channelReader(boolean channelReader) {
+            this.tailFileOptions.channelReader(channelReader);
+            return this;
+        }
+
+        public Builder readBufferSize(int readBufferSize) {
+            this.tailFileOptions.readBufferSize(readBufferSize);
+            return this;
+        }
+
+        public Builder directReadBuffer(boolean directReadBuffer) {
+            this.tailFileOptions.directReadBuffer(directReadBuffer);
+            return this;
+        }
+
+        public Builder mmapCatchUp(boolean mmapCatchUp) {
+            this.tailFileOptions.mmapCatchUp(mmapCatchUp);
+            return this;
+        }
+
+        public Builder catchUpThreshold(long catchUpThreshold) {
+            this.tailFileOptions.catchUpThreshold(catchUpThreshold);
+            return this;
+        }
+
+        public Builder mmapWindowSize(int mmapWindowSize) {
+            this.tailFileOptions.mmapWindowSize(mmapWindowSize);
+            return this;
+        }
+
+        public Builder maxLineLength(int maxLineLength) {
+            this.tailFileOptions.maxLineLength(maxLineLength);
+            return this;
+        }
+
+        public Builder truncateLongLines(boolean truncateLongLines) {
+            this.tailFileOptions.truncateLongLines(truncateLongLines);
+            return this;
+        }
+
+        public Builder multilinePattern(Pattern multilinePattern, boolean startsEvent) {
+            this.tailFileOptions.multilinePattern(multilinePattern, startsEvent);
+            return this;
+        }
+
+        public Builder multilineMaxLines(int multilineMaxLines) {
+            this.tailFileOptions.multilineMaxLines(multilineMaxLines);
+            return this;
+        }
+
+        public Builder multilineMaxBytes(int multilineMaxBytes) {
+            this.tailFileOptions.multilineMaxBytes(multilineMaxBytes);
+            return this;
+        }
+
+        public Builder multilineFlushTimeout(long multilineFlushTimeout) {
+            this.tailFileOptions.multilineFlushTimeout(multilineFlushTimeout);
+            return this;
+        }
+
+        public Builder fingerprintBytes(int fingerprintBytes) {
+            this.tailFileOptions.fingerprintBytes(fingerprintBytes);
+            return this;
+        }
+
+        public Builder watchFiles(boolean watchFiles) {
+            this.watchFiles = watchFiles;
+            return this;
+        }
+
+        public Builder fullScanInterval(long fullScanInterval) {
+            this.fullScanInterval = fullScanInterval;
+            return this;
+        }
+
+        public Builder wakeUp(Runnable wakeUp) {
+            this.wakeUp = wakeUp;
+            return this;
+        }
+
+        public Builder maxOpenFiles(int maxOpenFiles) {
+            this.maxOpenFiles = maxOpenFiles;
+            return this;
+        }
+
+        public Builder inodeRetention(long inodeRetention) {
+            this.inodeRetention = inodeRetention;
+            return this;
+        }
+
+        public Builder tailDirCounter(TailDirCounter tailDirCounter) {
+            this.tailDirCounter = tailDirCounter;
+            return this;
+        }
+
         public ReliableTailDirEventReader build() throws IOException {
-            return new ReliableTailDirEventReader(filePaths, headerTable, positionFilePath, skipToEnd, addByteOffset, cachePatternMatching, annotateFileName, fileNameHeader);
+            if (tailDirCounter == null) {
+                tailDirCounter = new TailDirCounter(ReliableTailDirEventReader.class.getSimpleName());
+            }
+            return new ReliableTailDirEventReader(filePaths, headerTable, positionStore, skipToEnd, addByteOffset, cachePatternMatching, annotateFileName, fileNameHeader, tailFileOptions.build(),
+                    watchFiles, fullScanInterval, wakeUp, maxOpenFiles, inodeRetention,
+                    tailDirCounter);
         }
     }
 
@@ -0,0 +1,35 @@
+package com.zhw.flume.source.tail;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Exponential backoff between attempts to deliver a batch. Every delay doubles the previous one
+ * up to the max, jitter shortens each delay by a random share of up to that fraction so that
+ * workers which failed together do not retry in lockstep.
+ *
+ * @author zhw
+ */
+class RetryBackoff {
+
+    private final long maxInterval;
+    private final double jitter;
+    private long nextInterval;
+
+    RetryBackoff(long initialInterval, long maxInterval, double jitter) {
+        this.maxInterval = maxInterval;
+        this.jitter = jitter;
+        this.nextInterval = initialInterval;
+    }
+
+    /**
+     * @return milliseconds to wait before the next attempt
+     */
+    long nextDelay() {
+        long delay = nextInterval;
+        nextInterval = Math.min(nextInterval << 1, maxInterval);
+        if (jitter > 0) {
+            delay -= (long) (delay * jitter * ThreadLocalRandom.current().nextDouble());
+        }
+        return delay;
+    }
+}
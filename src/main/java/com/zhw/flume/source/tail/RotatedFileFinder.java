@@ -0,0 +1,150 @@
+package com.zhw.flume.source.tail;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Finds the file which a tailed file was rotated to, once its name is gone and it was closed
+ * before all of it was read. Candidates are the files next to it whose names start with the
+ * name the file had when it was first looked for, such as <code>app.log.1</code> or
+ * <code>app.log-20240101.gz</code>.
+ * <ul>
+ * <li>A file with the same inode is the file renamed, it is taken if it holds unread bytes. As
+ * long as it exists, it is not compressed completely, so no compressed file is taken.</li>
+ * <li>A gzip or lz4 file is taken if its uncompressed content starts with the fingerprinted
+ * bytes of the file, and the uncompressed size, if told by the file, is beyond the position.
+ * Without a fingerprint compressed files are not looked at.</li>
+ * </ul>
+ * The directory is listed again only when its mtime changed, with the same second granularity
+ * rule as {@link TailDirMatcher#getMatchingFiles()}.
+ * <p></p>
+ * Not thread safe, used by the thread which scans the filegroups.
+ *
+ * @author zhw
+ */
+class RotatedFileFinder {
+
+    private static final Logger LOG = LoggerFactory.getLogger(RotatedFileFinder.class);
+
+    private final TailDirCounter counter;
+    // files looked for, by inode
+    private final LongObjectMap<Search> searches = new LongObjectMap<Search>();
+
+    RotatedFileFinder(TailDirCounter counter) {
+        this.counter = counter;
+    }
+
+    /**
+     * @return the file the closed file was rotated to, null if there is none or the directory
+     * did not change since the last search
+     */
+    File find(TailFile tf) {
+        Search search = searches.get(tf.getInode());
+        if (search == null) {
+            search = new Search(new File(tf.getPath()));
+            searches.put(tf.getInode(), search);
+        }
+        File dir = search.file.getParentFile();
+        if (dir == null) {
+            return null;
+        }
+        long now = TimeUnit.SECONDS.toMillis(TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis()));
+        counter.incrementDirStatCount();
+        long mtime = dir.lastModified();
+        if (search.lastSeenMTime >= mtime && mtime < search.lastCheckedTime) {
+            return null;
+        }
+        search.lastSeenMTime = mtime;
+        search.lastCheckedTime = now;
+        return list(dir.toPath(), search.file.getName(), tf);
+    }
+
+    /**
+     * Stops looking for the file, because it was found or forgotten.
+     */
+    void forget(long inode) {
+        searches.remove(inode);
+    }
+
+    private File list(Path dir, String name, TailFile tf) {
+        File renamed = null;
+        boolean sameInodeSeen = false;
+        File compressed = null;
+        counter.incrementDirListCount();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+            for (Path entry : stream) {
+                String entryName = entry.getFileName().toString();
+                if (!entryName.startsWith(name) || entryName.length() == name.length()) {
+                    continue;
+                }
+                File file = entry.toFile();
+                if (!DecompressingChannel.isCompressed(entryName)) {
+                    FileStat stat = stat(file);
+                    if (stat != null && stat.getInode() == tf.getInode() && !stat.isDirectory()) {
+                        sameInodeSeen = true;
+                        if (stat.getSize() > tf.getPos()) {
+                            renamed = file;
+                        }
+                    }
+                } else if (compressed == null && isArchiveOf(file, tf)) {
+                    compressed = file;
+                }
+            }
+        } catch (IOException e) {
+            LOG.error("I/O exception occurred while listing directory for rotated files: " + dir, e);
+            return null;
+        }
+        return sameInodeSeen ? renamed : compressed;
+    }
+
+    private FileStat stat(File file) throws IOException {
+        try {
+            return FileStat.read(file, counter);
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @return true if the compressed file starts with the fingerprinted bytes of the tailed file
+     * and may hold bytes behind its position
+     */
+    private boolean isArchiveOf(File file, TailFile tf) {
+        FileFingerprint fingerprint = tf.getFingerprint();
+        if (fingerprint == null || fingerprint.getLength() == 0) {
+            return false;
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            if (DecompressingChannel.endsAt(raf.getChannel(), file.getName(), tf.getPos())) {
+                // read up to its end already
+                return false;
+            }
+            try (InputStream in = DecompressingChannel.newInputStream(raf.getChannel(), file.getName())) {
+                return fingerprint.isPrefixOf(in);
+            }
+        } catch (IOException e) {
+            LOG.debug("Not a readable compressed file: " + file + ", " + e.getMessage());
+            return false;
+        }
+    }
+
+    private static class Search {
+        private final File file;
+        private long lastSeenMTime = -1;
+        private long lastCheckedTime = -1;
+
+        Search(File file) {
+            this.file = file;
+        }
+    }
+}
@@ -0,0 +1,156 @@
+package com.zhw.flume.source.tail;
+
+import org.apache.flume.instrumentation.MonitoredCounterGroup;
+
+/**
+ * Metrics of a {@link TailDirSource}: the file system calls made to find and check the tailed
+ * files, the files held open for tailing, and how long unread lines wait for their turn.
+ *
+ * @author zhw
+ */
+public class TailDirCounter extends MonitoredCounterGroup {
+
+    private static final String SCAN_COUNT = "scan.count";
+    private static final String FILE_STAT_COUNT = "scan.file.stat.count";
+    private static final String DIR_STAT_COUNT = "scan.dir.stat.count";
+    private static final String DIR_LIST_COUNT = "scan.dir.list.count";
+    private static final String OPEN_FILE_COUNT = "file.open.count";
+    private static final String REOPEN_COUNT = "file.reopen.count";
+    private static final String EVICT_COUNT = "file.evict.count";
+    private static final String VANISHED_COUNT = "file.vanished.count";
+    private static final String ROTATED_FOLLOW_COUNT = "file.rotated.follow.count";
+    private static final String MAX_QUEUE_DELAY = "file.queue.delay.max";
+    private static final String BATCH_LINE_LIMIT = "batch.limit.lines";
+    private static final String BATCH_BYTE_LIMIT = "batch.limit.bytes";
+    private static final String BATCH_LATENCY = "batch.latency";
+    private static final String EVENT_DROPPED_COUNT = "event.dropped.count";
+
+    private static final String[] ATTRIBUTES = {SCAN_COUNT, FILE_STAT_COUNT, DIR_STAT_COUNT, DIR_LIST_COUNT,
+            OPEN_FILE_COUNT, REOPEN_COUNT, EVICT_COUNT, VANISHED_COUNT, ROTATED_FOLLOW_COUNT,
+            MAX_QUEUE_DELAY, BATCH_LINE_LIMIT, BATCH_BYTE_LIMIT, BATCH_LATENCY, EVENT_DROPPED_COUNT};
+
+    public TailDirCounter(String name) {
+        super(Type.SOURCE, name, ATTRIBUTES);
+    }
+
+    public long incrementScanCount() {
+        return increment(SCAN_COUNT);
+    }
+
+    public long getScanCount() {
+        return get(SCAN_COUNT);
+    }
+
+    public long incrementFileStatCount() {
+        return increment(FILE_STAT_COUNT);
+    }
+
+    public long getFileStatCount() {
+        return get(FILE_STAT_COUNT);
+    }
+
+    public long incrementDirStatCount() {
+        return increment(DIR_STAT_COUNT);
+    }
+
+    public long getDirStatCount() {
+        return get(DIR_STAT_COUNT);
+    }
+
+    public long incrementDirListCount() {
+        return increment(DIR_LIST_COUNT);
+    }
+
+    public long getDirListCount() {
+        return get(DIR_LIST_COUNT);
+    }
+
+    public void setOpenFileCount(long count) {
+        set(OPEN_FILE_COUNT, count);
+    }
+
+    public long getOpenFileCount() {
+        return get(OPEN_FILE_COUNT);
+    }
+
+    public long incrementReopenCount() {
+        return increment(REOPEN_COUNT);
+    }
+
+    public long getReopenCount() {
+        return get(REOPEN_COUNT);
+    }
+
+    public long incrementEvictCount() {
+        return increment(EVICT_COUNT);
+    }
+
+    public long getEvictCount() {
+        return get(EVICT_COUNT);
+    }
+
+    public long addToVanishedCount(long delta) {
+        return addAndGet(VANISHED_COUNT, delta);
+    }
+
+    public long getVanishedCount() {
+        return get(VANISHED_COUNT);
+    }
+
+    public long incrementRotatedFollowCount() {
+        return increment(ROTATED_FOLLOW_COUNT);
+    }
+
+    public long getRotatedFollowCount() {
+        return get(ROTATED_FOLLOW_COUNT);
+    }
+
+    /**
+     * @param delay time (ms) the oldest unread line of any file waits, as of the last poll
+     */
+    public void setMaxQueueDelay(long delay) {
+        set(MAX_QUEUE_DELAY, delay);
+    }
+
+    public long getMaxQueueDelay() {
+        return get(MAX_QUEUE_DELAY);
+    }
+
+    public void setBatchLineLimit(long limit) {
+        set(BATCH_LINE_LIMIT, limit);
+    }
+
+    public long getBatchLineLimit() {
+        return get(BATCH_LINE_LIMIT);
+    }
+
+    public void setBatchByteLimit(long limit) {
+        set(BATCH_BYTE_LIMIT, limit);
+    }
+
+    public long getBatchByteLimit() {
+        return get(BATCH_BYTE_LIMIT);
+    }
+
+    /**
+     * @param latency time (ms) the sink took for the last delivered batch
+     */
+    public void setBatchLatency(long latency) {
+        set(BATCH_LATENCY, latency);
+    }
+
+    public long getBatchLatency() {
+        return get(BATCH_LATENCY);
+    }
+
+    /**
+     * @param delta events given up after the sink kept rejecting them
+     */
+    public long addToEventDroppedCount(long delta) {
+        return addAndGet(EVENT_DROPPED_COUNT, delta);
+    }
+
+    public long getEventDroppedCount() {
+        return get(EVENT_DROPPED_COUNT);
+    }
+}
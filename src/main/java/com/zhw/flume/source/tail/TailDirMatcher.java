@@ -13,11 +13,11 @@ import java.nio.file.DirectoryStream;
 import java.nio.file.FileSystem;
 import java.nio.file.FileSystems;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.nio.file.PathMatcher;
 import java.util.Collections;
 import java.util.Comparator;
-import java.util.HashMap;
 import java.util.List;
 import java.util.concurrent.TimeUnit;
 
@@ -39,8 +39,12 @@ public class TailDirMatcher {
     // plain string of the desired files from configuration
     private final String filePattern;
 
-    // directory monitored for changes
+    // directory monitored for changes, the root of the index for glob patterns
     private final File parentDir;
+    // null unless the directory part of filePattern holds wildcards
+    private final DirectoryIndex directoryIndex;
+    // matches the file name part of filePattern
+    private final PathMatcher fileNameMatcher;
     // cached instance for filtering files based on filePattern
     private final DirectoryStream.Filter<Path> fileFilter;
 
@@ -55,6 +59,7 @@ public class TailDirMatcher {
     private long lastCheckedTime = -1;
     // cached content, files which matched the pattern within the parent directory
     private List<File> lastMatchedFiles = Lists.newArrayList();
+    private final TailDirCounter counter;
 
     /**
      * Package accessible constructor. From configuration context it represents a single
@@ -65,32 +70,45 @@ public class TailDirMatcher {
      * . A valid example for filePattern is <code>/dir0/dir1/.*</code> given
      * <code>/dir0/dir1</code> is an existing directory structure readable by the running user.
      * <p></p>
+     * If the directory part holds wildcards, the whole <code>filePattern</code> is a glob instead,
+     * matched over any number of directory levels below its leading directory without wildcards,
+     * e.g. <code>/data/apps/*&#47;logs/**&#47;*.log</code>, see {@link DirectoryIndex}.
+     * <p></p>
      * An instance of this class is created for each fileGroup
      *
      * @param fileGroup            arbitrary name of the group given by the config
-     * @param filePattern          parent directory plus regex pattern. No wildcards are allowed in directory
-     *                             name
+     * @param filePattern          parent directory plus regex pattern, or a glob if the directory part
+     *                             holds wildcards
      * @param cachePatternMatching default true, recommended in every setup especially with huge
      *                             parent directories. Don't set when local system clock is not used
      *                             for stamping mtime (eg: remote filesystems)
+     * @param counter          counts the file system calls
      * @see com.zhw.flume.source.tail.TailDirSourceConfigurationConstants
      */
-    TailDirMatcher(String fileGroup, String filePattern, boolean cachePatternMatching) {
+    TailDirMatcher(String fileGroup, String filePattern, boolean cachePatternMatching, TailDirCounter counter) {
         // store whatever came from configuration
         this.fileGroup = fileGroup;
         this.filePattern = filePattern;
         this.cachePatternMatching = cachePatternMatching;
+        this.counter = counter;
 
         // calculate final members
         File f = new File(filePattern);
-        this.parentDir = f.getParentFile();
-        String regex = f.getName();
-        final PathMatcher matcher = FS.getPathMatcher("regex:" + regex);
+        if (DirectoryIndex.isGlob(filePattern)) {
+            this.directoryIndex = DirectoryIndex.forPattern(filePattern, cachePatternMatching, counter);
+            this.parentDir = directoryIndex.getRoot().toFile();
+            this.fileNameMatcher = null;
+        } else {
+            this.directoryIndex = null;
+            this.parentDir = f.getParentFile();
+            this.fileNameMatcher = FS.getPathMatcher("regex:" + f.getName());
+        }
         this.fileFilter = new DirectoryStream.Filter<Path>() {
 
             @Override
             public boolean accept(Path entry) throws IOException {
-                return matcher.matches(entry.getFileName()) && !Files.isDirectory(entry);
+                // directories are sorted out by the stat of the matched files
+                return fileNameMatcher.matches(entry.getFileName());
             }
         };
 
@@ -137,15 +155,22 @@ public class TailDirMatcher {
      * any further invocations can be served from cache associated with that second
      * (given mtime is not updated again).
      *
-     * @return List of files matching the pattern sorted by last modification time. No recursion.
-     * No directories. If nothing matches then returns an empty list. If I/O issue occurred then
-     * returns the list collected to the point when exception was thrown.
+     * <p></p>
+     * Every matched file, cached or not, is stat'ed once per call. The snapshot is returned to the
+     * caller, which needs the current inode, size and mtime of each file anyway.
+     *
+     * @return stats of the files matching the pattern sorted by last modification time. No recursion.
+     * No directories. If nothing matches then returns an empty list. If I/O issue occurred while
+     * listing then returns the list collected to the point when exception was thrown.
      * @see #getMatchingFilesNoCache()
      */
-    List<File> getMatchingFiles() {
+    List<FileStat> getMatchingFiles() throws IOException {
+        if (directoryIndex != null) {
+            return statAndSort(directoryIndex.getMatchingFiles());
+        }
         long now = TimeUnit.SECONDS.toMillis(TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis()));
+        counter.incrementDirStatCount();
         long currentParentDirMTime = parentDir.lastModified();
-        List<File> result;
 
         // calculate matched files if
         // - we don't want to use cache (recalculate every time) OR
@@ -153,12 +178,12 @@ public class TailDirMatcher {
         // - last mtime change wasn't already checked for sure
         //   (system clock hasn't passed that second yet)
         if (!cachePatternMatching || lastSeenParentDirMTime < currentParentDirMTime || !(currentParentDirMTime < lastCheckedTime)) {
-            lastMatchedFiles = sortByLastModifiedTime(getMatchingFilesNoCache());
+            lastMatchedFiles = getMatchingFilesNoCache();
             lastSeenParentDirMTime = currentParentDirMTime;
             lastCheckedTime = now;
         }
 
-        return lastMatchedFiles;
+        return statAndSort(lastMatchedFiles);
     }
 
     /**
@@ -170,7 +195,7 @@ public class TailDirMatcher {
      * It does not freeze the directory while iterating, so it may (or may not) reflect updates
      * to the directory that occur during the call. In which case next call will return those files.
      *
-     * @return List of files matching the pattern unsorted. No recursion. No directories.
+     * @return List of files matching the pattern unsorted. No recursion. Directories included.
      * If nothing matches then returns an empty list. If I/O issue occurred then returns the list
      * collected to the point when exception was thrown.
      * @see DirectoryStream
@@ -178,6 +203,7 @@ public class TailDirMatcher {
      */
     private List<File> getMatchingFilesNoCache() {
         List<File> result = Lists.newArrayList();
+        counter.incrementDirListCount();
         try (DirectoryStream<Path> stream = Files.newDirectoryStream(parentDir.toPath(), fileFilter)) {
             for (Path entry : stream) {
                 result.add(entry.toFile());
@@ -189,27 +215,70 @@ public class TailDirMatcher {
     }
 
     /**
-     * Utility function to sort matched files based on last modification time.
-     * Sorting itself use only a snapshot of last modification times captured before the sorting
-     * to keep the number of stat system calls to the required minimum.
+     * Tells whether the given path would be matched by this filegroup, judged by its parent
+     * directory and file name only. Unlike {@link #getMatchingFiles()} the file system is not
+     * touched, so it is cheap enough to be called for every file change event.
+     *
+     * @param file absolute path of a file within any directory
+     * @return true if the file lies directly within parentDir and its name matches the regex, or
+     * if the path matches the glob
+     */
+    boolean matches(Path file) {
+        if (directoryIndex != null) {
+            return directoryIndex.matches(file);
+        }
+        Path fileName = file.getFileName();
+        return fileName != null && parentDir.toPath().equals(file.getParent()) && fileNameMatcher.matches(fileName);
+    }
+
+    /**
+     * Tells without touching the file system whether files within the given directory, or
+     * below it for glob patterns, may be matched by this filegroup.
+     */
+    boolean mayContain(Path dir) {
+        if (directoryIndex != null) {
+            return directoryIndex.mayContain(dir);
+        }
+        return parentDir.toPath().equals(dir);
+    }
+
+    /**
+     * @return the directories whose entries are matched, as seen by the last {@link #getMatchingFiles()}
+     */
+    List<Path> getDirectories() {
+        if (directoryIndex != null) {
+            return directoryIndex.getDirectories();
+        }
+        return Collections.singletonList(parentDir.toPath());
+    }
+
+    /**
+     * Stats the files and sorts them by last modification time. Directories and files which are
+     * gone in the meantime are left out.
      *
      * @param files list of files in any order
-     * @return sorted list
+     * @return stats of the files sorted by last modification time
      */
-    private static List<File> sortByLastModifiedTime(List<File> files) {
-        final HashMap<File, Long> lastModificationTimes = new HashMap<File, Long>(files.size());
+    private List<FileStat> statAndSort(List<File> files) throws IOException {
+        List<FileStat> stats = Lists.newArrayListWithCapacity(files.size());
         for (File f : files) {
-            lastModificationTimes.put(f, f.lastModified());
+            try {
+                FileStat stat = FileStat.read(f, counter);
+                if (!stat.isDirectory()) {
+                    stats.add(stat);
+                }
+            } catch (NoSuchFileException e) {
+                logger.info("File has been deleted in the meantime: " + e.getMessage());
+            }
         }
-        Collections.sort(files, new Comparator<File>() {
+        Collections.sort(stats, new Comparator<FileStat>() {
 
             @Override
-            public int compare(File o1, File o2) {
-                return lastModificationTimes.get(o1).compareTo(lastModificationTimes.get(o2));
+            public int compare(FileStat o1, FileStat o2) {
+                return Long.compare(o1.getLastModified(), o2.getLastModified());
             }
         });
-
-        return files;
+        return stats;
     }
 
     @Override
@@ -241,4 +310,8 @@ public class TailDirMatcher {
         return fileGroup;
     }
 
+    public File getParentDir() {
+        return parentDir;
+    }
+
 }
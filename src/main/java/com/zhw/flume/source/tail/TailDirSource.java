@@ -2,15 +2,25 @@ package com.zhw.flume.source.tail;
 
 import com.google.common.base.Preconditions;
 import com.google.common.collect.HashBasedTable;
-import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
-import com.google.gson.Gson;
 import com.zhw.flume.conf.BatchSizeSupported;
 import com.zhw.flume.conf.Configurable;
+import com.zhw.flume.conf.Configurables;
+import com.zhw.flume.event.EventBatch;
+import com.zhw.flume.memory.MemoryGovernor;
 import com.zhw.flume.source.AbstractSource;
+import com.zhw.flume.sink.DeliveryCallback;
+import com.zhw.flume.sink.PartialDeliveryException;
 import com.zhw.flume.source.PollableSource;
+import com.zhw.flume.spool.DiskSpool;
+import com.zhw.flume.spool.SpoolBatch;
+import com.zhw.flume.spool.SpoolCounter;
+import com.zhw.flume.stage.RingStage;
+import com.zhw.flume.threadpool.HierarchicalTimerWheel;
+import com.zhw.flume.threadpool.PinnedThreadPool;
 import com.zhw.flume.threadpool.SingleScheduledThreadPool;
+import com.zhw.flume.threadpool.ThreadFactories;
 import org.apache.flume.Context;
 import org.apache.flume.Event;
 import org.apache.flume.EventDeliveryException;
@@ -20,40 +30,111 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import com.google.common.collect.Table;
 
-import java.io.File;
-import java.io.FileWriter;
 import java.io.IOException;
+import java.io.RandomAccessFile;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
 
 import static com.zhw.flume.source.PollableSource.Status.BACKOFF;
 import static com.zhw.flume.source.tail.TailDirSourceConfigurationConstants.BATCH_SIZE;
 import static com.zhw.flume.source.tail.TailDirSourceConfigurationConstants.BYTE_OFFSET_HEADER;
 import static com.zhw.flume.source.tail.TailDirSourceConfigurationConstants.CACHE_PATTERN_MATCHING;
+import static com.zhw.flume.source.tail.TailDirSourceConfigurationConstants.CATCH_UP_THRESHOLD;
+import static com.zhw.flume.source.tail.TailDirSourceConfigurationConstants.CHANNEL_READER;
 import static com.zhw.flume.source.tail.TailDirSourceConfigurationConstants.DEFAULT_BATCH_SIZE;
 import static com.zhw.flume.source.tail.TailDirSourceConfigurationConstants.DEFAULT_BYTE_OFFSET_HEADER;
 import static com.zhw.flume.source.tail.TailDirSourceConfigurationConstants.DEFAULT_CACHE_PATTERN_MATCHING;
+import static com.zhw.flume.source.tail.TailDirSourceConfigurationConstants.DEFAULT_CATCH_UP_THRESHOLD;
+import static com.zhw.flume.source.tail.TailDirSourceConfigurationConstants.DEFAULT_CHANNEL_READER;
+import static com.zhw.flume.source.tail.TailDirSourceConfigurationConstants.DEFAULT_DIRECT_READ_BUFFER;
 import static com.zhw.flume.source.tail.TailDirSourceConfigurationConstants.DEFAULT_FILENAME_HEADER_KEY;
 import static com.zhw.flume.source.tail.TailDirSourceConfigurationConstants.DEFAULT_FILE_HEADER;
+import static com.zhw.flume.source.tail.TailDirSourceConfigurationConstants.DEFAULT_FINGERPRINT_BYTES;
+import static com.zhw.flume.source.tail.TailDirSourceConfigurationConstants.DEFAULT_FULL_SCAN_INTERVAL;
 import static com.zhw.flume.source.tail.TailDirSourceConfigurationConstants.DEFAULT_IDLE_TIMEOUT;
+import static com.zhw.flume.source.tail.TailDirSourceConfigurationConstants.DEFAULT_INODE_RETENTION;
+import static com.zhw.flume.source.tail.TailDirSourceConfigurationConstants.DEFAULT_MAX_BATCH_BYTES;
 import static com.zhw.flume.source.tail.TailDirSourceConfigurationConstants.DEFAULT_MAX_BATCH_COUNT;
+import static com.zhw.flume.source.tail.TailDirSourceConfigurationConstants.DEFAULT_MAX_LINE_LENGTH;
+import static com.zhw.flume.source.tail.TailDirSourceConfigurationConstants.DEFAULT_MAX_OPEN_FILES;
+import static com.zhw.flume.source.tail.TailDirSourceConfigurationConstants.DEFAULT_MAX_RESEND_ATTEMPTS;
+import static com.zhw.flume.source.tail.TailDirSourceConfigurationConstants.DEFAULT_MAX_RETRY_INTERVAL;
+import static com.zhw.flume.source.tail.TailDirSourceConfigurationConstants.DEFAULT_MIN_BATCH_BYTES;
+import static com.zhw.flume.source.tail.TailDirSourceConfigurationConstants.DEFAULT_MMAP_CATCH_UP;
+import static com.zhw.flume.source.tail.TailDirSourceConfigurationConstants.DEFAULT_MMAP_WINDOW_SIZE;
+import static com.zhw.flume.source.tail.TailDirSourceConfigurationConstants.DEFAULT_MULTILINE_FLUSH_TIMEOUT;
+import static com.zhw.flume.source.tail.TailDirSourceConfigurationConstants.DEFAULT_MULTILINE_MAX_BYTES;
+import static com.zhw.flume.source.tail.TailDirSourceConfigurationConstants.DEFAULT_MULTILINE_MAX_LINES;
 import static com.zhw.flume.source.tail.TailDirSourceConfigurationConstants.DEFAULT_POSITION_FILE;
+import static com.zhw.flume.source.tail.TailDirSourceConfigurationConstants.DEFAULT_POSITION_FORMAT;
+import static com.zhw.flume.source.tail.TailDirSourceConfigurationConstants.DEFAULT_READ_BUFFER_SIZE;
+import static com.zhw.flume.source.tail.TailDirSourceConfigurationConstants.DEFAULT_RETRY_INTERVAL;
+import static com.zhw.flume.source.tail.TailDirSourceConfigurationConstants.DEFAULT_RETRY_JITTER;
+import static com.zhw.flume.source.tail.TailDirSourceConfigurationConstants.DEFAULT_RING_SIZE;
+import static com.zhw.flume.source.tail.TailDirSourceConfigurationConstants.DEFAULT_SCHEDULER;
 import static com.zhw.flume.source.tail.TailDirSourceConfigurationConstants.DEFAULT_SKIP_TO_END;
+import static com.zhw.flume.source.tail.TailDirSourceConfigurationConstants.DEFAULT_SPOOL_MAX_BYTES;
+import static com.zhw.flume.source.tail.TailDirSourceConfigurationConstants.DEFAULT_SPOOL_SEGMENT_BYTES;
+import static com.zhw.flume.source.tail.TailDirSourceConfigurationConstants.DEFAULT_TARGET_BATCH_LATENCY;
+import static com.zhw.flume.source.tail.TailDirSourceConfigurationConstants.DEFAULT_TRUNCATE_LONG_LINES;
+import static com.zhw.flume.source.tail.TailDirSourceConfigurationConstants.DEFAULT_WATCH_FILES;
+import static com.zhw.flume.source.tail.TailDirSourceConfigurationConstants.DEFAULT_WORKERS;
 import static com.zhw.flume.source.tail.TailDirSourceConfigurationConstants.DEFAULT_WRITE_POS_INTERVAL;
+import static com.zhw.flume.source.tail.TailDirSourceConfigurationConstants.DIRECT_READ_BUFFER;
 import static com.zhw.flume.source.tail.TailDirSourceConfigurationConstants.FILENAME_HEADER;
 import static com.zhw.flume.source.tail.TailDirSourceConfigurationConstants.FILENAME_HEADER_KEY;
 import static com.zhw.flume.source.tail.TailDirSourceConfigurationConstants.FILE_GROUPS;
 import static com.zhw.flume.source.tail.TailDirSourceConfigurationConstants.FILE_GROUPS_PREFIX;
+import static com.zhw.flume.source.tail.TailDirSourceConfigurationConstants.FINGERPRINT_BYTES;
+import static com.zhw.flume.source.tail.TailDirSourceConfigurationConstants.FULL_SCAN_INTERVAL;
 import static com.zhw.flume.source.tail.TailDirSourceConfigurationConstants.HEADERS_PREFIX;
 import static com.zhw.flume.source.tail.TailDirSourceConfigurationConstants.IDLE_TIMEOUT;
+import static com.zhw.flume.source.tail.TailDirSourceConfigurationConstants.INODE_RETENTION;
+import static com.zhw.flume.source.tail.TailDirSourceConfigurationConstants.MAX_BATCH_BYTES;
 import static com.zhw.flume.source.tail.TailDirSourceConfigurationConstants.MAX_BATCH_COUNT;
+import static com.zhw.flume.source.tail.TailDirSourceConfigurationConstants.MAX_BATCH_SIZE;
+import static com.zhw.flume.source.tail.TailDirSourceConfigurationConstants.MAX_LINE_LENGTH;
+import static com.zhw.flume.source.tail.TailDirSourceConfigurationConstants.MAX_OPEN_FILES;
+import static com.zhw.flume.source.tail.TailDirSourceConfigurationConstants.MAX_RESEND_ATTEMPTS;
+import static com.zhw.flume.source.tail.TailDirSourceConfigurationConstants.MAX_RETRY_INTERVAL;
+import static com.zhw.flume.source.tail.TailDirSourceConfigurationConstants.MIN_BATCH_BYTES;
+import static com.zhw.flume.source.tail.TailDirSourceConfigurationConstants.MIN_BATCH_SIZE;
+import static com.zhw.flume.source.tail.TailDirSourceConfigurationConstants.MMAP_CATCH_UP;
+import static com.zhw.flume.source.tail.TailDirSourceConfigurationConstants.MMAP_WINDOW_SIZE;
+import static com.zhw.flume.source.tail.TailDirSourceConfigurationConstants.MULTILINE_CONTINUE_PATTERN;
+import static com.zhw.flume.source.tail.TailDirSourceConfigurationConstants.MULTILINE_FLUSH_TIMEOUT;
+import static com.zhw.flume.source.tail.TailDirSourceConfigurationConstants.MULTILINE_MAX_BYTES;
+import static com.zhw.flume.source.tail.TailDirSourceConfigurationConstants.MULTILINE_MAX_LINES;
+import static com.zhw.flume.source.tail.TailDirSourceConfigurationConstants.MULTILINE_START_PATTERN;
 import static com.zhw.flume.source.tail.TailDirSourceConfigurationConstants.POSITION_FILE;
+import static com.zhw.flume.source.tail.TailDirSourceConfigurationConstants.POSITION_FORMAT;
+import static com.zhw.flume.source.tail.TailDirSourceConfigurationConstants.POSITION_FORMAT_JOURNAL;
+import static com.zhw.flume.source.tail.TailDirSourceConfigurationConstants.POSITION_FORMAT_JSON;
+import static com.zhw.flume.source.tail.TailDirSourceConfigurationConstants.READ_BUFFER_SIZE;
+import static com.zhw.flume.source.tail.TailDirSourceConfigurationConstants.RETRY_INTERVAL;
+import static com.zhw.flume.source.tail.TailDirSourceConfigurationConstants.RETRY_JITTER;
+import static com.zhw.flume.source.tail.TailDirSourceConfigurationConstants.RING_SIZE;
+import static com.zhw.flume.source.tail.TailDirSourceConfigurationConstants.SCHEDULER;
+import static com.zhw.flume.source.tail.TailDirSourceConfigurationConstants.SCHEDULER_DRR;
+import static com.zhw.flume.source.tail.TailDirSourceConfigurationConstants.SCHEDULER_FIFO;
+import static com.zhw.flume.source.tail.TailDirSourceConfigurationConstants.SCHEDULER_OLDEST;
+import static com.zhw.flume.source.tail.TailDirSourceConfigurationConstants.SCHEDULER_PREFIX;
 import static com.zhw.flume.source.tail.TailDirSourceConfigurationConstants.SKIP_TO_END;
+import static com.zhw.flume.source.tail.TailDirSourceConfigurationConstants.SPOOL_DIR;
+import static com.zhw.flume.source.tail.TailDirSourceConfigurationConstants.SPOOL_MAX_BYTES;
+import static com.zhw.flume.source.tail.TailDirSourceConfigurationConstants.SPOOL_SEGMENT_BYTES;
+import static com.zhw.flume.source.tail.TailDirSourceConfigurationConstants.TARGET_BATCH_LATENCY;
+import static com.zhw.flume.source.tail.TailDirSourceConfigurationConstants.TRUNCATE_LONG_LINES;
+import static com.zhw.flume.source.tail.TailDirSourceConfigurationConstants.WATCH_FILES;
+import static com.zhw.flume.source.tail.TailDirSourceConfigurationConstants.WORKERS;
 import static com.zhw.flume.source.tail.TailDirSourceConfigurationConstants.WRITE_POS_INTERVAL;
 
 /**
@@ -63,6 +144,10 @@ public class TailDirSource extends AbstractSource implements BatchSizeSupported,
 
     private static final Logger LOG = LoggerFactory.getLogger(TailDirSource.class);
 
+    private static final long WORKER_STOP_TIMEOUT = 10000;
+
+    private static final long SPOOL_POLL_TIMEOUT = 1000;
+
     private Map<String, String> filePaths;
 
     private Table<String, String, String> headerTable;
@@ -71,8 +156,26 @@ public class TailDirSource extends AbstractSource implements BatchSizeSupported,
 
     private int batchSize;
 
+    private int minBatchSize;
+
+    private int maxBatchSize;
+
+    private long minBatchBytes;
+
+    private long maxBatchBytes;
+
+    private long targetBatchLatency;
+
+    private BatchSizer batchSizer;
+
+    private final MemoryGovernor memoryGovernor = MemoryGovernor.getInstance();
+
     private String positionFilePath;
 
+    private String positionFormat;
+
+    private PositionStore positionStore;
+
     private boolean skipToEnd;
 
     private boolean byteOffsetHeader;
@@ -81,11 +184,24 @@ public class TailDirSource extends AbstractSource implements BatchSizeSupported,
 
     private SingleScheduledThreadPool checker;
 
-    private int retryInterval = 1000;
+    private HierarchicalTimerWheel.Timeout idleFileChecker;
+
+    private HierarchicalTimerWheel.Timeout positionWriter;
+
+    private long retryInterval;
+
+    private long maxRetryInterval;
+
+    private double retryJitter;
+
+    private int maxResendAttempts;
 
-    private int maxRetryInterval = 1000;
+    // batches the sink failed to deliver asynchronously, handed over by the failed batch retrier
+    private final BlockingQueue<BatchCallback> failedBatches = new LinkedBlockingQueue<BatchCallback>();
 
     private int idleTimeout;
+    private int maxOpenFiles;
+    private long inodeRetention;
 
     private int checkIdleInterval = 5000;
 
@@ -95,9 +211,8 @@ public class TailDirSource extends AbstractSource implements BatchSizeSupported,
 
     private boolean cachePatternMatching;
 
-    private List<Long> existingInodes = new CopyOnWriteArrayList<>();
-
-    private List<Long> idleInodes = new CopyOnWriteArrayList<Long>();
+    // added to by the idle checker, guarded by itself
+    private final LongList idleInodes = new LongList();
 
     private Long backoffSleepIncrement;
 
@@ -109,24 +224,123 @@ public class TailDirSource extends AbstractSource implements BatchSizeSupported,
 
     private Long maxBatchCount;
 
+    private TailFileScheduler scheduler;
+
+    private boolean channelReader;
+
+    private int readBufferSize;
+
+    private boolean directReadBuffer;
+
+    private boolean mmapCatchUp;
+
+    private long catchUpThreshold;
+
+    private int mmapWindowSize;
+
+    private int maxLineLength;
+
+    private boolean truncateLongLines;
+
+    private Pattern multilinePattern;
+
+    private boolean multilinePatternStartsEvent;
+
+    private int multilineMaxLines;
+
+    private int multilineMaxBytes;
+
+    private long multilineFlushTimeout;
+    private int fingerprintBytes;
+
+    private boolean watchFiles;
+
+    private long fullScanInterval;
+
+    private Runnable wakeUp;
+
+    private int workerCount;
+
+    // null when files are tailed on the runner thread
+    private PinnedThreadPool workers;
+
+    private String spoolDir;
+
+    private long spoolMaxBytes;
+
+    private long spoolSegmentBytes;
+
+    // null when no spool is configured
+    private DiskSpool spool;
+
+    private SpoolCounter spoolCounter;
+
+    private TailDirCounter tailDirCounter;
+
+    private Thread spoolDrainer;
+    private Thread failedBatchRetrier;
+
+    private int ringSize;
+
+    private RingStage ringStage;
+
     @Override
     public synchronized void start() {
         checker = SingleScheduledThreadPool.getInstance();
         LOG.info("{} TaildirSource source starting with directory: {}", getName(), filePaths);
+        positionStore = POSITION_FORMAT_JOURNAL.equals(positionFormat)
+                ? new JournalPositionStore(Paths.get(positionFilePath))
+                : new JsonPositionStore(Paths.get(positionFilePath));
+        tailDirCounter = new TailDirCounter(getName());
+        batchSizer = new BatchSizer(batchSize, minBatchSize, maxBatchSize, minBatchBytes, maxBatchBytes,
+                targetBatchLatency, tailDirCounter);
         try {
             reader = new ReliableTailDirEventReader.Builder().filePaths(filePaths).headerTable(headerTable)
-                    .positionFilePath(positionFilePath).skipToEnd(skipToEnd).addByteOffset(byteOffsetHeader)
+                    .positionStore(positionStore).skipToEnd(skipToEnd).addByteOffset(byteOffsetHeader)
                     .cachePatternMatching(cachePatternMatching).annotateFileName(fileHeader)
-                    .fileNameHeader(fileHeaderKey).build();
+                    .fileNameHeader(fileHeaderKey).channelReader(channelReader).readBufferSize(readBufferSize)
+                    .directReadBuffer(directReadBuffer).mmapCatchUp(mmapCatchUp).catchUpThreshold(catchUpThreshold)
+                    .mmapWindowSize(mmapWindowSize).maxLineLength(maxLineLength)
+                    .truncateLongLines(truncateLongLines)
+                    .multilinePattern(multilinePattern, multilinePatternStartsEvent)
+                    .multilineMaxLines(multilineMaxLines).multilineMaxBytes(multilineMaxBytes)
+                    .multilineFlushTimeout(multilineFlushTimeout).fingerprintBytes(fingerprintBytes)
+                    .watchFiles(watchFiles).fullScanInterval(fullScanInterval).maxOpenFiles(maxOpenFiles)
+                    .inodeRetention(inodeRetention).wakeUp(wakeUp).tailDirCounter(tailDirCounter).build();
         } catch (IOException e) {
             LOG.error("Error instantiating ReliableTaildirEventReader, ", e);
             throw new FlumeException("Error instantiating ReliableTaildirEventReader", e);
         }
-        checker.scheduleWithFixedDelay(new idleFileCheckerRunnable(), idleTimeout, checkIdleInterval,
-                TimeUnit.MILLISECONDS);
-        checker.scheduleWithFixedDelay(new PositionWriterRunnable(), writePosInitDelay, writePosInterval,
-                TimeUnit.MILLISECONDS);
+        if (workerCount > 1) {
+            workers = new PinnedThreadPool(getName() + "-tailWorker", workerCount);
+        }
+        if (spoolDir != null) {
+            spoolCounter = new SpoolCounter(getName());
+            spool = new DiskSpool(Paths.get(spoolDir), spoolMaxBytes, spoolSegmentBytes, spoolCounter);
+            try {
+                spool.open();
+            } catch (IOException e) {
+                LOG.error("Error opening spool, ", e);
+                throw new FlumeException("Error opening spool " + spoolDir, e);
+            }
+            spoolCounter.start();
+            spoolDrainer = ThreadFactories.newThread(getName() + "-spoolDrainer", new SpoolDrainerRunnable());
+            spoolDrainer.start();
+        }
+        idleFileChecker = checker.scheduleWithFixedDelay(new idleFileCheckerRunnable(), idleTimeout,
+                checkIdleInterval, TimeUnit.MILLISECONDS);
+        positionWriter = checker.scheduleWithFixedDelay(new PositionWriterRunnable(), writePosInitDelay,
+                writePosInterval, TimeUnit.MILLISECONDS);
+        tailDirCounter.start();
         getSinkRunner().start();
+        failedBatchRetrier = ThreadFactories.newThread(getName() + "-failedBatchRetrier",
+                new FailedBatchRetrierRunnable());
+        failedBatchRetrier.start();
+        if (ringSize > 0) {
+            ringStage = new RingStage(getName(), getSinkRunner(), ringSize);
+            ringStage.start();
+            setRingStage(ringStage);
+        }
         super.start();
     }
 
@@ -134,12 +348,39 @@ public class TailDirSource extends AbstractSource implements BatchSizeSupported,
     public synchronized void stop() {
         try {
             super.stop();
+            if (workers != null) {
+                workers.stop(WORKER_STOP_TIMEOUT, TimeUnit.MILLISECONDS);
+            }
+            if (spoolDrainer != null) {
+                spoolDrainer.interrupt();
+                spoolDrainer.join(WORKER_STOP_TIMEOUT);
+            }
+            if (ringStage != null) {
+                setRingStage(null);
+                ringStage.stop(WORKER_STOP_TIMEOUT, TimeUnit.MILLISECONDS);
+                ringStage = null;
+            }
+            // batches it did not hand over yet are read again after a restart, as they were not acked
+            failedBatchRetrier.interrupt();
+            failedBatchRetrier.join(WORKER_STOP_TIMEOUT);
             getSinkRunner().stop();
-            checker.stop();
+            releaseFailedBatches();
+            // the timer is shared with the other sources
+            idleFileChecker.cancel();
+            positionWriter.cancel();
             writePosition();
+            positionStore.close();
+            if (spool != null) {
+                spool.close();
+                spoolCounter.stop();
+            }
             reader.close();
+            tailDirCounter.stop();
         } catch (IOException e) {
             LOG.info("Failed: " + e.getMessage(), e);
+        } catch (InterruptedException e) {
+            LOG.info("Interrupted while stopping the spool drainer or failed batch retrier");
+            Thread.currentThread().interrupt();
         }
         LOG.info("TailDir source {} stopped.", getName());
     }
@@ -173,11 +414,58 @@ public class TailDirSource extends AbstractSource implements BatchSizeSupported,
         } catch (IOException e) {
             throw new FlumeException("Error creating positionFile parent directories", e);
         }
+        positionFormat = context.getString(POSITION_FORMAT, DEFAULT_POSITION_FORMAT);
+        if (!POSITION_FORMAT_JSON.equals(positionFormat) && !POSITION_FORMAT_JOURNAL.equals(positionFormat)) {
+            positionFormat = DEFAULT_POSITION_FORMAT;
+            LOG.warn("Invalid positionFormat specified, initializing source default positionFormat of {}",
+                    positionFormat);
+        }
         headerTable = getTable(context, HEADERS_PREFIX);
         batchSize = context.getInteger(BATCH_SIZE, DEFAULT_BATCH_SIZE);
+        minBatchSize = context.getInteger(MIN_BATCH_SIZE, batchSize);
+        if (minBatchSize <= 0 || minBatchSize > batchSize) {
+            minBatchSize = batchSize;
+            LOG.warn("Invalid minBatchSize specified, initializing source default minBatchSize of {}",
+                    minBatchSize);
+        }
+        maxBatchSize = context.getInteger(MAX_BATCH_SIZE, batchSize);
+        if (maxBatchSize < batchSize) {
+            maxBatchSize = batchSize;
+            LOG.warn("Invalid maxBatchSize specified, initializing source default maxBatchSize of {}",
+                    maxBatchSize);
+        }
+        minBatchBytes = context.getLong(MIN_BATCH_BYTES, DEFAULT_MIN_BATCH_BYTES);
+        if (minBatchBytes <= 0) {
+            minBatchBytes = DEFAULT_MIN_BATCH_BYTES;
+            LOG.warn("Invalid minBatchBytes specified, initializing source default minBatchBytes of {}",
+                    minBatchBytes);
+        }
+        maxBatchBytes = context.getLong(MAX_BATCH_BYTES, DEFAULT_MAX_BATCH_BYTES);
+        if (maxBatchBytes < minBatchBytes) {
+            maxBatchBytes = DEFAULT_MAX_BATCH_BYTES;
+            LOG.warn("Invalid maxBatchBytes specified, initializing source default maxBatchBytes of {}",
+                    maxBatchBytes);
+        }
+        targetBatchLatency = context.getLong(TARGET_BATCH_LATENCY, DEFAULT_TARGET_BATCH_LATENCY);
+        if (targetBatchLatency <= 0) {
+            targetBatchLatency = DEFAULT_TARGET_BATCH_LATENCY;
+            LOG.warn("Invalid targetBatchLatency specified, initializing source default targetBatchLatency of {}",
+                    targetBatchLatency);
+        }
         skipToEnd = context.getBoolean(SKIP_TO_END, DEFAULT_SKIP_TO_END);
         byteOffsetHeader = context.getBoolean(BYTE_OFFSET_HEADER, DEFAULT_BYTE_OFFSET_HEADER);
         idleTimeout = context.getInteger(IDLE_TIMEOUT, DEFAULT_IDLE_TIMEOUT);
+        inodeRetention = context.getLong(INODE_RETENTION, DEFAULT_INODE_RETENTION);
+        if (inodeRetention <= 0) {
+            inodeRetention = DEFAULT_INODE_RETENTION;
+            LOG.warn("Invalid inodeRetention specified, initializing source default inodeRetention of {}",
+                    inodeRetention);
+        }
+        maxOpenFiles = context.getInteger(MAX_OPEN_FILES, DEFAULT_MAX_OPEN_FILES);
+        if (maxOpenFiles < 0) {
+            maxOpenFiles = DEFAULT_MAX_OPEN_FILES;
+            LOG.warn("Invalid maxOpenFiles specified, initializing source default maxOpenFiles of {}", maxOpenFiles);
+        }
         writePosInterval = context.getInteger(WRITE_POS_INTERVAL, DEFAULT_WRITE_POS_INTERVAL);
         cachePatternMatching = context.getBoolean(CACHE_PATTERN_MATCHING, DEFAULT_CACHE_PATTERN_MATCHING);
 
@@ -193,6 +481,118 @@ public class TailDirSource extends AbstractSource implements BatchSizeSupported,
             LOG.warn("Invalid maxBatchCount specified, initializing source " + "default maxBatchCount of {}",
                     maxBatchCount);
         }
+        String schedulerType = context.getString(SCHEDULER, DEFAULT_SCHEDULER);
+        scheduler = newScheduler(schedulerType);
+        Configurables.configure(scheduler, new Context(context.getSubProperties(SCHEDULER_PREFIX)));
+        channelReader = context.getBoolean(CHANNEL_READER, DEFAULT_CHANNEL_READER);
+        readBufferSize = context.getInteger(READ_BUFFER_SIZE, DEFAULT_READ_BUFFER_SIZE);
+        if (readBufferSize <= 0) {
+            readBufferSize = DEFAULT_READ_BUFFER_SIZE;
+            LOG.warn("Invalid readBufferSize specified, initializing source default readBufferSize of {}",
+                    readBufferSize);
+        }
+        directReadBuffer = context.getBoolean(DIRECT_READ_BUFFER, DEFAULT_DIRECT_READ_BUFFER);
+        mmapCatchUp = context.getBoolean(MMAP_CATCH_UP, DEFAULT_MMAP_CATCH_UP);
+        catchUpThreshold = context.getLong(CATCH_UP_THRESHOLD, DEFAULT_CATCH_UP_THRESHOLD);
+        if (catchUpThreshold < 0) {
+            catchUpThreshold = DEFAULT_CATCH_UP_THRESHOLD;
+            LOG.warn("Invalid catchUpThreshold specified, initializing source default catchUpThreshold of {}",
+                    catchUpThreshold);
+        }
+        mmapWindowSize = context.getInteger(MMAP_WINDOW_SIZE, DEFAULT_MMAP_WINDOW_SIZE);
+        if (mmapWindowSize <= 0) {
+            mmapWindowSize = DEFAULT_MMAP_WINDOW_SIZE;
+            LOG.warn("Invalid mmapWindowSize specified, initializing source default mmapWindowSize of {}",
+                    mmapWindowSize);
+        }
+        maxLineLength = context.getInteger(MAX_LINE_LENGTH, DEFAULT_MAX_LINE_LENGTH);
+        if (maxLineLength <= 0) {
+            maxLineLength = DEFAULT_MAX_LINE_LENGTH;
+            LOG.warn("Invalid maxLineLength specified, initializing source default maxLineLength of {}",
+                    maxLineLength);
+        }
+        truncateLongLines = context.getBoolean(TRUNCATE_LONG_LINES, DEFAULT_TRUNCATE_LONG_LINES);
+        String multilineStartPattern = context.getString(MULTILINE_START_PATTERN);
+        String multilineContinuePattern = context.getString(MULTILINE_CONTINUE_PATTERN);
+        Preconditions.checkState(multilineStartPattern == null || multilineContinuePattern == null,
+                "Only one of " + MULTILINE_START_PATTERN + " and " + MULTILINE_CONTINUE_PATTERN + " may be set");
+        multilinePatternStartsEvent = multilineStartPattern != null;
+        String pattern = multilinePatternStartsEvent ? multilineStartPattern : multilineContinuePattern;
+        multilinePattern = pattern == null ? null : Pattern.compile(pattern);
+        multilineMaxLines = context.getInteger(MULTILINE_MAX_LINES, DEFAULT_MULTILINE_MAX_LINES);
+        if (multilineMaxLines <= 0) {
+            multilineMaxLines = DEFAULT_MULTILINE_MAX_LINES;
+            LOG.warn("Invalid multilineMaxLines specified, initializing source default multilineMaxLines of {}",
+                    multilineMaxLines);
+        }
+        multilineMaxBytes = context.getInteger(MULTILINE_MAX_BYTES, DEFAULT_MULTILINE_MAX_BYTES);
+        if (multilineMaxBytes <= 0) {
+            multilineMaxBytes = DEFAULT_MULTILINE_MAX_BYTES;
+            LOG.warn("Invalid multilineMaxBytes specified, initializing source default multilineMaxBytes of {}",
+                    multilineMaxBytes);
+        }
+        multilineFlushTimeout = context.getLong(MULTILINE_FLUSH_TIMEOUT, DEFAULT_MULTILINE_FLUSH_TIMEOUT);
+        if (multilineFlushTimeout < 0) {
+            multilineFlushTimeout = DEFAULT_MULTILINE_FLUSH_TIMEOUT;
+            LOG.warn("Invalid multilineFlushTimeout specified, initializing source default "
+                    + "multilineFlushTimeout of {}", multilineFlushTimeout);
+        }
+        fingerprintBytes = context.getInteger(FINGERPRINT_BYTES, DEFAULT_FINGERPRINT_BYTES);
+        if (fingerprintBytes < 0) {
+            fingerprintBytes = DEFAULT_FINGERPRINT_BYTES;
+            LOG.warn("Invalid fingerprintBytes specified, initializing source default fingerprintBytes of {}",
+                    fingerprintBytes);
+        }
+        watchFiles = context.getBoolean(WATCH_FILES, DEFAULT_WATCH_FILES);
+        fullScanInterval = context.getLong(FULL_SCAN_INTERVAL, DEFAULT_FULL_SCAN_INTERVAL);
+        if (fullScanInterval <= 0) {
+            fullScanInterval = DEFAULT_FULL_SCAN_INTERVAL;
+            LOG.warn("Invalid fullScanInterval specified, initializing source default fullScanInterval of {}",
+                    fullScanInterval);
+        }
+        retryInterval = context.getLong(RETRY_INTERVAL, DEFAULT_RETRY_INTERVAL);
+        if (retryInterval <= 0) {
+            retryInterval = DEFAULT_RETRY_INTERVAL;
+            LOG.warn("Invalid retryInterval specified, initializing source default retryInterval of {}",
+                    retryInterval);
+        }
+        maxRetryInterval = context.getLong(MAX_RETRY_INTERVAL, DEFAULT_MAX_RETRY_INTERVAL);
+        // the backoff never waits less than at the first resend
+        maxRetryInterval = Math.max(maxRetryInterval, retryInterval);
+        retryJitter = context.getDouble(RETRY_JITTER, DEFAULT_RETRY_JITTER);
+        if (retryJitter < 0 || retryJitter > 1) {
+            retryJitter = DEFAULT_RETRY_JITTER;
+            LOG.warn("Invalid retryJitter specified, initializing source default retryJitter of {}", retryJitter);
+        }
+        maxResendAttempts = context.getInteger(MAX_RESEND_ATTEMPTS, DEFAULT_MAX_RESEND_ATTEMPTS);
+        if (maxResendAttempts < 0) {
+            maxResendAttempts = DEFAULT_MAX_RESEND_ATTEMPTS;
+            LOG.warn("Invalid maxResendAttempts specified, initializing source default maxResendAttempts of {}",
+                    maxResendAttempts);
+        }
+        workerCount = context.getInteger(WORKERS, DEFAULT_WORKERS);
+        if (workerCount <= 0) {
+            workerCount = DEFAULT_WORKERS;
+            LOG.warn("Invalid workers specified, initializing source default workers of {}", workerCount);
+        }
+        spoolDir = context.getString(SPOOL_DIR);
+        spoolMaxBytes = context.getLong(SPOOL_MAX_BYTES, DEFAULT_SPOOL_MAX_BYTES);
+        if (spoolMaxBytes <= 0) {
+            spoolMaxBytes = DEFAULT_SPOOL_MAX_BYTES;
+            LOG.warn("Invalid spoolMaxBytes specified, initializing source default spoolMaxBytes of {}",
+                    spoolMaxBytes);
+        }
+        spoolSegmentBytes = context.getLong(SPOOL_SEGMENT_BYTES, DEFAULT_SPOOL_SEGMENT_BYTES);
+        if (spoolSegmentBytes <= 0) {
+            spoolSegmentBytes = DEFAULT_SPOOL_SEGMENT_BYTES;
+            LOG.warn("Invalid spoolSegmentBytes specified, initializing source default spoolSegmentBytes of {}",
+                    spoolSegmentBytes);
+        }
+        ringSize = context.getInteger(RING_SIZE, DEFAULT_RING_SIZE);
+        if (ringSize < 0) {
+            ringSize = DEFAULT_RING_SIZE;
+            LOG.warn("Invalid ringSize specified, initializing source default ringSize of {}", ringSize);
+        }
         Map<String, String> interceptorParams = context.getSubProperties("interceptors.");
         Context interceptorContext = new Context(interceptorParams);
         super.configure(interceptorContext);
@@ -202,17 +602,42 @@ public class TailDirSource extends AbstractSource implements BatchSizeSupported,
     public Status process() throws EventDeliveryException {
         Status status = BACKOFF;
         try {
-            existingInodes.clear();
-            existingInodes.addAll(reader.updateTailFiles());
-            for (long inode : existingInodes) {
-                TailFile tf = reader.getTailFiles().get(inode);
+            LongList inodes = reader.updateTailFiles();
+            long now = System.currentTimeMillis();
+            List<TailFile> ready = Lists.newArrayList();
+            for (int i = 0; i < inodes.size(); i++) {
+                TailFile tf = reader.getTailFile(inodes.get(i));
                 if (tf.needTail()) {
-                    boolean hasMoreLines = tailFileProcess(tf, true);
+                    ready.add(tf);
+                }
+            }
+            long maxQueueDelay = 0;
+            for (TailFile tf : scheduler.order(ready, now)) {
+                long unreadSince = tf.getUnreadSince();
+                if (unreadSince != ArrivalLog.NOTHING_UNREAD) {
+                    maxQueueDelay = Math.max(maxQueueDelay, now - unreadSince);
+                }
+                if (workers != null) {
+                    // the worker flags the file again if it stops before the end
+                    if (tf.tryClaim()) {
+                        tf.setNeedTail(false);
+                        workers.execute(tf.getInode(), new TailFileTask(tf, unreadSince));
+                    }
+                } else {
+                    boolean hasMoreLines = tailFileTurn(tf, unreadSince);
                     if (hasMoreLines) {
                         status = Status.READY;
+                    } else {
+                        // drained, a watched file is flagged again by its next change
+                        tf.setNeedTail(false);
                     }
                 }
             }
+            tailDirCounter.setMaxQueueDelay(maxQueueDelay);
+            // deleted or renamed files are drained and closed right away instead of once idle
+            synchronized (idleInodes) {
+                idleInodes.addAll(reader.pollVanishedInodes());
+            }
             closeTailFiles();
         } catch (Throwable t) {
             LOG.error("Unable to tail files", t);
@@ -231,6 +656,31 @@ public class TailDirSource extends AbstractSource implements BatchSizeSupported,
         return maxBackOffSleepInterval;
     }
 
+    @Override
+    public void setWakeUp(Runnable wakeUp) {
+        this.wakeUp = wakeUp;
+    }
+
+    /**
+     * @param type one of the built in schedulers or the class name of a {@link TailFileScheduler}
+     */
+    private static TailFileScheduler newScheduler(String type) {
+        if (SCHEDULER_DRR.equals(type)) {
+            return new DeficitRoundRobinScheduler();
+        }
+        if (SCHEDULER_OLDEST.equals(type)) {
+            return new OldestFirstScheduler();
+        }
+        if (SCHEDULER_FIFO.equals(type)) {
+            return new FifoScheduler();
+        }
+        try {
+            return (TailFileScheduler) Class.forName(type).newInstance();
+        } catch (Exception e) {
+            throw new FlumeException("Unable to create scheduler: " + type, e);
+        }
+    }
+
     private Map<String, String> selectByKeys(Map<String, String> map, String[] keys) {
         Map<String, String> result = Maps.newHashMap();
         for (String key : keys) {
@@ -251,60 +701,434 @@ public class TailDirSource extends AbstractSource implements BatchSizeSupported,
     }
 
     private void closeTailFiles() throws IOException, InterruptedException {
-        for (long inode : idleInodes) {
-            TailFile tf = reader.getTailFiles().get(inode);
-            if (tf.getRaf() != null) { // when file has not closed yet
-                tailFileProcess(tf, false);
-                tf.close();
-                LOG.info("Closed file: " + tf.getPath() + ", inode: " + inode + ", pos: " + tf.getPos());
+        LongList inodes;
+        synchronized (idleInodes) {
+            if (idleInodes.isEmpty()) {
+                return;
             }
+            inodes = new LongList(idleInodes.size());
+            inodes.addAll(idleInodes);
+            idleInodes.clear();
+        }
+        for (int i = 0; i < inodes.size(); i++) {
+            long inode = inodes.get(i);
+            TailFile tf = reader.getTailFile(inode);
+            if (tf != null && tf.getRaf() != null) { // when file has not closed yet
+                if (workers == null) {
+                    closeTailFile(tf);
+                } else if (tf.tryClaim()) {
+                    workers.execute(inode, new CloseFileTask(tf));
+                }
+            }
+        }
+    }
+
+    private void closeTailFile(TailFile tf) throws IOException, InterruptedException {
+        tailFileProcess(tf, false, Long.MAX_VALUE);
+        reader.closeFile(tf);
+        LOG.info("Closed file: " + tf.getPath() + ", inode: " + tf.getInode() + ", pos: " + tf.getPos());
+    }
+
+    /**
+     * Gives the file one turn, which reads as much as the scheduler allows.
+     *
+     * @param unreadSince time the oldest unread line of the file showed up, -1 if unknown
+     * @return true if the file has more lines to read
+     */
+    private boolean tailFileTurn(TailFile tf, long unreadSince) throws IOException, InterruptedException {
+        long allowance = scheduler.startTurn(tf);
+        if (allowance <= 0) {
+            // no turn in this poll, the share of the file grows until it gets one
+            return true;
+        }
+        if (unreadSince != ArrivalLog.NOTHING_UNREAD) {
+            tf.setQueueDelay(System.currentTimeMillis() - unreadSince);
         }
-        idleInodes.clear();
+        long startPos = tf.getPos();
+        boolean hasMoreLines = tailFileProcess(tf, true, allowance);
+        scheduler.endTurn(tf, Math.max(0, tf.getPos() - startPos), !hasMoreLines);
+        return hasMoreLines;
     }
 
-    private boolean tailFileProcess(TailFile tf, boolean backoffWithoutNL) throws IOException, InterruptedException {
-        long batchCount = 0;
+    /**
+     * Reads and sends batches of the file until it is drained, or maxBatchCount batches or at
+     * least maxBytes bytes were read. With a ring stage the batches are handed over in runs of
+     * up to the ring size, which the stage claims and publishes at once.
+     *
+     * @return true if the file has more lines to read
+     */
+    private boolean tailFileProcess(TailFile tf, boolean backoffWithoutNL, long maxBytes)
+            throws IOException, InterruptedException {
+        List<EventBatch> unsent = new ArrayList<EventBatch>();
+        List<BatchCallback> unsentCallbacks = new ArrayList<BatchCallback>();
+        try {
+            long batchCount = 0;
+            long startPos = tf.getPos();
+            while (true) {
+                int lineLimit = batchSizer.getLines();
+                long byteLimit = batchSizer.getBytes();
+                long generation = batchSizer.getGeneration();
+                long batchStart = tf.getPos();
+                // taken before reading, so that a reader waits before the batch is on the heap
+                long estimate = estimateBatchBytes(tf, byteLimit);
+                if (!memoryGovernor.tryAcquire(estimate, 0, TimeUnit.MILLISECONDS)) {
+                    // the unsent batches free their bytes only once they are sent
+                    sendUnsent(unsent, unsentCallbacks);
+                    memoryGovernor.acquire(estimate);
+                }
+                EventBatch events;
+                try {
+                    events = reader.readEvents(tf, lineLimit, byteLimit, backoffWithoutNL);
+                    reader.commit(tf);
+                } catch (IOException | RuntimeException e) {
+                    memoryGovernor.release(estimate);
+                    throw e;
+                }
+                if (events.isEmpty()) {
+                    memoryGovernor.release(estimate);
+                    return false;
+                }
+                boolean full = events.size() >= lineLimit || tf.getPos() - batchStart >= byteLimit;
+                // failed batches keep their bytes until the retrier handed them over
+                long bodyBytes = events.getBodyBytes();
+                if (bodyBytes > estimate) {
+                    // the last line ran past the limit, or the file is compressed
+                    memoryGovernor.reserve(bodyBytes - estimate);
+                } else {
+                    memoryGovernor.release(estimate - bodyBytes);
+                }
+                // the checkpoint passes these lines once the sink confirmed them
+                AckWatermark.Ticket ticket = tf.getAckWatermark().issue(tf.getPos());
+
+                List<Event> pending = null;
+                try {
+                    events = getInterceptorChain().intercept(events);
+                    if (spool != null && spool.hasBacklog()) {
+                        // queue up behind the spooled batches, the drainer keeps their order
+                        pending = events;
+                    } else if (ringStage != null) {
+                        unsent.add(events);
+                        unsentCallbacks.add(new BatchCallback(events, ticket, generation, full, bodyBytes));
+                        if (unsent.size() >= ringSize) {
+                            sendUnsent(unsent, unsentCallbacks);
+                        }
+                    } else {
+                        sendAsync(events, new BatchCallback(events, ticket, generation, full, bodyBytes));
+                    }
+                } catch (Exception ex) {
+                    LOG.warn("The source send event failed, ", ex);
+                    pending = undelivered(events, ex);
+                }
+                if (pending != null) {
+                    // the batches read before go first
+                    sendUnsent(unsent, unsentCallbacks);
+                    deliverLater(pending);
+                    memoryGovernor.release(bodyBytes);
+                    ticket.ack();
+                }
+                if (!full) {
+                    return false;
+                }
+                if (++batchCount >= maxBatchCount || tf.getPos() - startPos >= maxBytes) {
+                    return true;
+                }
+            }
+        } finally {
+            sendUnsent(unsent, unsentCallbacks);
+        }
+    }
+
+    /**
+     * @return the bytes the next batch of the file is expected to take, the unread bytes of the
+     * file up to the byte limit
+     */
+    private static long estimateBatchBytes(TailFile tf, long byteLimit) {
+        RandomAccessFile raf = tf.getRaf();
+        if (raf == null) {
+            return byteLimit;
+        }
+        try {
+            return Math.max(0, Math.min(byteLimit, raf.length() - tf.getPos()));
+        } catch (IOException e) {
+            return byteLimit;
+        }
+    }
+
+    private void sendUnsent(List<EventBatch> batches, List<BatchCallback> callbacks) {
+        if (!batches.isEmpty()) {
+            sendAllAsync(batches, callbacks);
+            batches.clear();
+            callbacks.clear();
+        }
+    }
+
+    /**
+     * Writes events the sink did not take to the spool, waiting while it is full, which throttles
+     * the source while the sink is in trouble. Without spool they are sent again until delivered,
+     * or dropped once the sink kept rejecting them, see {@link #resendUntilDelivered(List)}.
+     * If the spool cannot be written they are only sent directly once the spool drained, so that
+     * they never overtake the spooled batches.
+     */
+    private void deliverLater(List<Event> events) throws InterruptedException {
+        if (spool == null) {
+            resendUntilDelivered(events);
+            return;
+        }
+        RetryBackoff backoff = new RetryBackoff(retryInterval, maxRetryInterval, retryJitter);
         while (true) {
-            reader.setCurrentFile(tf);
-            List<Event> events = reader.readEvents(batchSize, backoffWithoutNL);
-            reader.commit();
-            if (events.isEmpty()) {
-                return false;
+            try {
+                spool.append(events);
+                return;
+            } catch (IOException e) {
+                LOG.error("Unable to write events to the spool, ", e);
             }
-            while (events.size() < batchSize) {
-                List<Event> nextEvent = reader.readEvents(batchSize - events.size(), backoffWithoutNL);
-                reader.commit();
-                events.addAll(nextEvent);
-                if (nextEvent.size() < batchSize / 3) {
-                    break;
-                }
+            if (!spool.hasBacklog()) {
+                resendUntilDelivered(events);
+                return;
             }
+            TimeUnit.MILLISECONDS.sleep(backoff.nextDelay());
+        }
+    }
 
+    private void deliver(List<Event> events) throws InterruptedException {
+        try {
+            if (getSinkRunner().batchProcess(events)) {
+                return;
+            }
+        } catch (Exception ex) {
+            LOG.warn("The spool drainer send event failed, ", ex);
+            events = undelivered(events, ex);
+        }
+        resendUntilDelivered(events);
+    }
+
+    /**
+     * Sends the events again until the sink took them. Once maxResendAttempts resends in a row
+     * left as many events undelivered as before, the sink is taken to reject them for good and
+     * they are dropped, so that they do not hold back the checkpoint and the memory budget.
+     */
+    private void resendUntilDelivered(List<Event> events) throws InterruptedException {
+        RetryBackoff backoff = new RetryBackoff(retryInterval, maxRetryInterval, retryJitter);
+        int stalled = 0;
+        while (true) {
+            TimeUnit.MILLISECONDS.sleep(backoff.nextDelay());
+            int undelivered = events.size();
             try {
-                events = getInterceptorChain().intercept(events);
-                getSinkRunner().batchProcess(events);
+                if (getSinkRunner().batchProcess(events)) {
+                    return;
+                }
             } catch (Exception ex) {
                 LOG.warn("The source send event failed, ", ex);
-                while (true) {
-                    TimeUnit.MILLISECONDS.sleep(retryInterval);
-                    retryInterval = retryInterval << 1;
-                    retryInterval = Math.min(retryInterval, maxRetryInterval);
+                events = undelivered(events, ex);
+            }
+            if (events.size() < undelivered) {
+                stalled = 0;
+            } else if (maxResendAttempts > 0 && ++stalled >= maxResendAttempts) {
+                LOG.error("Dropping {} events the sink rejected {} times in a row", events.size(), stalled);
+                tailDirCounter.addToEventDroppedCount(events.size());
+                return;
+            }
+        }
+    }
+
+    /**
+     * @return the events which have to be sent again after the sink failed with the given exception
+     */
+    private static List<Event> undelivered(List<Event> events, Exception ex) {
+        if (!(ex instanceof PartialDeliveryException)) {
+            return events;
+        }
+        int[] failedIndices = ((PartialDeliveryException) ex).getFailedIndices();
+        List<Event> failed = new ArrayList<Event>(failedIndices.length);
+        for (int index : failedIndices) {
+            failed.add(events.get(index));
+        }
+        return failed;
+    }
+
+    /**
+     * Acknowledges a delivered batch, or queues it for the {@link FailedBatchRetrierRunnable}.
+     */
+    private class BatchCallback implements DeliveryCallback {
+
+        // replaced by the undelivered part on failure
+        private List<Event> events;
+        private final AckWatermark.Ticket ticket;
+        // batch sizer generation and whether the batch was read up to a limit
+        private final long generation;
+        private final boolean full;
+        private final long sentAt = System.nanoTime();
+        // taken from the memory governor when the batch was read
+        private final long bodyBytes;
+
+        BatchCallback(List<Event> events, AckWatermark.Ticket ticket, long generation, boolean full,
+                      long bodyBytes) {
+            this.events = events;
+            this.ticket = ticket;
+            this.generation = generation;
+            this.full = full;
+            this.bodyBytes = bodyBytes;
+        }
+
+        @Override
+        public void onSuccess() {
+            batchSizer.delivered(generation, full, System.nanoTime() - sentAt);
+            memoryGovernor.release(bodyBytes);
+            ticket.ack();
+        }
+
+        @Override
+        public void onFailure(EventDeliveryException cause) {
+            LOG.warn("The source send event failed, ", cause);
+            batchSizer.failed(generation);
+            events = undelivered(events, cause);
+            failedBatches.add(this);
+        }
+    }
+
+    /**
+     * Frees the bytes of the failed batches nobody hands over any more, their lines are read
+     * again after a restart.
+     */
+    private void releaseFailedBatches() {
+        BatchCallback failed;
+        while ((failed = failedBatches.poll()) != null) {
+            memoryGovernor.release(failed.bodyBytes);
+        }
+    }
+
+    /**
+     * Runnable class that hands the batches over which the sink reported as failed, see
+     * {@link #deliverLater(List)}. It runs on a thread of its own, so that a worker never waits
+     * for the batch of a file it does not tail, and batches of files no worker tails any more
+     * still free their bytes.
+     */
+    private class FailedBatchRetrierRunnable implements Runnable {
+
+        @Override
+        public void run() {
+            BatchCallback failed = null;
+            while (!Thread.currentThread().isInterrupted()) {
+                try {
+                    if (failed == null) {
+                        failed = failedBatches.take();
+                    }
+                    deliverLater(failed.events);
+                    memoryGovernor.release(failed.bodyBytes);
+                    failed.ticket.ack();
+                    failed = null;
+                } catch (InterruptedException e) {
+                    break;
+                } catch (Throwable t) {
+                    LOG.error("Unable to retry a failed batch", t);
                     try {
-                        if (getSinkRunner().batchProcess(events)) {
-                            break;
+                        TimeUnit.MILLISECONDS.sleep(maxRetryInterval);
+                    } catch (InterruptedException e) {
+                        break;
+                    }
+                }
+            }
+            if (failed != null) {
+                memoryGovernor.release(failed.bodyBytes);
+            }
+            LOG.info("Failed batch retrier of {} exiting with {} batches left", getName(), failedBatches.size());
+        }
+    }
+
+    /**
+     * Runnable class that replays the spool to the sink, oldest batch first.
+     */
+    private class SpoolDrainerRunnable implements Runnable {
+
+        @Override
+        public void run() {
+            while (!Thread.currentThread().isInterrupted()) {
+                try {
+                    SpoolBatch batch = spool.poll(batchSize, SPOOL_POLL_TIMEOUT, TimeUnit.MILLISECONDS);
+                    if (batch != null) {
+                        // without waiting, the readers blocked on the full spool hold the budget
+                        memoryGovernor.reserve(batch.getBytes());
+                        try {
+                            deliver(batch.getEvents());
+                        } finally {
+                            memoryGovernor.release(batch.getBytes());
                         }
-                    } catch (Exception ex1) {
-                        LOG.warn("The source send event failed, ", ex);
+                        spool.commit(batch);
+                    }
+                } catch (InterruptedException e) {
+                    break;
+                } catch (Throwable t) {
+                    LOG.error("Unable to drain the spool", t);
+                    try {
+                        TimeUnit.MILLISECONDS.sleep(maxRetryInterval);
+                    } catch (InterruptedException e) {
+                        break;
                     }
                 }
-                continue;
             }
-            retryInterval = 1000;
-            if (events.size() < batchSize) {
-                return false;
+            LOG.info("Spool drainer of {} exiting with {} backlog bytes", getName(), spool.getBacklogBytes());
+        }
+    }
+
+    /**
+     * Runnable class that tails one claimed file on its worker.
+     */
+    private class TailFileTask implements Runnable {
+
+        private final TailFile tf;
+        // taken by the runner, which keeps the arrival log of the file
+        private final long unreadSince;
+
+        TailFileTask(TailFile tf, long unreadSince) {
+            this.tf = tf;
+            this.unreadSince = unreadSince;
+        }
+
+        @Override
+        public void run() {
+            boolean hasMoreLines = false;
+            boolean failed = false;
+            try {
+                hasMoreLines = tailFileTurn(tf, unreadSince);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (Throwable t) {
+                LOG.error("Unable to tail file: " + tf.getPath(), t);
+                failed = true;
+            } finally {
+                // a failed file is retried by the next regular poll
+                if (hasMoreLines || failed) {
+                    tf.setNeedTail(true);
+                }
+                tf.release();
+            }
+            if (hasMoreLines) {
+                wakeUp.run();
             }
-            if (++batchCount >= maxBatchCount) {
-                return true;
+        }
+    }
+
+    /**
+     * Runnable class that reads what is left of an idle file and closes it on its worker.
+     */
+    private class CloseFileTask implements Runnable {
+
+        private final TailFile tf;
+
+        CloseFileTask(TailFile tf) {
+            this.tf = tf;
+        }
+
+        @Override
+        public void run() {
+            try {
+                closeTailFile(tf);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (Throwable t) {
+                LOG.error("Unable to close file: " + tf.getPath(), t);
+            } finally {
+                tf.release();
             }
         }
     }
@@ -318,9 +1142,11 @@ public class TailDirSource extends AbstractSource implements BatchSizeSupported,
         public void run() {
             try {
                 long now = System.currentTimeMillis();
-                for (TailFile tf : reader.getTailFiles().values()) {
+                for (TailFile tf : reader.getTailFiles()) {
                     if (tf.getLastUpdated() + idleTimeout < now && tf.getRaf() != null) {
-                        idleInodes.add(tf.getInode());
+                        synchronized (idleInodes) {
+                            idleInodes.add(tf.getInode());
+                        }
                     }
                 }
             } catch (Throwable t) {
@@ -342,34 +1168,23 @@ public class TailDirSource extends AbstractSource implements BatchSizeSupported,
     }
 
     private void writePosition() {
-        File file = new File(positionFilePath);
-        FileWriter writer = null;
         try {
-            writer = new FileWriter(file);
-            if (!existingInodes.isEmpty()) {
-                String json = toPosInfoJson();
-                writer.write(json);
-            }
+            positionStore.save(toPositions());
         } catch (Throwable t) {
             LOG.error("Failed writing positionFile", t);
-        } finally {
-            try {
-                if (writer != null) {
-                    writer.close();
-                }
-            } catch (IOException e) {
-                LOG.error("Error: " + e.getMessage(), e);
-            }
         }
     }
 
-    private String toPosInfoJson() {
-        @SuppressWarnings("rawtypes")
-        List<Map> posInfos = Lists.newArrayList();
-        for (Long inode : existingInodes) {
-            TailFile tf = reader.getTailFiles().get(inode);
-            posInfos.add(ImmutableMap.of("inode", inode, "pos", tf.getPos(), "file", tf.getPath()));
+    /**
+     * Positions of all files the reader remembers, files which are not matched anymore are
+     * dropped once the reader forgets them.
+     */
+    private List<FilePosition> toPositions() {
+        List<TailFile> files = reader.getTailFiles();
+        List<FilePosition> positions = Lists.newArrayListWithCapacity(files.size());
+        for (TailFile tf : files) {
+            positions.add(new FilePosition(tf.getInode(), tf.getAckedPos(), tf.getPath(), tf.getFingerprint()));
         }
-        return new Gson().toJson(posInfos);
+        return positions;
     }
 }
\ No newline at end of file
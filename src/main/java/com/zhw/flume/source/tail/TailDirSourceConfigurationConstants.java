@@ -4,7 +4,10 @@ package com.zhw.flume.source.tail;
  * @author zhw
  */
 public class TailDirSourceConfigurationConstants {
-    /** Mapping for tailing file groups. */
+    /**
+     * Mapping for tailing file groups. A file group is a directory plus a regex of file names, or a
+     * glob over several directory levels if the directory part holds wildcards.
+     */
     public static final String FILE_GROUPS = "filegroups";
     public static final String FILE_GROUPS_PREFIX = FILE_GROUPS + ".";
 
@@ -27,6 +30,34 @@ public class TailDirSourceConfigurationConstants {
     public static final String IDLE_TIMEOUT = "idleTimeout";
     public static final int DEFAULT_IDLE_TIMEOUT = 120000;
 
+    /**
+     * Maximum number of files held open, the least recently read file is closed to open another
+     * one and reopened at its position when read again. 0 for no limit.
+     */
+    public static final String MAX_OPEN_FILES = "maxOpenFiles";
+    public static final int DEFAULT_MAX_OPEN_FILES = 0;
+
+    /**
+     * Time (ms) a closed file is remembered after no filegroup matched it anymore. Its position
+     * is saved until then, afterwards the inode counts as a new file.
+     */
+    public static final String INODE_RETENTION = "inodeRetention";
+    public static final long DEFAULT_INODE_RETENTION = 3600000;
+
+    /**
+     * Number of leading bytes hashed into the identity of a file besides its inode, 0 to identify
+     * files by inode only. A file whose leading bytes changed counts as a new file, which catches
+     * reused inodes and files truncated in place.
+     */
+    public static final String FINGERPRINT_BYTES = "fingerprintBytes";
+    public static final int DEFAULT_FINGERPRINT_BYTES = 0;
+
+    /** Format of the position file, json rewrites the whole file, journal appends changed positions. */
+    public static final String POSITION_FORMAT = "positionFormat";
+    public static final String POSITION_FORMAT_JSON = "json";
+    public static final String POSITION_FORMAT_JOURNAL = "journal";
+    public static final String DEFAULT_POSITION_FORMAT = POSITION_FORMAT_JSON;
+
     /** Interval time (ms) to write the last position of each file on the position file. */
     public static final String WRITE_POS_INTERVAL = "writePosInterval";
     public static final int DEFAULT_WRITE_POS_INTERVAL = 3000;
@@ -53,4 +84,151 @@ public class TailDirSourceConfigurationConstants {
     /** The max number of batch reads from a file in one loop */
     public static final String MAX_BATCH_COUNT = "maxBatchCount";
     public static final Long DEFAULT_MAX_BATCH_COUNT = Long.MAX_VALUE;
-}
\ No newline at end of file
+
+    /** Whether to read files through a FileChannel which refills one reusable buffer per file. */
+    public static final String CHANNEL_READER = "channelReader";
+    public static final boolean DEFAULT_CHANNEL_READER = false;
+
+    /** Size (bytes) of the per file read buffer of the channel reader. */
+    public static final String READ_BUFFER_SIZE = "readBufferSize";
+    public static final int DEFAULT_READ_BUFFER_SIZE = 8192;
+
+    /** Whether the channel reader allocates its buffers outside of the heap. */
+    public static final String DIRECT_READ_BUFFER = "directReadBuffer";
+    public static final boolean DEFAULT_DIRECT_READ_BUFFER = false;
+
+    /** Whether to read large backlogs through memory mapped windows until the reader is close to EOF. */
+    public static final String MMAP_CATCH_UP = "mmapCatchUp";
+    public static final boolean DEFAULT_MMAP_CATCH_UP = false;
+
+    /** Unread bytes (from the read position to EOF) above which a file is caught up through mmap. */
+    public static final String CATCH_UP_THRESHOLD = "catchUpThreshold";
+    public static final long DEFAULT_CATCH_UP_THRESHOLD = 16L * 1024 * 1024;
+
+    /** Size (bytes) of each memory mapped window while catching up. */
+    public static final String MMAP_WINDOW_SIZE = "mmapWindowSize";
+    public static final int DEFAULT_MMAP_WINDOW_SIZE = 64 * 1024 * 1024;
+
+    /** Max length (bytes) of a line, longer lines are split or truncated and marked by the line cut header. */
+    public static final String MAX_LINE_LENGTH = "maxLineLength";
+    public static final int DEFAULT_MAX_LINE_LENGTH = 8 * 1024 * 1024;
+
+    /** Whether the bytes of a line beyond maxLineLength are dropped instead of sent as further events. */
+    public static final String TRUNCATE_LONG_LINES = "truncateLongLines";
+    public static final boolean DEFAULT_TRUNCATE_LONG_LINES = false;
+
+    /** Header set on events of lines longer than maxLineLength, to LINE_SPLIT or LINE_TRUNCATED. */
+    public static final String LINE_CUT_HEADER_KEY = "lineCut";
+    public static final String LINE_SPLIT = "split";
+    public static final String LINE_TRUNCATED = "truncated";
+
+    /** Regex matching the first line of an event, the lines up to the next match are joined into it. */
+    public static final String MULTILINE_START_PATTERN = "multilineStartPattern";
+
+    /** Regex matching the lines which continue the event of the line before, instead of a start pattern. */
+    public static final String MULTILINE_CONTINUE_PATTERN = "multilineContinuePattern";
+
+    /** Max number of lines joined into one event. */
+    public static final String MULTILINE_MAX_LINES = "multilineMaxLines";
+    public static final int DEFAULT_MULTILINE_MAX_LINES = 500;
+
+    /** Max size (bytes) of an event of joined lines. */
+    public static final String MULTILINE_MAX_BYTES = "multilineMaxBytes";
+    public static final int DEFAULT_MULTILINE_MAX_BYTES = 1024 * 1024;
+
+    /** Time (ms) without a further line after which the last event of a file is sent. */
+    public static final String MULTILINE_FLUSH_TIMEOUT = "multilineFlushTimeout";
+    public static final long DEFAULT_MULTILINE_FLUSH_TIMEOUT = 1000;
+
+    /** Whether to detect file changes through a WatchService instead of listing all files on every poll. */
+    public static final String WATCH_FILES = "watchFiles";
+    public static final boolean DEFAULT_WATCH_FILES = false;
+
+    /** Interval time (ms) between full scans of all filegroups while files are watched. */
+    public static final String FULL_SCAN_INTERVAL = "fullScanInterval";
+    public static final long DEFAULT_FULL_SCAN_INTERVAL = 60000;
+
+    /** Number of threads tailing files in parallel, each file always on the same thread. 1 tails on the runner thread. */
+    public static final String WORKERS = "workers";
+    public static final int DEFAULT_WORKERS = 1;
+
+    /**
+     * Order in which the files with lines to read get their turns: drr shares the reads by bytes,
+     * weighted per filegroup, oldest serves the file whose oldest unread line waits longest first,
+     * fifo drains each file in scan order up to maxBatchCount batches. Or the class name of a
+     * {@link TailFileScheduler}.
+     */
+    public static final String SCHEDULER = "scheduler";
+    public static final String SCHEDULER_DRR = "drr";
+    public static final String SCHEDULER_OLDEST = "oldest";
+    public static final String SCHEDULER_FIFO = "fifo";
+    public static final String DEFAULT_SCHEDULER = SCHEDULER_DRR;
+    public static final String SCHEDULER_PREFIX = SCHEDULER + ".";
+
+    /** Bytes a file of weight 1 may read per turn, relative to the scheduler prefix. */
+    public static final String QUANTUM_BYTES = "quantumBytes";
+    public static final long DEFAULT_QUANTUM_BYTES = 1024 * 1024;
+
+    /** Mapping for the share of each filegroup, relative to the scheduler prefix, 1 if not set. */
+    public static final String WEIGHTS_PREFIX = "weights.";
+    public static final int DEFAULT_WEIGHT = 1;
+
+    /**
+     * Bounds of the line limit of a batch. The limit starts at batchSize and follows the latency
+     * of the sink between them, equal bounds fix it. Both default to batchSize.
+     */
+    public static final String MIN_BATCH_SIZE = "minBatchSize";
+    public static final String MAX_BATCH_SIZE = "maxBatchSize";
+
+    /**
+     * Bounds of the byte limit of a batch, which starts at the upper bound. A batch ends with the
+     * line which takes it to the limit, whatever its line count.
+     */
+    public static final String MIN_BATCH_BYTES = "minBatchBytes";
+    public static final long DEFAULT_MIN_BATCH_BYTES = 64 * 1024;
+    public static final String MAX_BATCH_BYTES = "maxBatchBytes";
+    public static final long DEFAULT_MAX_BATCH_BYTES = 16L * 1024 * 1024;
+
+    /** Time (ms) the sink may take to deliver a batch before the limits of the batches shrink. */
+    public static final String TARGET_BATCH_LATENCY = "targetBatchLatency";
+    public static final long DEFAULT_TARGET_BATCH_LATENCY = 500;
+
+    /**
+     * Batches each tailing thread may queue for a sender thread which hands them to the sink, so
+     * that reading overlaps sending. 0 hands them to the sink on the tailing thread.
+     */
+    public static final String RING_SIZE = "ringSize";
+    public static final int DEFAULT_RING_SIZE = 0;
+
+    /** Time (ms) to wait before the first resend of a batch the sink failed to deliver. */
+    public static final String RETRY_INTERVAL = "retryInterval";
+    public static final long DEFAULT_RETRY_INTERVAL = 1000;
+
+    /** Upper bound (ms) of the doubling wait between resends of an undelivered batch. */
+    public static final String MAX_RETRY_INTERVAL = "maxRetryInterval";
+    public static final long DEFAULT_MAX_RETRY_INTERVAL = 1000;
+
+    /** Random share (0 to 1) by which each wait between resends is shortened. */
+    public static final String RETRY_JITTER = "retryJitter";
+    public static final double DEFAULT_RETRY_JITTER = 0;
+
+    /**
+     * Resends in a row which left as many events undelivered as before, after which a batch the
+     * sink keeps rejecting, such as one with a bad partition header, is dropped. 0 resends until
+     * the batch is delivered. Without spool this applies to batches that failed when read, with
+     * spool to the batches replayed from it.
+     */
+    public static final String MAX_RESEND_ATTEMPTS = "maxResendAttempts";
+    public static final int DEFAULT_MAX_RESEND_ATTEMPTS = 0;
+
+    /** Directory of the overflow spool for batches the sink fails to take, no spool if not set. */
+    public static final String SPOOL_DIR = "spoolDir";
+
+    /** Size cap of the spool, the source waits for the spool to drain once it is full. */
+    public static final String SPOOL_MAX_BYTES = "spoolMaxBytes";
+    public static final long DEFAULT_SPOOL_MAX_BYTES = 1024L * 1024 * 1024;
+
+    /** Size after which the spool starts a new segment file. */
+    public static final String SPOOL_SEGMENT_BYTES = "spoolSegmentBytes";
+    public static final long DEFAULT_SPOOL_SEGMENT_BYTES = 64L * 1024 * 1024;
+}
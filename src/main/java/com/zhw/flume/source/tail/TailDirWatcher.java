@@ -0,0 +1,192 @@
+package com.zhw.flume.source.tail;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.zhw.flume.threadpool.ThreadFactories;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Watches the parent directories of all filegroups through a {@link WatchService} (inotify on
+ * Linux) and collects the files which were created or written to since the last
+ * {@link #pollChangedFiles()}. Every batch of relevant events runs the wake up callback, so the
+ * polling thread does not have to wait for its backoff to run out.
+ * <p></p>
+ * Events may be lost (queue overflow) or a watched directory may go away, in both cases a full
+ * scan is requested, see {@link #pollFullScanRequired()}. So does a new directory which may hold
+ * files of a glob filegroup, the directories found by that scan are watched through
+ * {@link #register(List)}.
+ *
+ * @author zhw
+ */
+class TailDirWatcher implements Closeable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(TailDirWatcher.class);
+
+    private final List<TailDirMatcher> matchers;
+    private final Runnable wakeUp;
+    private final WatchService watchService;
+    private final Map<WatchKey, Path> watchedDirs = Maps.newConcurrentMap();
+    private final Set<Path> registeredDirs = Collections.newSetFromMap(new ConcurrentHashMap<Path, Boolean>());
+    private final Set<Path> changedFiles = Collections.newSetFromMap(new ConcurrentHashMap<Path, Boolean>());
+    private final AtomicBoolean fullScanRequired = new AtomicBoolean(false);
+    private final Thread watcherThread;
+    private volatile boolean closed = false;
+
+    TailDirWatcher(List<TailDirMatcher> matchers, Runnable wakeUp) throws IOException {
+        this.matchers = Preconditions.checkNotNull(matchers);
+        this.wakeUp = Preconditions.checkNotNull(wakeUp);
+        this.watchService = FileSystems.getDefault().newWatchService();
+        for (TailDirMatcher matcher : matchers) {
+            register(matcher.getDirectories());
+        }
+        LOG.info("Watching directories: " + watchedDirs.values());
+        this.watcherThread = ThreadFactories.newThread("TailDirWatcher", new Runnable() {
+
+            @Override
+            public void run() {
+                watch();
+            }
+        });
+        this.watcherThread.setDaemon(true);
+    }
+
+    void start() {
+        watcherThread.start();
+    }
+
+    /**
+     * Watches the directories which are not watched yet.
+     */
+    void register(List<Path> dirs) throws IOException {
+        for (Path dir : dirs) {
+            if (registeredDirs.add(dir)) {
+                try {
+                    WatchKey key = dir.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                            StandardWatchEventKinds.ENTRY_MODIFY);
+                    watchedDirs.put(key, dir);
+                } catch (NoSuchFileException e) {
+                    registeredDirs.remove(dir);
+                    LOG.debug("Directory has been deleted in the meantime: " + dir);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return files created or modified since the previous call, in no particular order
+     */
+    List<Path> pollChangedFiles() {
+        List<Path> result = Lists.newArrayList();
+        for (Path file : changedFiles) {
+            // removing one by one keeps changes which arrive while iterating for the next call
+            if (changedFiles.remove(file)) {
+                result.add(file);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return true if events were lost since the previous call and the caller has to rescan
+     * every filegroup
+     */
+    boolean pollFullScanRequired() {
+        return fullScanRequired.getAndSet(false);
+    }
+
+    private void watch() {
+        while (!closed) {
+            WatchKey key;
+            try {
+                key = watchService.take();
+            } catch (InterruptedException | ClosedWatchServiceException e) {
+                break;
+            }
+            Path dir = watchedDirs.get(key);
+            if (dir == null) {
+                // signalled before register put it into the map, or dropped meanwhile
+                LOG.debug("File change events of an unknown directory, requesting a full scan");
+                key.pollEvents();
+                key.reset();
+                fullScanRequired.set(true);
+                wakeUp.run();
+                continue;
+            }
+            boolean relevant = false;
+            for (WatchEvent<?> event : key.pollEvents()) {
+                if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                    LOG.warn("File change events of directory " + dir + " were lost, requesting a full scan");
+                    fullScanRequired.set(true);
+                    relevant = true;
+                    continue;
+                }
+                Path file = dir.resolve((Path) event.context());
+                if (matchesAny(file)) {
+                    changedFiles.add(file);
+                    relevant = true;
+                } else if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE && mayContainAny(file)
+                        && Files.isDirectory(file)) {
+                    LOG.debug("Directory " + file + " was created, requesting a full scan");
+                    fullScanRequired.set(true);
+                    relevant = true;
+                }
+            }
+            if (!key.reset()) {
+                LOG.warn("Directory " + dir + " is no longer watched, its files are left to the periodic full scan");
+                watchedDirs.remove(key);
+                registeredDirs.remove(dir);
+                fullScanRequired.set(true);
+                relevant = true;
+            }
+            if (relevant) {
+                wakeUp.run();
+            }
+        }
+        LOG.debug("TailDirWatcher exiting");
+    }
+
+    private boolean matchesAny(Path file) {
+        for (TailDirMatcher matcher : matchers) {
+            if (matcher.matches(file)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean mayContainAny(Path dir) {
+        for (TailDirMatcher matcher : matchers) {
+            if (matcher.mayContain(dir)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        watchService.close();
+        watcherThread.interrupt();
+    }
+}
@@ -1,18 +1,23 @@
 package com.zhw.flume.source.tail;
 
-import com.google.common.collect.Lists;
-import org.apache.flume.Event;
-import org.apache.flume.event.EventBuilder;
+import com.zhw.flume.event.EventBatch;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
 import java.io.IOException;
 import java.io.RandomAccessFile;
-import java.util.List;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.util.Arrays;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static com.zhw.flume.source.tail.TailDirSourceConfigurationConstants.LINE_CUT_HEADER_KEY;
+import static com.zhw.flume.source.tail.TailDirSourceConfigurationConstants.LINE_SPLIT;
+import static com.zhw.flume.source.tail.TailDirSourceConfigurationConstants.LINE_TRUNCATED;
 
-import static com.zhw.flume.source.tail.TailDirSourceConfigurationConstants.BYTE_OFFSET_HEADER_KEY;
 
 /**
  * @author zhw
@@ -20,39 +25,93 @@ import static com.zhw.flume.source.tail.TailDirSourceConfigurationConstants.BYTE
 public class TailFile {
     private static final Logger LOG = LoggerFactory.getLogger(TailFile.class);
 
-    private static final byte BYTE_NL = (byte) 10;
     private static final byte BYTE_CR = (byte) 13;
 
     private static final int BUFFER_SIZE = 8192;
     private static final int NEED_READING = -1;
 
-    private RandomAccessFile raf;
-    private final String path;
+    // fields read by the runner, idle checker and position writer while a worker tails the file
+    private volatile RandomAccessFile raf;
+    // current name of the file, changes when it is reopened after a rename
+    private volatile String path;
     private final long inode;
-    private long pos;
-    private long lastUpdated;
-    private boolean needTail;
-    private final Map<String, String> headers;
+    private volatile long pos;
+    private volatile long lastUpdated;
+    private volatile boolean needTail;
+    // time of the last scan which matched the file
+    private volatile long lastMatched;
+    // filegroup which matched the file last
+    private volatile String fileGroup;
+    // sizes seen by the scans, kept by the thread which scans
+    private final ArrivalLog arrivals = new ArrivalLog();
+    // time the oldest unread line waited when the last turn of the file started
+    private volatile long queueDelay;
+    // bytes the scheduler owes the file, kept by the thread which owns the file
+    private long deficit;
+    // null unless files are fingerprinted
+    private volatile FileFingerprint fingerprint;
+    // set once the file is read from the compressed file it was rotated to
+    private volatile boolean archive;
+    // uncompressed content of the archive, null unless reading an archive
+    private DecompressingChannel archiveChannel;
+    // whether the lines returned by the last readEvents were committed
+    private boolean committed = true;
+    // set while a worker owns the file
+    private final AtomicBoolean claimed = new AtomicBoolean(false);
+    // position confirmed by the sink, pos may be ahead of it while batches are in flight
+    private final AckWatermark ackWatermark;
+    // shared by all events read from the file
+    private volatile Map<String, String> headers;
+    // allocated on the first read and refilled from then on
     private byte[] buffer;
+    // word-wise view of buffer for the newline scan
+    private ByteBuffer bufferView;
+    // bytes of buffer filled by the last read
+    private int bufferLen;
+    // head of the current line, read but not returned yet
     private byte[] oldBuffer;
+    private int oldLen;
+    // bytes of the current line dropped behind oldBuffer because the line is too long
+    private long dropped;
     private int bufferPos;
     private long lineReadPos;
+    // null when lines are split by readLine() on top of the RandomAccessFile
+    private LineReader lineReader;
+    private final TailFileOptions options;
+    // set while a backlog is read through memory mapped windows
+    private MappedLineReader catchUpReader;
+    // null when every line is an event of its own
+    private final MultilineAssembler multiline;
 
-    public TailFile(File file, Map<String, String> headers, long inode, long pos)
+    public TailFile(File file, Map<String, String> headers, long inode, long pos, TailFileOptions options)
             throws IOException {
         this.raf = new RandomAccessFile(file, "r");
         if (pos > 0) {
             raf.seek(pos);
             lineReadPos = pos;
         }
+        if (options.isChannelReader()) {
+            this.lineReader = newChannelLineReader(options);
+        }
         this.path = file.getAbsolutePath();
         this.inode = inode;
         this.pos = pos;
+        this.ackWatermark = new AckWatermark(inode, pos);
         this.lastUpdated = 0L;
         this.needTail = true;
         this.headers = headers;
+        this.options = options;
+        this.multiline = options.getMultilinePattern() == null ? null : new MultilineAssembler(options);
         this.oldBuffer = new byte[0];
         this.bufferPos = NEED_READING;
+        if (options.getFingerprintBytes() > 0) {
+            this.fingerprint = FileFingerprint.read(raf.getChannel(), options.getFingerprintBytes());
+        }
+    }
+
+    private ChannelLineReader newChannelLineReader(TailFileOptions options) throws IOException {
+        return new ChannelLineReader(raf.getChannel(), options.getReadBufferSize(), options.isDirectReadBuffer(),
+                options.getMaxLineLength(), options.isTruncateLongLines());
     }
 
     public RandomAccessFile getRaf() {
@@ -71,10 +130,84 @@ public class TailFile {
         return pos;
     }
 
+    /**
+     * @return offset up to which every line was delivered, this is what gets checkpointed
+     */
+    public long getAckedPos() {
+        return ackWatermark.get();
+    }
+
+    public AckWatermark getAckWatermark() {
+        return ackWatermark;
+    }
+
     public long getLastUpdated() {
         return lastUpdated;
     }
 
+    public FileFingerprint getFingerprint() {
+        return fingerprint;
+    }
+
+    /**
+     * @return true if the file was rotated and compressed, and is read from the compressed file
+     */
+    public boolean isArchive() {
+        return archive;
+    }
+
+    public long getLastMatched() {
+        return lastMatched;
+    }
+
+    public void setLastMatched(long lastMatched) {
+        this.lastMatched = lastMatched;
+    }
+
+    public String getFileGroup() {
+        return fileGroup;
+    }
+
+    public void setFileGroup(String fileGroup) {
+        this.fileGroup = fileGroup;
+    }
+
+    /**
+     * Records the size a scan saw the file with, called by the thread which scans.
+     */
+    public void recordSize(long size, long time) {
+        arrivals.record(size, time);
+    }
+
+    /**
+     * Called by the thread which scans.
+     *
+     * @return time a scan first saw the oldest unread byte, -1 if no scan saw the file beyond
+     * its position
+     */
+    public long getUnreadSince() {
+        return arrivals.unreadSince(pos);
+    }
+
+    /**
+     * @return time (ms) the oldest unread line had waited when the last turn of the file started
+     */
+    public long getQueueDelay() {
+        return queueDelay;
+    }
+
+    public void setQueueDelay(long queueDelay) {
+        this.queueDelay = queueDelay;
+    }
+
+    public long getDeficit() {
+        return deficit;
+    }
+
+    public void setDeficit(long deficit) {
+        this.deficit = deficit;
+    }
+
     public boolean needTail() {
         return needTail;
     }
@@ -87,6 +220,17 @@ public class TailFile {
         return lineReadPos;
     }
 
+    /**
+     * @return offset up to which the lines read form complete events, the lines of an event
+     * which is still being assembled are behind it
+     */
+    public long getCommitPos() {
+        if (multiline != null && multiline.getHeldPos() != MultilineAssembler.NO_POSITION) {
+            return multiline.getHeldPos();
+        }
+        return lineReadPos;
+    }
+
     public void setPos(long pos) {
         this.pos = pos;
     }
@@ -99,6 +243,32 @@ public class TailFile {
         this.needTail = needTail;
     }
 
+    public boolean isCommitted() {
+        return committed;
+    }
+
+    public void setCommitted(boolean committed) {
+        this.committed = committed;
+    }
+
+    /**
+     * Hands the file to a single worker. While claimed, nobody else may read, reposition or
+     * reopen it.
+     *
+     * @return false if another worker owns the file already
+     */
+    public boolean tryClaim() {
+        return claimed.compareAndSet(false, true);
+    }
+
+    public boolean isClaimed() {
+        return claimed.get();
+    }
+
+    public void release() {
+        claimed.set(false);
+    }
+
     public void setLineReadPos(long lineReadPos) {
         this.lineReadPos = lineReadPos;
     }
@@ -108,120 +278,373 @@ public class TailFile {
         if (this.inode == inode) {
             setPos(pos);
             updateFilePos(pos);
+            ackWatermark.reset(pos);
             LOG.info("Updated position, file: " + path + ", inode: " + inode + ", pos: " + pos);
             return true;
         }
         return false;
     }
+    /**
+     * Checks whether the file still starts with the bytes it started with when it was opened,
+     * which costs one read of the fingerprinted bytes. Extends the fingerprint while the file is
+     * shorter than the fingerprinted length.
+     *
+     * @return false if the content was replaced, by a new file which got the inode or by
+     * truncating and writing the file again
+     */
+    public boolean verifyFingerprint() throws IOException {
+        if (fingerprint == null || archive) {
+            return true;
+        }
+        FileFingerprint verified = fingerprint.verify(raf.getChannel(), options.getFingerprintBytes());
+        if (verified == null) {
+            return false;
+        }
+        fingerprint = verified;
+        return true;
+    }
+
+    /**
+     * @return false if the file does not start with the given fingerprinted bytes, true if it
+     * does or either fingerprint is unknown
+     */
+    public boolean matches(FileFingerprint other) throws IOException {
+        if (fingerprint == null || other == null || archive) {
+            return true;
+        }
+        return other.verify(raf.getChannel(), other.getLength()) != null;
+    }
+
+    /**
+     * Reads the file from its start again, as a new file whose content replaced the one read.
+     */
+    public void restart() throws IOException {
+        LOG.info("Content of file was replaced, restarting from pos 0, file: " + path + ", inode: " + inode);
+        if (fingerprint != null) {
+            fingerprint = FileFingerprint.read(raf.getChannel(), options.getFingerprintBytes());
+        }
+        updatePos(path, inode, 0);
+    }
+
     public void updateFilePos(long pos) throws IOException {
-        raf.seek(pos);
+        if (!archive) {
+            raf.seek(pos);
+        }
         lineReadPos = pos;
         bufferPos = NEED_READING;
-        oldBuffer = new byte[0];
+        oldLen = 0;
+        dropped = 0;
+        closeCatchUpReader();
+        if (lineReader != null) {
+            lineReader.seek(pos);
+        }
+        if (multiline != null) {
+            multiline.reset();
+        }
     }
 
 
-    public List<Event> readEvents(int numEvents, boolean backoffWithoutNL,
-            boolean addByteOffset) throws IOException {
-        List<Event> events = Lists.newLinkedList();
-        for (int i = 0; i < numEvents; i++) {
-            Event event = readEvent(backoffWithoutNL, addByteOffset);
-            if (event == null) {
+    /**
+     * Appends up to numEvents lines to the batch, with the offset of each line as its position.
+     * With backoffWithoutNL a last line without line separator is not returned but kept, and
+     * completed by the bytes read on a later call.
+     *
+     * @param maxBytes no more lines are read once lines of this many bytes were read, so the last
+     *                 line may take the batch beyond it
+     * @return number of lines appended
+     */
+    public int readEvents(EventBatch batch, int numEvents, long maxBytes, boolean backoffWithoutNL)
+            throws IOException {
+        if (catchUpReader == null && options.isMmapCatchUp() && !archive) {
+            startCatchUpIfBehind();
+        }
+        if (multiline != null) {
+            return readMultilineEvents(batch, numEvents, maxBytes, backoffWithoutNL);
+        }
+        long startPos = lineReadPos;
+        int read = 0;
+        while (read < numEvents && lineReadPos - startPos < maxBytes && readEvent(batch, backoffWithoutNL)) {
+            read++;
+        }
+        return read;
+    }
+
+    /**
+     * Appends up to numEvents events of joined lines to the batch. The last event is held back
+     * for the lines which may still continue it, unless no line was added to it for the flush
+     * timeout or backoffWithoutNL is false.
+     */
+    private int readMultilineEvents(EventBatch batch, int numEvents, long maxBytes, boolean backoffWithoutNL)
+            throws IOException {
+        long startPos = lineReadPos;
+        long eventPos = multiline.getHeldPos();
+        boolean open = multiline.restore(batch);
+        boolean linesAdded = false;
+        int read = 0;
+        while (read < numEvents && lineReadPos - startPos < maxBytes) {
+            long linePos = lineReadPos;
+            if (!readEvent(batch, backoffWithoutNL)) {
                 break;
             }
-            events.add(event);
+            linesAdded = true;
+            if (open && multiline.continues(batch)) {
+                multiline.join(batch);
+                continue;
+            }
+            if (open) {
+                read++;
+            }
+            multiline.start();
+            open = true;
+            eventPos = linePos;
         }
-        return events;
+        if (open) {
+            long now = System.currentTimeMillis();
+            if (linesAdded) {
+                multiline.touch(now);
+            }
+            if (read < numEvents && (!backoffWithoutNL || multiline.isExpired(now))) {
+                read++;
+            } else {
+                multiline.hold(batch, eventPos);
+            }
+        }
+        return read;
     }
 
-    private Event readEvent(boolean backoffWithoutNL, boolean addByteOffset) throws IOException {
-        Long posTmp = getLineReadPos();
-        LineResult line = readLine();
-        if (line == null) {
-            return null;
+    private boolean readEvent(EventBatch batch, boolean backoffWithoutNL) throws IOException {
+        long posTmp = getLineReadPos();
+        boolean found = false;
+        if (catchUpReader != null) {
+            found = catchUpReader.readLine(batch, backoffWithoutNL);
+            if (found) {
+                setLineReadPos(catchUpReader.position());
+            } else {
+                finishCatchUp();
+            }
         }
-        if (backoffWithoutNL && !line.lineSepInclude) {
-            LOG.info("Backing off in file without newline: "
-                    + path + ", inode: " + inode + ", pos: " + raf.getFilePointer());
-            updateFilePos(posTmp);
-            return null;
+        if (!found && lineReader != null) {
+            if (!lineReader.readLine(batch, backoffWithoutNL)) {
+                return false;
+            }
+            setLineReadPos(lineReader.position());
+        } else if (!found && !readLine(batch, backoffWithoutNL)) {
+            return false;
         }
-        Event event = EventBuilder.withBody(line.line);
-        if (addByteOffset) {
-            event.getHeaders().put(BYTE_OFFSET_HEADER_KEY, posTmp.toString());
+        batch.setPosition(batch.size() - 1, posTmp);
+        return true;
+    }
+
+    private void startCatchUpIfBehind() throws IOException {
+        long backlog = raf.length() - lineReadPos;
+        if (backlog > options.getCatchUpThreshold()) {
+            LOG.info("Catching up file: " + path + ", inode: " + inode + ", pos: " + lineReadPos
+                    + ", backlog: " + backlog);
+            catchUpReader = new MappedLineReader(raf.getChannel(), lineReadPos, options.getMmapWindowSize(),
+                    options.getCatchUpThreshold(), options.getMaxLineLength(), options.isTruncateLongLines());
         }
-        return event;
+    }
+
+    private void finishCatchUp() throws IOException {
+        long pos = catchUpReader.position();
+        LOG.info("Caught up file: " + path + ", inode: " + inode + ", pos: " + pos);
+        // hand over to the tail reader, updateFilePos also drops the catch-up reader
+        updateFilePos(pos);
     }
 
     private void readFile() throws IOException {
-        if ((raf.length() - raf.getFilePointer()) < BUFFER_SIZE) {
-            buffer = new byte[(int) (raf.length() - raf.getFilePointer())];
-        } else {
+        if (buffer == null) {
             buffer = new byte[BUFFER_SIZE];
+            bufferView = ByteBuffer.wrap(buffer).order(ByteOrder.LITTLE_ENDIAN);
         }
-        raf.read(buffer, 0, buffer.length);
+        int len = (int) Math.min(raf.length() - raf.getFilePointer(), BUFFER_SIZE);
+        bufferLen = Math.max(raf.read(buffer, 0, len), 0);
         bufferPos = 0;
     }
 
-    private byte[] concatByteArrays(byte[] a, int startIdxA, int lenA,
-            byte[] b, int startIdxB, int lenB) {
-        byte[] c = new byte[lenA + lenB];
-        System.arraycopy(a, startIdxA, c, 0, lenA);
-        System.arraycopy(b, startIdxB, c, lenA, lenB);
-        return c;
-    }
-
-    public LineResult readLine() throws IOException {
-        LineResult lineResult = null;
+    /**
+     * Appends the next line to the batch, see {@link LineReader#readLine(EventBatch, boolean)}.
+     */
+    private boolean readLine(EventBatch batch, boolean holdPartial) throws IOException {
+        int maxLineLength = options.getMaxLineLength();
         while (true) {
             if (bufferPos == NEED_READING) {
                 if (raf.getFilePointer() < raf.length()) {
                     readFile();
                 } else {
-                    if (oldBuffer.length > 0) {
-                        lineResult = new LineResult(false, oldBuffer);
-                        oldBuffer = new byte[0];
-                        setLineReadPos(lineReadPos + lineResult.line.length);
-                    }
-                    break;
+                    return !holdPartial && takeOld(batch);
                 }
             }
-            for (int i = bufferPos; i < buffer.length; i++) {
-                if (buffer[i] == BYTE_NL) {
-                    int oldLen = oldBuffer.length;
-                    // Don't copy last byte(NEW_LINE)
-                    int lineLen = i - bufferPos;
-                    // For windows, check for CR
-                    if (i > 0 && buffer[i - 1] == BYTE_CR) {
-                        lineLen -= 1;
-                    } else if (oldBuffer.length > 0 && oldBuffer[oldBuffer.length - 1] == BYTE_CR) {
-                        oldLen -= 1;
-                    }
-                    lineResult = new LineResult(true,
-                            concatByteArrays(oldBuffer, 0, oldLen, buffer, bufferPos, lineLen));
-                    setLineReadPos(lineReadPos + (oldBuffer.length + (i - bufferPos + 1)));
-                    oldBuffer = new byte[0];
-                    if (i + 1 < buffer.length) {
-                        bufferPos = i + 1;
-                    } else {
-                        bufferPos = NEED_READING;
-                    }
-                    break;
+            int i = NewlineScanner.indexOf(bufferView, bufferPos, bufferLen);
+            if (i >= 0) {
+                int headLen = oldLen;
+                // Don't copy last byte(NEW_LINE)
+                int lineLen = i - bufferPos;
+                // For windows, check for CR
+                if (lineLen > 0 && buffer[i - 1] == BYTE_CR) {
+                    lineLen -= 1;
+                } else if (lineLen == 0 && dropped == 0 && oldLen > 0 && oldBuffer[oldLen - 1] == BYTE_CR) {
+                    headLen -= 1;
                 }
-            }
-            if (lineResult != null) {
-                break;
+                if (headLen + lineLen > maxLineLength && !options.isTruncateLongLines()) {
+                    takeSplit(batch);
+                    return true;
+                }
+                int keptLen = Math.min(lineLen, maxLineLength - headLen);
+                int index = batch.add(oldBuffer, 0, headLen);
+                batch.extendLast(buffer, bufferPos, keptLen);
+                if (dropped > 0 || keptLen < lineLen) {
+                    batch.setHeader(index, LINE_CUT_HEADER_KEY, LINE_TRUNCATED);
+                }
+                setLineReadPos(lineReadPos + oldLen + dropped + (i - bufferPos + 1));
+                oldLen = 0;
+                dropped = 0;
+                if (i + 1 < bufferLen) {
+                    bufferPos = i + 1;
+                } else {
+                    bufferPos = NEED_READING;
+                }
+                return true;
             }
             // NEW_LINE not showed up at the end of the buffer
-            oldBuffer = concatByteArrays(oldBuffer, 0, oldBuffer.length,
-                    buffer, bufferPos, buffer.length - bufferPos);
+            int len = bufferLen - bufferPos;
+            if (oldLen + len > maxLineLength) {
+                if (!options.isTruncateLongLines()) {
+                    takeSplit(batch);
+                    return true;
+                }
+                int keptLen = maxLineLength - oldLen;
+                appendOld(keptLen);
+                dropped += len - keptLen;
+            } else {
+                appendOld(len);
+            }
             bufferPos = NEED_READING;
         }
-        return lineResult;
+    }
+
+    /**
+     * Returns the first maxLineLength bytes of the current line as a line of its own.
+     */
+    private void takeSplit(EventBatch batch) {
+        int maxLineLength = options.getMaxLineLength();
+        int index = batch.add(oldBuffer, 0, oldLen);
+        int tailLen = maxLineLength - oldLen;
+        batch.extendLast(buffer, bufferPos, tailLen);
+        batch.setHeader(index, LINE_CUT_HEADER_KEY, LINE_SPLIT);
+        setLineReadPos(lineReadPos + maxLineLength);
+        oldLen = 0;
+        bufferPos += tailLen;
+        if (bufferPos == bufferLen) {
+            bufferPos = NEED_READING;
+        }
+    }
+
+    /**
+     * Returns the bytes at the end of the file, which are not terminated by a line separator.
+     */
+    private boolean takeOld(EventBatch batch) {
+        if (oldLen == 0 && dropped == 0) {
+            return false;
+        }
+        int index = batch.add(oldBuffer, 0, oldLen);
+        if (dropped > 0) {
+            batch.setHeader(index, LINE_CUT_HEADER_KEY, LINE_TRUNCATED);
+        }
+        setLineReadPos(lineReadPos + oldLen + dropped);
+        oldLen = 0;
+        dropped = 0;
+        return true;
+    }
+
+    private void appendOld(int len) {
+        if (oldBuffer.length < oldLen + len) {
+            oldBuffer = Arrays.copyOf(oldBuffer, Math.max(oldLen + len, oldBuffer.length << 1));
+        }
+        System.arraycopy(buffer, bufferPos, oldBuffer, oldLen, len);
+        oldLen += len;
+    }
+
+    /**
+     * Opens the closed file again and continues reading at the last committed position. Lines
+     * read but not committed and an event being assembled are read again. A fingerprinted file
+     * whose content was replaced meanwhile is read from the start. A file which is read from its
+     * archive opens the archive again.
+     *
+     * @param file    current name of the file
+     * @param headers headers shared by the events read from now on
+     * @return false if the name belongs to another file by now, the file stays closed then
+     */
+    public boolean reopen(File file, Map<String, String> headers) throws IOException {
+        if (archive) {
+            followArchive(file, headers);
+            return true;
+        }
+        RandomAccessFile reopened = new RandomAccessFile(file, "r");
+        if ((long) Files.getAttribute(file.toPath(), "unix:ino") != inode) {
+            reopened.close();
+            return false;
+        }
+        this.raf = reopened;
+        this.path = file.getAbsolutePath();
+        this.headers = headers;
+        if (lineReader != null) {
+            lineReader.close();
+            lineReader = newChannelLineReader(options);
+        }
+        if (verifyFingerprint()) {
+            updateFilePos(pos);
+        } else {
+            restart();
+        }
+        return true;
+    }
+
+    /**
+     * Continues reading at the last committed position within the compressed file which the
+     * file was rotated to, see {@link DecompressingChannel}. The uncompressed content is read
+     * up to the committed offset again and dropped, lines are read through a
+     * {@link ChannelLineReader} whatever the options say. The file stays an archive from now on.
+     *
+     * @param file    the compressed file, a gzip or lz4 file as told by its name
+     * @param headers headers shared by the events read from now on
+     */
+    public void followArchive(File file, Map<String, String> headers) throws IOException {
+        RandomAccessFile opened = new RandomAccessFile(file, "r");
+        DecompressingChannel channel;
+        try {
+            channel = new DecompressingChannel(opened.getChannel(), file.getName());
+        } catch (IOException e) {
+            opened.close();
+            throw e;
+        }
+        this.raf = opened;
+        this.archiveChannel = channel;
+        this.archive = true;
+        this.path = file.getAbsolutePath();
+        this.headers = headers;
+        if (lineReader != null) {
+            lineReader.close();
+        }
+        this.lineReader = new ChannelLineReader(channel, options.getReadBufferSize(), options.isDirectReadBuffer(),
+                options.getMaxLineLength(), options.isTruncateLongLines());
+        updateFilePos(pos);
     }
 
     public void close() {
+        if (raf == null) {
+            return;
+        }
+        closeCatchUpReader();
+        if (lineReader != null) {
+            // kept, reopen replaces it
+            lineReader.close();
+        }
         try {
+            if (archiveChannel != null) {
+                archiveChannel.close();
+                archiveChannel = null;
+            }
             raf.close();
             raf = null;
             long now = System.currentTimeMillis();
@@ -231,14 +654,10 @@ public class TailFile {
         }
     }
 
-    private class LineResult {
-        final boolean lineSepInclude;
-        final byte[] line;
-
-        public LineResult(boolean lineSepInclude, byte[] line) {
-            super();
-            this.lineSepInclude = lineSepInclude;
-            this.line = line;
+    private void closeCatchUpReader() {
+        if (catchUpReader != null) {
+            catchUpReader.close();
+            catchUpReader = null;
         }
     }
 }
@@ -0,0 +1,208 @@
+package com.zhw.flume.source.tail;
+
+import java.util.regex.Pattern;
+
+import static com.zhw.flume.source.tail.TailDirSourceConfigurationConstants.DEFAULT_CATCH_UP_THRESHOLD;
+import static com.zhw.flume.source.tail.TailDirSourceConfigurationConstants.DEFAULT_CHANNEL_READER;
+import static com.zhw.flume.source.tail.TailDirSourceConfigurationConstants.DEFAULT_DIRECT_READ_BUFFER;
+import static com.zhw.flume.source.tail.TailDirSourceConfigurationConstants.DEFAULT_FINGERPRINT_BYTES;
+import static com.zhw.flume.source.tail.TailDirSourceConfigurationConstants.DEFAULT_MAX_LINE_LENGTH;
+import static com.zhw.flume.source.tail.TailDirSourceConfigurationConstants.DEFAULT_MMAP_CATCH_UP;
+import static com.zhw.flume.source.tail.TailDirSourceConfigurationConstants.DEFAULT_MMAP_WINDOW_SIZE;
+import static com.zhw.flume.source.tail.TailDirSourceConfigurationConstants.DEFAULT_MULTILINE_FLUSH_TIMEOUT;
+import static com.zhw.flume.source.tail.TailDirSourceConfigurationConstants.DEFAULT_MULTILINE_MAX_BYTES;
+import static com.zhw.flume.source.tail.TailDirSourceConfigurationConstants.DEFAULT_MULTILINE_MAX_LINES;
+import static com.zhw.flume.source.tail.TailDirSourceConfigurationConstants.DEFAULT_READ_BUFFER_SIZE;
+import static com.zhw.flume.source.tail.TailDirSourceConfigurationConstants.DEFAULT_TRUNCATE_LONG_LINES;
+
+/**
+ * Read settings shared by all {@link TailFile}s of one {@link ReliableTailDirEventReader}.
+ *
+ * @author zhw
+ */
+public class TailFileOptions {
+
+    private final boolean channelReader;
+    private final int readBufferSize;
+    private final boolean directReadBuffer;
+    private final boolean mmapCatchUp;
+    private final long catchUpThreshold;
+    private final int mmapWindowSize;
+    private final int maxLineLength;
+    private final boolean truncateLongLines;
+    // null if lines are not joined
+    private final Pattern multilinePattern;
+    private final boolean multilinePatternStartsEvent;
+    private final int multilineMaxLines;
+    private final int multilineMaxBytes;
+    private final long multilineFlushTimeout;
+    private final int fingerprintBytes;
+
+    private TailFileOptions(Builder builder) {
+        this.channelReader = builder.channelReader;
+        this.readBufferSize = builder.readBufferSize;
+        this.directReadBuffer = builder.directReadBuffer;
+        this.mmapCatchUp = builder.mmapCatchUp;
+        this.catchUpThreshold = builder.catchUpThreshold;
+        this.mmapWindowSize = builder.mmapWindowSize;
+        this.maxLineLength = builder.maxLineLength;
+        this.truncateLongLines = builder.truncateLongLines;
+        this.multilinePattern = builder.multilinePattern;
+        this.multilinePatternStartsEvent = builder.multilinePatternStartsEvent;
+        this.multilineMaxLines = builder.multilineMaxLines;
+        this.multilineMaxBytes = builder.multilineMaxBytes;
+        this.multilineFlushTimeout = builder.multilineFlushTimeout;
+        this.fingerprintBytes = builder.fingerprintBytes;
+    }
+
+    public boolean isChannelReader() {
+        return channelReader;
+    }
+
+    public int getReadBufferSize() {
+        return readBufferSize;
+    }
+
+    public boolean isDirectReadBuffer() {
+        return directReadBuffer;
+    }
+
+    public boolean isMmapCatchUp() {
+        return mmapCatchUp;
+    }
+
+    public long getCatchUpThreshold() {
+        return catchUpThreshold;
+    }
+
+    public int getMmapWindowSize() {
+        return mmapWindowSize;
+    }
+
+    public int getMaxLineLength() {
+        return maxLineLength;
+    }
+
+    public boolean isTruncateLongLines() {
+        return truncateLongLines;
+    }
+
+    public Pattern getMultilinePattern() {
+        return multilinePattern;
+    }
+
+    /**
+     * @return true if the multiline pattern matches the first line of an event, false if it
+     * matches the lines continuing an event
+     */
+    public boolean isMultilinePatternStartsEvent() {
+        return multilinePatternStartsEvent;
+    }
+
+    public int getMultilineMaxLines() {
+        return multilineMaxLines;
+    }
+
+    public int getMultilineMaxBytes() {
+        return multilineMaxBytes;
+    }
+
+    public long getMultilineFlushTimeout() {
+        return multilineFlushTimeout;
+    }
+
+    /**
+     * @return number of leading bytes which identify a file together with its inode, 0 for none
+     */
+    public int getFingerprintBytes() {
+        return fingerprintBytes;
+    }
+
+    public static class Builder {
+
+        private boolean channelReader = DEFAULT_CHANNEL_READER;
+        private int readBufferSize = DEFAULT_READ_BUFFER_SIZE;
+        private boolean directReadBuffer = DEFAULT_DIRECT_READ_BUFFER;
+        private boolean mmapCatchUp = DEFAULT_MMAP_CATCH_UP;
+        private long catchUpThreshold = DEFAULT_CATCH_UP_THRESHOLD;
+        private int mmapWindowSize = DEFAULT_MMAP_WINDOW_SIZE;
+        private int maxLineLength = DEFAULT_MAX_LINE_LENGTH;
+        private boolean truncateLongLines = DEFAULT_TRUNCATE_LONG_LINES;
+        private Pattern multilinePattern;
+        private boolean multilinePatternStartsEvent = true;
+        private int multilineMaxLines = DEFAULT_MULTILINE_MAX_LINES;
+        private int multilineMaxBytes = DEFAULT_MULTILINE_MAX_BYTES;
+        private long multilineFlushTimeout = DEFAULT_MULTILINE_FLUSH_TIMEOUT;
+        private int fingerprintBytes = DEFAULT_FINGERPRINT_BYTES;
+
+        public Builder channelReader(boolean channelReader) {
+            this.channelReader = channelReader;
+            return this;
+        }
+
+        public Builder readBufferSize(int readBufferSize) {
+            this.readBufferSize = readBufferSize;
+            return this;
+        }
+
+        public Builder directReadBuffer(boolean directReadBuffer) {
+            this.directReadBuffer = directReadBuffer;
+            return this;
+        }
+
+        public Builder mmapCatchUp(boolean mmapCatchUp) {
+            this.mmapCatchUp = mmapCatchUp;
+            return this;
+        }
+
+        public Builder catchUpThreshold(long catchUpThreshold) {
+            this.catchUpThreshold = catchUpThreshold;
+            return this;
+        }
+
+        public Builder mmapWindowSize(int mmapWindowSize) {
+            this.mmapWindowSize = mmapWindowSize;
+            return this;
+        }
+
+        public Builder maxLineLength(int maxLineLength) {
+            this.maxLineLength = maxLineLength;
+            return this;
+        }
+
+        public Builder truncateLongLines(boolean truncateLongLines) {
+            this.truncateLongLines = truncateLongLines;
+            return this;
+        }
+
+        public Builder multilinePattern(Pattern multilinePattern, boolean startsEvent) {
+            this.multilinePattern = multilinePattern;
+            this.multilinePatternStartsEvent = startsEvent;
+            return this;
+        }
+
+        public Builder multilineMaxLines(int multilineMaxLines) {
+            this.multilineMaxLines = multilineMaxLines;
+            return this;
+        }
+
+        public Builder multilineMaxBytes(int multilineMaxBytes) {
+            this.multilineMaxBytes = multilineMaxBytes;
+            return this;
+        }
+
+        public Builder multilineFlushTimeout(long multilineFlushTimeout) {
+            this.multilineFlushTimeout = multilineFlushTimeout;
+            return this;
+        }
+
+        public Builder fingerprintBytes(int fingerprintBytes) {
+            this.fingerprintBytes = fingerprintBytes;
+            return this;
+        }
+
+        public TailFileOptions build() {
+            return new TailFileOptions(this);
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package com.zhw.flume.source.tail;
+
+import java.util.List;
+
+/**
+ * Decides in which order the files with lines to read get their turns, and how much each turn
+ * may read. A turn reads whole batches, so it may read somewhat more than allowed.
+ * <p></p>
+ * {@link #order(List, long)} is called by the runner once per poll. The turn of a file is
+ * started and ended by the thread which owns the file at that time, the runner or a worker, so
+ * state kept per file needs no locking, see {@link TailFile#tryClaim()}.
+ * <p></p>
+ * An implementation needs a public no-arg constructor, and may implement
+ * {@link com.zhw.flume.conf.Configurable} to be configured by the <code>scheduler.</code>
+ * properties of the source.
+ *
+ * @author zhw
+ */
+public interface TailFileScheduler {
+
+    /**
+     * @param ready files which have lines to read, in the order they were scanned
+     * @param now   current time
+     * @return the files in the order of their turns, files left out get no turn in this poll
+     */
+    List<TailFile> order(List<TailFile> ready, long now);
+
+    /**
+     * @return bytes the file may read in this turn, the turn is skipped if not positive
+     */
+    long startTurn(TailFile tf);
+
+    /**
+     * @param bytes   bytes read during the turn
+     * @param drained true if the file was read up to its end
+     */
+    void endTurn(TailFile tf, long bytes, boolean drained);
+}
@@ -0,0 +1,62 @@
+package com.zhw.flume.source.tail;
+
+import com.google.common.collect.Maps;
+import com.zhw.flume.conf.Configurable;
+import org.apache.flume.Context;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Map;
+
+import static com.zhw.flume.source.tail.TailDirSourceConfigurationConstants.DEFAULT_QUANTUM_BYTES;
+import static com.zhw.flume.source.tail.TailDirSourceConfigurationConstants.DEFAULT_WEIGHT;
+import static com.zhw.flume.source.tail.TailDirSourceConfigurationConstants.QUANTUM_BYTES;
+import static com.zhw.flume.source.tail.TailDirSourceConfigurationConstants.WEIGHTS_PREFIX;
+
+/**
+ * Base of the schedulers which let a file read a quantum of bytes per turn, multiplied by the
+ * weight of its filegroup.
+ *
+ * @author zhw
+ */
+public abstract class WeightedTailFileScheduler implements TailFileScheduler, Configurable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(WeightedTailFileScheduler.class);
+
+    private long quantumBytes = DEFAULT_QUANTUM_BYTES;
+    private Map<String, Integer> weights = Maps.newHashMap();
+
+    @Override
+    public void configure(Context context) {
+        quantumBytes = context.getLong(QUANTUM_BYTES, DEFAULT_QUANTUM_BYTES);
+        if (quantumBytes <= 0) {
+            quantumBytes = DEFAULT_QUANTUM_BYTES;
+            LOG.warn("Invalid quantumBytes specified, initializing scheduler default quantumBytes of {}",
+                    quantumBytes);
+        }
+        Map<String, Integer> configured = Maps.newHashMap();
+        for (Map.Entry<String, String> e : context.getSubProperties(WEIGHTS_PREFIX).entrySet()) {
+            int weight;
+            try {
+                weight = Integer.parseInt(e.getValue().trim());
+            } catch (NumberFormatException ex) {
+                weight = 0;
+            }
+            if (weight <= 0) {
+                weight = DEFAULT_WEIGHT;
+                LOG.warn("Invalid weight specified for filegroup {}, initializing scheduler default weight of {}",
+                        e.getKey(), weight);
+            }
+            configured.put(e.getKey(), weight);
+        }
+        weights = configured;
+    }
+
+    /**
+     * @return bytes the file may read per turn
+     */
+    protected long quantum(TailFile tf) {
+        Integer weight = tf.getFileGroup() == null ? null : weights.get(tf.getFileGroup());
+        return quantumBytes * (weight == null ? DEFAULT_WEIGHT : weight);
+    }
+}
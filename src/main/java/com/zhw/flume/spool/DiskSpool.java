@@ -0,0 +1,570 @@
+package com.zhw.flume.spool;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import org.apache.flume.Event;
+import org.apache.flume.event.EventBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * Local overflow queue for event batches the sink cannot take right now. Batches are appended
+ * to segment files in sequence, a single drainer reads them back in the same order and commits
+ * what it delivered. Drained segments are deleted. An append returns once its batch is synced,
+ * appends which come in while a sync runs share the next one, so concurrent appends do not pay
+ * a sync each and do not hold the lock while syncing.
+ * <p></p>
+ * Record layout, the CRC32 covers the payload:
+ * <pre>
+ * length(4) crc(4) headerCount(4) {keyLength(4) key valueLength(4) value}* bodyLength(4) body
+ * </pre>
+ * The drain position is kept in a cursor file which is not synced on every commit, a crash may
+ * therefore deliver part of the backlog twice, never lose it. Appends after a restart go to a new
+ * segment, a record torn by a crash can only be at the end of a segment and the rest of that
+ * segment is skipped.
+ *
+ * @author zhw
+ */
+public class DiskSpool implements Closeable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(DiskSpool.class);
+
+    private static final String SEGMENT_PREFIX = "spool-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final String CURSOR_FILE = "cursor";
+
+    // length + crc
+    private static final int RECORD_HEADER_BYTES = 8;
+    // segment + offset + crc
+    private static final int CURSOR_BYTES = 20;
+    private static final int READ_BUFFER_SIZE = 256 * 1024;
+
+    private final Path dir;
+    private final long maxBytes;
+    private final long segmentBytes;
+    private final SpoolCounter counter;
+    private final CRC32 crc = new CRC32();
+
+    // size of every segment which is not drained completely, by sequence number
+    private final TreeMap<Long, Long> segments = Maps.newTreeMap();
+
+    private FileChannel writeChannel;
+    private long writeSegment;
+    private long writeOffset;
+
+    private FileChannel readChannel;
+    private long readChannelSegment = -1;
+    // committed drain position
+    private long readSegment;
+    private long readOffset;
+
+    private FileChannel cursorChannel;
+    private final ByteBuffer cursorBuffer = ByteBuffer.allocate(CURSOR_BYTES);
+
+    // updated under the lock, read without it by hasBacklog()
+    private volatile long backlogBytes;
+
+    // appends waiting for room, in the order they came, guarded by this
+    private final Deque<Object> waiting = new ArrayDeque<Object>();
+
+    // appends written since the spool was opened, guarded by this
+    private long appendCount;
+    // appends known to be on disk, guarded by syncLock, taken before this
+    private final Object syncLock = new Object();
+    private long syncedCount;
+
+    private ByteBuffer writeBuffer = ByteBuffer.allocate(64 * 1024);
+    private ByteBuffer readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+    private boolean closed;
+
+    public DiskSpool(Path dir, long maxBytes, long segmentBytes, SpoolCounter counter) {
+        Preconditions.checkArgument(maxBytes > 0, "maxBytes must be positive: " + maxBytes);
+        Preconditions.checkArgument(segmentBytes > 0, "segmentBytes must be positive: " + segmentBytes);
+        this.dir = Preconditions.checkNotNull(dir);
+        this.maxBytes = maxBytes;
+        this.segmentBytes = segmentBytes;
+        this.counter = Preconditions.checkNotNull(counter);
+    }
+
+    /**
+     * Picks up the backlog a previous run left in the directory.
+     */
+    public synchronized void open() throws IOException {
+        Files.createDirectories(dir);
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+            for (Path file : stream) {
+                String name = file.getFileName().toString();
+                try {
+                    long segment = Long.parseLong(name.substring(SEGMENT_PREFIX.length(),
+                            name.length() - SEGMENT_SUFFIX.length()));
+                    segments.put(segment, Files.size(file));
+                } catch (NumberFormatException e) {
+                    LOG.warn("Ignoring unexpected file in spool directory: " + file);
+                }
+            }
+        }
+        cursorChannel = FileChannel.open(dir.resolve(CURSOR_FILE), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        loadCursor();
+        // segments behind the cursor were drained before they could be deleted
+        while (!segments.isEmpty() && segments.firstKey() < readSegment) {
+            deleteSegment(segments.firstKey());
+        }
+        if (segments.isEmpty()) {
+            readSegment++;
+            readOffset = 0;
+        } else if (segments.firstKey() > readSegment) {
+            readSegment = segments.firstKey();
+            readOffset = 0;
+        } else {
+            readOffset = Math.min(readOffset, segments.get(readSegment));
+        }
+        writeSegment = segments.isEmpty() ? readSegment : segments.lastKey() + 1;
+        long bytes = -readOffset;
+        for (long size : segments.values()) {
+            bytes += size;
+        }
+        backlogBytes = bytes;
+        writeCursor();
+        updateGauges();
+        LOG.info("Opened spool " + dir + " with " + segments.size() + " segments and " + bytes + " backlog bytes");
+    }
+
+    /**
+     * Writes the batch and syncs it. While the batch does not fit under the size cap, waits for
+     * the drainer to make room, so that batches are never taken out of order. Appends which wait
+     * get in in the order they came, and later appends queue up behind them. A batch larger than
+     * the whole cap is let in once the spool is empty.
+     */
+    public void append(List<Event> events) throws IOException, InterruptedException {
+        long ticket;
+        synchronized (this) {
+            Preconditions.checkState(!closed, "Spool " + dir + " is closed");
+            writeBuffer.clear();
+            for (Event event : events) {
+                putRecord(event);
+            }
+            writeBuffer.flip();
+            ByteBuffer records = writeBuffer;
+            int size = records.remaining();
+            if (!waiting.isEmpty() || !fits(size)) {
+                counter.incrementAppendFullCount();
+                // other appends use the write buffer while this one waits
+                records = ByteBuffer.allocate(size);
+                records.put(writeBuffer);
+                records.flip();
+                Object turn = new Object();
+                waiting.addLast(turn);
+                try {
+                    while (waiting.peekFirst() != turn || !fits(size)) {
+                        wait();
+                        Preconditions.checkState(!closed, "Spool " + dir + " is closed");
+                    }
+                } finally {
+                    waiting.remove(turn);
+                    notifyAll();
+                }
+            }
+            if (writeChannel == null || writeOffset >= segmentBytes) {
+                rollSegment();
+            }
+            try {
+                while (records.hasRemaining()) {
+                    writeChannel.write(records);
+                }
+            } catch (IOException e) {
+                // the reader never passes writeOffset, later appends go to a fresh segment
+                try {
+                    writeChannel.truncate(writeOffset);
+                } catch (IOException ex) {
+                    LOG.warn("Unable to cut the failed append from " + segmentPath(writeSegment), ex);
+                }
+                closeWriteChannel();
+                throw e;
+            }
+            writeOffset += size;
+            segments.put(writeSegment, writeOffset);
+            backlogBytes += size;
+            ticket = ++appendCount;
+            counter.addToEventAppendCount(events.size());
+            updateGauges();
+            notifyAll();
+        }
+        sync(ticket);
+    }
+
+    private boolean fits(int size) {
+        return backlogBytes == 0 || backlogBytes + size <= maxBytes;
+    }
+
+    /**
+     * Syncs the write segment unless a sync which started after the given append was written
+     * already covered it.
+     */
+    private void sync(long ticket) throws IOException {
+        synchronized (syncLock) {
+            if (syncedCount >= ticket) {
+                return;
+            }
+            FileChannel channel;
+            long written;
+            synchronized (this) {
+                channel = writeChannel;
+                written = appendCount;
+            }
+            if (channel != null) {
+                try {
+                    channel.force(false);
+                } catch (ClosedChannelException e) {
+                    // rolled or closed meanwhile, which synced the segment before closing it
+                }
+            }
+            syncedCount = written;
+        }
+    }
+
+    /**
+     * Reads the oldest events which are not committed yet. Every call starts at the committed
+     * position, so a batch which was not committed is returned again.
+     *
+     * @return null if the spool stayed empty for the timeout
+     */
+    public synchronized SpoolBatch poll(int maxEvents, long timeout, TimeUnit unit)
+            throws IOException, InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (backlogBytes == 0 && !closed) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                return null;
+            }
+            TimeUnit.NANOSECONDS.timedWait(this, remaining);
+        }
+        while (!closed && backlogBytes > 0) {
+            Long size = segments.get(readSegment);
+            if (size != null && readOffset < size) {
+                SpoolBatch batch = readBatch(size, maxEvents);
+                if (batch != null) {
+                    return batch;
+                }
+            } else if (readSegment < writeSegment) {
+                nextSegment();
+            } else {
+                break;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Removes the events of the batch from the spool.
+     */
+    public synchronized void commit(SpoolBatch batch) throws IOException {
+        Preconditions.checkArgument(batch.getSegment() == readSegment && batch.getEndOffset() >= readOffset,
+                "Batch was not read at the committed position");
+        readOffset = batch.getEndOffset();
+        backlogBytes -= batch.getBytes();
+        writeCursor();
+        counter.addToEventDrainCount(batch.getEvents().size());
+        updateGauges();
+        // room for appends waiting on the size cap
+        notifyAll();
+    }
+
+    public boolean hasBacklog() {
+        return backlogBytes > 0;
+    }
+
+    public long getBacklogBytes() {
+        return backlogBytes;
+    }
+
+    private SpoolBatch readBatch(long segmentSize, int maxEvents) throws IOException {
+        FileChannel channel = readChannel(readSegment);
+        List<Event> events = Lists.newArrayList();
+        long offset = readOffset;
+        // bytes of the intact records in the buffer
+        int consumed = 0;
+        try {
+            while (events.size() < maxEvents && offset < segmentSize) {
+                readBuffer.clear();
+                readBuffer.limit((int) Math.min(readBuffer.capacity(), segmentSize - offset));
+                while (readBuffer.hasRemaining()) {
+                    if (channel.read(readBuffer, offset + readBuffer.position()) < 0) {
+                        throw new BufferUnderflowException();
+                    }
+                }
+                readBuffer.flip();
+                while (events.size() < maxEvents && readBuffer.remaining() >= RECORD_HEADER_BYTES) {
+                    int start = readBuffer.position();
+                    int length = readBuffer.getInt(start);
+                    if (length < 0 || offset + start + RECORD_HEADER_BYTES + length > segmentSize) {
+                        throw new BufferUnderflowException();
+                    }
+                    if (readBuffer.remaining() < RECORD_HEADER_BYTES + length) {
+                        break;
+                    }
+                    crc.reset();
+                    crc.update(readBuffer.array(), start + RECORD_HEADER_BYTES, length);
+                    if (readBuffer.getInt(start + 4) != (int) crc.getValue()) {
+                        throw new BufferUnderflowException();
+                    }
+                    readBuffer.position(start + RECORD_HEADER_BYTES);
+                    events.add(readEvent(readBuffer));
+                    consumed = start + RECORD_HEADER_BYTES + length;
+                    readBuffer.position(consumed);
+                }
+                if (consumed == 0) {
+                    if (readBuffer.remaining() < RECORD_HEADER_BYTES) {
+                        throw new BufferUnderflowException();
+                    }
+                    // a single record larger than the buffer
+                    readBuffer = ByteBuffer.allocate(RECORD_HEADER_BYTES + readBuffer.getInt(0));
+                }
+                offset += consumed;
+                consumed = 0;
+            }
+        } catch (BufferUnderflowException | IllegalArgumentException e) {
+            if (events.isEmpty()) {
+                skipCorrupt(segmentSize);
+                return null;
+            }
+            // deliver the intact records first, the next poll runs into the damage again
+        }
+        offset += consumed;
+        return new SpoolBatch(events, readSegment, offset, offset - readOffset);
+    }
+
+    private void skipCorrupt(long segmentSize) throws IOException {
+        long skipped = segmentSize - readOffset;
+        LOG.warn("Skipping " + skipped + " bytes of a corrupt record at offset " + readOffset + " of "
+                + segmentPath(readSegment));
+        counter.addToCorruptBytes(skipped);
+        readOffset = segmentSize;
+        backlogBytes -= skipped;
+        writeCursor();
+        updateGauges();
+        notifyAll();
+    }
+
+    private Event readEvent(ByteBuffer buf) {
+        int headerCount = buf.getInt();
+        Map<String, String> headers = Maps.newHashMapWithExpectedSize(headerCount);
+        for (int i = 0; i < headerCount; i++) {
+            headers.put(readString(buf), readString(buf));
+        }
+        byte[] body = new byte[buf.getInt()];
+        buf.get(body);
+        return EventBuilder.withBody(body, headers);
+    }
+
+    private static String readString(ByteBuffer buf) {
+        int length = buf.getInt();
+        String value = new String(buf.array(), buf.position(), length, StandardCharsets.UTF_8);
+        buf.position(buf.position() + length);
+        return value;
+    }
+
+    private void putRecord(Event event) {
+        ensureRemaining(RECORD_HEADER_BYTES + 8);
+        int start = writeBuffer.position();
+        writeBuffer.position(start + RECORD_HEADER_BYTES);
+        Map<String, String> headers = event.getHeaders();
+        writeBuffer.putInt(headers == null ? 0 : headers.size());
+        if (headers != null) {
+            for (Map.Entry<String, String> header : headers.entrySet()) {
+                putBytes(header.getKey().getBytes(StandardCharsets.UTF_8));
+                putBytes(header.getValue().getBytes(StandardCharsets.UTF_8));
+            }
+        }
+        byte[] body = event.getBody();
+        putBytes(body == null ? new byte[0] : body);
+        int length = writeBuffer.position() - start - RECORD_HEADER_BYTES;
+        crc.reset();
+        crc.update(writeBuffer.array(), start + RECORD_HEADER_BYTES, length);
+        writeBuffer.putInt(start, length);
+        writeBuffer.putInt(start + 4, (int) crc.getValue());
+    }
+
+    private void putBytes(byte[] bytes) {
+        ensureRemaining(4 + bytes.length);
+        writeBuffer.putInt(bytes.length);
+        writeBuffer.put(bytes);
+    }
+
+    private void ensureRemaining(int size) {
+        if (writeBuffer.remaining() < size) {
+            ByteBuffer grown = ByteBuffer.allocate(Math.max(writeBuffer.capacity() << 1, writeBuffer.position() + size));
+            writeBuffer.flip();
+            grown.put(writeBuffer);
+            writeBuffer = grown;
+        }
+    }
+
+    private void rollSegment() throws IOException {
+        if (writeChannel != null) {
+            closeWriteChannel();
+        }
+        writeChannel = FileChannel.open(segmentPath(writeSegment), StandardOpenOption.CREATE_NEW,
+                StandardOpenOption.WRITE);
+        writeOffset = 0;
+        segments.put(writeSegment, 0L);
+        syncDirectory();
+    }
+
+    /**
+     * Syncs and closes the write segment, appends which were written to it count as synced.
+     */
+    private void closeWriteChannel() {
+        try {
+            writeChannel.force(false);
+        } catch (IOException e) {
+            LOG.warn("Unable to sync spool segment " + segmentPath(writeSegment), e);
+        }
+        try {
+            writeChannel.close();
+        } catch (IOException e) {
+            LOG.warn("Unable to close spool segment " + segmentPath(writeSegment), e);
+        }
+        writeChannel = null;
+        writeSegment++;
+    }
+
+    private FileChannel readChannel(long segment) throws IOException {
+        if (readChannelSegment != segment) {
+            closeReadChannel();
+            readChannel = FileChannel.open(segmentPath(segment), StandardOpenOption.READ);
+            readChannelSegment = segment;
+        }
+        return readChannel;
+    }
+
+    private void closeReadChannel() throws IOException {
+        if (readChannel != null) {
+            readChannel.close();
+            readChannel = null;
+            readChannelSegment = -1;
+        }
+    }
+
+    /**
+     * Moves the drain position behind a completely drained segment and deletes it.
+     */
+    private void nextSegment() throws IOException {
+        long drained = readSegment;
+        Long next = segments.higherKey(drained);
+        readSegment = next == null ? writeSegment : next;
+        readOffset = 0;
+        writeCursor();
+        if (readChannelSegment == drained) {
+            closeReadChannel();
+        }
+        deleteSegment(drained);
+        updateGauges();
+    }
+
+    private void deleteSegment(long segment) throws IOException {
+        segments.remove(segment);
+        Files.deleteIfExists(segmentPath(segment));
+    }
+
+    private void loadCursor() throws IOException {
+        cursorBuffer.clear();
+        while (cursorBuffer.hasRemaining() && cursorChannel.read(cursorBuffer, cursorBuffer.position()) > 0) {
+            // read the whole cursor
+        }
+        long first = segments.isEmpty() ? 0 : segments.firstKey();
+        if (cursorBuffer.hasRemaining()) {
+            readSegment = first;
+            readOffset = 0;
+            return;
+        }
+        crc.reset();
+        crc.update(cursorBuffer.array(), 0, CURSOR_BYTES - 4);
+        if (cursorBuffer.getInt(CURSOR_BYTES - 4) != (int) crc.getValue()) {
+            LOG.warn("Spool cursor " + dir.resolve(CURSOR_FILE) + " is corrupt, draining from the oldest segment");
+            readSegment = first;
+            readOffset = 0;
+            return;
+        }
+        readSegment = cursorBuffer.getLong(0);
+        readOffset = cursorBuffer.getLong(8);
+    }
+
+    private void writeCursor() throws IOException {
+        cursorBuffer.clear();
+        cursorBuffer.putLong(readSegment);
+        cursorBuffer.putLong(readOffset);
+        crc.reset();
+        crc.update(cursorBuffer.array(), 0, CURSOR_BYTES - 4);
+        cursorBuffer.putInt((int) crc.getValue());
+        cursorBuffer.flip();
+        while (cursorBuffer.hasRemaining()) {
+            cursorChannel.write(cursorBuffer, cursorBuffer.position());
+        }
+    }
+
+    private void updateGauges() {
+        counter.setBacklogBytes(backlogBytes);
+        counter.setSegmentCount(segments.size());
+    }
+
+    private Path segmentPath(long segment) {
+        return dir.resolve(SEGMENT_PREFIX + String.format("%020d", segment) + SEGMENT_SUFFIX);
+    }
+
+    /**
+     * Makes a new segment file durable. Not every platform can open a directory, there it is
+     * left to the file system.
+     */
+    private void syncDirectory() {
+        try (FileChannel channel = FileChannel.open(dir, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            // not supported here
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        notifyAll();
+        if (writeChannel != null) {
+            writeChannel.force(false);
+            writeChannel.close();
+            writeChannel = null;
+        }
+        closeReadChannel();
+        if (cursorChannel != null) {
+            cursorChannel.force(false);
+            cursorChannel.close();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "DiskSpool{" + dir + "}";
+    }
+}
@@ -0,0 +1,45 @@
+package com.zhw.flume.spool;
+
+import org.apache.flume.Event;
+
+import java.util.List;
+
+/**
+ * Events read from a {@link DiskSpool} together with the spool position behind them. The
+ * events stay in the spool until the batch is passed to {@link DiskSpool#commit(SpoolBatch)}.
+ *
+ * @author zhw
+ */
+public final class SpoolBatch {
+
+    private final List<Event> events;
+    private final long segment;
+    private final long endOffset;
+    private final long bytes;
+
+    SpoolBatch(List<Event> events, long segment, long endOffset, long bytes) {
+        this.events = events;
+        this.segment = segment;
+        this.endOffset = endOffset;
+        this.bytes = bytes;
+    }
+
+    public List<Event> getEvents() {
+        return events;
+    }
+
+    long getSegment() {
+        return segment;
+    }
+
+    long getEndOffset() {
+        return endOffset;
+    }
+
+    /**
+     * @return size of the events in the spool, headers included
+     */
+    public long getBytes() {
+        return bytes;
+    }
+}
@@ -0,0 +1,73 @@
+package com.zhw.flume.spool;
+
+import org.apache.flume.instrumentation.MonitoredCounterGroup;
+
+/**
+ * Metrics of a {@link DiskSpool}, registered like the channel counters of a regular Flume agent.
+ *
+ * @author zhw
+ */
+public class SpoolCounter extends MonitoredCounterGroup {
+
+    private static final String BACKLOG_BYTES = "spool.backlog.bytes";
+    private static final String SEGMENT_COUNT = "spool.segment.count";
+    private static final String EVENT_APPEND_COUNT = "spool.event.append.count";
+    private static final String EVENT_DRAIN_COUNT = "spool.event.drain.count";
+    private static final String APPEND_FULL_COUNT = "spool.append.full.count";
+    private static final String CORRUPT_BYTES = "spool.corrupt.bytes";
+
+    private static final String[] ATTRIBUTES = {BACKLOG_BYTES, SEGMENT_COUNT, EVENT_APPEND_COUNT,
+            EVENT_DRAIN_COUNT, APPEND_FULL_COUNT, CORRUPT_BYTES};
+
+    public SpoolCounter(String name) {
+        super(Type.CHANNEL, name, ATTRIBUTES);
+    }
+
+    public void setBacklogBytes(long bytes) {
+        set(BACKLOG_BYTES, bytes);
+    }
+
+    public long getBacklogBytes() {
+        return get(BACKLOG_BYTES);
+    }
+
+    public void setSegmentCount(long count) {
+        set(SEGMENT_COUNT, count);
+    }
+
+    public long getSegmentCount() {
+        return get(SEGMENT_COUNT);
+    }
+
+    public long addToEventAppendCount(long delta) {
+        return addAndGet(EVENT_APPEND_COUNT, delta);
+    }
+
+    public long getEventAppendCount() {
+        return get(EVENT_APPEND_COUNT);
+    }
+
+    public long addToEventDrainCount(long delta) {
+        return addAndGet(EVENT_DRAIN_COUNT, delta);
+    }
+
+    public long getEventDrainCount() {
+        return get(EVENT_DRAIN_COUNT);
+    }
+
+    public long incrementAppendFullCount() {
+        return increment(APPEND_FULL_COUNT);
+    }
+
+    public long getAppendFullCount() {
+        return get(APPEND_FULL_COUNT);
+    }
+
+    public long addToCorruptBytes(long delta) {
+        return addAndGet(CORRUPT_BYTES, delta);
+    }
+
+    public long getCorruptBytes() {
+        return get(CORRUPT_BYTES);
+    }
+}
@@ -0,0 +1,180 @@
+package com.zhw.flume.stage;
+
+import com.zhw.flume.event.EventBatch;
+import com.zhw.flume.sink.DeliveryCallback;
+import org.apache.flume.Event;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Bounded ring of preallocated slots which hands batches from one producer thread to one
+ * consumer thread without locks. Sequences only grow, a sequence maps to the slot at sequence
+ * modulo the capacity.
+ * <p></p>
+ * The producer {@link #claim(int)}s a run of slots, fills them and {@link #publish(long)}es the
+ * run at once. The consumer reads everything published up to {@link #published()} and
+ * {@link #release(long)}es slots as it is done with them, which makes room for the producer.
+ * Slot contents are written before and read after the ordered write of a sequence, so they
+ * need no volatile access of their own.
+ *
+ * @author zhw
+ */
+class BatchRing {
+
+    // time a producer sleeps while the ring is full
+    private static final long FULL_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+
+    private final Slot[] slots;
+    private final int mask;
+    // next sequence the consumer reads, written by the consumer
+    private final Sequence head = new Sequence();
+    // next sequence the consumer may not read yet, written by the producer
+    private final Sequence tail = new Sequence();
+
+    // producer only
+    private long claimed;
+    private long cachedHead;
+
+    /**
+     * @param capacity number of slots, rounded up to a power of two
+     */
+    BatchRing(int capacity) {
+        int size = Integer.highestOneBit(Math.max(capacity, 1) - 1) << 1;
+        if (size == 0) {
+            size = 1;
+        }
+        slots = new Slot[size];
+        for (int i = 0; i < size; i++) {
+            slots[i] = new Slot();
+        }
+        mask = size - 1;
+    }
+
+    int capacity() {
+        return slots.length;
+    }
+
+    /**
+     * Waits until n slots are free and claims them, producer only.
+     *
+     * @return first claimed sequence, the run ends at the returned value plus n minus one
+     */
+    long claim(int n) throws InterruptedException {
+        if (n <= 0 || n > slots.length) {
+            throw new IllegalArgumentException("Cannot claim " + n + " slots of " + slots.length);
+        }
+        long first = claimed;
+        long wrapPoint = first + n - slots.length;
+        while (wrapPoint > cachedHead) {
+            cachedHead = head.get();
+            if (wrapPoint > cachedHead) {
+                if (Thread.interrupted()) {
+                    throw new InterruptedException();
+                }
+                LockSupport.parkNanos(FULL_PARK_NANOS);
+            }
+        }
+        claimed = first + n;
+        return first;
+    }
+
+    /**
+     * @return the slot of a claimed or published sequence
+     */
+    Slot get(long sequence) {
+        return slots[(int) sequence & mask];
+    }
+
+    /**
+     * Makes the claimed slots up to the given sequence visible to the consumer, producer only.
+     */
+    void publish(long last) {
+        tail.lazySet(last + 1);
+    }
+
+    /**
+     * @return sequence behind the last published slot, consumer only
+     */
+    long published() {
+        return tail.get();
+    }
+
+    /**
+     * @return next sequence to read, consumer only
+     */
+    long next() {
+        return head.get();
+    }
+
+    /**
+     * Clears the slots before the given sequence and hands them back to the producer, consumer only.
+     */
+    void release(long upTo) {
+        for (long sequence = head.get(); sequence < upTo; sequence++) {
+            get(sequence).clear();
+        }
+        head.lazySet(upTo);
+    }
+
+    boolean isEmpty() {
+        return head.get() == tail.get();
+    }
+
+    /**
+     * A batch and the callback to report its delivery to. The batch is held either as a list of
+     * events or as an {@link EventBatch}, which the sink takes without copying its bodies.
+     */
+    static final class Slot {
+        private List<Event> events;
+        private EventBatch batch;
+        private DeliveryCallback callback;
+
+        void set(List<Event> events, DeliveryCallback callback) {
+            this.events = events;
+            this.batch = null;
+            this.callback = callback;
+        }
+
+        void set(EventBatch batch, DeliveryCallback callback) {
+            this.events = null;
+            this.batch = batch;
+            this.callback = callback;
+        }
+
+        /**
+         * @return the events, null if the slot holds an {@link EventBatch}
+         */
+        List<Event> getEvents() {
+            return events;
+        }
+
+        /**
+         * @return the batch, null if the slot holds a list of events
+         */
+        EventBatch getBatch() {
+            return batch;
+        }
+
+        DeliveryCallback getCallback() {
+            return callback;
+        }
+
+        private void clear() {
+            events = null;
+            batch = null;
+            callback = null;
+        }
+    }
+
+    /**
+     * Sequence padded so that the head and the tail, written by different threads, do not share
+     * a cache line.
+     */
+    @SuppressWarnings("unused")
+    private static final class Sequence extends AtomicLong {
+        private long p1, p2, p3, p4, p5, p6, p7;
+    }
+}
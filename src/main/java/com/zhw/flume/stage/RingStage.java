@@ -0,0 +1,309 @@
+package com.zhw.flume.stage;
+
+import com.google.common.base.Preconditions;
+import com.zhw.flume.event.EventBatch;
+import com.zhw.flume.sink.DeliveryCallback;
+import com.zhw.flume.sink.SinkRunner;
+import com.zhw.flume.threadpool.ThreadFactories;
+import org.apache.flume.Event;
+import org.apache.flume.EventDeliveryException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Hands the batches of a source to its sink runner on a sender thread of its own, so that the
+ * source reads the next batch while the sink sends the last one. Delivery is still reported to
+ * the callback of each batch, so positions are still committed only once the sink confirmed
+ * them.
+ * <p></p>
+ * Every thread which sends gets a {@link BatchRing} of its own, which keeps each ring single
+ * producer and single consumer. The sender thread takes the batches from all rings in turn, a
+ * thread whose ring is full waits for the sender. The sender parks while all rings are empty
+ * and is woken by the next publish. Rings of threads which ended are dropped once they are empty.
+ * <p></p>
+ * Batches still in the rings when the sender had to be interrupted on stop are reported to their
+ * callbacks as failed.
+ *
+ * @author zhw
+ */
+public class RingStage {
+
+    private static final Logger LOG = LoggerFactory.getLogger(RingStage.class);
+
+    // upper bound of a park of the sender, in case a wake up is missed
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private final String name;
+    private final SinkRunner sinkRunner;
+    private final int ringSize;
+    private final List<Producer> producers = new CopyOnWriteArrayList<Producer>();
+    private final ThreadLocal<Producer> producer = new ThreadLocal<Producer>() {
+        @Override
+        protected Producer initialValue() {
+            Producer created = new Producer(Thread.currentThread(), new BatchRing(ringSize));
+            producers.add(created);
+            return created;
+        }
+    };
+
+    private volatile Thread sender;
+    private volatile boolean running;
+    // set when the sender has to give up on the batches left, a sink may swallow the interrupt
+    private volatile boolean aborted;
+    private volatile boolean senderParked;
+
+    /**
+     * @param ringSize batches each sending thread may have waiting for the sender
+     */
+    public RingStage(String name, SinkRunner sinkRunner, int ringSize) {
+        this.name = name;
+        this.sinkRunner = sinkRunner;
+        this.ringSize = ringSize;
+    }
+
+    public synchronized void start() {
+        running = true;
+        aborted = false;
+        sender = ThreadFactories.newThread(name + "-sender", new SenderRunnable());
+        sender.start();
+    }
+
+    /**
+     * Sends the batches still in the rings and waits up to the timeout for the sender to finish
+     * them. If it does not, the sender is interrupted and the batches it did not take are reported
+     * to their callbacks as failed. Nothing may be sent once stop was called.
+     */
+    public synchronized void stop(long timeout, TimeUnit unit) {
+        if (sender == null) {
+            return;
+        }
+        running = false;
+        LockSupport.unpark(sender);
+        try {
+            sender.join(unit.toMillis(timeout));
+            if (sender.isAlive()) {
+                LOG.warn("Sender of {} did not finish within {} ms, interrupting", name, unit.toMillis(timeout));
+                aborted = true;
+                sender.interrupt();
+                sender.join(unit.toMillis(timeout));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (sender.isAlive()) {
+            // the rings still have their consumer, they must not be touched from here
+            LOG.error("Sender of {} did not exit, batches left in its rings are not reported", name);
+        } else {
+            failLeftBatches();
+        }
+        sender = null;
+    }
+
+    /**
+     * Queues the batch for the sender, waiting while the ring of the calling thread is full.
+     */
+    public void send(List<Event> events, DeliveryCallback callback) throws EventDeliveryException {
+        BatchRing own = ownRing();
+        long sequence = claim(own, 1);
+        own.get(sequence).set(events, callback);
+        publish(own, sequence);
+    }
+
+    /**
+     * Queues the batch for the sender, waiting while the ring of the calling thread is full. The
+     * sink gets the batch itself, see {@link SinkRunner#batchProcessAsync(EventBatch, DeliveryCallback)}.
+     */
+    public void send(EventBatch batch, DeliveryCallback callback) throws EventDeliveryException {
+        BatchRing own = ownRing();
+        long sequence = claim(own, 1);
+        own.get(sequence).set(batch, callback);
+        publish(own, sequence);
+    }
+
+    /**
+     * Queues the batches for the sender in as few runs as the ring allows, each run is claimed
+     * and published at once. Batches which could not be queued are reported to their callbacks
+     * as failed, so unlike the single batch variants this method does not throw.
+     *
+     * @param callbacks callback of the batch at the same index
+     */
+    public void sendAll(List<EventBatch> batches, List<? extends DeliveryCallback> callbacks) {
+        Preconditions.checkArgument(batches.size() == callbacks.size(),
+                "Got %s batches but %s callbacks", batches.size(), callbacks.size());
+        int queued = 0;
+        try {
+            BatchRing own = ownRing();
+            while (queued < batches.size()) {
+                int n = Math.min(batches.size() - queued, own.capacity());
+                long first = claim(own, n);
+                for (int i = 0; i < n; i++) {
+                    own.get(first + i).set(batches.get(queued + i), callbacks.get(queued + i));
+                }
+                publish(own, first + n - 1);
+                queued += n;
+            }
+        } catch (EventDeliveryException e) {
+            for (int i = queued; i < callbacks.size(); i++) {
+                callbacks.get(i).onFailure(e);
+            }
+        }
+    }
+
+    /**
+     * @return number of threads which have a ring
+     */
+    int producerCount() {
+        return producers.size();
+    }
+
+    private BatchRing ownRing() throws EventDeliveryException {
+        if (!running) {
+            throw new EventDeliveryException("Stage " + name + " is stopped");
+        }
+        return producer.get().ring;
+    }
+
+    private long claim(BatchRing own, int n) throws EventDeliveryException {
+        try {
+            return own.claim(n);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new EventDeliveryException("Interrupted while waiting for room in the ring", e);
+        }
+    }
+
+    private void publish(BatchRing own, long sequence) {
+        own.publish(sequence);
+        Thread parked = sender;
+        if (senderParked && parked != null) {
+            LockSupport.unpark(parked);
+        }
+    }
+
+    /**
+     * Sends the published batches of the ring.
+     *
+     * @return number of batches sent
+     */
+    private int drain(BatchRing batchRing) {
+        long next = batchRing.next();
+        long published = batchRing.published();
+        long sequence = next;
+        for (; sequence < published && !aborted; sequence++) {
+            BatchRing.Slot slot = batchRing.get(sequence);
+            deliver(slot);
+            batchRing.release(sequence + 1);
+        }
+        return (int) (sequence - next);
+    }
+
+    private void deliver(BatchRing.Slot slot) {
+        DeliveryCallback callback = slot.getCallback();
+        try {
+            if (slot.getBatch() != null) {
+                sinkRunner.batchProcessAsync(slot.getBatch(), callback);
+            } else {
+                sinkRunner.batchProcessAsync(slot.getEvents(), callback);
+            }
+        } catch (EventDeliveryException e) {
+            callback.onFailure(e);
+        } catch (RuntimeException e) {
+            callback.onFailure(new EventDeliveryException("The sink failed to take the batch", e));
+        }
+    }
+
+    private boolean allEmpty() {
+        for (Producer each : producers) {
+            if (!each.ring.isEmpty()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Drops the rings of threads which ended, once the sender took their last batch.
+     */
+    private void removeEndedProducers() {
+        for (Producer each : producers) {
+            // checked in this order, a thread which ended publishes nothing more
+            if (!each.owner.isAlive() && each.ring.isEmpty()) {
+                producers.remove(each);
+            }
+        }
+    }
+
+    /**
+     * Reports the batches the sender did not take as failed, only once the sender exited.
+     */
+    private void failLeftBatches() {
+        int failed = 0;
+        EventDeliveryException cause = new EventDeliveryException("Stage " + name + " stopped before sending the batch");
+        for (Producer each : producers) {
+            BatchRing batchRing = each.ring;
+            long published = batchRing.published();
+            for (long sequence = batchRing.next(); sequence < published; sequence++) {
+                DeliveryCallback callback = batchRing.get(sequence).getCallback();
+                try {
+                    callback.onFailure(cause);
+                } catch (RuntimeException e) {
+                    LOG.error("Unable to report a batch left in the ring of " + name, e);
+                }
+                failed++;
+            }
+            batchRing.release(published);
+        }
+        if (failed > 0) {
+            LOG.warn("Reported {} batches left in the rings of {} as failed", failed, name);
+        }
+    }
+
+    /**
+     * A sending thread and its ring.
+     */
+    private static final class Producer {
+        private final Thread owner;
+        private final BatchRing ring;
+
+        Producer(Thread owner, BatchRing ring) {
+            this.owner = owner;
+            this.ring = ring;
+        }
+    }
+
+    /**
+     * Runnable class that sends the batches of all rings until the stage is stopped and the
+     * rings are empty.
+     */
+    private class SenderRunnable implements Runnable {
+
+        @Override
+        public void run() {
+            while (!aborted && !Thread.currentThread().isInterrupted()) {
+                int sent = 0;
+                for (Producer each : producers) {
+                    sent += drain(each.ring);
+                }
+                if (sent > 0) {
+                    continue;
+                }
+                if (!running && allEmpty()) {
+                    break;
+                }
+                removeEndedProducers();
+                senderParked = true;
+                // check again, a publish before the flag was set woke nobody
+                if (allEmpty() && running) {
+                    LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+                }
+                senderParked = false;
+            }
+            LOG.info("Sender of {} exiting", name);
+        }
+    }
+}
@@ -0,0 +1,278 @@
+package com.zhw.flume.threadpool;
+
+import com.google.common.base.Preconditions;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs delayed and periodic tasks off a hierarchical timer wheel on one timer thread. Time is
+ * cut into ticks, the wheel has {@link #LEVELS} levels of {@link #SLOTS} slots each, a slot of
+ * level n spanning SLOTS to the power of n ticks. A task goes into the lowest level whose span
+ * reaches its deadline, and moves down a level each time the slot it sits in comes up, so
+ * scheduling and expiring a task take constant time however many tasks there are. Tasks
+ * further out than the top level can reach wait in the top level and are placed again each
+ * time their slot comes up.
+ * <p></p>
+ * On platform threads expired tasks run one after another on the timer thread, as on a single
+ * scheduled thread. On virtual threads each run gets a thread of its own, so a task which
+ * blocks does not hold up the others, see {@link ThreadFactories}. Either way a periodic task
+ * is scheduled again only once its run finished, so runs of one task never overlap. Unlike
+ * with a {@link java.util.concurrent.ScheduledExecutorService}, a run which throws is logged
+ * and does not cancel the later runs.
+ * <p></p>
+ * The timer thread sleeps while no task is scheduled.
+ *
+ * @author zhw
+ */
+public class HierarchicalTimerWheel {
+
+    private static final Logger LOG = LoggerFactory.getLogger(HierarchicalTimerWheel.class);
+
+    static final int LEVELS = 4;
+    static final int SLOTS = 64;
+    private static final int SLOT_BITS = 6;
+    private static final int SLOT_MASK = SLOTS - 1;
+    // furthest a task is placed ahead of the current tick
+    private static final long MAX_TICKS = (1L << (SLOT_BITS * LEVELS)) - 1;
+
+    private final String name;
+    private final long tickNanos;
+    private final long startNanos = System.nanoTime();
+    private final Thread timerThread;
+
+    // guarded by this
+    private final List<List<Timeout>> wheel = new ArrayList<List<Timeout>>(LEVELS * SLOTS);
+    private long currentTick;
+    private int scheduled;
+    private boolean stopped;
+
+    /**
+     * @param tick length of a tick, the precision of the deadlines
+     */
+    public HierarchicalTimerWheel(String name, long tick, TimeUnit unit) {
+        Preconditions.checkArgument(tick > 0, "tick must be positive: " + tick);
+        this.name = name;
+        this.tickNanos = unit.toNanos(tick);
+        for (int i = 0; i < LEVELS * SLOTS; i++) {
+            wheel.add(new ArrayList<Timeout>());
+        }
+        timerThread = ThreadFactories.newThread(name, new Runnable() {
+            @Override
+            public void run() {
+                runTimer();
+            }
+        });
+        timerThread.setDaemon(true);
+        timerThread.start();
+    }
+
+    public Timeout schedule(Runnable task, long delay, TimeUnit unit) {
+        return add(new Timeout(task, 0, false), delay, unit);
+    }
+
+    /**
+     * Runs the task at the initial delay and then every period after the start of its last run,
+     * or right after the last run if that took longer than the period.
+     */
+    public Timeout scheduleAtFixedRate(Runnable task, long initialDelay, long period, TimeUnit unit) {
+        Preconditions.checkArgument(period > 0, "period must be positive: " + period);
+        return add(new Timeout(task, unit.toNanos(period), true), initialDelay, unit);
+    }
+
+    /**
+     * Runs the task at the initial delay and then the delay after the end of each run.
+     */
+    public Timeout scheduleWithFixedDelay(Runnable task, long initialDelay, long delay, TimeUnit unit) {
+        Preconditions.checkArgument(delay > 0, "delay must be positive: " + delay);
+        return add(new Timeout(task, unit.toNanos(delay), false), initialDelay, unit);
+    }
+
+    /**
+     * Drops all tasks and ends the timer thread, runs already started finish on their own.
+     */
+    public void stop() {
+        synchronized (this) {
+            if (stopped) {
+                return;
+            }
+            stopped = true;
+            for (List<Timeout> slot : wheel) {
+                slot.clear();
+            }
+            scheduled = 0;
+            notifyAll();
+        }
+        try {
+            timerThread.join(TimeUnit.SECONDS.toMillis(1));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private Timeout add(Timeout timeout, long delay, TimeUnit unit) {
+        timeout.deadlineNanos = System.nanoTime() + unit.toNanos(Math.max(delay, 0));
+        synchronized (this) {
+            if (stopped) {
+                throw new IllegalStateException(name + " is stopped");
+            }
+            insert(timeout);
+        }
+        return timeout;
+    }
+
+    private void insert(Timeout timeout) {
+        if (scheduled == 0) {
+            // the wheel is empty, skip the ticks the timer thread slept through
+            currentTick = Math.max(currentTick, (System.nanoTime() - startNanos) / tickNanos);
+        }
+        place(timeout, false);
+        if (++scheduled == 1) {
+            notifyAll();
+        }
+    }
+
+    /**
+     * Puts the task into the lowest level whose span reaches its deadline.
+     *
+     * @param cascading true while the slots of the current tick are still to be expired, so that
+     *                  a task due now goes into the current slot rather than the next one
+     */
+    private void place(Timeout timeout, boolean cascading) {
+        // ticks are rounded up so that a task never runs before its deadline
+        long deadlineTick = (timeout.deadlineNanos - startNanos + tickNanos - 1) / tickNanos;
+        long ticks = Math.min(Math.max(deadlineTick - currentTick, cascading ? 0 : 1), MAX_TICKS);
+        long tick = currentTick + ticks;
+        int level = 0;
+        while (level < LEVELS - 1 && ticks >= 1L << (SLOT_BITS * (level + 1))) {
+            level++;
+        }
+        int slot = (int) (tick >>> (SLOT_BITS * level)) & SLOT_MASK;
+        wheel.get(level * SLOTS + slot).add(timeout);
+    }
+
+    private void runTimer() {
+        List<Timeout> expired = new ArrayList<Timeout>();
+        while (true) {
+            synchronized (this) {
+                try {
+                    while (!stopped && scheduled == 0) {
+                        wait();
+                    }
+                    if (stopped) {
+                        break;
+                    }
+                    long nowTick = (System.nanoTime() - startNanos) / tickNanos;
+                    if (nowTick <= currentTick) {
+                        long sleepNanos = startNanos + (currentTick + 1) * tickNanos - System.nanoTime();
+                        TimeUnit.NANOSECONDS.timedWait(this, Math.max(sleepNanos, 1));
+                        continue;
+                    }
+                    while (currentTick < nowTick) {
+                        advance(expired);
+                    }
+                } catch (InterruptedException e) {
+                    break;
+                }
+            }
+            for (Timeout timeout : expired) {
+                run(timeout);
+            }
+            expired.clear();
+        }
+        LOG.info("Timer {} exiting", name);
+    }
+
+    /**
+     * Moves to the next tick, moves down the tasks of the slots which come up with it and
+     * collects the tasks which are due.
+     */
+    private void advance(List<Timeout> expired) {
+        currentTick++;
+        // higher levels first, their tasks may land in the lower slots coming up with this tick
+        for (int level = LEVELS - 1; level > 0; level--) {
+            if ((currentTick & ((1L << (SLOT_BITS * level)) - 1)) == 0) {
+                int slot = (int) (currentTick >>> (SLOT_BITS * level)) & SLOT_MASK;
+                List<Timeout> cascaded = wheel.get(level * SLOTS + slot);
+                if (!cascaded.isEmpty()) {
+                    List<Timeout> moving = new ArrayList<Timeout>(cascaded);
+                    cascaded.clear();
+                    for (Timeout timeout : moving) {
+                        place(timeout, true);
+                    }
+                }
+            }
+        }
+        List<Timeout> due = wheel.get((int) currentTick & SLOT_MASK);
+        for (Timeout timeout : due) {
+            scheduled--;
+            if (!timeout.cancelled) {
+                expired.add(timeout);
+            }
+        }
+        due.clear();
+    }
+
+    private void run(final Timeout timeout) {
+        if (ThreadFactories.isVirtual()) {
+            ThreadFactories.newThread(name + "-task", new Runnable() {
+                @Override
+                public void run() {
+                    runAndReschedule(timeout);
+                }
+            }).start();
+        } else {
+            runAndReschedule(timeout);
+        }
+    }
+
+    private void runAndReschedule(Timeout timeout) {
+        long start = System.nanoTime();
+        try {
+            timeout.task.run();
+        } catch (Throwable t) {
+            LOG.error("Scheduled task of " + name + " failed", t);
+        }
+        if (timeout.periodNanos == 0 || timeout.cancelled) {
+            return;
+        }
+        timeout.deadlineNanos = (timeout.fixedRate ? start : System.nanoTime()) + timeout.periodNanos;
+        synchronized (this) {
+            if (!stopped && !timeout.cancelled) {
+                insert(timeout);
+            }
+        }
+    }
+
+    /**
+     * Handle of a scheduled task.
+     */
+    public static final class Timeout {
+        private final Runnable task;
+        private final long periodNanos;
+        private final boolean fixedRate;
+        private volatile boolean cancelled;
+        // guarded by the wheel
+        private long deadlineNanos;
+
+        private Timeout(Runnable task, long periodNanos, boolean fixedRate) {
+            this.task = Preconditions.checkNotNull(task);
+            this.periodNanos = periodNanos;
+            this.fixedRate = fixedRate;
+        }
+
+        /**
+         * Stops later runs of the task, a run already started finishes.
+         */
+        public void cancel() {
+            cancelled = true;
+        }
+
+        public boolean isCancelled() {
+            return cancelled;
+        }
+    }
+}
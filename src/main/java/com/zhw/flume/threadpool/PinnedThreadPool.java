@@ -0,0 +1,61 @@
+package com.zhw.flume.threadpool;
+
+import com.google.common.base.Preconditions;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Fixed number of single threaded executors. Tasks are routed by a key, all tasks of the same
+ * key run on the same thread one after another in submission order, tasks of different keys
+ * may run in parallel.
+ *
+ * @author zhw
+ */
+public class PinnedThreadPool {
+
+    private static final Logger LOG = LoggerFactory.getLogger(PinnedThreadPool.class);
+
+    private final ExecutorService[] executors;
+
+    public PinnedThreadPool(String name, int threads) {
+        Preconditions.checkArgument(threads > 0, "threads must be positive: " + threads);
+        ThreadFactory threadFactory = ThreadFactories.newThreadFactory(name + "-%d");
+        executors = new ExecutorService[threads];
+        for (int i = 0; i < threads; i++) {
+            executors[i] = Executors.newSingleThreadExecutor(threadFactory);
+        }
+    }
+
+    public void execute(long key, Runnable task) {
+        executors[(int) Math.floorMod(key, (long) executors.length)].execute(task);
+    }
+
+    /**
+     * Lets running tasks finish within the timeout, interrupts them afterwards.
+     */
+    public synchronized void stop(long timeout, TimeUnit unit) {
+        for (ExecutorService executor : executors) {
+            executor.shutdown();
+        }
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        try {
+            for (ExecutorService executor : executors) {
+                long remaining = deadline - System.nanoTime();
+                if (!executor.awaitTermination(Math.max(remaining, 0), TimeUnit.NANOSECONDS)) {
+                    executor.shutdownNow();
+                }
+            }
+        } catch (InterruptedException e) {
+            LOG.error("PinnedThreadPool stop failed, ", e);
+            for (ExecutorService executor : executors) {
+                executor.shutdownNow();
+            }
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -1,54 +1,45 @@
 package com.zhw.flume.threadpool;
 
-import com.google.common.util.concurrent.ThreadFactoryBuilder;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
-
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.ScheduledThreadPoolExecutor;
-import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
 
 /**
  * 单调度线程，用于执行调度的任务
+ * <p></p>
+ * Shared by all sources of the agent for their periodic checks, on a
+ * {@link HierarchicalTimerWheel} with a tick of {@link #TICK_MILLIS} ms. Each source cancels its
+ * own tasks when it stops, the timer keeps running for the other sources.
  *
  * @author zhw
  */
 public class SingleScheduledThreadPool {
 
-    private static final Logger LOG = LoggerFactory.getLogger(SingleScheduledThreadPool.class);
+    private static final long TICK_MILLIS = 100;
 
-    private static ScheduledExecutorService scheduledExecutorService;
+    private final HierarchicalTimerWheel timerWheel;
 
     private SingleScheduledThreadPool() {
-        ThreadFactory threadFactory = new ThreadFactoryBuilder().setNameFormat("singleScheduled").build();
-        scheduledExecutorService = new ScheduledThreadPoolExecutor(1, threadFactory);
+        timerWheel = new HierarchicalTimerWheel("singleScheduled", TICK_MILLIS, TimeUnit.MILLISECONDS);
     }
 
     public static SingleScheduledThreadPool getInstance() {
         return Singleton.INSTANCE.getSingleScheduledThreadPool();
     }
 
-    public void scheduleAtFixedRate(Runnable command, long initialDelay, long period, TimeUnit unit) {
-        scheduledExecutorService.scheduleAtFixedRate(command, initialDelay, period, unit);
+    public HierarchicalTimerWheel.Timeout scheduleAtFixedRate(Runnable command, long initialDelay, long period,
+                                                              TimeUnit unit) {
+        return timerWheel.scheduleAtFixedRate(command, initialDelay, period, unit);
     }
 
-    public void scheduleWithFixedDelay(Runnable command, long initialDelay, long delay, TimeUnit unit){
-        scheduledExecutorService.scheduleWithFixedDelay(command, initialDelay, delay, unit);
+    public HierarchicalTimerWheel.Timeout scheduleWithFixedDelay(Runnable command, long initialDelay, long delay,
+                                                                 TimeUnit unit) {
+        return timerWheel.scheduleWithFixedDelay(command, initialDelay, delay, unit);
     }
 
-    public synchronized void stop() {
-        if (scheduledExecutorService.isShutdown()) {
-            return;
-        }
-        scheduledExecutorService.shutdown();
-        try {
-            if (!scheduledExecutorService.awaitTermination(1, TimeUnit.SECONDS)) {
-                scheduledExecutorService.shutdownNow();
-            }
-        } catch (InterruptedException e) {
-            LOG.error("SingleScheduledThreadPool stop failed, ", e);
-        }
+    /**
+     * Stops the timer of the whole agent, for shutdown only.
+     */
+    public void stop() {
+        timerWheel.stop();
     }
 
     private enum Singleton {
@@ -64,4 +55,4 @@ public class SingleScheduledThreadPool {
             return singleScheduledThreadPool;
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,91 @@
+package com.zhw.flume.threadpool;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Creates the threads of the agent: source pollers, tailing workers, senders and timers. With
+ * the system property <code>flume.threads.virtual=true</code> on a JDK which has virtual
+ * threads (21 or newer) they are virtual threads, so that hundreds of sources do not take
+ * hundreds of OS threads, otherwise they are platform threads as before. Virtual threads are
+ * looked up by reflection, the agent still builds and runs on Java 8.
+ * <p></p>
+ * A virtual thread blocked inside a synchronized block keeps its carrier thread on JDKs before
+ * 24, so the mode pays off most where threads block on I/O, locks of java.util.concurrent or
+ * sleeps.
+ * <p></p>
+ * Virtual threads are always daemon threads. The lifecycle supervisor therefore keeps its
+ * platform thread, which holds the JVM up once the main thread returned.
+ *
+ * @author zhw
+ */
+public final class ThreadFactories {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ThreadFactories.class);
+
+    public static final String CONF_VIRTUAL_THREADS = "flume.threads.virtual";
+
+    // null if virtual threads are not enabled or not supported
+    private static final ThreadFactory VIRTUAL = virtualThreadFactory();
+
+    private ThreadFactories() {
+    }
+
+    /**
+     * @return true if new threads are virtual threads
+     */
+    public static boolean isVirtual() {
+        return VIRTUAL != null;
+    }
+
+    /**
+     * @param nameFormat format of the thread names with the thread number as its argument,
+     *                   such as <code>worker-%d</code>
+     */
+    public static ThreadFactory newThreadFactory(final String nameFormat) {
+        if (VIRTUAL == null) {
+            return new ThreadFactoryBuilder().setNameFormat(nameFormat).build();
+        }
+        final AtomicLong count = new AtomicLong();
+        return new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = VIRTUAL.newThread(runnable);
+                thread.setName(String.format(nameFormat, count.getAndIncrement()));
+                return thread;
+            }
+        };
+    }
+
+    /**
+     * @return a new unstarted thread
+     */
+    public static Thread newThread(String name, Runnable runnable) {
+        if (VIRTUAL == null) {
+            return new Thread(runnable, name);
+        }
+        Thread thread = VIRTUAL.newThread(runnable);
+        thread.setName(name);
+        return thread;
+    }
+
+    private static ThreadFactory virtualThreadFactory() {
+        if (!Boolean.getBoolean(CONF_VIRTUAL_THREADS)) {
+            return null;
+        }
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            ThreadFactory factory = (ThreadFactory) Class.forName("java.lang.Thread$Builder")
+                    .getMethod("factory").invoke(builder);
+            LOG.info("Running on virtual threads");
+            return factory;
+        } catch (Exception e) {
+            LOG.warn("Virtual threads are not supported by this JDK, running on platform threads: " + e);
+            return null;
+        }
+    }
+}
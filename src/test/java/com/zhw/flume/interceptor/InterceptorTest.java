@@ -0,0 +1,142 @@
+package com.zhw.flume.interceptor;
+
+import com.google.common.collect.ImmutableMap;
+import com.zhw.flume.event.EventBatch;
+import org.apache.flume.Event;
+import org.apache.flume.event.EventBuilder;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+/**
+ * @author zhw
+ */
+public class InterceptorTest {
+
+    @Test
+    public void testFilteringInterceptorThroughIterator() {
+        EventBatch batch = batch("keep-1", "drop-2", "drop-3", "keep-4", "drop-5");
+        Event kept = batch.get(3);
+
+        EventBatch result = new DropInterceptor(false).intercept(batch);
+
+        assertSame(batch, result);
+        assertBodies(result, "keep-1", "keep-4");
+        assertEquals("3", result.getHeader(1, "position"));
+        assertEquals("keep-4", new String(kept.getBody(), StandardCharsets.UTF_8));
+        assertEquals("kept", kept.getHeaders().get("state"));
+    }
+
+    @Test
+    public void testFilteringInterceptorByIndex() {
+        EventBatch batch = batch("drop-1", "keep-2", "drop-3", "keep-4");
+
+        EventBatch result = new DropInterceptor(true).intercept(batch);
+
+        assertBodies(result, "keep-2", "keep-4");
+        assertEquals("1", result.getHeader(0, "position"));
+        assertEquals("a", result.getHeader(1, "host"));
+    }
+
+    @Test
+    public void testChainRunsFilteringInterceptors() {
+        InterceptorChain chain = new InterceptorChain();
+        chain.setInterceptors(Arrays.<Interceptor>asList(new DropInterceptor(false), new DropInterceptor(true)));
+
+        EventBatch result = chain.intercept(batch("keep-1", "drop-2", "keep-3"));
+
+        assertBodies(result, "keep-1", "keep-3");
+    }
+
+    @Test
+    public void testInsertShiftsEvents() {
+        EventBatch batch = batch("a", "c");
+
+        batch.add(1, EventBuilder.withBody("b", StandardCharsets.UTF_8));
+        batch.add(0, EventBuilder.withBody("0", StandardCharsets.UTF_8));
+
+        assertBodies(batch, "0", "a", "b", "c");
+        assertEquals("0", batch.getHeader(1, "position"));
+        assertEquals("1", batch.getHeader(3, "position"));
+    }
+
+    @Test
+    public void testRemoveLastAddedFreesBody() {
+        EventBatch batch = batch("a", "b");
+
+        batch.remove(1);
+        batch.extendLast("x".getBytes(StandardCharsets.UTF_8), 0, 1);
+
+        assertBodies(batch, "ax");
+    }
+
+    private static EventBatch batch(String... bodies) {
+        EventBatch batch = new EventBatch(2, ImmutableMap.of("host", "a"), "position");
+        for (int i = 0; i < bodies.length; i++) {
+            byte[] body = bodies[i].getBytes(StandardCharsets.UTF_8);
+            batch.setPosition(batch.add(body, 0, body.length), i);
+        }
+        return batch;
+    }
+
+    private static void assertBodies(List<Event> events, String... expected) {
+        assertEquals(expected.length, events.size());
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals(expected[i], new String(events.get(i).getBody(), StandardCharsets.UTF_8));
+        }
+    }
+
+    /**
+     * Drops events whose body starts with "drop", marks the others.
+     */
+    private static class DropInterceptor implements Interceptor {
+
+        private final boolean byIndex;
+
+        DropInterceptor(boolean byIndex) {
+            this.byIndex = byIndex;
+        }
+
+        @Override
+        public void initialize() {
+        }
+
+        @Override
+        public Event intercept(Event event) {
+            if (new String(event.getBody(), StandardCharsets.UTF_8).startsWith("drop")) {
+                return null;
+            }
+            event.getHeaders().put("state", "kept");
+            return event;
+        }
+
+        @Override
+        public List<Event> intercept(List<Event> events) {
+            if (byIndex) {
+                for (int i = events.size() - 1; i >= 0; i--) {
+                    if (intercept(events.get(i)) == null) {
+                        events.remove(i);
+                    }
+                }
+            } else {
+                Iterator<Event> iterator = events.iterator();
+                while (iterator.hasNext()) {
+                    if (intercept(iterator.next()) == null) {
+                        iterator.remove();
+                    }
+                }
+            }
+            return events;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
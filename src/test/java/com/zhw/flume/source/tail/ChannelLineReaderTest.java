@@ -0,0 +1,68 @@
+package com.zhw.flume.source.tail;
+
+import com.zhw.flume.event.EventBatch;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author zhw
+ */
+public class ChannelLineReaderTest {
+
+    private static final int BUFFER_SIZE = 4 * 1024 * 1024;
+
+    private Path file;
+    private FileChannel channel;
+
+    @Before
+    public void setUp() throws IOException {
+        file = Files.createTempFile("channelreader", ".log");
+        Files.write(file, "first\nsecond\n".getBytes(StandardCharsets.UTF_8));
+        channel = FileChannel.open(file, StandardOpenOption.READ);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        channel.close();
+        Files.delete(file);
+    }
+
+    @Test
+    public void testCloseFreesDirectBuffer() throws IOException {
+        BufferPoolMXBean direct = directPool();
+        long before = direct.getMemoryUsed();
+        ChannelLineReader reader = new ChannelLineReader(channel, BUFFER_SIZE, true, 1024, false);
+        EventBatch batch = new EventBatch(2, null);
+        assertTrue(reader.readLine(batch, true));
+        assertTrue(reader.readLine(batch, true));
+        assertEquals("second", new String(batch.getBody(1), StandardCharsets.UTF_8));
+        assertTrue(direct.getMemoryUsed() >= before + BUFFER_SIZE);
+
+        reader.close();
+        assertTrue("direct buffer is freed without a collection", direct.getMemoryUsed() < before + BUFFER_SIZE);
+        // closing again is harmless
+        reader.close();
+    }
+
+    private static BufferPoolMXBean directPool() {
+        for (BufferPoolMXBean pool : ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class)) {
+            if ("direct".equals(pool.getName())) {
+                return pool;
+            }
+        }
+        throw new IllegalStateException("No direct buffer pool");
+    }
+}
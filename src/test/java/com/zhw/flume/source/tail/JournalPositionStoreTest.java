@@ -0,0 +1,169 @@
+package com.zhw.flume.source.tail;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author zhw
+ */
+public class JournalPositionStoreTest {
+
+    private Path dir;
+    private Path path;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("journal");
+        path = dir.resolve("taildir_position");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        for (Path file : Files.newDirectoryStream(dir)) {
+            Files.delete(file);
+        }
+        Files.delete(dir);
+    }
+
+    @Test
+    public void testReloadsSavedPositions() throws IOException {
+        FileFingerprint fingerprint = new FileFingerprint(1024, 0x1234L);
+        save(new FilePosition(1, 100, "/var/log/a.log"), new FilePosition(2, 200, "/var/log/b.log", fingerprint));
+        save(new FilePosition(1, 150, "/var/log/a.log"), new FilePosition(3, 0, "/var/log/c.log"));
+
+        Map<Long, FilePosition> loaded = load();
+        assertEquals(2, loaded.size());
+        assertEquals(150, loaded.get(1L).getPos());
+        assertNull("removed file", loaded.get(2L));
+        assertEquals("/var/log/c.log", loaded.get(3L).getPath());
+    }
+
+    @Test
+    public void testKeepsFingerprintAcrossPositionRecords() throws IOException {
+        FileFingerprint fingerprint = new FileFingerprint(1024, 0x1234L);
+        save(new FilePosition(1, 100, "/var/log/a.log", fingerprint));
+        save(new FilePosition(1, 300, "/var/log/a.log", fingerprint));
+
+        FilePosition loaded = load().get(1L);
+        assertEquals(300, loaded.getPos());
+        assertEquals(fingerprint, loaded.getFingerprint());
+    }
+
+    @Test
+    public void testDropsTornTail() throws IOException {
+        save(new FilePosition(1, 100, "/var/log/a.log"));
+        long intact = Files.size(path);
+        save(new FilePosition(1, 200, "/var/log/a.log"));
+        truncate(Files.size(path) - 3);
+
+        assertEquals(100, load().get(1L).getPos());
+        assertEquals("the torn record is cut off", intact, Files.size(path));
+        // appending behind the cut keeps working
+        save(new FilePosition(1, 300, "/var/log/a.log"));
+        assertEquals(300, load().get(1L).getPos());
+    }
+
+    @Test
+    public void testStopsAtCorruptRecord() throws IOException {
+        save(new FilePosition(1, 100, "/var/log/a.log"));
+        long intact = Files.size(path);
+        save(new FilePosition(1, 200, "/var/log/a.log"));
+        save(new FilePosition(1, 300, "/var/log/a.log"));
+        // flip a bit in the position of the first appended record
+        byte[] content = Files.readAllBytes(path);
+        content[(int) intact + 10] ^= 0x01;
+        Files.write(path, content);
+
+        assertEquals("records behind a corrupt one are not trusted", 100, load().get(1L).getPos());
+        assertEquals(intact, Files.size(path));
+    }
+
+    @Test
+    public void testMigratesJsonPositionFile() throws IOException {
+        FileFingerprint fingerprint = new FileFingerprint(512, 42L);
+        JsonPositionStore json = new JsonPositionStore(path);
+        json.save(Arrays.asList(new FilePosition(7, 70, "/var/log/x.log"),
+                new FilePosition(8, 80, "/var/log/y.log", fingerprint)));
+        json.close();
+
+        Map<Long, FilePosition> migrated = load();
+        assertEquals(2, migrated.size());
+        assertEquals(70, migrated.get(7L).getPos());
+        assertEquals(fingerprint, migrated.get(8L).getFingerprint());
+
+        JournalPositionStore store = new JournalPositionStore(path);
+        store.load();
+        store.save(migrated.values());
+        store.close();
+        assertEquals("converted by the first save", 0x544A5031, ByteBuffer.wrap(Files.readAllBytes(path)).getInt());
+        assertEquals(migrated, load());
+    }
+
+    @Test
+    public void testCompactsLongJournal() throws IOException {
+        JournalPositionStore store = new JournalPositionStore(path);
+        store.load();
+        List<FilePosition> positions = new ArrayList<FilePosition>();
+        long snapshotSize = 0;
+        for (int round = 0; round < 7; round++) {
+            positions.clear();
+            for (int i = 0; i < 2600; i++) {
+                positions.add(new FilePosition(i, round, "/var/log/" + i + ".log"));
+            }
+            store.save(positions);
+            if (round == 0) {
+                snapshotSize = Files.size(path);
+            }
+        }
+        store.close();
+        assertTrue("compacted back to a snapshot: " + Files.size(path), Files.size(path) <= snapshotSize + 2600 * 21);
+        Map<Long, FilePosition> loaded = load();
+        assertEquals(2600, loaded.size());
+        assertEquals(6, loaded.get(2599L).getPos());
+    }
+
+    @Test
+    public void testMissingFileLoadsEmpty() throws IOException {
+        assertTrue(load().isEmpty());
+        assertFalse(Files.exists(path));
+    }
+
+    private void save(FilePosition... positions) throws IOException {
+        JournalPositionStore store = new JournalPositionStore(path);
+        store.load();
+        store.save(Arrays.asList(positions));
+        store.close();
+    }
+
+    private Map<Long, FilePosition> load() throws IOException {
+        JournalPositionStore store = new JournalPositionStore(path);
+        try {
+            return store.load();
+        } finally {
+            store.close();
+        }
+    }
+
+    private void truncate(long size) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+            channel.truncate(size);
+        }
+    }
+}
@@ -0,0 +1,210 @@
+package com.zhw.flume.source.tail;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * Frames are built by hand, so that every feature of the format is covered without a compressor.
+ *
+ * @author zhw
+ */
+public class Lz4FrameInputStreamTest {
+
+    private static final int VERSION = 0x40;
+    private static final int BLOCK_CHECKSUM = 0x10;
+    private static final int CONTENT_SIZE = 0x08;
+    private static final int CONTENT_CHECKSUM = 0x04;
+    private static final int DICTIONARY = 0x01;
+    // 64KB blocks
+    private static final int BLOCK_SIZE_ID = 4;
+
+    @Test
+    public void testDecodesLiteralsAndOverlappingMatch() throws IOException {
+        // "abcd", then 8 bytes from 4 back, then the last literals "xyz"
+        byte[] block = bytes(0x44, 'a', 'b', 'c', 'd', 4, 0, 0x30, 'x', 'y', 'z');
+        assertEquals("abcdabcdabcdxyz", decode(frame(0, compressed(block))));
+    }
+
+    @Test
+    public void testDecodesExtendedLengths() throws IOException {
+        byte[] literals = random(300, 1);
+        ByteArrayOutputStream block = new ByteArrayOutputStream();
+        // 300 literals are 15 + 255 + 30, a match of 300 is 4 + 15 + 255 + 26
+        block.write(0xff);
+        block.write(255);
+        block.write(30);
+        block.write(literals, 0, literals.length);
+        block.write(100);
+        block.write(0);
+        block.write(255);
+        block.write(26);
+        block.write(0);
+
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        expected.write(literals, 0, literals.length);
+        for (int i = 0; i < 300; i++) {
+            expected.write(literals[200 + i % 100]);
+        }
+        assertArrayEquals(expected.toByteArray(), decodeBytes(frame(0, compressed(block.toByteArray()))));
+    }
+
+    @Test
+    public void testMatchesReachIntoEarlierBlocks() throws IOException {
+        byte[] first = random(40000, 2);
+        byte[] second = random(40000, 3);
+        // the window moves the last 64KB to its front before the third block, which copies 100
+        // bytes from 65535 back, a match of 4 + 15 + 81
+        byte[] third = bytes(0x0f, 0xff, 0xff, 81, 0);
+        byte[] decoded = decodeBytes(frame(0, uncompressed(first), uncompressed(second), compressed(third)));
+
+        byte[] both = concat(first, second);
+        byte[] expected = concat(both, Arrays.copyOfRange(both, both.length - 65535, both.length - 65535 + 100));
+        assertArrayEquals(expected, decoded);
+    }
+
+    @Test
+    public void testSkipsChecksumsAndContentSize() throws IOException {
+        byte[] text = "checksums are skipped".getBytes(StandardCharsets.UTF_8);
+        byte[] block = concat(uncompressed(text), bytes(1, 2, 3, 4));
+        byte[] frame = frame(BLOCK_CHECKSUM | CONTENT_SIZE | CONTENT_CHECKSUM, block);
+        assertEquals("checksums are skipped", decode(frame));
+    }
+
+    @Test
+    public void testReadsConcatenatedAndSkippableFrames() throws IOException {
+        byte[] skippable = concat(bytes(0x52, 0x2a, 0x4d, 0x18, 3, 0, 0, 0), bytes(9, 9, 9));
+        byte[] frames = concat(frame(0, uncompressed(ascii("first "))), skippable,
+                frame(0, compressed(bytes(0x60, 's', 'e', 'c', 'o', 'n', 'd'))));
+        assertEquals("first second", decode(frames));
+    }
+
+    @Test
+    public void testReadsSingleBytesAndSkips() throws IOException {
+        InputStream in = new Lz4FrameInputStream(new ByteArrayInputStream(
+                frame(0, uncompressed(ascii("0123")), uncompressed(ascii("456789")))));
+        assertEquals('0', in.read());
+        assertEquals(5, in.skip(5));
+        assertEquals('6', in.read());
+        assertEquals(3, in.skip(10));
+        assertEquals(-1, in.read());
+        in.close();
+    }
+
+    @Test(expected = IOException.class)
+    public void testRejectsOtherMagic() throws IOException {
+        decode(bytes(1, 2, 3, 4, 5, 6, 7, 8));
+    }
+
+    @Test(expected = IOException.class)
+    public void testRejectsDictionary() throws IOException {
+        decode(frame(DICTIONARY, uncompressed(ascii("x"))));
+    }
+
+    @Test(expected = IOException.class)
+    public void testRejectsOffsetBeforeStart() throws IOException {
+        decode(frame(0, compressed(bytes(0x10, 'a', 2, 0, 0))));
+    }
+
+    @Test
+    public void testFailsOnTruncatedFrame() throws IOException {
+        byte[] frame = frame(0, uncompressed(ascii("truncated")));
+        try {
+            decode(Arrays.copyOf(frame, frame.length - 6));
+            fail("truncated frame was read");
+        } catch (EOFException expected) {
+            // expected
+        }
+    }
+
+    private static String decode(byte[] frames) throws IOException {
+        return new String(decodeBytes(frames), StandardCharsets.ISO_8859_1);
+    }
+
+    private static byte[] decodeBytes(byte[] frames) throws IOException {
+        InputStream in = new Lz4FrameInputStream(new ByteArrayInputStream(frames));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1000];
+        int n;
+        while ((n = in.read(buffer, 0, buffer.length)) >= 0) {
+            out.write(buffer, 0, n);
+        }
+        in.close();
+        return out.toByteArray();
+    }
+
+    /**
+     * @param blocks blocks with their size prefix, the end mark is added
+     */
+    private static byte[] frame(int flags, byte[]... blocks) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(0x04);
+        out.write(0x22);
+        out.write(0x4d);
+        out.write(0x18);
+        out.write(VERSION | flags);
+        out.write(BLOCK_SIZE_ID << 4);
+        if ((flags & CONTENT_SIZE) != 0) {
+            out.write(new byte[8], 0, 8);
+        }
+        // header checksum
+        out.write(0);
+        for (byte[] block : blocks) {
+            out.write(block, 0, block.length);
+        }
+        out.write(new byte[4], 0, 4);
+        if ((flags & CONTENT_CHECKSUM) != 0) {
+            out.write(bytes(0xca, 0xfe, 0xba, 0xbe), 0, 4);
+        }
+        return out.toByteArray();
+    }
+
+    private static byte[] compressed(byte[] data) {
+        return concat(intLE(data.length), data);
+    }
+
+    private static byte[] uncompressed(byte[] data) {
+        return concat(intLE(data.length | 0x80000000), data);
+    }
+
+    private static byte[] intLE(int value) {
+        return bytes(value, value >>> 8, value >>> 16, value >>> 24);
+    }
+
+    private static byte[] bytes(int... values) {
+        byte[] bytes = new byte[values.length];
+        for (int i = 0; i < values.length; i++) {
+            bytes[i] = (byte) values[i];
+        }
+        return bytes;
+    }
+
+    private static byte[] ascii(String text) {
+        return text.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private static byte[] random(int length, long seed) {
+        byte[] bytes = new byte[length];
+        new Random(seed).nextBytes(bytes);
+        return bytes;
+    }
+
+    private static byte[] concat(byte[]... parts) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (byte[] part : parts) {
+            out.write(part, 0, part.length);
+        }
+        return out.toByteArray();
+    }
+}
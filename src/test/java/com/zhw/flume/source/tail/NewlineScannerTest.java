@@ -0,0 +1,94 @@
+package com.zhw.flume.source.tail;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks the SWAR scan against a byte by byte search for every start alignment, tail length
+ * and line feed position, in both byte orders and on heap and direct buffers.
+ *
+ * @author zhw
+ */
+public class NewlineScannerTest {
+
+    private static final byte BYTE_NL = (byte) 10;
+    // long enough for two full words behind any start offset plus a tail of up to 7 bytes
+    private static final int LENGTH = 40;
+
+    @Test
+    public void testMatchesByteWiseScan() {
+        for (ByteOrder order : new ByteOrder[]{ByteOrder.LITTLE_ENDIAN, ByteOrder.BIG_ENDIAN}) {
+            for (boolean direct : new boolean[]{false, true}) {
+                ByteBuffer buf = direct ? ByteBuffer.allocateDirect(LENGTH) : ByteBuffer.allocate(LENGTH);
+                buf.order(order);
+                checkAllRanges(buf, -1);
+                for (int nl = 0; nl < LENGTH; nl++) {
+                    checkAllRanges(buf, nl);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testFindsFirstOfAdjacentLineFeeds() {
+        ByteBuffer buf = ByteBuffer.allocate(LENGTH).order(ByteOrder.LITTLE_ENDIAN);
+        for (int first = 0; first < LENGTH - 1; first++) {
+            fill(buf, first);
+            buf.put(first + 1, BYTE_NL);
+            for (int from = 0; from <= first; from++) {
+                assertEquals(first, NewlineScanner.indexOf(buf, from, LENGTH));
+            }
+        }
+    }
+
+    @Test
+    public void testIgnoresBytesNextToLineFeedPattern() {
+        // bytes which differ from a line feed in one bit only, and the ones the borrow of the
+        // zero byte check may run through
+        byte[] nearMisses = {0x0B, 0x08, 0x0E, 0x02, 0x1A, 0x4A, (byte) 0x8A, 0x00, (byte) 0xFF, 0x09, 0x01};
+        ByteBuffer buf = ByteBuffer.allocate(LENGTH).order(ByteOrder.LITTLE_ENDIAN);
+        Random random = new Random(7);
+        for (int round = 0; round < 10000; round++) {
+            int nl = random.nextInt(LENGTH + 1) - 1;
+            for (int i = 0; i < LENGTH; i++) {
+                buf.put(i, i == nl ? BYTE_NL : nearMisses[random.nextInt(nearMisses.length)]);
+            }
+            int from = random.nextInt(LENGTH);
+            int to = from + random.nextInt(LENGTH - from + 1);
+            assertEquals(reference(buf, from, to), NewlineScanner.indexOf(buf, from, to));
+        }
+    }
+
+    private static void checkAllRanges(ByteBuffer buf, int nl) {
+        fill(buf, nl);
+        for (int from = 0; from < LENGTH; from++) {
+            for (int to = from; to <= LENGTH; to++) {
+                assertEquals("line feed at " + nl + " in [" + from + ", " + to + ") of " + buf,
+                        reference(buf, from, to), NewlineScanner.indexOf(buf, from, to));
+            }
+        }
+    }
+
+    /**
+     * Fills the buffer with bytes other than a line feed, except at the given index.
+     */
+    private static void fill(ByteBuffer buf, int nl) {
+        for (int i = 0; i < buf.capacity(); i++) {
+            buf.put(i, i == nl ? BYTE_NL : (byte) ('a' + i % 26));
+        }
+    }
+
+    private static int reference(ByteBuffer buf, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (buf.get(i) == BYTE_NL) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
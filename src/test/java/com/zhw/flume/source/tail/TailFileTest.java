@@ -0,0 +1,108 @@
+package com.zhw.flume.source.tail;
+
+import com.google.common.base.Strings;
+import com.zhw.flume.event.EventBatch;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Reads lines across refills of the read buffer, whose bytes behind the last read are left over
+ * from earlier reads.
+ *
+ * @author zhw
+ */
+public class TailFileTest {
+
+    private File dir;
+    private File file;
+    private TailFile tailFile;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("tailfile").toFile();
+        file = new File(dir, "app.log");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        if (tailFile != null) {
+            tailFile.close();
+        }
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File each : files) {
+                Files.delete(each.toPath());
+            }
+        }
+        Files.delete(dir.toPath());
+    }
+
+    @Test
+    public void testReadsLinesAcrossPartialRefills() throws IOException {
+        String longLine = Strings.repeat("a", 9000);
+        append("short\n" + longLine + "\r\nhead-");
+        tailFile = open();
+
+        EventBatch batch = newBatch();
+        assertEquals(2, tailFile.readEvents(batch, 100, Long.MAX_VALUE, true));
+        assertLines(batch, "short", longLine);
+
+        // the refill is shorter than what the buffer held before
+        append("tail\nnext\n");
+        batch = newBatch();
+        assertEquals(2, tailFile.readEvents(batch, 100, Long.MAX_VALUE, true));
+        assertLines(batch, "head-tail", "next");
+    }
+
+    @Test
+    public void testReadsManyRefills() throws IOException {
+        StringBuilder content = new StringBuilder();
+        for (int i = 0; i < 5000; i++) {
+            content.append(Strings.repeat("x", i % 37)).append(i).append('\n');
+        }
+        append(content.toString());
+        tailFile = open();
+
+        EventBatch batch = newBatch();
+        assertEquals(5000, tailFile.readEvents(batch, 10000, Long.MAX_VALUE, true));
+        for (int i = 0; i < 5000; i++) {
+            assertEquals(Strings.repeat("x", i % 37) + i, body(batch, i));
+        }
+    }
+
+    private TailFile open() throws IOException {
+        TailFileOptions options = new TailFileOptions.Builder().channelReader(false).mmapCatchUp(false)
+                .fingerprintBytes(0).build();
+        return new TailFile(file, Collections.<String, String>emptyMap(), 1L, 0L, options);
+    }
+
+    private void append(String text) throws IOException {
+        Files.write(file.toPath(), text.getBytes(StandardCharsets.UTF_8), StandardOpenOption.CREATE,
+                StandardOpenOption.APPEND);
+    }
+
+    private static EventBatch newBatch() {
+        return new EventBatch(16, null);
+    }
+
+    private static void assertLines(EventBatch batch, String... lines) {
+        assertEquals(lines.length, batch.size());
+        for (int i = 0; i < lines.length; i++) {
+            assertEquals(lines[i], body(batch, i));
+        }
+    }
+
+    private static String body(EventBatch batch, int index) {
+        return new String(batch.getBody(index), StandardCharsets.UTF_8);
+    }
+}
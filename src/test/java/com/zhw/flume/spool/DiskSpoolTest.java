@@ -0,0 +1,208 @@
+package com.zhw.flume.spool;
+
+import org.apache.flume.Event;
+import org.apache.flume.event.EventBuilder;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author zhw
+ */
+public class DiskSpoolTest {
+
+    private Path dir;
+    private DiskSpool spool;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("spool");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        if (spool != null) {
+            spool.close();
+        }
+        for (Path file : Files.newDirectoryStream(dir)) {
+            Files.delete(file);
+        }
+        Files.delete(dir);
+    }
+
+    @Test
+    public void testDrainsInOrderAcrossSegments() throws Exception {
+        spool = open(1024 * 1024, 500);
+        for (int i = 0; i < 20; i++) {
+            spool.append(events(i * 10, 10));
+        }
+        assertTrue("segments rolled: " + segmentCount(), segmentCount() > 5);
+
+        assertEquals(200, drain(spool, 7, 0));
+        assertFalse(spool.hasBacklog());
+        assertTrue("drained segments are deleted: " + segmentCount(), segmentCount() <= 1);
+    }
+
+    @Test
+    public void testResumesAtCursorAfterRestart() throws Exception {
+        spool = open(1024 * 1024, 500);
+        for (int i = 0; i < 10; i++) {
+            spool.append(events(i * 10, 10));
+        }
+        int next = 0;
+        for (int i = 0; i < 6; i++) {
+            next = commit(spool, 9, next);
+        }
+        // read but not committed, so read again after the restart
+        assertEquals(next, index(spool.poll(5, 10, TimeUnit.MILLISECONDS).getEvents().get(0)));
+        spool.close();
+
+        spool = open(1024 * 1024, 500);
+        assertTrue(spool.hasBacklog());
+        spool.append(events(100, 10));
+        assertEquals(110, drain(spool, 13, next));
+    }
+
+    @Test
+    public void testRereadsUncommittedBatch() throws Exception {
+        spool = open(1024 * 1024, 1024 * 1024);
+        spool.append(events(0, 5));
+        SpoolBatch first = spool.poll(3, 10, TimeUnit.MILLISECONDS);
+        SpoolBatch again = spool.poll(3, 10, TimeUnit.MILLISECONDS);
+        assertEquals(index(first.getEvents().get(0)), index(again.getEvents().get(0)));
+        assertEquals(first.getBytes(), again.getBytes());
+    }
+
+    @Test
+    public void testSkipsTornTailOfSegment() throws Exception {
+        spool = open(1024 * 1024, 1024 * 1024);
+        spool.append(events(0, 5));
+        spool.close();
+        Path segment = Files.newDirectoryStream(dir, "spool-*").iterator().next();
+        byte[] content = Files.readAllBytes(segment);
+        Files.write(segment, Arrays.copyOf(content, content.length - 3));
+
+        spool = open(1024 * 1024, 1024 * 1024);
+        spool.append(events(5, 2));
+        List<Integer> read = new ArrayList<Integer>();
+        SpoolBatch batch;
+        while ((batch = spool.poll(100, 10, TimeUnit.MILLISECONDS)) != null) {
+            for (Event event : batch.getEvents()) {
+                read.add(index(event));
+            }
+            spool.commit(batch);
+        }
+        assertEquals(Arrays.asList(0, 1, 2, 3, 5, 6), read);
+        assertFalse(spool.hasBacklog());
+    }
+
+    @Test
+    public void testAppendWaitsForRoom() throws Exception {
+        spool = open(300, 1024 * 1024);
+        spool.append(events(0, 5));
+        final long full = spool.getBacklogBytes();
+        final AtomicReference<Exception> failure = new AtomicReference<Exception>();
+        Thread appender = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    spool.append(events(5, 5));
+                } catch (Exception e) {
+                    failure.set(e);
+                }
+            }
+        });
+        appender.start();
+        appender.join(200);
+        assertTrue("append waits while the spool is full", appender.isAlive());
+        assertEquals(full, spool.getBacklogBytes());
+
+        assertEquals(5, commit(spool, 5, 0));
+        appender.join(5000);
+        assertFalse(appender.isAlive());
+        assertNull(failure.get());
+        assertEquals(10, drain(spool, 5, 5));
+    }
+
+    @Test
+    public void testLetsOversizedBatchIntoEmptySpool() throws Exception {
+        spool = open(100, 1024 * 1024);
+        spool.append(events(0, 20));
+        assertTrue(spool.getBacklogBytes() > 100);
+        assertEquals(20, drain(spool, 100, 0));
+    }
+
+    @Test
+    public void testPollTimesOutWhenEmpty() throws Exception {
+        spool = open(1024, 1024);
+        assertNull(spool.poll(10, 20, TimeUnit.MILLISECONDS));
+    }
+
+    private DiskSpool open(long maxBytes, long segmentBytes) throws IOException {
+        DiskSpool opened = new DiskSpool(dir, maxBytes, segmentBytes, new SpoolCounter("test"));
+        opened.open();
+        return opened;
+    }
+
+    /**
+     * Drains the spool and checks that the events come in order.
+     *
+     * @return index behind the last event read
+     */
+    private static int drain(DiskSpool spool, int maxEvents, int next) throws Exception {
+        while (spool.hasBacklog()) {
+            next = commit(spool, maxEvents, next);
+        }
+        return next;
+    }
+
+    private static int commit(DiskSpool spool, int maxEvents, int next) throws Exception {
+        SpoolBatch batch = spool.poll(maxEvents, 1, TimeUnit.SECONDS);
+        for (Event event : batch.getEvents()) {
+            assertEquals(next++, index(event));
+            assertEquals(Integer.toString(next - 1), event.getHeaders().get("index"));
+        }
+        spool.commit(batch);
+        return next;
+    }
+
+    private int segmentCount() throws IOException {
+        int count = 0;
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, "spool-*")) {
+            for (Path ignored : stream) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static List<Event> events(int from, int count) {
+        List<Event> events = new ArrayList<Event>(count);
+        for (int i = from; i < from + count; i++) {
+            events.add(EventBuilder.withBody(("line " + i).getBytes(StandardCharsets.UTF_8),
+                    Collections.singletonMap("index", Integer.toString(i))));
+        }
+        return events;
+    }
+
+    private static int index(Event event) {
+        return Integer.parseInt(new String(event.getBody(), StandardCharsets.UTF_8).substring(5));
+    }
+}
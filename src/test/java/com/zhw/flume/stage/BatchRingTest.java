@@ -0,0 +1,174 @@
+package com.zhw.flume.stage;
+
+import com.zhw.flume.event.EventBatch;
+import com.zhw.flume.sink.DeliveryCallback;
+import org.apache.flume.Event;
+import org.apache.flume.EventDeliveryException;
+import org.apache.flume.event.EventBuilder;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author zhw
+ */
+public class BatchRingTest {
+
+    private static final DeliveryCallback CALLBACK = new DeliveryCallback() {
+        @Override
+        public void onSuccess() {
+        }
+
+        @Override
+        public void onFailure(EventDeliveryException cause) {
+        }
+    };
+
+    @Test
+    public void testRoundsCapacityUpToPowerOfTwo() {
+        assertEquals(1, new BatchRing(0).capacity());
+        assertEquals(1, new BatchRing(1).capacity());
+        assertEquals(8, new BatchRing(5).capacity());
+        assertEquals(8, new BatchRing(8).capacity());
+    }
+
+    @Test
+    public void testWrapsAroundManyTimes() throws InterruptedException {
+        BatchRing ring = new BatchRing(4);
+        for (int i = 0; i < 100; i++) {
+            long sequence = ring.claim(1);
+            assertEquals(i, sequence);
+            ring.get(sequence).set(batch(i), CALLBACK);
+            ring.publish(sequence);
+            if (i % 3 == 2) {
+                drainAndCheck(ring, i - 2, i + 1);
+            }
+        }
+        drainAndCheck(ring, 99, 100);
+        assertTrue(ring.isEmpty());
+    }
+
+    @Test
+    public void testClaimsRunAcrossTheEnd() throws InterruptedException {
+        BatchRing ring = new BatchRing(4);
+        long first = ring.claim(3);
+        for (long sequence = first; sequence < first + 3; sequence++) {
+            ring.get(sequence).set(batch((int) sequence), CALLBACK);
+        }
+        ring.publish(first + 2);
+        drainAndCheck(ring, 0, 3);
+
+        // slots 3, 0, 1 and 2 of the ring
+        long next = ring.claim(4);
+        assertEquals(3, next);
+        for (long sequence = next; sequence < next + 4; sequence++) {
+            ring.get(sequence).set(batch((int) sequence), CALLBACK);
+        }
+        ring.publish(next + 3);
+        drainAndCheck(ring, 3, 7);
+    }
+
+    @Test
+    public void testReleaseClearsSlots() throws InterruptedException {
+        BatchRing ring = new BatchRing(2);
+        long sequence = ring.claim(1);
+        EventBatch batch = EventBatch.copyOf(Collections.singletonList(event(1)));
+        ring.get(sequence).set(batch, CALLBACK);
+        ring.publish(sequence);
+        assertSame(batch, ring.get(sequence).getBatch());
+        assertNull(ring.get(sequence).getEvents());
+
+        ring.release(sequence + 1);
+        assertNull(ring.get(sequence).getBatch());
+        assertNull(ring.get(sequence).getCallback());
+    }
+
+    @Test
+    public void testProducerWaitsWhileFull() throws InterruptedException {
+        final BatchRing ring = new BatchRing(2);
+        for (int i = 0; i < 2; i++) {
+            ring.get(ring.claim(1)).set(batch(i), CALLBACK);
+            ring.publish(i);
+        }
+        final AtomicReference<Long> claimed = new AtomicReference<Long>();
+        Thread producer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    claimed.set(ring.claim(1));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        producer.start();
+        producer.join(100);
+        assertTrue("claim waits for the consumer", producer.isAlive());
+
+        ring.release(1);
+        producer.join(5000);
+        assertFalse(producer.isAlive());
+        assertEquals(Long.valueOf(2), claimed.get());
+    }
+
+    @Test
+    public void testHandsOverInOrderBetweenThreads() throws InterruptedException {
+        final BatchRing ring = new BatchRing(8);
+        final int batches = 100000;
+        Thread producer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    for (int i = 0; i < batches; i++) {
+                        long sequence = ring.claim(1);
+                        ring.get(sequence).set(batch(i), CALLBACK);
+                        ring.publish(sequence);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        producer.start();
+        int expected = 0;
+        long deadline = System.currentTimeMillis() + 30000;
+        while (expected < batches && System.currentTimeMillis() < deadline) {
+            long published = ring.published();
+            for (long sequence = ring.next(); sequence < published; sequence++) {
+                assertEquals(expected++, index(ring.get(sequence).getEvents()));
+            }
+            ring.release(published);
+        }
+        producer.join();
+        assertEquals(batches, expected);
+    }
+
+    private static void drainAndCheck(BatchRing ring, int from, int to) {
+        assertEquals(from, ring.next());
+        assertEquals(to, ring.published());
+        for (long sequence = from; sequence < to; sequence++) {
+            assertEquals(sequence, index(ring.get(sequence).getEvents()));
+        }
+        ring.release(to);
+    }
+
+    private static List<Event> batch(int index) {
+        return Collections.singletonList(event(index));
+    }
+
+    private static Event event(int index) {
+        return EventBuilder.withBody(Integer.toString(index).getBytes());
+    }
+
+    private static int index(List<Event> events) {
+        return Integer.parseInt(new String(events.get(0).getBody()));
+    }
+}
@@ -0,0 +1,190 @@
+package com.zhw.flume.stage;
+
+import com.zhw.flume.event.EventBatch;
+import com.zhw.flume.lifecycle.LifecycleState;
+import com.zhw.flume.sink.DeliveryCallback;
+import com.zhw.flume.sink.Sink;
+import com.zhw.flume.sink.SinkProcessor;
+import com.zhw.flume.sink.SinkRunner;
+import org.apache.flume.Context;
+import org.apache.flume.Event;
+import org.apache.flume.EventDeliveryException;
+import org.apache.flume.event.EventBuilder;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author zhw
+ */
+public class RingStageTest {
+
+    private RingStage stage;
+
+    @After
+    public void tearDown() {
+        if (stage != null) {
+            stage.stop(1, TimeUnit.SECONDS);
+        }
+    }
+
+    @Test
+    public void testSendsRunsLongerThanTheRingInOrder() throws InterruptedException {
+        RecordingProcessor processor = new RecordingProcessor(null);
+        stage = new RingStage("test", new SinkRunner(processor), 4);
+        stage.start();
+        List<EventBatch> batches = new ArrayList<EventBatch>();
+        List<CountingCallback> callbacks = new ArrayList<CountingCallback>();
+        CountingCallback counter = new CountingCallback();
+        for (int i = 0; i < 10; i++) {
+            batches.add(batch(i));
+            callbacks.add(counter);
+        }
+
+        stage.sendAll(batches, callbacks);
+        stage.stop(5, TimeUnit.SECONDS);
+
+        assertEquals(10, counter.succeeded.get());
+        assertEquals(0, counter.failed.get());
+        for (int i = 0; i < 10; i++) {
+            assertEquals(i, index(processor.received.get(i)));
+        }
+    }
+
+    @Test
+    public void testStopReportsBatchesLeftInTheRing() throws InterruptedException {
+        CountDownLatch blocked = new CountDownLatch(1);
+        stage = new RingStage("test", new SinkRunner(new RecordingProcessor(blocked)), 8);
+        stage.start();
+        CountingCallback counter = new CountingCallback();
+        for (int i = 0; i < 3; i++) {
+            stage.sendAll(Collections.singletonList(batch(i)), Collections.singletonList(counter));
+        }
+        assertTrue(blocked.await(5, TimeUnit.SECONDS));
+
+        stage.stop(100, TimeUnit.MILLISECONDS);
+
+        assertEquals(0, counter.succeeded.get());
+        assertEquals(3, counter.failed.get());
+    }
+
+    @Test(expected = EventDeliveryException.class)
+    public void testSendAfterStopFails() throws EventDeliveryException {
+        stage = new RingStage("test", new SinkRunner(new RecordingProcessor(null)), 2);
+        stage.start();
+        stage.stop(1, TimeUnit.SECONDS);
+
+        stage.send(batch(0), new CountingCallback());
+    }
+
+    @Test
+    public void testDropsRingOfEndedThread() throws InterruptedException {
+        stage = new RingStage("test", new SinkRunner(new RecordingProcessor(null)), 2);
+        stage.start();
+        final CountingCallback counter = new CountingCallback();
+        Thread producer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                stage.sendAll(Collections.singletonList(batch(0)), Collections.singletonList(counter));
+            }
+        });
+        producer.start();
+        producer.join();
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (stage.producerCount() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(0, stage.producerCount());
+        assertEquals(1, counter.succeeded.get());
+    }
+
+    private static EventBatch batch(int index) {
+        return EventBatch.copyOf(Collections.singletonList(
+                EventBuilder.withBody(Integer.toString(index).getBytes())));
+    }
+
+    private static int index(List<Event> events) {
+        return Integer.parseInt(new String(events.get(0).getBody()));
+    }
+
+    private static class CountingCallback implements DeliveryCallback {
+        private final AtomicInteger succeeded = new AtomicInteger();
+        private final AtomicInteger failed = new AtomicInteger();
+
+        @Override
+        public void onSuccess() {
+            succeeded.incrementAndGet();
+        }
+
+        @Override
+        public void onFailure(EventDeliveryException cause) {
+            failed.incrementAndGet();
+        }
+    }
+
+    /**
+     * Records the batches it gets, or blocks on the first one until interrupted if given a latch.
+     */
+    private static class RecordingProcessor implements SinkProcessor {
+        private final List<List<Event>> received = new CopyOnWriteArrayList<List<Event>>();
+        private final CountDownLatch blocked;
+
+        RecordingProcessor(CountDownLatch blocked) {
+            this.blocked = blocked;
+        }
+
+        @Override
+        public boolean process(List<Event> events) throws EventDeliveryException {
+            if (blocked != null) {
+                blocked.countDown();
+                try {
+                    Thread.sleep(Long.MAX_VALUE);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new EventDeliveryException("Interrupted", e);
+                }
+            }
+            received.add(events);
+            return true;
+        }
+
+        @Override
+        public void processAsync(List<Event> events, DeliveryCallback callback) throws EventDeliveryException {
+            if (process(events)) {
+                callback.onSuccess();
+            }
+        }
+
+        @Override
+        public void setSinks(List<Sink> sinks) {
+        }
+
+        @Override
+        public void configure(Context context) {
+        }
+
+        @Override
+        public void start() {
+        }
+
+        @Override
+        public void stop() {
+        }
+
+        @Override
+        public LifecycleState getLifecycleState() {
+            return LifecycleState.START;
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package com.zhw.flume.threadpool;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Runs the wheel on 10 microsecond ticks, so that deadlines on the second and third level of
+ * {@link HierarchicalTimerWheel#SLOTS} slots each come up within seconds.
+ *
+ * @author zhw
+ */
+public class HierarchicalTimerWheelTest {
+
+    private static final long TICK_NANOS = TimeUnit.MICROSECONDS.toNanos(10);
+    // lateness allowed for a loaded test machine
+    private static final long MAX_LATE_NANOS = TimeUnit.MILLISECONDS.toNanos(200);
+
+    private HierarchicalTimerWheel wheel;
+
+    @Before
+    public void setUp() {
+        wheel = new HierarchicalTimerWheel("test-timer", TICK_NANOS, TimeUnit.NANOSECONDS);
+    }
+
+    @After
+    public void tearDown() {
+        wheel.stop();
+    }
+
+    @Test
+    public void testFiresOnTimeAcrossLevelBoundaries() throws InterruptedException {
+        long level1 = HierarchicalTimerWheel.SLOTS;
+        long level2 = level1 * HierarchicalTimerWheel.SLOTS;
+        long level3 = level2 * HierarchicalTimerWheel.SLOTS;
+        long[] ticks = {1, level1 - 1, level1, level1 + 1, 3 * level1 + 7, level2 - 1, level2, level2 + 1,
+                5 * level2 + 3, level3 - 1, level3, level3 + 1};
+        final long[] delays = new long[ticks.length];
+        for (int i = 0; i < ticks.length; i++) {
+            delays[i] = ticks[i] * TICK_NANOS;
+        }
+        final AtomicLongArray fired = new AtomicLongArray(ticks.length);
+        final CountDownLatch done = new CountDownLatch(ticks.length);
+        long start = System.nanoTime();
+        for (int i = 0; i < ticks.length; i++) {
+            final int index = i;
+            wheel.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    fired.set(index, System.nanoTime());
+                    done.countDown();
+                }
+            }, delays[i], TimeUnit.NANOSECONDS);
+        }
+        assertTrue("all timers fired", done.await(30, TimeUnit.SECONDS));
+        for (int i = 0; i < ticks.length; i++) {
+            long elapsed = fired.get(i) - start;
+            assertTrue("timer of " + ticks[i] + " ticks fired early after " + elapsed + "ns", elapsed >= delays[i]);
+            assertTrue("timer of " + ticks[i] + " ticks fired late after " + elapsed + "ns",
+                    elapsed <= delays[i] + MAX_LATE_NANOS);
+        }
+    }
+
+    @Test
+    public void testFiresAfterIdlePeriod() throws InterruptedException {
+        final CountDownLatch first = new CountDownLatch(1);
+        wheel.schedule(countDown(first), 1, TimeUnit.MILLISECONDS);
+        assertTrue(first.await(5, TimeUnit.SECONDS));
+        // the timer thread sleeps meanwhile, the next deadline counts from now
+        TimeUnit.MILLISECONDS.sleep(100);
+
+        final CountDownLatch second = new CountDownLatch(1);
+        long start = System.nanoTime();
+        wheel.schedule(countDown(second), 50, TimeUnit.MILLISECONDS);
+        assertTrue(second.await(5, TimeUnit.SECONDS));
+        long elapsed = System.nanoTime() - start;
+        assertTrue("fired early after " + elapsed + "ns", elapsed >= TimeUnit.MILLISECONDS.toNanos(50));
+    }
+
+    @Test
+    public void testKeepsRunningPeriodicTaskWhichThrows() throws InterruptedException {
+        final CountDownLatch done = new CountDownLatch(5);
+        wheel.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                done.countDown();
+                throw new IllegalStateException("expected by the test");
+            }
+        }, 1, 1, TimeUnit.MILLISECONDS);
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testCancelStopsLaterRuns() throws InterruptedException {
+        final AtomicInteger runs = new AtomicInteger();
+        final CountDownLatch started = new CountDownLatch(1);
+        HierarchicalTimerWheel.Timeout timeout = wheel.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                runs.incrementAndGet();
+                started.countDown();
+            }
+        }, 0, 5, TimeUnit.MILLISECONDS);
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        timeout.cancel();
+        assertTrue(timeout.isCancelled());
+        // a run may have been due already
+        TimeUnit.MILLISECONDS.sleep(20);
+        int afterCancel = runs.get();
+        TimeUnit.MILLISECONDS.sleep(50);
+        assertEquals(afterCancel, runs.get());
+    }
+
+    @Test
+    public void testRejectsTasksOnceStopped() {
+        wheel.stop();
+        try {
+            wheel.schedule(countDown(new CountDownLatch(1)), 1, TimeUnit.MILLISECONDS);
+            fail("scheduled on a stopped wheel");
+        } catch (IllegalStateException expected) {
+            // expected
+        }
+    }
+
+    private static Runnable countDown(final CountDownLatch latch) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                latch.countDown();
+            }
+        };
+    }
+}